@@ -0,0 +1,56 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStoreBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The persistence modes of a store benchmarks are parameterized with.
+ */
+public enum Backend {
+    /**
+     * Rewrites the whole backing file on every mutation.
+     */
+    REWRITE,
+
+    /**
+     * Appends mutations to a journal.
+     */
+    JOURNALED,
+
+    /**
+     * Appends mutations to a journal, grouping the ones of concurrent writers.
+     */
+    GROUP_COMMIT,
+
+    /**
+     * Appends mutations to a memory-mapped log.
+     */
+    MAPPED,
+
+    /**
+     * Keeps values off-heap and appends mutations to a journal.
+     */
+    OFF_HEAP;
+
+    private static final int CACHE_SIZE = 10_000;
+    private static final long GROUP_COMMIT_WINDOW_MICROS = 200L;
+    private static final int GROUP_COMMIT_SIZE = 256;
+
+    JSONStoreBuilder<Record> configure(final JSONStoreBuilder<Record> builder) {
+        switch (this) {
+            case REWRITE:
+                return builder;
+            case JOURNALED:
+                return builder.journaled();
+            case GROUP_COMMIT:
+                return builder.journaled().groupCommit(GROUP_COMMIT_WINDOW_MICROS, TimeUnit.MICROSECONDS, GROUP_COMMIT_SIZE);
+            case MAPPED:
+                return builder.mapped(CACHE_SIZE);
+            case OFF_HEAP:
+                return builder.journaled().offHeap(CACHE_SIZE);
+            default:
+                throw new IllegalStateException("Unknown backend " + this + "!");
+        }
+    }
+}
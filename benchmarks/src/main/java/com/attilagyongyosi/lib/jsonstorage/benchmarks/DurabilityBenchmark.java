@@ -0,0 +1,76 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.store.Durability;
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-writer latency of a store per durability level, i.e. what forcing every write costs over leaving writes to the OS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DurabilityBenchmark {
+    private static final int ENTRIES = 10_000;
+    private static final long FLUSH_INTERVAL_MILLIS = 100L;
+
+    @Param({ "JOURNALED", "REWRITE", "MAPPED" })
+    private Backend backend;
+
+    @Param({ "SYNC_EACH_WRITE", "PERIODIC", "OS_BUFFERED" })
+    private Durability.Level durability;
+
+    private Path directory;
+    private JSONStore<Record> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        store = Stores.fill(Stores.builder(directory, backend).durability(durability()).build(Record.class), ENTRIES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.destroy();
+        Stores.deleteDirectory(directory);
+    }
+
+    private Durability durability() {
+        switch (durability) {
+            case SYNC_EACH_WRITE:
+                return Durability.SYNC_EACH_WRITE;
+            case PERIODIC:
+                return Durability.periodic(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            case OS_BUFFERED:
+                return Durability.OS_BUFFERED;
+            default:
+                throw new IllegalStateException("Unknown durability " + durability + "!");
+        }
+    }
+
+    @Benchmark
+    public Record store() throws StorageException {
+        final int id = ThreadLocalRandom.current().nextInt(ENTRIES);
+        return store.store(Stores.key(id), new Record(id));
+    }
+}
@@ -0,0 +1,53 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.values.OffHeapValueMap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the heap footprint of a store's data kept on the heap with that of the same data kept off-heap.
+ *
+ * <p>Heap usage is not something JMH measures, so this is a plain program. Run it on its own JVM, e.g.
+ * {@code java -cp target/benchmarks.jar com.attilagyongyosi.lib.jsonstorage.benchmarks.FootprintBenchmark 1000000}.</p>
+ */
+public final class FootprintBenchmark {
+    private static final int DEFAULT_ENTRIES = 1_000_000;
+    private static final int CACHE_SIZE = 1_000;
+    private static final long MEGABYTE = 1024L * 1024L;
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private FootprintBenchmark() {}
+
+    public static void main(final String[] args) {
+        final int entries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTRIES;
+
+        final long baseline = usedHeap();
+        Map<String, Record> onHeap = fill(new ConcurrentHashMap<>(), entries);
+        final long onHeapBytes = usedHeap() - baseline;
+        System.out.printf("On-heap:  %d entries, %d MiB heap%n", onHeap.size(), onHeapBytes / MEGABYTE);
+        onHeap = null;
+
+        final long offHeapBaseline = usedHeap();
+        final OffHeapValueMap<Record> offHeap = fill(new OffHeapValueMap<>(Record.class, CACHE_SIZE), entries);
+        final long offHeapBytes = usedHeap() - offHeapBaseline;
+        System.out.printf("Off-heap: %d entries, %d MiB heap, %d MiB direct memory%n",
+            offHeap.size(), offHeapBytes / MEGABYTE, offHeap.allocatedBytes() / MEGABYTE);
+    }
+
+    private static <M extends Map<String, Record>> M fill(final M map, final int entries) {
+        for (int i = 0; i < entries; i++) {
+            map.put(Stores.key(i), new Record(i));
+        }
+        return map;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,98 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups through secondary indexes, see {@link JSONStore#query(String)}, against full scans of
+ * {@link JSONStore#retrieveAll()} finding the same objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class IndexBenchmark {
+    private static final double RANGE_WIDTH = 10.0;
+
+    @Param({ "1000000" })
+    private int entries;
+
+    private Path directory;
+    private JSONStore<Record> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        store = Stores.fill(Stores.builder(directory, Backend.REWRITE).index("name").index("score").build(Record.class), entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.destroy();
+        Stores.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public List<Record> indexedEquality() {
+        return store.query("name").equalTo(randomName());
+    }
+
+    @Benchmark
+    public List<Record> scannedEquality() {
+        final String name = randomName();
+        final List<Record> matches = new ArrayList<>();
+        for (final Record record : store.retrieveAll()) {
+            if (Objects.equals(record.getName(), name)) {
+                matches.add(record);
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public List<Record> indexedRange() {
+        final double from = randomScore();
+        return store.query("score").range(from, from + RANGE_WIDTH);
+    }
+
+    @Benchmark
+    public List<Record> scannedRange() {
+        final double from = randomScore();
+        final List<Record> matches = new ArrayList<>();
+        for (final Record record : store.retrieveAll()) {
+            if (record.getScore() >= from && record.getScore() <= from + RANGE_WIDTH) {
+                matches.add(record);
+            }
+        }
+        return matches;
+    }
+
+    private String randomName() {
+        return new Record(ThreadLocalRandom.current().nextInt(entries)).getName();
+    }
+
+    private double randomScore() {
+        return new Record(ThreadLocalRandom.current().nextInt(entries)).getScore();
+    }
+}
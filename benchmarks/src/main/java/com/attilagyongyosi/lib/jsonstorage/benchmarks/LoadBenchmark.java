@@ -0,0 +1,63 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup of a store, i.e. {@link JSONStore#create(Class)}, from backing files of different sizes and formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class LoadBenchmark {
+    @Param({ "1000", "100000", "1000000" })
+    private int entries;
+
+    @Param({ "PRETTY_JSON", "JSON", "SMILE", "CBOR" })
+    private StoreFormat format;
+
+    private Path directory;
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        Stores.fill(Stores.builder(directory, Backend.REWRITE).format(format).build(Record.class), entries).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Stores.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long create() throws Exception {
+        final JSONStore<Record> loaded = Stores.builder(directory, Backend.REWRITE).build(Record.class);
+        loaded.close();
+        return loaded.size();
+    }
+
+    @Benchmark
+    public int parse(final Blackhole blackhole) throws Exception {
+        return JSONUtils.parseEntries(directory.resolve("store.db"), format.getMapper(), Record.class, (key, value) -> blackhole.consume(value));
+    }
+}
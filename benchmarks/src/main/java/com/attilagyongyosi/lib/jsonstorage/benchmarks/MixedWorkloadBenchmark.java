@@ -0,0 +1,70 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readers and writers sharing a store: six threads retrieving random keys while two threads store random keys.
+ */
+@State(Scope.Group)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MixedWorkloadBenchmark {
+    @Param({ "100000" })
+    private int entries;
+
+    @Param({ "JOURNALED", "GROUP_COMMIT", "MAPPED", "OFF_HEAP" })
+    private Backend backend;
+
+    private Path directory;
+    private JSONStore<Record> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        store = Stores.fill(Stores.builder(directory, backend).build(Record.class), entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.destroy();
+        Stores.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public Record read() {
+        return store.retrieve(Stores.key(ThreadLocalRandom.current().nextInt(entries)));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Record write() throws StorageException {
+        final int id = ThreadLocalRandom.current().nextInt(entries);
+        return store.store(Stores.key(id), new Record(id));
+    }
+}
@@ -0,0 +1,85 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A small record, the shape the stores benchmarked are expected to hold.
+ */
+public class Record {
+    private long id;
+    private String name;
+    private boolean active;
+    private double score;
+    private List<String> tags;
+
+    public Record() {
+    }
+
+    public Record(final long id) {
+        this.id = id;
+        this.name = "record " + id;
+        this.active = id % 2 == 0;
+        this.score = id / 7.0;
+        this.tags = Arrays.asList("tag" + id % 10, "tag" + id % 100);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(final boolean active) {
+        this.active = active;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(final double score) {
+        this.score = score;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(final List<String> tags) {
+        this.tags = tags;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Record)) {
+            return false;
+        }
+        final Record record = (Record) other;
+        return id == record.id && active == record.active && Double.compare(score, record.score) == 0
+            && Objects.equals(name, record.name) && Objects.equals(tags, record.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, active, score, tags);
+    }
+}
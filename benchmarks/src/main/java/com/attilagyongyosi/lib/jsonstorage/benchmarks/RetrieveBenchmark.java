@@ -0,0 +1,65 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link JSONStore#retrieve(String)} of random keys and {@link JSONStore#retrieveAll()} of stores of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RetrieveBenchmark {
+    @Param({ "1000", "100000", "1000000" })
+    private int entries;
+
+    @Param({ "REWRITE", "MAPPED", "OFF_HEAP" })
+    private Backend backend;
+
+    private Path directory;
+    private JSONStore<Record> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        store = Stores.fill(Stores.builder(directory, backend).build(Record.class), entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.destroy();
+        Stores.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public Record retrieve() {
+        return store.retrieve(Stores.key(ThreadLocalRandom.current().nextInt(entries)));
+    }
+
+    @Benchmark
+    public void retrieveAll(final Blackhole blackhole) {
+        for (final Record record : store.retrieveAll()) {
+            blackhole.consume(record);
+        }
+    }
+}
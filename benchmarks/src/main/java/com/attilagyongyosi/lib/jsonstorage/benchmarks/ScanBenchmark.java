@@ -0,0 +1,71 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analytics scans of whole stores through {@link JSONStore#query(java.util.function.Predicate)},
+ * sequential against parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ScanBenchmark {
+    private static final double MIN_SCORE = 1000.0;
+
+    @Param({ "1000000", "5000000" })
+    private int entries;
+
+    @Param({ "REWRITE", "OFF_HEAP" })
+    private Backend backend;
+
+    private Path directory;
+    private JSONStore<Record> store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Stores.createDirectory();
+        store = Stores.fill(Stores.builder(directory, backend).build(Record.class), entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.destroy();
+        Stores.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public double sequential() {
+        return store.query(record -> record.isActive() && record.getScore() >= MIN_SCORE)
+            .mapToDouble(Record::getScore)
+            .average()
+            .orElse(0.0);
+    }
+
+    @Benchmark
+    public double parallel() {
+        return store.query(record -> record.isActive() && record.getScore() >= MIN_SCORE)
+            .parallel()
+            .mapToDouble(Record::getScore)
+            .average()
+            .orElse(0.0);
+    }
+}
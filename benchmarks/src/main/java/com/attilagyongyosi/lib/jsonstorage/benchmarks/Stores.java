@@ -0,0 +1,52 @@
+package com.attilagyongyosi.lib.jsonstorage.benchmarks;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.store.Batch;
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStore;
+import com.attilagyongyosi.lib.jsonstorage.store.JSONStoreBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Creates and fills the stores benchmarks run against.
+ */
+final class Stores {
+    private Stores() {
+    }
+
+    static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("json-storage-benchmark");
+    }
+
+    static JSONStoreBuilder<Record> builder(final Path directory, final Backend backend) throws StoreCreationException {
+        return backend.configure(JSONStoreBuilder.<Record>builder().path(directory.resolve("store.db").toString()));
+    }
+
+    static String key(final long id) {
+        return "record" + id;
+    }
+
+    /**
+     * Stores {@code entries} records in a single batch, so that a rewritten store is only written once.
+     */
+    static JSONStore<Record> fill(final JSONStore<Record> store, final int entries) throws StorageException {
+        final Batch<Record> batch = store.batch();
+        for (int i = 0; i < entries; i++) {
+            batch.store(key(i), new Record(i));
+        }
+        batch.commit();
+        store.compact();
+        return store;
+    }
+
+    static void deleteDirectory(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.attilagyongyosi.lib.jsonstorage.exceptions;
 
 public class InvalidJsonException extends Exception {
+    public InvalidJsonException(final String message) {
+        super(message);
+    }
+
     public InvalidJsonException(final String message, final Throwable cause) {
         super(message, cause);
     }
@@ -1,6 +1,10 @@
 package com.attilagyongyosi.lib.jsonstorage.exceptions;
 
 public class StoreCreationException extends Exception {
+    public StoreCreationException(final String message) {
+        super(message);
+    }
+
     public StoreCreationException(final Throwable cause) {
         super(cause);
     }
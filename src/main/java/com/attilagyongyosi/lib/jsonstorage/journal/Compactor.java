@@ -0,0 +1,264 @@
+package com.attilagyongyosi.lib.jsonstorage.journal;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Folds a {@link Journal} into a fresh snapshot of the store's backing JSON file.
+ *
+ * <p>A compaction takes a copy of the store's entries, rotates the journal aside and then writes the
+ * copy to a temporary file on a background thread. The temporary file is moved over the
+ * backing file atomically and the rotated journal is discarded afterwards, so the store
+ * keeps serving reads and appending writes while the snapshot is serialized.</p>
+ *
+ * <p>Compactions are started automatically once the journal reaches a size threshold, or
+ * a given ratio of the snapshot's size. The copying and the rotation happen while holding
+ * the lock that excludes every mutation of the store.</p>
+ *
+ * @author attilagyongyosi
+ */
+public final class Compactor implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Compactor.class);
+
+    /**
+     * Journal size in bytes that triggers a compaction by default.
+     */
+    public static final long DEFAULT_THRESHOLD = 16L * 1024 * 1024;
+
+    private static final String SNAPSHOT_SUFFIX = "-snapshot";
+
+    private final Path storeFile;
+    private final Path snapshotFile;
+    private final Journal journal;
+
+    /**
+     * Lock excluding every mutation of the store's entries and the journal.
+     */
+    private final Lock lock;
+
+    /**
+     * Journal size in bytes triggering a compaction, {@code 0} to disable.
+     */
+    private final long threshold;
+
+    /**
+     * Ratio of journal size to snapshot size triggering a compaction, {@code 0} to disable.
+     */
+    private final double ratio;
+
+    /**
+     * Mapper writing snapshots in the format of the backing file.
+     */
+    private final ObjectMapper mapper;
+
+    private final ExecutorService executor;
+
+    /**
+     * Size of the backing file as of the last compaction.
+     */
+    private volatile long snapshotSize;
+
+    /**
+     * The last compaction started in the background.
+     */
+    private volatile Future<?> inFlight;
+
+    public Compactor(final Path storeFile, final Journal journal, final Lock lock, final long threshold, final double ratio)
+        throws IOException {
+
+        this(storeFile, journal, lock, threshold, ratio, JSONUtils.getMapper());
+    }
+
+    public Compactor(final Path storeFile, final Journal journal, final Lock lock, final long threshold, final double ratio,
+                     final ObjectMapper mapper) throws IOException {
+
+        this.mapper = mapper;
+        this.storeFile = storeFile;
+        this.snapshotFile = Paths.get(storeFile.toString().concat(SNAPSHOT_SUFFIX));
+        this.journal = journal;
+        this.lock = lock;
+        this.threshold = threshold;
+        this.ratio = ratio;
+        this.snapshotSize = Files.size(storeFile);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "json-store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (Files.deleteIfExists(this.snapshotFile)) {
+            LOG.warn("Deleted unfinished snapshot {} of a previous compaction.", this.snapshotFile);
+        }
+    }
+
+    /**
+     * Tells whether the journal has grown past one of the configured thresholds.
+     *
+     * @return {@code true} if a compaction should be started
+     *
+     * @throws IOException
+     *         when the size of the journal can not be determined
+     */
+    public boolean isDue() throws IOException {
+        final long journalSize = this.journal.size();
+        return this.threshold > 0 && journalSize >= this.threshold
+            || this.ratio > 0 && this.snapshotSize > 0 && journalSize >= this.snapshotSize * this.ratio;
+    }
+
+    /**
+     * Starts a background compaction if one is due and none is running.
+     *
+     * Only the copying of the entries and the rotation of the journal happen on the calling thread,
+     * and the lock is only taken once a compaction looks due. Failures are logged, as the journal
+     * still holds every entry in that case.
+     *
+     * @param snapshot
+     *        supplies a copy of the current entries of the store, called while holding the lock
+     */
+    public void compactIfDue(final Supplier<? extends Map<String, ?>> snapshot) {
+        try {
+            if (isRunning() || !isDue()) {
+                return;
+            }
+
+            this.lock.lock();
+            try {
+                if (!isRunning() && isDue()) {
+                    start(snapshot);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        } catch (final IOException ioe) {
+            LOG.error("Could not start compaction of journal {}!", this.journal.getPath(), ioe);
+        }
+    }
+
+    /**
+     * Compacts the journal and waits for the compaction to finish, after waiting for
+     * a running background compaction.
+     *
+     * @param  snapshot
+     *         supplies a copy of the current entries of the store, called while holding the lock
+     *
+     * @throws IOException
+     *         when the snapshot could not be written
+     */
+    public void compact(final Supplier<? extends Map<String, ?>> snapshot) throws IOException {
+        Future<?> compaction = null;
+        while (compaction == null) {
+            awaitQuietly();
+            this.lock.lock();
+            try {
+                if (!isRunning()) {
+                    compaction = start(snapshot);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        await(compaction);
+    }
+
+    /**
+     * Waits for a running background compaction and stops the background thread.
+     *
+     * @throws IOException
+     *         when interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitQuietly();
+        } finally {
+            this.executor.shutdown();
+        }
+    }
+
+    private boolean isRunning() {
+        final Future<?> compaction = this.inFlight;
+        return compaction != null && !compaction.isDone();
+    }
+
+    private Future<?> start(final Supplier<? extends Map<String, ?>> snapshot) throws IOException {
+        final Map<String, ?> entries = snapshot.get();
+        this.journal.rotate();
+        this.inFlight = this.executor.submit(() -> {
+            try {
+                writeSnapshot(entries);
+            } catch (final IOException ioe) {
+                LOG.error("Could not compact journal {}!", this.journal.getPath(), ioe);
+                throw ioe;
+            }
+            return null;
+        });
+        return this.inFlight;
+    }
+
+    private void writeSnapshot(final Map<String, ?> snapshot) throws IOException {
+        LOG.debug("Compacting {} entries into {}...", snapshot.size(), this.storeFile);
+
+        try (FileChannel channel = FileChannel.open(this.snapshotFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            this.mapper.writeValue(out, snapshot);
+            out.flush();
+            channel.force(true);
+        }
+
+        FileUtils.moveAtomically(this.snapshotFile, this.storeFile);
+        this.snapshotSize = Files.size(this.storeFile);
+        this.journal.discardRotated();
+    }
+
+    /**
+     * Waits for the last background compaction, ignoring its failure as it has been logged already.
+     */
+    private void awaitQuietly() throws IOException {
+        final Future<?> compaction = this.inFlight;
+        if (compaction == null) {
+            return;
+        }
+
+        try {
+            compaction.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction!", ie);
+        } catch (final ExecutionException ee) {
+            LOG.debug("Previous compaction of journal {} failed.", this.journal.getPath(), ee);
+        }
+    }
+
+    private static void await(final Future<?> compaction) throws IOException {
+        try {
+            compaction.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction!", ie);
+        } catch (final ExecutionException ee) {
+            throw new IOException("Compaction failed!", ee);
+        }
+    }
+}
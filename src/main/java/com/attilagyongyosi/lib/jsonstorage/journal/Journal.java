@@ -0,0 +1,347 @@
+package com.attilagyongyosi.lib.jsonstorage.journal;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of mutations kept next to a store's backing JSON file.
+ *
+ * <p>Every mutation is appended as a single line of compact JSON, so the cost of
+ * persisting a change is bounded by the size of the change rather than the size
+ * of the whole store. The journal is replayed over the last snapshot when the
+ * store is opened.</p>
+ *
+ * <p>A trailing entry that was only partially written (e.g. because the process died
+ * mid-write) is discarded during replay. A corrupt entry anywhere else is an error.</p>
+ *
+ * <p>When the journal is compacted, its current file is first rotated aside so new
+ * entries can keep being appended while the snapshot is written. The rotated file
+ * is replayed before the current one until the compaction discards it.</p>
+ *
+ * <p>A synchronous journal forces every append to disk before returning. Appends to other journals
+ * are left to the OS until {@link #force()} is called, trading the entries a crash of the machine
+ * may lose for the latency of appends.</p>
+ *
+ * <p>Several processes can share a journal as long as they take turns appending to it, see {@link #tail(long, Consumer)}.</p>
+ *
+ * <p>Appending, forcing, rotating and closing the journal are safe to call from several threads.</p>
+ *
+ * @author attilagyongyosi
+ */
+public final class Journal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+    private static final String SUFFIX = "-journal";
+    private static final String ROTATED_SUFFIX = "-rotated";
+    private static final byte NEWLINE = '\n';
+
+    private static final StandardOpenOption[] OPEN_OPTIONS = new StandardOpenOption[] {
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC
+    };
+    private static final StandardOpenOption[] BUFFERED_OPEN_OPTIONS = new StandardOpenOption[] {
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+    };
+
+    /**
+     * The path of the journal file.
+     */
+    private final Path path;
+
+    /**
+     * The path the journal file is moved to while it is being compacted.
+     */
+    private final Path rotatedPath;
+
+    /**
+     * Whether every append is forced to disk before it returns.
+     */
+    private final boolean synchronous;
+
+    /**
+     * Writer serializing the appended entries, with the modules of the store registered.
+     */
+    private final ObjectWriter writer;
+
+    /**
+     * Lock serializing writes to the journal file and the replacement of {@code channel}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Channel used to append entries to the journal file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Returns the path of the journal belonging to the given store file.
+     *
+     * @param  storeFile
+     *         the path of the store's backing JSON file
+     *
+     * @return the path of the journal file next to it
+     */
+    public static Path pathFor(final Path storeFile) {
+        return Paths.get(storeFile.toString().concat(SUFFIX));
+    }
+
+    public Journal(final Path path) {
+        this(path, true);
+    }
+
+    /**
+     * @param path
+     *        the path of the journal file
+     *
+     * @param synchronous
+     *        whether every append is forced to disk before it returns, see {@link #force()}
+     */
+    public Journal(final Path path, final boolean synchronous) {
+        this(path, synchronous, JSONUtils.getMapper());
+    }
+
+    /**
+     * @param path
+     *        the path of the journal file
+     *
+     * @param synchronous
+     *        whether every append is forced to disk before it returns, see {@link #force()}
+     *
+     * @param mapper
+     *        the JSON mapper serializing the values of appended entries, e.g. one with the modules of the store registered
+     */
+    public Journal(final Path path, final boolean synchronous, final ObjectMapper mapper) {
+        this.path = path;
+        this.rotatedPath = Paths.get(path.toString().concat(ROTATED_SUFFIX));
+        this.synchronous = synchronous;
+        this.writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Opens the journal file for appending, creating it if it does not exist yet.
+     *
+     * @throws IOException
+     *         when the journal file can not be opened
+     */
+    public void open() throws IOException {
+        LOG.debug("Opening journal {}...", this.path);
+        this.channel = FileChannel.open(this.path, this.synchronous ? OPEN_OPTIONS : BUFFERED_OPEN_OPTIONS);
+    }
+
+    /**
+     * Reads every entry of the journal in order and hands them to {@code consumer}.
+     *
+     * Entries of a rotated journal file left behind by an unfinished compaction are replayed first.
+     * A partially written entry at the end of a journal file is dropped and the file
+     * is truncated to the last complete entry.
+     *
+     * @param  consumer
+     *         callback receiving the replayed entries. Their values are {@link com.fasterxml.jackson.databind.JsonNode} instances.
+     *
+     * @return the number of entries replayed
+     *
+     * @throws IOException
+     *         when the journal can not be read
+     *
+     * @throws InvalidJsonException
+     *         when an entry other than the last one of a file is corrupt
+     */
+    public int replay(final Consumer<JournalEntry> consumer) throws IOException, InvalidJsonException {
+        int replayed = 0;
+        if (Files.exists(this.rotatedPath)) {
+            try (FileChannel rotated = FileChannel.open(this.rotatedPath, StandardOpenOption.WRITE)) {
+                replayed += JournalReader.replay(this.rotatedPath, rotated, consumer);
+            }
+        }
+        replayed += JournalReader.replay(this.path, this.channel, consumer);
+
+        LOG.debug("Replayed {} entries from journal {}.", replayed, this.path);
+        return replayed;
+    }
+
+    /**
+     * Reads the entries appended to the journal file after {@code offset}, e.g. by another process,
+     * and hands them to {@code consumer}. A partially written entry at the end of the file is dropped
+     * and the file is truncated to the last complete entry, so no other process may be appending to it.
+     *
+     * @param  offset
+     *         the end of the last entry read before, as returned by the previous call
+     *
+     * @param  consumer
+     *         callback receiving the entries. Their values are {@link com.fasterxml.jackson.databind.JsonNode} instances.
+     *
+     * @return the offset after the last entry read
+     *
+     * @throws IOException
+     *         when the journal can not be read
+     *
+     * @throws InvalidJsonException
+     *         when an entry other than the last one is corrupt
+     */
+    public long tail(final long offset, final Consumer<JournalEntry> consumer) throws IOException, InvalidJsonException {
+        synchronized (this.lock) {
+            return JournalReader.replay(this.path, this.channel, offset, consumer);
+        }
+    }
+
+    /**
+     * Appends a single entry to the end of the journal.
+     *
+     * @param  entry
+     *         the entry to append
+     *
+     * @throws IOException
+     *         when the entry could not be written
+     */
+    public void append(final JournalEntry entry) throws IOException {
+        final byte[] serialized = this.writer.writeValueAsBytes(entry);
+        final ByteBuffer buffer = ByteBuffer.allocate(serialized.length + 1);
+        buffer.put(serialized).put(NEWLINE);
+        buffer.flip();
+
+        synchronized (this.lock) {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Appends several entries to the end of the journal with a single write.
+     *
+     * More than one entry is written as a batch entry, so the entries are replayed
+     * either all together or not at all.
+     *
+     * @param  entries
+     *         the entries to append, in order
+     *
+     * @throws IOException
+     *         when the entries could not be written
+     */
+    public void append(final List<JournalEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        append(entries.size() == 1 ? entries.get(0) : JournalEntry.batch(entries));
+    }
+
+    /**
+     * Forces the entries appended so far to disk. Entries of a synchronous journal are forced by appending them.
+     *
+     * @throws IOException
+     *         when the journal file could not be forced
+     */
+    public void force() throws IOException {
+        synchronized (this.lock) {
+            if (this.channel.isOpen()) {
+                this.channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the current size of the journal file in bytes.
+     *
+     * @return the size of the journal file
+     *
+     * @throws IOException
+     *         when the size can not be determined
+     */
+    public long size() throws IOException {
+        synchronized (this.lock) {
+            return this.channel.size();
+        }
+    }
+
+    /**
+     * Moves the entries written so far aside, so they can be compacted while new entries
+     * are appended to an empty journal file.
+     *
+     * If a rotated file is still around because a previous compaction did not finish,
+     * the current entries are appended to it instead, keeping their order.
+     *
+     * @throws IOException
+     *         when the journal file can not be rotated
+     */
+    public void rotate() throws IOException {
+        synchronized (this.lock) {
+            if (Files.exists(this.rotatedPath)) {
+                try (FileChannel rotated = FileChannel.open(this.rotatedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    Files.copy(this.path, Channels.newOutputStream(rotated));
+                    rotated.force(true);
+                }
+                this.channel.truncate(0);
+                return;
+            }
+
+            this.channel.close();
+            Files.move(this.path, this.rotatedPath);
+            open();
+        }
+    }
+
+    /**
+     * Opens the journal file again, after another process has rotated it, so that entries are
+     * appended to the current journal file instead of the rotated one.
+     *
+     * @throws IOException
+     *         when the journal file can not be opened
+     */
+    public void reopen() throws IOException {
+        synchronized (this.lock) {
+            this.channel.close();
+            open();
+        }
+    }
+
+    /**
+     * Deletes the rotated journal file once its entries are part of a snapshot.
+     *
+     * @throws IOException
+     *         when the rotated file can not be deleted
+     */
+    public void discardRotated() throws IOException {
+        Files.deleteIfExists(this.rotatedPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.lock) {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the journal file.
+     *
+     * @throws IOException
+     *         when the journal file can not be deleted
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(this.path);
+        discardRotated();
+    }
+}
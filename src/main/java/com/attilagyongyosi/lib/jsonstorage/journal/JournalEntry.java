@@ -0,0 +1,113 @@
+package com.attilagyongyosi.lib.jsonstorage.journal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single mutation recorded in a {@link Journal}.
+ *
+ * <p>Entries are written as one compact JSON object per line. When written, {@code value}
+ * holds the object passed to the store; when replayed, it holds the raw
+ * {@link com.fasterxml.jackson.databind.JsonNode} read from the journal.</p>
+ *
+ * <p>A batch entry groups several entries into a single line, so they are either
+ * all replayed or, if the line was only partially written, not at all.</p>
+ *
+ * <p>Entries of a journal shared by several collections name the collection they mutate.</p>
+ *
+ * @author attilagyongyosi
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({ "op", "collection", "key", "value", "entries" })
+public final class JournalEntry {
+    private final Operation operation;
+    private final String key;
+    private final Object value;
+    private final List<JournalEntry> entries;
+    private final String collection;
+
+    /**
+     * The kind of mutation an entry describes.
+     */
+    public enum Operation {
+        PUT, REMOVE, CLEAR, BATCH
+    }
+
+    public static JournalEntry put(final String key, final Object value) {
+        return new JournalEntry(Operation.PUT, key, value, null);
+    }
+
+    public static JournalEntry remove(final String key) {
+        return new JournalEntry(Operation.REMOVE, key, null, null);
+    }
+
+    public static JournalEntry clear() {
+        return new JournalEntry(Operation.CLEAR, null, null, null);
+    }
+
+    public static JournalEntry batch(final List<JournalEntry> entries) {
+        return new JournalEntry(Operation.BATCH, null, null, entries, null);
+    }
+
+    JournalEntry(final Operation operation, final String key, final Object value, final String collection) {
+        this(operation, key, value, null, collection);
+    }
+
+    private JournalEntry(final Operation operation, final String key, final Object value, final List<JournalEntry> entries,
+                         final String collection) {
+        this.operation = operation;
+        this.key = key;
+        this.value = value;
+        this.entries = entries;
+        this.collection = collection;
+    }
+
+    /**
+     * Returns a copy of this entry naming the collection it mutates. The entries of a batch name it as well.
+     *
+     * @param  name
+     *         the name of the collection
+     *
+     * @return the named entry
+     */
+    public JournalEntry in(final String name) {
+        if (this.operation != Operation.BATCH) {
+            return new JournalEntry(this.operation, this.key, this.value, name);
+        }
+
+        final List<JournalEntry> named = new ArrayList<>(this.entries.size());
+        for (final JournalEntry entry : this.entries) {
+            named.add(entry.in(name));
+        }
+        return batch(named);
+    }
+
+    @JsonProperty("op")
+    public Operation getOperation() {
+        return operation;
+    }
+
+    @JsonProperty("key")
+    public String getKey() {
+        return key;
+    }
+
+    @JsonProperty("value")
+    public Object getValue() {
+        return value;
+    }
+
+    @JsonProperty("entries")
+    public List<JournalEntry> getEntries() {
+        return entries;
+    }
+
+    @JsonProperty("collection")
+    public String getCollection() {
+        return collection;
+    }
+}
@@ -0,0 +1,130 @@
+package com.attilagyongyosi.lib.jsonstorage.journal;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the entries of a single journal file.
+ *
+ * @author attilagyongyosi
+ */
+final class JournalReader {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReader.class);
+    private static final ObjectMapper MAPPER = JSONUtils.getMapper();
+
+    /**
+     * Reads every entry of a journal file in order, expanding batches, and hands them to {@code consumer}.
+     * A partially written entry at the end of the file is dropped and the file is truncated to the last complete entry.
+     *
+     * @return the number of entries replayed
+     */
+    static int replay(final Path file, final FileChannel channel, final Consumer<JournalEntry> consumer)
+        throws IOException, InvalidJsonException {
+
+        final int[] replayed = new int[1];
+        replay(file, channel, 0, entry -> {
+            replayed[0]++;
+            consumer.accept(entry);
+        });
+        return replayed[0];
+    }
+
+    /**
+     * Reads the entries of a journal file from {@code offset} on, which has to be the end of an entry,
+     * expanding batches, and hands them to {@code consumer}. A partially written entry at the end of the
+     * file is dropped and the file is truncated to the last complete entry.
+     *
+     * @return the offset after the last entry read
+     */
+    static long replay(final Path file, final FileChannel channel, final long offset, final Consumer<JournalEntry> consumer)
+        throws IOException, InvalidJsonException {
+
+        final long size = channel.size();
+        long validLength = offset;
+
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(input.position(offset)), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final long lineEnd = validLength + line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (lineEnd > size) {
+                    break;
+                }
+
+                if (!line.isEmpty()) {
+                    final JournalEntry entry = read(line, lineEnd == size, validLength);
+                    if (entry == null) {
+                        break;
+                    }
+                    accept(entry, consumer);
+                }
+
+                validLength = lineEnd;
+            }
+        }
+
+        if (validLength < size) {
+            LOG.warn("Discarding {} bytes of incomplete entries at the end of journal {}.", size - validLength, file);
+            channel.truncate(validLength);
+        }
+
+        return validLength;
+    }
+
+    private static int accept(final JournalEntry entry, final Consumer<JournalEntry> consumer) {
+        if (entry.getOperation() != JournalEntry.Operation.BATCH) {
+            consumer.accept(entry);
+            return 1;
+        }
+
+        int accepted = 0;
+        for (final JournalEntry batched : entry.getEntries()) {
+            accepted += accept(batched, consumer);
+        }
+        return accepted;
+    }
+
+    private static JournalEntry read(final String line, final boolean last, final long offset) throws InvalidJsonException {
+        try {
+            return toEntry(MAPPER.readTree(line));
+        } catch (final IOException | IllegalArgumentException e) {
+            if (last) {
+                LOG.warn("Last journal entry at offset {} is incomplete.", offset, e);
+                return null;
+            }
+            throw new InvalidJsonException("Corrupt journal entry at offset " + offset + "!", e);
+        }
+    }
+
+    private static JournalEntry toEntry(final JsonNode node) {
+        final JournalEntry.Operation operation = JournalEntry.Operation.valueOf(node.path("op").asText());
+        if (operation == JournalEntry.Operation.BATCH) {
+            final List<JournalEntry> entries = new ArrayList<>();
+            for (final JsonNode entry : node.path("entries")) {
+                entries.add(toEntry(entry));
+            }
+            return JournalEntry.batch(entries);
+        }
+
+        final JsonNode value = node.get("value");
+        return new JournalEntry(operation, node.path("key").textValue(), value == null || value.isNull() ? null : value,
+            node.path("collection").textValue());
+    }
+
+    private JournalReader() {}
+}
@@ -0,0 +1,35 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+/**
+ * Management interface of a store registered with JMX by {@link MetricsRegistry}.
+ *
+ * @author attilagyongyosi
+ */
+public interface JSONStoreMXBean {
+    String getPath();
+
+    long getEntryCount();
+
+    /**
+     * Returns the current size of the backing file.
+     *
+     * @return the size in bytes, {@code -1} if it can not be read
+     */
+    long getFileSize();
+
+    /**
+     * Returns how long creating the store took.
+     *
+     * @return the load time in milliseconds
+     */
+    double getLoadTimeMillis();
+
+    /**
+     * Returns the number of bytes written by rewrites of the backing file.
+     *
+     * @return the bytes written in total
+     */
+    long getBytesWritten();
+
+    long getSyncCount();
+}
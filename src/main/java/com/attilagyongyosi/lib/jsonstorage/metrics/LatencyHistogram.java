@@ -0,0 +1,106 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ *
+ * <p>Values are counted in buckets that split every power of two into {@value #SUB_BUCKETS}
+ * linear sub-buckets, so percentiles are accurate to within an eighth of their value, whatever
+ * their magnitude, in a fixed amount of memory.</p>
+ *
+ * @author attilagyongyosi
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as {@code 0}.
+     *
+     * @param nanos
+     *        the value to record
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        this.buckets.incrementAndGet(bucketOf(value));
+        this.count.increment();
+        this.total.add(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded so far.
+     *
+     * @return the mean, {@code 0} if no value was recorded
+     */
+    public double getMean() {
+        final long recorded = this.count.sum();
+        return recorded == 0 ? 0.0 : (double) this.total.sum() / recorded;
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values fall.
+     *
+     * @param  quantile
+     *         the fraction of values, between {@code 0} and {@code 1}
+     *
+     * @return the upper bound of the bucket holding the quantile, {@code 0} if no value was recorded
+     */
+    public long getValueAt(final double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1!");
+        }
+
+        long seen = 0;
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            recorded += this.buckets.get(i);
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * recorded));
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return 0L;
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
@@ -0,0 +1,220 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link StoreMetrics} keeping a {@link LatencyHistogram} of every operation and a count of the bytes
+ * written, which can be read directly or exposed as MXBeans through {@link #register(Path, LongSupplier)}.
+ *
+ * <p>Measurements can be forwarded to another listener, e.g. one reporting them to a monitoring system.</p>
+ *
+ * @author attilagyongyosi
+ */
+public final class MetricsRegistry implements StoreMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    /**
+     * Domain of the names of the MXBeans registered.
+     */
+    public static final String DOMAIN = "com.attilagyongyosi.lib.jsonstorage";
+
+    private static final double NANOS_PER_MICRO = 1_000.0;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double MEDIAN = 0.5;
+    private static final double P99 = 0.99;
+    private static final double P999 = 0.999;
+
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private final LongAdder bytesWritten = new LongAdder();
+    private final StoreMetrics next;
+
+    public MetricsRegistry() {
+        this(null);
+    }
+
+    /**
+     * Creates a registry forwarding measurements to another listener.
+     *
+     * @param next
+     *        the listener to forward to, {@code null} for none
+     */
+    public MetricsRegistry(final StoreMetrics next) {
+        for (final Operation operation : Operation.values()) {
+            this.histograms.put(operation, new LatencyHistogram());
+        }
+        this.next = next;
+    }
+
+    @Override
+    public void record(final Operation operation, final long nanos) {
+        this.histograms.get(operation).record(nanos);
+        if (this.next != null) {
+            this.next.record(operation, nanos);
+        }
+    }
+
+    @Override
+    public void recordBytesWritten(final long bytes) {
+        this.bytesWritten.add(bytes);
+        if (this.next != null) {
+            this.next.recordBytesWritten(bytes);
+        }
+    }
+
+    public LatencyHistogram getHistogram(final Operation operation) {
+        return this.histograms.get(operation);
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    /**
+     * Registers MXBeans exposing the metrics of a store with the platform MBean server: one for the
+     * store itself, named {@code com.attilagyongyosi.lib.jsonstorage:type=JSONStore,path=<absolute path>}, and
+     * one for each operation, with an additional {@code operation=<operation>} key.
+     *
+     * <p>Registration is best effort: MXBeans that can not be registered, e.g. because another
+     * store of the same file already registered them, are skipped with a warning.</p>
+     *
+     * @param  file
+     *         the backing file of the store
+     *
+     * @param  entries
+     *         supplies the number of entries of the store
+     *
+     * @return the names of the registered MXBeans, to be passed to {@link #unregister(List)}
+     */
+    public List<ObjectName> register(final Path file, final LongSupplier entries) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Path absolute = file.toAbsolutePath();
+        final String base = DOMAIN + ":type=JSONStore,path=" + ObjectName.quote(absolute.toString());
+        final List<ObjectName> registered = new ArrayList<>();
+        try {
+            registered.add(server.registerMBean(new Store(absolute, entries), new ObjectName(base)).getObjectName());
+            for (final Operation operation : Operation.values()) {
+                final ObjectName name = new ObjectName(base + ",operation=" + operation.name().toLowerCase(Locale.ROOT));
+                registered.add(server.registerMBean(new OperationStatistics(this.histograms.get(operation)), name).getObjectName());
+            }
+        } catch (final JMException jme) {
+            LOG.warn("Could not register MXBeans of {}!", file, jme);
+        }
+        return Collections.unmodifiableList(registered);
+    }
+
+    /**
+     * Unregisters MXBeans registered by {@link #register(Path, LongSupplier)}.
+     *
+     * @param names
+     *        the names of the MXBeans
+     */
+    public static void unregister(final List<ObjectName> names) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (final JMException jme) {
+                LOG.warn("Could not unregister MXBean {}!", name, jme);
+            }
+        }
+    }
+
+    private final class Store implements JSONStoreMXBean {
+        private final Path file;
+        private final LongSupplier entries;
+
+        Store(final Path file, final LongSupplier entries) {
+            this.file = file;
+            this.entries = entries;
+        }
+
+        @Override
+        public String getPath() {
+            return this.file.toString();
+        }
+
+        @Override
+        public long getEntryCount() {
+            return this.entries.getAsLong();
+        }
+
+        @Override
+        public long getFileSize() {
+            try {
+                return Files.size(this.file);
+            } catch (final IOException ioe) {
+                return -1L;
+            }
+        }
+
+        @Override
+        public double getLoadTimeMillis() {
+            return getHistogram(Operation.LOAD).getMax() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return MetricsRegistry.this.getBytesWritten();
+        }
+
+        @Override
+        public long getSyncCount() {
+            return getHistogram(Operation.SYNC).getCount();
+        }
+    }
+
+    private static final class OperationStatistics implements OperationMXBean {
+        private final LatencyHistogram histogram;
+
+        OperationStatistics(final LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return this.histogram.getCount();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return this.histogram.getMean() / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return this.histogram.getMax() / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double get50thPercentileMicros() {
+            return this.histogram.getValueAt(MEDIAN) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double get99thPercentileMicros() {
+            return this.histogram.getValueAt(P99) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double get999thPercentileMicros() {
+            return this.histogram.getValueAt(P999) / NANOS_PER_MICRO;
+        }
+    }
+}
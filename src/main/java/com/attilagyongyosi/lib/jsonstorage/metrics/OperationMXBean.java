@@ -0,0 +1,21 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+/**
+ * Management interface of the latencies of one {@link StoreMetrics.Operation} of a store,
+ * registered with JMX by {@link MetricsRegistry}. Latencies are in microseconds.
+ *
+ * @author attilagyongyosi
+ */
+public interface OperationMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getMaxMicros();
+
+    double get50thPercentileMicros();
+
+    double get99thPercentileMicros();
+
+    double get999thPercentileMicros();
+}
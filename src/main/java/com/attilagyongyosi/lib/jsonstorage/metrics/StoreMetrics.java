@@ -0,0 +1,87 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+/**
+ * Listener receiving measurements of the operations of a {@link com.attilagyongyosi.lib.jsonstorage.store.JSONStore}.
+ *
+ * <p>Callbacks are made on the threads performing the operations, often while they hold locks of the
+ * store, so implementations must be thread-safe and return quickly. Stores without a listener do not
+ * take any measurements.</p>
+ *
+ * @author attilagyongyosi
+ */
+public interface StoreMetrics {
+    /**
+     * Operations of a store that are timed.
+     */
+    enum Operation {
+        /**
+         * Creating the store, i.e. loading the backing file and replaying the journal, if any.
+         */
+        LOAD,
+
+        /**
+         * Storing an object, until it is persisted.
+         */
+        STORE,
+
+        /**
+         * Removing an object, until the removal is persisted.
+         */
+        REMOVE,
+
+        /**
+         * Clearing the store, until the clearing is persisted.
+         */
+        CLEAR,
+
+        /**
+         * Committing a {@link com.attilagyongyosi.lib.jsonstorage.store.Batch}, until it is persisted.
+         */
+        BATCH,
+
+        /**
+         * Retrieving a single object.
+         */
+        RETRIEVE,
+
+        /**
+         * Rewriting the whole backing file.
+         */
+        SYNC,
+
+        /**
+         * Serializing the entries of the store while the backing file is rewritten.
+         */
+        SERIALIZE,
+
+        /**
+         * Appending mutations to the journal, which writes them through to disk.
+         */
+        APPEND,
+
+        /**
+         * Forcing writes to disk: a rewritten backing file before it replaces the previous one,
+         * or the mapping of a mapped store.
+         */
+        FSYNC
+    }
+
+    /**
+     * Called when an operation finished, whether it succeeded or not.
+     *
+     * @param operation
+     *        the operation
+     *
+     * @param nanos
+     *        how long the operation took, in nanoseconds
+     */
+    void record(Operation operation, long nanos);
+
+    /**
+     * Called when the backing file was rewritten.
+     *
+     * @param bytes
+     *        the size of the rewritten file
+     */
+    void recordBytesWritten(long bytes);
+}
@@ -0,0 +1,68 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task of a {@link JSONStore} run periodically on a daemon thread of its own, like evicting due
+ * entries or forcing writes to disk.
+ *
+ * @author attilagyongyosi
+ */
+final class BackgroundTask {
+    private static final Logger LOG = LoggerFactory.getLogger(BackgroundTask.class);
+
+    private final String name;
+    private final Runnable task;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Starts running a task with a fixed delay between its runs.
+     *
+     * @param name
+     *        the name of the thread running the task
+     *
+     * @param task
+     *        the task to run
+     *
+     * @param delay
+     *        the delay in nanoseconds before the first run and between runs
+     */
+    BackgroundTask(final String name, final Runnable task, final long delay) {
+        this.name = name;
+        this.task = task;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(task, delay, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the task once more, right away.
+     */
+    void runNow() {
+        this.executor.execute(this.task);
+    }
+
+    /**
+     * Stops running the task, waiting for a run in progress to finish.
+     */
+    void stop() throws IOException {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.warn("Background task {} did not stop in time.", this.name);
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping " + this.name + "!", ie);
+        }
+    }
+}
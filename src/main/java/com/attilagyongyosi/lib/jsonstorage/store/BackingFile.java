@@ -0,0 +1,253 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Rewrites the backing file of a {@link JSONStore} with the current contents of the store, for stores
+ * that neither journal their mutations nor keep their entries in a mapped log.
+ *
+ * <p>The contents are written to a snapshot file next to the backing file and forced to disk, then
+ * the snapshot atomically replaces the backing file. A crash at any point leaves either the previous
+ * or the new backing file in place, and a failed rewrite leaves the backing file untouched. Unless
+ * every write is forced, the snapshot is left to the OS, see {@link Durability}.</p>
+ *
+ * <p>Stores synced in place patch the entries mutated since the previous sync instead, see {@link DeltaSync}.</p>
+ *
+ * <p>Either way, the contents are taken while holding the exclusive lock of the store, so that a sync
+ * never writes half of a batch, and written once the lock is released.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+final class BackingFile<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(BackingFile.class);
+
+    private static final String SNAPSHOT_SUFFIX = "-snapshot";
+    private static final String BACKUP_SUFFIX = "-backup";
+
+    private final Path file;
+    private final Path snapshotFile;
+    private final StoreCodec<T> codec;
+
+    /**
+     * Patches mutated entries in the backing file, {@code null} if every sync rewrites it.
+     */
+    private final DeltaSync<T> delta;
+
+    private final Durability durability;
+
+    /**
+     * The exclusive lock of the store, see {@link StripedLocks#exclusive()}.
+     */
+    private final Lock exclusive;
+
+    /**
+     * Listener measuring the syncs, {@code null} to take no measurements.
+     */
+    private final StoreMetrics metrics;
+
+    /**
+     * Lock serializing rewrites of the backing file.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Whether the backing file was rewritten or patched without forcing it to disk.
+     */
+    private volatile boolean unforced;
+
+    BackingFile(final Path file, final StoreCodec<T> codec, final DeltaSync<T> delta, final Durability durability, final Lock exclusive,
+                final StoreMetrics metrics) {
+        this.file = file;
+        this.snapshotFile = Paths.get(file + SNAPSHOT_SUFFIX);
+        this.codec = codec;
+        this.delta = delta;
+        this.durability = durability;
+        this.exclusive = exclusive;
+        this.metrics = metrics;
+    }
+
+    Path getPath() {
+        return this.file;
+    }
+
+    /**
+     * Cleans up after a rewrite of the backing file interrupted by a crash. The backing file is only
+     * ever replaced by a complete, forced snapshot, so a leftover snapshot was never committed and is
+     * deleted. A leftover backup is the committed state of a store rewritten in place by an older
+     * version, whose backing file may have been torn, so it is restored. A leftover redo log of a store
+     * synced in place is applied again if it is complete.
+     */
+    void recover() throws IOException {
+        final Path backup = Paths.get(this.file + BACKUP_SUFFIX);
+        if (Files.deleteIfExists(this.snapshotFile)) {
+            LOG.warn("Deleted unfinished snapshot {} of an interrupted sync.", this.snapshotFile);
+        }
+        if (Files.exists(backup)) {
+            LOG.warn("Restoring {} from backup {} of an interrupted sync.", this.file, backup);
+            FileUtils.moveAtomically(backup, this.file);
+        }
+        if (DeltaSync.recover(this.file)) {
+            LOG.warn("Patched {} from the redo log of an interrupted sync.", this.file);
+        }
+    }
+
+    /**
+     * Rewrites the backing file with the contents of a store. Rewrites are serialized, and each
+     * of them includes every mutation applied before it started.
+     *
+     * @param data
+     *        the contents of the store
+     *
+     * @param copy
+     *        copies the contents of the store, called while holding the exclusive lock
+     */
+    void sync(final Map<String, T> data, final Supplier<Map<String, T>> copy) throws IOException {
+        synchronized (this.lock) {
+            final long start = startTimer();
+            try {
+                long written = this.delta == null ? -1 : patch(data);
+                if (written < 0) {
+                    written = rewrite(copy);
+                }
+                this.unforced = !this.durability.isSynchronous();
+                if (this.metrics != null) {
+                    this.metrics.recordBytesWritten(written);
+                }
+            } catch (final IOException ioe) {
+                deleteSnapshot();
+                if (this.delta != null) {
+                    this.delta.forget();
+                }
+                throw ioe;
+            } finally {
+                stopTimer(StoreMetrics.Operation.SYNC, start);
+            }
+        }
+    }
+
+    /**
+     * Forces the backing file to disk if it was rewritten or patched without forcing it.
+     */
+    void force() throws IOException {
+        if (!this.unforced) {
+            return;
+        }
+        synchronized (this.lock) {
+            this.unforced = false;
+            try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Patches the entries mutated since the previous sync, drained while holding the exclusive lock.
+     *
+     * @return the number of bytes written, or {@code -1} if the file has to be rewritten instead
+     */
+    private long patch(final Map<String, T> data) throws IOException {
+        final Map<String, T> changes;
+        this.exclusive.lock();
+        try {
+            changes = this.delta.changes(data);
+        } finally {
+            this.exclusive.unlock();
+        }
+        return changes == null ? -1 : this.delta.patch(changes);
+    }
+
+    /**
+     * Replaces the backing file with a snapshot of a copy of the store, taken while holding the exclusive lock.
+     *
+     * @return the size of the snapshot
+     */
+    private long rewrite(final Supplier<Map<String, T>> copy) throws IOException {
+        repair();
+        final Map<String, T> contents;
+        this.exclusive.lock();
+        try {
+            if (this.delta != null) {
+                this.delta.rewriting();
+            }
+            contents = copy.get();
+        } finally {
+            this.exclusive.unlock();
+        }
+
+        final long written = writeSnapshot(contents);
+        FileUtils.moveAtomically(this.snapshotFile, this.file, this.durability.isSynchronous());
+        if (this.delta != null) {
+            this.delta.written();
+        }
+        return written;
+    }
+
+    /**
+     * Applies the redo log left behind by a failed patch before the backing file is rewritten. The
+     * redo log addresses the layout of the file it was written for, so it must not outlive a rewrite:
+     * a crash after the rewrite would replay it over the new layout when the store is opened.
+     */
+    private void repair() throws IOException {
+        if (this.delta != null && DeltaSync.recover(this.file)) {
+            LOG.warn("Patched {} from the redo log of a failed sync before rewriting it.", this.file);
+        }
+    }
+
+    /**
+     * Writes the contents of a store to the snapshot file and forces it to disk.
+     *
+     * @return the size of the snapshot
+     */
+    private long writeSnapshot(final Map<String, T> data) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.snapshotFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long serializing = startTimer();
+            if (this.delta != null) {
+                this.delta.write(data, this.codec.output(channel));
+            } else {
+                this.codec.write(data, channel);
+            }
+            stopTimer(StoreMetrics.Operation.SERIALIZE, serializing);
+
+            if (this.durability.isSynchronous()) {
+                final long forcing = startTimer();
+                channel.force(true);
+                stopTimer(StoreMetrics.Operation.FSYNC, forcing);
+            }
+            return channel.size();
+        }
+    }
+
+    private void deleteSnapshot() {
+        try {
+            Files.deleteIfExists(this.snapshotFile);
+        } catch (final IOException ioe) {
+            LOG.error("Could not delete snapshot {}!", this.snapshotFile, ioe);
+        }
+    }
+
+    private long startTimer() {
+        return this.metrics == null ? 0L : System.nanoTime();
+    }
+
+    private void stopTimer(final StoreMetrics.Operation operation, final long start) {
+        if (this.metrics != null) {
+            this.metrics.record(operation, System.nanoTime() - start);
+        }
+    }
+}
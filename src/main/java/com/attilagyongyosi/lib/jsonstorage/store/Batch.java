@@ -0,0 +1,112 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A group of mutations applied to a {@link JSONStore} together and persisted
+ * with a single write.
+ *
+ * <p>Mutations are only recorded until {@link #commit()} is called. A batch
+ * can be reused after it has been committed.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+public final class Batch<T> {
+    private final JSONStore<T> store;
+    private final List<JournalEntry> entries = new ArrayList<>();
+
+    Batch(final JSONStore<T> store) {
+        this.store = store;
+    }
+
+    /**
+     * Records an object to be stored at the given key.
+     *
+     * @param  key
+     *         the String key where the object should be stored.
+     *
+     * @param  object
+     *         the object itself to store as JSON.
+     *
+     * @return itself
+     *
+     * @throws NullPointerException
+     *         when {@code object} is {@code null}
+     */
+    public Batch<T> store(final String key, final T object) {
+        this.entries.add(JournalEntry.put(key, Objects.requireNonNull(object, "Stored objects must not be null!")));
+        return this;
+    }
+
+    /**
+     * Records the removal of the given key.
+     *
+     * @param  key
+     *         the key of the object to remove from the store
+     *
+     * @return itself
+     */
+    public Batch<T> remove(final String key) {
+        this.entries.add(JournalEntry.remove(key));
+        return this;
+    }
+
+    /**
+     * Records the removal of every object currently in the store.
+     *
+     * @return itself
+     */
+    public Batch<T> clear() {
+        this.entries.add(JournalEntry.clear());
+        return this;
+    }
+
+    /**
+     * Returns the number of mutations recorded since the last commit.
+     *
+     * @return the number of recorded mutations
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Applies the recorded mutations to the store in order and persists them at once.
+     *
+     * @throws StorageException
+     *         when the mutations could not be persisted
+     */
+    public void commit() throws StorageException {
+        if (this.entries.isEmpty()) {
+            return;
+        }
+
+        final List<JournalEntry> committed = new ArrayList<>(this.entries);
+        this.entries.clear();
+        this.store.write(committed);
+    }
+
+    /**
+     * Applies the recorded mutations to the store in order without waiting for them to be persisted.
+     *
+     * @return a future completed once the mutations are persisted, or completed exceptionally
+     *         with a {@link StorageException}
+     */
+    public CompletableFuture<Void> commitAsync() {
+        if (this.entries.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final List<JournalEntry> committed = new ArrayList<>(this.entries);
+        this.entries.clear();
+        return this.store.writeAsync(committed);
+    }
+}
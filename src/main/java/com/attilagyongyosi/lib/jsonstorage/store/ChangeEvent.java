@@ -0,0 +1,83 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+/**
+ * A mutation of a {@link JSONStore}, published to its change listeners and subscriptions.
+ *
+ * <p>Events are numbered by a sequence starting at {@code 1} every time the store is created.
+ * Events of the same key are numbered in the order the key was mutated in. Mutations made while the
+ * store has no listener, subscription or change history are not published, so they are not numbered.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+public final class ChangeEvent<T> {
+    private final long sequence;
+    private final Type type;
+    private final String key;
+    private final T oldValue;
+    private final T newValue;
+
+    /**
+     * The kind of mutation an event describes.
+     */
+    public enum Type {
+        /**
+         * An object was stored at a key, replacing the old value if there was one.
+         */
+        PUT,
+
+        /**
+         * The object stored at a key was removed.
+         */
+        REMOVE,
+
+        /**
+         * Every object was removed from the store. Clear events carry no key or values.
+         */
+        CLEAR
+    }
+
+    ChangeEvent(final long sequence, final Type type, final String key, final T oldValue, final T newValue) {
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value stored at the key before the mutation.
+     *
+     * @return the previous value, {@code null} for new keys and clear events
+     */
+    public T getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Returns the value stored at the key by the mutation.
+     *
+     * @return the stored value, {@code null} for remove and clear events
+     */
+    public T getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{sequence=" + sequence + ", type=" + type + ", key=" + key + "}";
+    }
+}
@@ -0,0 +1,154 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes the mutations of a {@link JSONStore} to its listeners and subscriptions, and
+ * retains the most recent events so subscriptions can resume from a past sequence.
+ *
+ * <p>Events are numbered and delivered under a single lock, so every listener and subscription
+ * sees them in sequence order. Nothing is published while there are no listeners, subscriptions
+ * or retained history, so stores nobody follows pay nothing but a check per mutation.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class ChangeFeed<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeFeed.class);
+
+    private final Object lock = new Object();
+    private final List<ChangeListener<T>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Subscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Whether the store finished loading; mutations replayed while loading are not published.
+     */
+    private volatile boolean open;
+
+    /**
+     * The number of events to retain.
+     */
+    private int historySize;
+
+    /**
+     * The most recent events, oldest first. Guarded by {@link #lock}.
+     */
+    private final Deque<ChangeEvent<T>> history = new ArrayDeque<>();
+
+    /**
+     * The sequence of the last published event. Guarded by {@link #lock}.
+     */
+    private long sequence;
+
+    /**
+     * Starts publishing mutations once the store is loaded.
+     */
+    void open(final int retained) {
+        this.historySize = retained;
+        this.open = true;
+    }
+
+    void addListener(final ChangeListener<T> listener) {
+        this.listeners.add(listener);
+    }
+
+    void removeListener(final ChangeListener<T> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Subscribes to the events following the last published one.
+     */
+    Subscription<T> subscribe(final int capacity) {
+        synchronized (this.lock) {
+            return register(new Subscription<>(this, capacity, this.sequence));
+        }
+    }
+
+    /**
+     * Subscribes to the events from a past sequence on, queueing the retained ones right away.
+     *
+     * @throws IllegalArgumentException
+     *         when events from the sequence on are no longer retained, or do not fit the subscription
+     */
+    Subscription<T> subscribe(final long from, final int capacity) {
+        synchronized (this.lock) {
+            if (from > this.sequence) {
+                return subscribe(capacity);
+            }
+            final ChangeEvent<T> oldest = this.history.peekFirst();
+            if (oldest == null || oldest.getSequence() > from) {
+                throw new IllegalArgumentException("Changes from sequence " + from + " are no longer retained!");
+            }
+            if (this.sequence - from >= capacity) {
+                throw new IllegalArgumentException("Retained changes from sequence " + from + " do not fit " + capacity + " events!");
+            }
+
+            final Subscription<T> subscription = new Subscription<>(this, capacity, from - 1);
+            for (final ChangeEvent<T> event : this.history) {
+                if (event.getSequence() >= from) {
+                    subscription.offer(event);
+                }
+            }
+            return register(subscription);
+        }
+    }
+
+    void unsubscribe(final Subscription<T> subscription) {
+        this.subscriptions.remove(subscription);
+    }
+
+    /**
+     * Tells whether anybody follows the mutations of the store.
+     */
+    boolean isActive() {
+        return this.open && (this.historySize > 0 || !this.listeners.isEmpty() || !this.subscriptions.isEmpty());
+    }
+
+    /**
+     * Numbers a mutation and delivers it. Called while the mutated key is locked, so the
+     * events of a key are numbered in the order of its mutations.
+     */
+    void publish(final ChangeEvent.Type type, final String key, final T oldValue, final T newValue) {
+        if (!isActive()) {
+            return;
+        }
+
+        synchronized (this.lock) {
+            final ChangeEvent<T> event = new ChangeEvent<>(++this.sequence, type, key, oldValue, newValue);
+            if (this.historySize > 0) {
+                if (this.history.size() == this.historySize) {
+                    this.history.removeFirst();
+                }
+                this.history.addLast(event);
+            }
+            for (final ChangeListener<T> listener : this.listeners) {
+                deliver(listener, event);
+            }
+            for (final Subscription<T> subscription : this.subscriptions) {
+                if (!subscription.offer(event)) {
+                    LOG.warn("Change subscription overflowed at sequence {}, dropping it.", event.getSequence());
+                    this.subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+
+    private Subscription<T> register(final Subscription<T> subscription) {
+        this.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    private static <T> void deliver(final ChangeListener<T> listener, final ChangeEvent<T> event) {
+        try {
+            listener.onChange(event);
+        } catch (final RuntimeException re) {
+            LOG.error("Change listener failed on {}!", event, re);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+/**
+ * Listener notified synchronously of every mutation of a {@link JSONStore}.
+ *
+ * <p>Listeners are called by the writing thread, right after the mutation was applied to the store
+ * and before it is persisted, which has two consequences:</p>
+ *
+ * <ul>
+ *     <li>A listener may be notified of a mutation whose persistence fails afterwards. The mutation
+ *     is still applied to the store in that case, but the writer gets the failure and the mutation
+ *     may be missing from the backing file once the store is opened again.</li>
+ *     <li>Listeners are called while the writer holds the lock of the mutated key and the lock of the
+ *     change feed, one event at a time across the whole store. A slow listener therefore stalls every
+ *     writer of the store, not only the one whose mutation it is handling.</li>
+ * </ul>
+ *
+ * <p>Listeners should return quickly and must not mutate the store; slow consumers should use a
+ * {@link Subscription} instead. Exceptions thrown by a listener are logged and do not fail the mutation.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+@FunctionalInterface
+public interface ChangeListener<T> {
+    /**
+     * Called for every mutation of the store.
+     *
+     * @param event
+     *        the mutation
+     */
+    void onChange(ChangeEvent<T> event);
+}
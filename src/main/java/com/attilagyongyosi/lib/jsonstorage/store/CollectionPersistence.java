@@ -0,0 +1,71 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Persists the mutations of a collection of a {@link JSONDatabase} by submitting them to the journal the
+ * database shares between its collections. The backing file of the collection is only rewritten once the
+ * journal of the database is rotated, see {@link JSONStore#checkpoint()}.
+ *
+ * @param <T> Type of the objects stored in the collection.
+ *
+ * @author attilagyongyosi
+ */
+final class CollectionPersistence<T> extends RewritePersistence<T> {
+    private final SharedJournal journal;
+
+    /**
+     * The name of the collection in its database.
+     */
+    private final String collection;
+
+    /**
+     * Serializes the values of mutations with the modules of the collection, {@code null} if it has none.
+     */
+    private final ObjectMapper mapper;
+
+    CollectionPersistence(final BackingFile<T> backingFile, final DeltaSync<T> delta, final Map<String, T> data, final Supplier<Map<String, T>> copy,
+                          final SharedJournal journal, final String collection, final ObjectMapper mapper) {
+        super(backingFile, delta, data, copy);
+        this.journal = journal;
+        this.collection = collection;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public CompletableFuture<Void> commit(final List<JournalEntry> entries) {
+        return this.journal.submit(this.collection, this.mapper == null ? entries : encode(entries));
+    }
+
+    /**
+     * Leaves the mutations to the next commit of the database.
+     */
+    @Override
+    public CompletableFuture<Void> persist(final CompletableFuture<Void> committed) {
+        return committed;
+    }
+
+    /**
+     * Serializes the values of mutations with the modules of the collection, as the journal of the database has none.
+     */
+    private List<JournalEntry> encode(final List<JournalEntry> entries) {
+        final List<JournalEntry> encoded = new ArrayList<>(entries.size());
+        for (final JournalEntry entry : entries) {
+            if (entry.getOperation() == JournalEntry.Operation.PUT) {
+                encoded.add(JournalEntry.put(entry.getKey(), this.mapper.valueToTree(entry.getValue())));
+            } else if (entry.getOperation() == JournalEntry.Operation.BATCH) {
+                encoded.add(JournalEntry.batch(encode(entry.getEntries())));
+            } else {
+                encoded.add(entry);
+            }
+        }
+        return encoded;
+    }
+}
@@ -0,0 +1,275 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Persists the deadlines of the expiring entries of a {@link JSONStore} in a log next to its backing file,
+ * so that entries expire at the same point in time once the store is opened again.
+ *
+ * <p>Deadlines are wall-clock times in milliseconds since the epoch, as {@link System#nanoTime()} does not
+ * outlive the process. Every mutation of a key with a deadline appends a record of the key and its new
+ * deadline to the log, {@code 0} once the key no longer expires, and clearing the store truncates the log.
+ * The last record of a key wins. A record torn by a crash is dropped when the log is read.</p>
+ *
+ * <p>Records are appended before the mutation is persisted, so a crash in between makes an entry expire
+ * too early rather than never. The records of a commit are forced to disk together, once they are all
+ * appended, see {@link #commit()}. Once the log holds more than twice as many records as there are deadlines,
+ * it is rewritten with the current deadlines only.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class Deadlines implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Deadlines.class);
+
+    static final String SUFFIX = "-expiry";
+    private static final String REWRITING_SUFFIX = "-rewriting";
+    private static final int MIN_REWRITE_RECORDS = 1024;
+
+    private final Path path;
+    private final boolean forced;
+
+    /**
+     * Supplies the current deadlines of the store, by key, to rewrite the log with.
+     */
+    private final Supplier<Map<String, Long>> current;
+
+    /**
+     * Keys whose last record holds a deadline. Guarded by {@link #lock}.
+     */
+    private final Set<String> recorded;
+
+    private final Object lock = new Object();
+
+    /**
+     * The number of records in the log. Guarded by {@link #lock}.
+     */
+    private long records;
+
+    /**
+     * The log opened for appending, {@code null} until the first record is appended. Guarded by {@link #lock}.
+     */
+    private FileChannel channel;
+
+    /**
+     * Whether records were appended since the log was last forced. Guarded by {@link #lock}.
+     */
+    private boolean unforced;
+
+    private Deadlines(final Path path, final boolean forced, final Supplier<Map<String, Long>> current, final Set<String> recorded,
+                      final long records) {
+        this.path = path;
+        this.forced = forced;
+        this.current = current;
+        this.recorded = recorded;
+        this.records = records;
+    }
+
+    /**
+     * Reads the deadlines persisted for a store and opens their log.
+     *
+     * @param  storeFile
+     *         the backing file of the store
+     *
+     * @param  forced
+     *         whether records are forced to disk, see {@link Durability}
+     *
+     * @param  current
+     *         supplies the current deadlines of the store, by key
+     *
+     * @param  restored
+     *         receives the persisted deadlines, by key
+     *
+     * @return the opened log
+     */
+    static Deadlines open(final Path storeFile, final boolean forced, final Supplier<Map<String, Long>> current, final Map<String, Long> restored)
+        throws IOException {
+
+        final Path path = Paths.get(storeFile + SUFFIX);
+        Files.deleteIfExists(Paths.get(path + REWRITING_SUFFIX));
+        long records = 0;
+        if (Files.exists(path)) {
+            records = read(path, restored);
+        }
+        restored.values().removeIf(deadline -> deadline == 0);
+        final Set<String> recorded = Collections.newSetFromMap(new HashMap<>(restored.size()));
+        recorded.addAll(restored.keySet());
+        return new Deadlines(path, forced, current, recorded, records);
+    }
+
+    /**
+     * Records the deadline of a stored key, {@code 0} if it does not expire.
+     */
+    void written(final String key, final long deadline) throws IOException {
+        synchronized (this.lock) {
+            if (deadline != 0) {
+                this.recorded.add(key);
+                append(key, deadline);
+            } else if (this.recorded.remove(key)) {
+                append(key, 0);
+            }
+        }
+    }
+
+    /**
+     * Records the removal of a key.
+     */
+    void removed(final String key) throws IOException {
+        synchronized (this.lock) {
+            if (this.recorded.remove(key)) {
+                append(key, 0);
+            }
+        }
+    }
+
+    /**
+     * Records the clearing of the store by truncating the log.
+     */
+    void cleared() throws IOException {
+        synchronized (this.lock) {
+            this.recorded.clear();
+            this.records = 0;
+            if (this.channel == null) {
+                Files.deleteIfExists(this.path);
+            } else {
+                this.channel.truncate(0);
+                this.unforced = true;
+            }
+        }
+    }
+
+    /**
+     * Forces the records of a commit to disk at once, if every write is forced.
+     */
+    void commit() throws IOException {
+        if (this.forced) {
+            force();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to disk.
+     */
+    void force() throws IOException {
+        synchronized (this.lock) {
+            if (this.channel != null && this.unforced) {
+                this.channel.force(false);
+            }
+            this.unforced = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.lock) {
+            if (this.channel != null) {
+                this.channel.close();
+                this.channel = null;
+            }
+        }
+    }
+
+    /**
+     * Deletes the log of a store, which has to be closed.
+     *
+     * @param storeFile
+     *        the backing file of the store
+     */
+    static void delete(final Path storeFile) throws IOException {
+        Files.deleteIfExists(Paths.get(storeFile + SUFFIX));
+    }
+
+    private void append(final String key, final long deadline) throws IOException {
+        if (this.records > 2L * this.recorded.size() + MIN_REWRITE_RECORDS) {
+            rewrite();
+        }
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        writeFully(this.channel, encode(Collections.singletonMap(key, deadline)));
+        this.records++;
+        this.unforced = true;
+    }
+
+    /**
+     * Replaces the log with the current deadlines, written to a file of its own first.
+     */
+    private void rewrite() throws IOException {
+        final Map<String, Long> deadlines = this.current.get();
+        final Path rewriting = Paths.get(this.path + REWRITING_SUFFIX);
+        try (FileChannel out = FileChannel.open(rewriting, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, encode(deadlines));
+            out.force(false);
+        }
+        close();
+        FileUtils.moveAtomically(rewriting, this.path, this.forced);
+        this.recorded.clear();
+        this.recorded.addAll(deadlines.keySet());
+        this.records = deadlines.size();
+        LOG.debug("Rewrote {} with {} deadlines.", this.path, deadlines.size());
+    }
+
+    /**
+     * Reads the records of a log, truncating a record torn by a crash.
+     *
+     * @return the number of records read
+     */
+    private static long read(final Path path, final Map<String, Long> deadlines) throws IOException {
+        final ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+        long records = 0;
+        while (log.remaining() >= Integer.BYTES) {
+            final int length = log.getInt(log.position());
+            if (length < 0 || log.remaining() < Integer.BYTES + length + Long.BYTES) {
+                break;
+            }
+            log.getInt();
+            final byte[] key = new byte[length];
+            log.get(key);
+            deadlines.put(new String(key, StandardCharsets.UTF_8), log.getLong());
+            records++;
+        }
+        if (log.hasRemaining()) {
+            LOG.warn("Dropping a record of {} torn by a crash.", path);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(log.position());
+            }
+        }
+        return records;
+    }
+
+    private static ByteBuffer encode(final Map<String, Long> deadlines) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (final Map.Entry<String, Long> deadline : deadlines.entrySet()) {
+            final byte[] key = deadline.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeLong(deadline.getValue());
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
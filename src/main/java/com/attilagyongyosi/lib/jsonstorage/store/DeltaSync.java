@@ -0,0 +1,445 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Syncs a JSON backing file by patching the entries mutated since the last sync in place, instead
+ * of rewriting every entry.
+ *
+ * <p>Every entry is written to a slot of its own, whose byte range is remembered. A slot starts with
+ * the comma separating it from the previous entry, except for the first one. A mutated entry whose new
+ * value fits its slot is written over it, padded with whitespace. Removed entries, and entries that
+ * outgrew their slot, are overwritten with whitespace, and grown or added entries are appended before
+ * the closing brace, so the file stays a valid JSON object that any JSON reader can parse.</p>
+ *
+ * <p>The patches of a sync are first written to a redo log next to the backing file and forced to disk,
+ * then written to the backing file, so a crash while patching is repaired by applying the redo log again
+ * when the store is opened. Unless the store syncs each write, neither is forced, which still repairs
+ * patches interrupted by a crash of the process. Once the whitespace left behind makes up more than a given share of the file,
+ * or the store was cleared, the next sync rewrites the whole file.</p>
+ *
+ * <p>Mutations are tracked concurrently with syncs. The mutated entries are drained while no mutation is
+ * applied, see {@link #changes(Map)}, so that a sync never patches half of a batch. Everything else is
+ * guarded by the sync lock of the store.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings({ "PMD.TooManyMethods", "PMD.GodClass" })
+final class DeltaSync<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(DeltaSync.class);
+
+    static final String PATCH_SUFFIX = "-patch";
+    static final double DEFAULT_FRAGMENTATION = 0.5;
+
+    private static final byte[] OPENING = "{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOSING = "\n}".getBytes(StandardCharsets.UTF_8);
+    private static final byte COMMA = ',';
+    private static final byte BLANK = ' ';
+
+    private final Path file;
+    private final Path patchFile;
+    private final ObjectWriter keyWriter;
+    private final ObjectWriter valueWriter;
+    private final byte[] separator;
+    private final double fragmentation;
+    private final boolean forced;
+
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean cleared = new AtomicBoolean();
+
+    /**
+     * Slots of the entries written to the file, by key. Empty until the file is first written.
+     */
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    /**
+     * The same slots, by their offset in the file.
+     */
+    private final NavigableMap<Long, Slot> layout = new TreeMap<>();
+
+    /**
+     * Whether {@link #slots} describe the backing file.
+     */
+    private boolean known;
+
+    /**
+     * The offset of the closing brace of the file.
+     */
+    private long end;
+
+    /**
+     * Bytes of whitespace left in the file by patches.
+     */
+    private long wasted;
+
+    /**
+     * @param file
+     *        the backing file
+     *
+     * @param mapper
+     *        the mapper writing the format of the backing file, one of the JSON formats
+     *
+     * @param type
+     *        the type of the stored objects
+     *
+     * @param fragmentation
+     *        the share of whitespace in the file that makes the next sync rewrite it
+     *
+     * @param forced
+     *        whether patches are forced to disk, see {@link Durability}
+     */
+    DeltaSync(final Path file, final ObjectMapper mapper, final Class<T> type, final double fragmentation, final boolean forced) {
+        final String separator = mapper.isEnabled(SerializationFeature.INDENT_OUTPUT) ? " : " : ":";
+        this.file = file;
+        this.patchFile = Paths.get(file + PATCH_SUFFIX);
+        this.keyWriter = mapper.writerFor(String.class).without(SerializationFeature.INDENT_OUTPUT);
+        this.valueWriter = mapper.writerFor(type);
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.fragmentation = fragmentation;
+        this.forced = forced;
+    }
+
+    /**
+     * Records a mutation of a key, to be patched by the next sync. Called after the mutation is applied.
+     */
+    void mutated(final String key) {
+        this.dirty.add(key);
+    }
+
+    /**
+     * Records that the store was cleared, which makes the next sync rewrite the file.
+     */
+    void cleared() {
+        this.cleared.set(true);
+    }
+
+    /**
+     * Drains the keys mutated since the last sync along with the objects they hold, {@code null} for
+     * removed keys. Has to be called while no mutation is applied, so that the objects are those of
+     * a single point in time.
+     *
+     * @return the mutated entries, or {@code null} if the file has to be rewritten instead
+     */
+    Map<String, T> changes(final Map<String, T> data) {
+        if (!this.known || this.cleared.get()) {
+            return null;
+        }
+
+        final Map<String, T> changes = new HashMap<>();
+        for (final String key : this.dirty) {
+            this.dirty.remove(key);
+            changes.put(key, data.get(key));
+        }
+        return changes;
+    }
+
+    /**
+     * Patches the entries drained by {@link #changes(Map)} in the backing file.
+     *
+     * @return the number of bytes written, or {@code -1} if the file has to be rewritten instead
+     */
+    long patch(final Map<String, T> changes) throws IOException {
+        final List<Patch> patches;
+        try {
+            patches = plan(changes);
+        } catch (final IOException | RuntimeException e) {
+            forget();
+            throw e;
+        }
+        if (this.wasted > (this.end + CLOSING.length) * this.fragmentation) {
+            LOG.debug("{} is fragmented, rewriting it.", this.file);
+            return -1;
+        }
+        if (patches.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return apply(patches);
+        } catch (final IOException ioe) {
+            forget();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Drops the mutations tracked so far, as the file is about to be rewritten from a copy of the
+     * store. Has to be called while no mutation is applied, along with taking the copy.
+     */
+    void rewriting() {
+        this.cleared.set(false);
+        this.dirty.clear();
+    }
+
+    /**
+     * Writes every entry to a new file in slots, remembering their layout until {@link #written()}
+     * or {@link #forget()} is called. The stream is flushed but not closed.
+     */
+    void write(final Map<String, T> data, final OutputStream out) throws IOException {
+        forget();
+
+        long offset = OPENING.length;
+        out.write(OPENING);
+        for (final Map.Entry<String, T> entry : data.entrySet()) {
+            final byte[] bytes = encode(entry.getKey(), entry.getValue(), offset > OPENING.length);
+            out.write(bytes);
+            place(new Slot(entry.getKey(), offset, bytes.length, offset > OPENING.length));
+            offset += bytes.length;
+        }
+        out.write(CLOSING);
+        out.flush();
+        this.end = offset;
+    }
+
+    /**
+     * Marks the file written by {@link #write(Map, OutputStream)} as the backing file.
+     */
+    void written() {
+        this.known = true;
+    }
+
+    /**
+     * Forgets the layout of the backing file, so that the next sync rewrites it.
+     */
+    void forget() {
+        this.known = false;
+        this.slots.clear();
+        this.layout.clear();
+        this.wasted = 0;
+    }
+
+    /**
+     * Applies the redo log of a patch interrupted by a crash to the backing file. An incomplete redo log
+     * was never applied, so it is deleted.
+     *
+     * @return {@code true} if a redo log was applied
+     */
+    static boolean recover(final Path file) throws IOException {
+        final Path patchFile = Paths.get(file + PATCH_SUFFIX);
+        if (!Files.exists(patchFile)) {
+            return false;
+        }
+
+        final ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(patchFile));
+        final boolean complete = log.remaining() >= Long.BYTES && checksum(log.array(), log.limit() - Long.BYTES) == log.getLong(log.limit() - Long.BYTES);
+        if (complete) {
+            log.limit(log.limit() - Long.BYTES);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                while (log.hasRemaining()) {
+                    final long offset = log.getLong();
+                    final byte[] bytes = new byte[log.getInt()];
+                    log.get(bytes);
+                    writeFully(channel, ByteBuffer.wrap(bytes), offset);
+                }
+                channel.force(true);
+            }
+        }
+        Files.delete(patchFile);
+        return complete;
+    }
+
+    /**
+     * Plans the patches of the mutated keys and updates the layout accordingly: first the slots
+     * that are written over or blanked, then the comma of a new first slot, then the appended slots.
+     */
+    private List<Patch> plan(final Map<String, T> changes) throws IOException {
+        final List<Patch> patches = new ArrayList<>();
+        final List<String> appended = new ArrayList<>();
+        for (final Map.Entry<String, T> change : changes.entrySet()) {
+            final String key = change.getKey();
+            final T value = change.getValue();
+            final Slot slot = this.slots.get(key);
+            if (slot != null) {
+                final byte[] bytes = value == null ? null : encode(key, value, slot.leading);
+                if (bytes != null && bytes.length <= slot.capacity) {
+                    patches.add(new Patch(slot.offset, pad(bytes, slot.capacity)));
+                    this.wasted += slot.length - bytes.length;
+                    slot.resize(bytes.length);
+                    continue;
+                }
+                patches.add(new Patch(slot.offset, blank(slot.capacity)));
+                this.wasted += slot.length;
+                this.slots.remove(key);
+                this.layout.remove(slot.offset);
+            }
+            if (value != null) {
+                appended.add(key);
+            }
+        }
+
+        final Map.Entry<Long, Slot> first = this.layout.firstEntry();
+        if (first != null && first.getValue().leading) {
+            first.getValue().dropComma();
+            patches.add(new Patch(first.getKey(), new byte[] { BLANK }));
+            this.wasted++;
+        }
+
+        if (!appended.isEmpty()) {
+            patches.add(append(appended, changes));
+        }
+        return patches;
+    }
+
+    private Patch append(final List<String> keys, final Map<String, T> data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long offset = this.end;
+        for (final String key : keys) {
+            final boolean leading = !this.layout.isEmpty();
+            final byte[] bytes = encode(key, data.get(key), leading);
+            out.write(bytes);
+            place(new Slot(key, offset, bytes.length, leading));
+            offset += bytes.length;
+        }
+        out.write(CLOSING);
+
+        final Patch patch = new Patch(this.end, out.toByteArray());
+        this.end = offset;
+        return patch;
+    }
+
+    /**
+     * Writes the patches to the redo log, forces it, then applies them to the backing file and deletes the redo log.
+     */
+    private long apply(final List<Patch> patches) throws IOException {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(log);
+        long written = 0;
+        for (final Patch patch : patches) {
+            out.writeLong(patch.offset);
+            out.writeInt(patch.bytes.length);
+            out.write(patch.bytes);
+            written += patch.bytes.length;
+        }
+        out.writeLong(checksum(log.toByteArray(), log.size()));
+
+        try (FileChannel channel = FileChannel.open(this.patchFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(log.toByteArray()), 0);
+            if (this.forced) {
+                channel.force(false);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.WRITE)) {
+            for (final Patch patch : patches) {
+                writeFully(channel, ByteBuffer.wrap(patch.bytes), patch.offset);
+            }
+            if (this.forced) {
+                channel.force(false);
+            }
+        }
+        Files.delete(this.patchFile);
+
+        LOG.debug("Patched {} regions of {} with {} bytes.", patches.size(), this.file, written);
+        return written + log.size();
+    }
+
+    private byte[] encode(final String key, final T value, final boolean leading) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (leading) {
+            out.write(COMMA);
+        }
+        out.write('\n');
+        out.write(this.keyWriter.writeValueAsBytes(key));
+        out.write(this.separator);
+        out.write(this.valueWriter.writeValueAsBytes(value));
+        return out.toByteArray();
+    }
+
+    private void place(final Slot slot) {
+        this.slots.put(slot.key, slot);
+        this.layout.put(slot.offset, slot);
+    }
+
+    private static byte[] pad(final byte[] bytes, final int capacity) {
+        final byte[] padded = Arrays.copyOf(bytes, capacity);
+        Arrays.fill(padded, bytes.length, capacity, BLANK);
+        return padded;
+    }
+
+    private static byte[] blank(final int capacity) {
+        return pad(new byte[0], capacity);
+    }
+
+    private static long checksum(final byte[] bytes, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * The byte range of an entry in the backing file.
+     */
+    private static final class Slot {
+        private final String key;
+        private final long offset;
+        private final int capacity;
+        private int length;
+        private boolean leading;
+
+        Slot(final String key, final long offset, final int length, final boolean leading) {
+            this.key = key;
+            this.offset = offset;
+            this.capacity = length;
+            this.length = length;
+            this.leading = leading;
+        }
+
+        void resize(final int used) {
+            this.length = used;
+        }
+
+        void dropComma() {
+            this.leading = false;
+        }
+    }
+
+    /**
+     * Bytes to be written at an offset of the backing file.
+     */
+    private static final class Patch {
+        private final long offset;
+        private final byte[] bytes;
+
+        @SuppressWarnings("PMD.UseVarargs")
+        Patch(final long offset, final byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+}
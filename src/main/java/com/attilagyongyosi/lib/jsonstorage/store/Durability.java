@@ -0,0 +1,95 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the writes of a {@link JSONStore} are forced from the OS to stable storage, trading
+ * the mutations a crash of the machine may lose for the latency of writes.
+ *
+ * <p>Whatever the level, a write is handed to the OS before it is acknowledged, so no acknowledged
+ * mutation is lost when only the process crashes, and closing the store forces every write.</p>
+ *
+ * <ul>
+ *     <li>{@link #SYNC_EACH_WRITE}: every commit is forced before it is acknowledged. A crash of the
+ *     machine loses no acknowledged mutation. The default.</li>
+ *     <li>{@link #periodic(long, TimeUnit)}: a background flusher forces the writes of the store once
+ *     per interval. A crash of the machine loses at most the mutations of the last interval.</li>
+ *     <li>{@link #OS_BUFFERED}: writes are only forced when the store is closed, and otherwise
+ *     left to the OS. A crash of the machine loses whatever the OS had not written back yet.</li>
+ * </ul>
+ *
+ * <p>Stores that rewrite their backing file only force the rewritten file with {@link #SYNC_EACH_WRITE}.
+ * With the other levels, a crash of the machine before the rewritten file is forced may also leave
+ * the backing file empty or incomplete, so they are meant for data that can be rebuilt.</p>
+ *
+ * @author attilagyongyosi
+ */
+public final class Durability {
+    public static final Durability SYNC_EACH_WRITE = new Durability(Level.SYNC_EACH_WRITE, 0);
+    public static final Durability OS_BUFFERED = new Durability(Level.OS_BUFFERED, 0);
+
+    private final Level level;
+    private final long intervalNanos;
+
+    /**
+     * The durability levels.
+     */
+    public enum Level {
+        SYNC_EACH_WRITE,
+        PERIODIC,
+        OS_BUFFERED
+    }
+
+    private Durability(final Level level, final long intervalNanos) {
+        this.level = level;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Returns a durability forcing the writes of a store in the background once per interval.
+     *
+     * @param  interval
+     *         the time between two forces
+     *
+     * @param  unit
+     *         the unit of {@code interval}
+     *
+     * @return the periodic durability
+     */
+    public static Durability periodic(final long interval, final TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive!");
+        }
+        return new Durability(Level.PERIODIC, unit.toNanos(interval));
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the time between two forces of a periodic durability.
+     *
+     * @param  unit
+     *         the unit of the interval
+     *
+     * @return the interval, {@code 0} unless the level is {@link Level#PERIODIC}
+     */
+    public long getInterval(final TimeUnit unit) {
+        return unit.convert(this.intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Tells whether every commit is forced before it is acknowledged.
+     *
+     * @return {@code true} for {@link #SYNC_EACH_WRITE}
+     */
+    public boolean isSynchronous() {
+        return this.level == Level.SYNC_EACH_WRITE;
+    }
+
+    @Override
+    public String toString() {
+        return this.level == Level.PERIODIC ? "PERIODIC(" + TimeUnit.NANOSECONDS.toMillis(this.intervalNanos) + " ms)" : this.level.name();
+    }
+}
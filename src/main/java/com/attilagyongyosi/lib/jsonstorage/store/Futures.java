@@ -0,0 +1,49 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Futures of the mutations of a {@link JSONStore}, failing with a {@link StorageException}.
+ *
+ * @author attilagyongyosi
+ */
+final class Futures {
+    /**
+     * Completed future of mutations that are persisted already.
+     */
+    static final CompletableFuture<Void> COMMITTED = CompletableFuture.completedFuture(null);
+
+    private Futures() {
+    }
+
+    /**
+     * Waits for a mutation to be persisted.
+     *
+     * @throws StorageException
+     *         the failure of the mutation, or the interruption of the waiting thread
+     */
+    static <V> V await(final Future<V> committed) throws StorageException {
+        try {
+            return committed.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(ie);
+        } catch (final ExecutionException ee) {
+            throw unwrap(ee);
+        }
+    }
+
+    static <V> CompletableFuture<V> failed(final StorageException se) {
+        final CompletableFuture<V> failed = new CompletableFuture<>();
+        failed.completeExceptionally(se);
+        return failed;
+    }
+
+    private static StorageException unwrap(final ExecutionException ee) {
+        return ee.getCause() instanceof StorageException ? (StorageException) ee.getCause() : new StorageException(ee.getCause());
+    }
+}
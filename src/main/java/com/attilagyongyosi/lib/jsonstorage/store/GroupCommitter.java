@@ -0,0 +1,214 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the mutations of concurrent writers and persists them with a single flush.
+ *
+ * <p>A background thread waits for the first pending mutation, then keeps collecting
+ * mutations until either the commit window elapses or the maximum batch size is reached.
+ * Every writer of the batch is released once the shared flush completes.</p>
+ *
+ * <p>Mutations of a batch are coalesced before they are flushed, unless they belong to several
+ * collections: only the last mutation of every key is persisted, along with the last clearing of
+ * the store preceding them.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class GroupCommitter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+    /**
+     * Maximum number of mutations flushed together by stores persisting asynchronously.
+     */
+    static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /**
+     * Marker queued on close to wake the background thread up.
+     */
+    private static final Pending CLOSED = new Pending(Collections.emptyList());
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Flusher flusher;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final boolean coalescing;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Callback persisting the entries of a batch.
+     */
+    interface Flusher {
+        void flush(List<JournalEntry> entries) throws StorageException;
+    }
+
+    /**
+     * Entries of a single writer, along with the future completed once they are persisted.
+     */
+    private static final class Pending {
+        private final List<JournalEntry> entries;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        Pending(final List<JournalEntry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    GroupCommitter(final Flusher flusher, final long window, final TimeUnit unit, final int maxBatchSize) {
+        this(flusher, window, unit, maxBatchSize, true);
+    }
+
+    GroupCommitter(final Flusher flusher, final long window, final TimeUnit unit, final int maxBatchSize, final boolean coalescing) {
+        this.flusher = flusher;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.coalescing = coalescing;
+        this.thread = new Thread(this::run, "json-store-committer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues entries to be persisted with the next flush.
+     *
+     * @param  entries
+     *         the entries to persist
+     *
+     * @return a future completed once the entries are persisted
+     */
+    CompletableFuture<Void> submit(final List<JournalEntry> entries) {
+        final Pending pending = new Pending(entries);
+        synchronized (this.queue) {
+            if (this.running) {
+                this.queue.add(pending);
+            } else {
+                pending.committed.completeExceptionally(new StorageException(new IllegalStateException("Store is closed!")));
+            }
+        }
+        return pending.committed;
+    }
+
+    /**
+     * Stops accepting new entries, without waiting for the queued ones to be flushed.
+     */
+    void stop() {
+        synchronized (this.queue) {
+            this.running = false;
+            this.queue.add(CLOSED);
+        }
+    }
+
+    /**
+     * Flushes the entries queued so far and stops the background thread.
+     */
+    @Override
+    public void close() {
+        stop();
+        try {
+            this.thread.join();
+        } catch (final InterruptedException ie) {
+            LOG.warn("Interrupted while waiting for the group committer to stop!", ie);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                collect(this.queue.take());
+            } catch (final InterruptedException ie) {
+                LOG.debug("Group committer interrupted, flushing pending entries...", ie);
+            }
+        }
+
+        final List<Pending> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        flush(remaining);
+    }
+
+    private void collect(final Pending first) throws InterruptedException {
+        final List<Pending> batch = new ArrayList<>();
+        batch.add(first);
+
+        try {
+            int size = first.entries.size();
+            final long deadline = System.nanoTime() + this.windowNanos;
+            while (size < this.maxBatchSize && this.running) {
+                final Pending next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                size += next.entries.size();
+            }
+        } finally {
+            flush(batch);
+        }
+    }
+
+    private void flush(final List<Pending> batch) {
+        final List<JournalEntry> entries = new ArrayList<>();
+        for (final Pending pending : batch) {
+            entries.addAll(pending.entries);
+        }
+
+        try {
+            if (!entries.isEmpty()) {
+                this.flusher.flush(this.coalescing ? coalesce(entries) : entries);
+            }
+            for (final Pending pending : batch) {
+                pending.committed.complete(null);
+            }
+        } catch (final StorageException | RuntimeException e) {
+            for (final Pending pending : batch) {
+                pending.committed.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Drops every mutation that is overridden by a later one of the same batch. A clearing
+     * of the store drops every mutation before it and is kept as the first entry.
+     */
+    static List<JournalEntry> coalesce(final List<JournalEntry> entries) {
+        final Map<String, JournalEntry> latest = new LinkedHashMap<>();
+        coalesce(entries, latest);
+        if (latest.size() < entries.size()) {
+            LOG.debug("Coalesced {} mutations into {}.", entries.size(), latest.size());
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    private static void coalesce(final List<JournalEntry> entries, final Map<String, JournalEntry> latest) {
+        for (final JournalEntry entry : entries) {
+            switch (entry.getOperation()) {
+                case BATCH:
+                    coalesce(entry.getEntries(), latest);
+                    break;
+                case CLEAR:
+                    latest.clear();
+                    latest.put(null, entry);
+                    break;
+                default:
+                    latest.put(entry.getKey(), entry);
+                    break;
+            }
+        }
+    }
+}
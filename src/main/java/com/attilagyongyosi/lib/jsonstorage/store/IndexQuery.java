@@ -0,0 +1,82 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Lookups of the objects of a {@link JSONStore} through one of its secondary indexes,
+ * see {@link JSONStore#query(String)}.
+ *
+ * <p>Lookups only visit the keys the index holds for the requested values, instead of every
+ * object of the store. Objects mutated concurrently are checked against the lookup again, so
+ * results never contain objects that did not match when they were read. Objects that have outlived
+ * their time-to-live are skipped, whether or not they were evicted yet.</p>
+ *
+ * @param <T> Type of the objects of the store.
+ *
+ * @author attilagyongyosi
+ */
+public final class IndexQuery<T> {
+    private final SecondaryIndex<T> index;
+
+    /**
+     * Reads the current object of a key, {@code null} if none or if it has expired.
+     */
+    private final Function<String, T> lookup;
+
+    IndexQuery(final SecondaryIndex<T> index, final Function<String, T> lookup) {
+        this.index = index;
+        this.lookup = lookup;
+    }
+
+    /**
+     * Returns the objects whose indexed value equals the given one.
+     *
+     * @param  value
+     *         the value to look up
+     *
+     * @return the matching objects, in no particular order
+     */
+    public List<T> equalTo(final Object value) {
+        final List<T> matches = new ArrayList<>();
+        for (final String key : this.index.keysEqualTo(value)) {
+            final T object = this.lookup.apply(key);
+            if (object != null && Objects.equals(this.index.extract(object), value)) {
+                matches.add(object);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the objects whose indexed value is between the given bounds, both inclusive.
+     *
+     * @param  from
+     *         the lower bound, {@code null} for none
+     *
+     * @param  to
+     *         the upper bound, {@code null} for none
+     *
+     * @return the matching objects, in the order of their indexed values
+     *
+     * @throws ClassCastException
+     *         when the bounds are not comparable with the indexed values
+     */
+    public List<T> range(final Object from, final Object to) {
+        final Map<String, T> matches = new LinkedHashMap<>();
+        for (final Set<String> keys : this.index.keysBetween(from, to)) {
+            for (final String key : keys) {
+                final T object = this.lookup.apply(key);
+                if (object != null && this.index.isBetween(object, from, to)) {
+                    matches.putIfAbsent(key, object);
+                }
+            }
+        }
+        return new ArrayList<>(matches.values());
+    }
+}
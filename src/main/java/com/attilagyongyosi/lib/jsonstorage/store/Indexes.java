@@ -0,0 +1,92 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The secondary indexes of a {@link JSONStore}: declared while the store is built,
+ * built once its entries are loaded, then updated by each of its mutations.
+ *
+ * @param <T> Type of the indexed objects.
+ *
+ * @author attilagyongyosi
+ */
+final class Indexes<T> {
+    private final Map<String, Function<? super T, ?>> extractors = new LinkedHashMap<>();
+    private final List<String> properties = new ArrayList<>();
+
+    /**
+     * The built indexes by name, empty until {@link #build(ObjectMapper, Class, Map)} is called.
+     */
+    private Map<String, SecondaryIndex<T>> built = Collections.emptyMap();
+
+    void declare(final String name, final Function<? super T, ?> extractor) {
+        this.extractors.put(name, extractor);
+    }
+
+    void declare(final String property) {
+        this.properties.add(property);
+    }
+
+    boolean isEmpty() {
+        return this.extractors.isEmpty() && this.properties.isEmpty();
+    }
+
+    /**
+     * Builds the declared indexes from the entries of a store.
+     *
+     * @throws IllegalArgumentException
+     *         when a declared property does not exist
+     */
+    void build(final ObjectMapper mapper, final Class<T> type, final Map<String, T> entries) {
+        final Map<String, SecondaryIndex<T>> indexes = new LinkedHashMap<>();
+        for (final String property : this.properties) {
+            indexes.put(property, SecondaryIndex.ofProperty(mapper, type, property));
+        }
+        for (final Map.Entry<String, Function<? super T, ?>> extractor : this.extractors.entrySet()) {
+            indexes.put(extractor.getKey(), new SecondaryIndex<>(extractor.getKey(), extractor.getValue()));
+        }
+
+        for (final Map.Entry<String, T> entry : entries.entrySet()) {
+            for (final SecondaryIndex<T> index : indexes.values()) {
+                index.update(entry.getKey(), entry.getValue());
+            }
+        }
+        this.built = indexes;
+    }
+
+    /**
+     * Returns an index by name.
+     *
+     * @return the index, {@code null} if there is no such index
+     */
+    SecondaryIndex<T> get(final String name) {
+        return this.built.get(name);
+    }
+
+    Collection<String> names() {
+        return this.built.keySet();
+    }
+
+    /**
+     * Updates every index after the object of a key changed.
+     */
+    void update(final String key, final T current) {
+        for (final SecondaryIndex<T> index : this.built.values()) {
+            index.update(key, current);
+        }
+    }
+
+    void clear() {
+        for (final SecondaryIndex<T> index : this.built.values()) {
+            index.clear();
+        }
+    }
+}
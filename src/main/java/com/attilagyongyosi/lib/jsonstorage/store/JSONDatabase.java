@@ -0,0 +1,324 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A directory hosting several named, typed collections that share a single journal.
+ *
+ * <p>Every collection is a {@link JSONStore} with a backing file of its own in the directory, but
+ * none of them persists its own mutations. They are appended to the journal of the database instead
+ * by a single group commit thread, so concurrent writes to any of the collections are made durable
+ * together, with one write to one file. Mutations of a {@link Batch} are appended as a single entry.</p>
+ *
+ * <p>Once the journal grows past a threshold, it is rotated aside, the backing file of every collection
+ * is rewritten in the background, then the rotated journal is discarded. Entries of the rotated journal
+ * are replayed again if the database is opened before that, which is harmless as replaying a mutation
+ * over a file already containing it leaves the file as it was.</p>
+ *
+ * <p>Databases are opened through a {@link JSONDatabaseBuilder}.</p>
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public final class JSONDatabase {
+    private static final Logger LOG = LoggerFactory.getLogger(JSONDatabase.class);
+
+    static final String JOURNAL_NAME = "database-journal";
+    static final String COLLECTION_SUFFIX = ".db";
+
+    private final Path directory;
+    private final Journal journal;
+    private final long compactionThreshold;
+    private final Map<String, JSONStore<?>> collections = new LinkedHashMap<>();
+    private final Map<String, Class<?>> types = new HashMap<>();
+
+    /**
+     * Entries of every collection read from the journal, until the collections are created.
+     */
+    private final Map<String, List<JournalEntry>> recovered = new HashMap<>();
+
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactor;
+    private GroupCommitter committer;
+
+    private JSONDatabase(final Path directory, final long compactionThreshold) {
+        this.directory = directory;
+        this.journal = new Journal(directory.resolve(JOURNAL_NAME));
+        this.compactionThreshold = compactionThreshold;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "json-database-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a database: reads its journal, then creates every collection from its backing file
+     * and its entries of the journal.
+     */
+    static JSONDatabase open(final Path directory, final Map<String, JSONDatabaseBuilder.Declaration<?>> declarations,
+                             final long window, final TimeUnit unit, final int maxBatchSize, final long compactionThreshold)
+        throws StoreCreationException {
+
+        LOG.debug("Opening JSON database in {}...", directory);
+        final JSONDatabase database = new JSONDatabase(directory, compactionThreshold);
+        try {
+            Files.createDirectories(directory);
+            database.journal.open();
+            database.journal.replay(database::recover);
+        } catch (final IOException | InvalidJsonException e) {
+            LOG.error("Could not read journal of database {}!", directory, e);
+            database.release();
+            throw new StoreCreationException("Could not read database journal!", e);
+        }
+
+        database.committer = new GroupCommitter(database::flush, window, unit, maxBatchSize, false);
+        final SharedJournal shared = database.new Shared();
+        try {
+            for (final Map.Entry<String, JSONDatabaseBuilder.Declaration<?>> declaration : declarations.entrySet()) {
+                database.collections.put(declaration.getKey(), declaration.getValue().open(directory, declaration.getKey(), shared));
+                database.types.put(declaration.getKey(), declaration.getValue().getType());
+            }
+        } catch (final StoreCreationException sce) {
+            database.closeQuietly();
+            throw sce;
+        }
+
+        for (final String unknown : database.recovered.keySet()) {
+            LOG.warn("Journal of database {} has entries of undeclared collection {}, they will be discarded.", directory, unknown);
+        }
+        database.recovered.clear();
+        return database;
+    }
+
+    /**
+     * Returns a collection of the database.
+     *
+     * @param  name
+     *         the name of the collection
+     *
+     * @param  type
+     *         the type of objects the collection was declared with
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the objects
+     *
+     * @return the collection
+     *
+     * @throws IllegalArgumentException
+     *         when the database has no such collection, or it was declared with another type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> JSONStore<T> collection(final String name, final Class<T> type) {
+        final Class<?> declared = this.types.get(name);
+        if (declared == null) {
+            throw new IllegalArgumentException("Database has no collection " + name + "!");
+        }
+        if (!declared.equals(type)) {
+            throw new IllegalArgumentException("Collection " + name + " holds " + declared.getName() + " objects!");
+        }
+        return (JSONStore<T>) this.collections.get(name);
+    }
+
+    /**
+     * Returns the names of the collections of the database.
+     *
+     * @return the names of the collections, in the order they were declared
+     */
+    public Set<String> collections() {
+        return Collections.unmodifiableSet(this.collections.keySet());
+    }
+
+    /**
+     * Rewrites the backing file of every collection and empties the journal, after waiting
+     * for a running background compaction.
+     *
+     * @throws StorageException
+     *         when a backing file could not be rewritten. The journal is kept in that case.
+     */
+    public void compact() throws StorageException {
+        synchronized (this.compactionLock) {
+            try {
+                this.journal.rotate();
+                for (final JSONStore<?> collection : this.collections.values()) {
+                    collection.checkpoint();
+                }
+                this.journal.discardRotated();
+            } catch (final IOException ioe) {
+                LOG.error("Could not compact journal of database {}!", this.directory, ioe);
+                throw new StorageException(ioe);
+            }
+        }
+        LOG.debug("Compacted journal of database {}.", this.directory);
+    }
+
+    /**
+     * Closes the database, keeping its files. Mutations queued for the next commit are persisted first.
+     *
+     * @throws StorageException
+     *         when a collection or the journal could not be closed
+     */
+    public void close() throws StorageException {
+        LOG.debug("Closing JSON database in {}...", this.directory);
+        StorageException failure = null;
+        for (final JSONStore<?> collection : stop()) {
+            try {
+                collection.close();
+            } catch (final StorageException se) {
+                failure = se;
+            }
+        }
+        try {
+            this.journal.close();
+        } catch (final IOException ioe) {
+            LOG.error("Could not close journal of database {}!", this.directory, ioe);
+            failure = new StorageException(ioe);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Destroys the database, deleting every collection, the journal and, if it is empty then, the directory.
+     *
+     * @return {@code true} if the operation was successful, {@code false} otherwise.
+     */
+    public boolean destroy() {
+        LOG.debug("Destroying JSON database in {}...", this.directory);
+        boolean destroyed = true;
+        for (final JSONStore<?> collection : stop()) {
+            destroyed &= collection.destroy();
+        }
+        try {
+            this.journal.delete();
+            Files.deleteIfExists(this.directory);
+        } catch (final DirectoryNotEmptyException dnee) {
+            LOG.debug("Keeping non-empty directory {} of destroyed database.", this.directory, dnee);
+        } catch (final IOException ioe) {
+            LOG.error("Could not delete journal of database {}!", this.directory, ioe);
+            return false;
+        }
+        return destroyed;
+    }
+
+    /**
+     * Persists a commit of the database, then starts a compaction in the background if the journal grew past the threshold.
+     */
+    private void flush(final List<JournalEntry> entries) throws StorageException {
+        try {
+            this.journal.append(entries);
+        } catch (final IOException ioe) {
+            LOG.error("Could not append to journal of database {}!", this.directory, ioe);
+            throw new StorageException(ioe);
+        }
+        compactIfDue();
+    }
+
+    private void compactIfDue() {
+        try {
+            if (this.compactionThreshold <= 0 || this.journal.size() < this.compactionThreshold || !this.compacting.compareAndSet(false, true)) {
+                return;
+            }
+        } catch (final IOException ioe) {
+            LOG.error("Could not determine journal size of database {}!", this.directory, ioe);
+            return;
+        }
+
+        this.compactor.execute(() -> {
+            try {
+                compact();
+            } catch (final StorageException se) {
+                LOG.debug("Background compaction of database {} failed.", this.directory, se);
+            } finally {
+                this.compacting.set(false);
+            }
+        });
+    }
+
+    private void recover(final JournalEntry entry) {
+        this.recovered.computeIfAbsent(entry.getCollection(), name -> new ArrayList<>()).add(entry);
+    }
+
+    /**
+     * Stops committing and compacting, persisting the queued mutations first.
+     *
+     * @return the collections, to be closed
+     */
+    private List<JSONStore<?>> stop() {
+        if (this.committer != null) {
+            this.committer.close();
+        }
+        this.compactor.shutdown();
+        try {
+            if (!this.compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Compaction of database {} did not finish in time.", this.directory);
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for compaction of database {}!", this.directory, ie);
+        }
+        return new ArrayList<>(this.collections.values());
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (final StorageException se) {
+            LOG.warn("Could not close database {} after a failed opening!", this.directory, se);
+        }
+    }
+
+    private void release() {
+        this.compactor.shutdown();
+        try {
+            this.journal.close();
+        } catch (final IOException ioe) {
+            LOG.warn("Could not close journal of database {}!", this.directory, ioe);
+        }
+    }
+
+    /**
+     * The journal of the database as seen by its collections.
+     */
+    private final class Shared implements SharedJournal {
+        @Override
+        public List<JournalEntry> recovered(final String collection) {
+            final List<JournalEntry> entries = JSONDatabase.this.recovered.remove(collection);
+            return entries == null ? Collections.emptyList() : entries;
+        }
+
+        @Override
+        public CompletableFuture<Void> submit(final String collection, final List<JournalEntry> entries) {
+            final List<JournalEntry> named = new ArrayList<>(entries.size());
+            for (final JournalEntry entry : entries) {
+                named.add(entry.in(collection));
+            }
+            return JSONDatabase.this.committer.submit(named);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Compactor;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Class implementing a Builder pattern for a {@link JSONDatabase} instance.
+ *
+ * @author attilagyongyosi
+ */
+public final class JSONDatabaseBuilder {
+    private static final Pattern COLLECTION_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final Map<String, Declaration<?>> collections = new LinkedHashMap<>();
+    private Path directory;
+    private long groupCommitWindow;
+    private TimeUnit groupCommitUnit = TimeUnit.NANOSECONDS;
+    private int groupCommitSize = GroupCommitter.DEFAULT_BATCH_SIZE;
+    private long compactionThreshold = Compactor.DEFAULT_THRESHOLD;
+
+    public static JSONDatabaseBuilder builder() {
+        return new JSONDatabaseBuilder();
+    }
+
+    public JSONDatabaseBuilder directory(final String pathAsString) throws StoreCreationException {
+        try {
+            this.directory = Paths.get(pathAsString);
+        } catch (final InvalidPathException ipe) {
+            throw new StoreCreationException("Invalid path for database " + pathAsString + "!", ipe);
+        }
+
+        return this;
+    }
+
+    /**
+     * Declares a collection of the database, configured like a default {@link JSONStore}.
+     *
+     * @param  name
+     *         the name of the collection, made of letters, digits, dashes and underscores
+     *
+     * @param  type
+     *         the type of objects the collection will contain
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the objects
+     *
+     * @return itself
+     */
+    public <T> JSONDatabaseBuilder collection(final String name, final Class<T> type) {
+        return collection(name, type, builder -> { });
+    }
+
+    /**
+     * Declares a collection of the database, configured by a {@link JSONStoreBuilder}. The path of the
+     * collection is set by the database, and collections can not be journaled, group committed,
+     * loaded lazily or mapped, as the database persists their mutations.
+     *
+     * @param  name
+     *         the name of the collection, made of letters, digits, dashes and underscores
+     *
+     * @param  type
+     *         the type of objects the collection will contain
+     *
+     * @param  configuration
+     *         configures the builder of the collection, e.g. {@code builder -> builder.index("status")}
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the objects
+     *
+     * @return itself
+     */
+    public <T> JSONDatabaseBuilder collection(final String name, final Class<T> type, final Consumer<JSONStoreBuilder<T>> configuration) {
+        if (name == null || !COLLECTION_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid collection name " + name + "!");
+        }
+        if (this.collections.containsKey(name)) {
+            throw new IllegalArgumentException("Collection " + name + " is declared already!");
+        }
+
+        final JSONStoreBuilder<T> builder = new JSONStoreBuilder<>();
+        configuration.accept(builder);
+        this.collections.put(name, new Declaration<>(Objects.requireNonNull(type, "Collection type must not be null!"), builder));
+        return this;
+    }
+
+    /**
+     * Makes the database commit the mutations of its collections in groups, see
+     * {@link JSONStoreBuilder#groupCommit(long, TimeUnit, int)}. Without a window, the mutations made
+     * while the previous commit is written are committed together.
+     *
+     * @param  window
+     *         the maximum time a commit waits for further mutations
+     *
+     * @param  unit
+     *         the unit of {@code window}
+     *
+     * @param  maxBatchSize
+     *         the maximum number of mutations persisted by one commit
+     *
+     * @return itself
+     */
+    public JSONDatabaseBuilder groupCommit(final long window, final TimeUnit unit, final int maxBatchSize) {
+        if (window < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Group commit window must not be negative and batch size must be positive!");
+        }
+        this.groupCommitWindow = window;
+        this.groupCommitUnit = unit;
+        this.groupCommitSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Sets the size of the journal in bytes that triggers a background compaction. {@code 0} disables
+     * automatic compactions, leaving them to {@link JSONDatabase#compact()}.
+     *
+     * @param  bytes
+     *         the journal size threshold
+     *
+     * @return itself
+     */
+    public JSONDatabaseBuilder compactionThreshold(final long bytes) {
+        this.compactionThreshold = bytes;
+        return this;
+    }
+
+    public JSONDatabase build() throws StoreCreationException {
+        if (this.directory == null) {
+            throw new StoreCreationException("A database needs a directory!");
+        }
+        return JSONDatabase.open(this.directory, this.collections, this.groupCommitWindow, this.groupCommitUnit, this.groupCommitSize,
+            this.compactionThreshold);
+    }
+
+    /**
+     * A declared collection, along with the builder configuring it.
+     */
+    static final class Declaration<T> {
+        private final Class<T> type;
+        private final JSONStoreBuilder<T> builder;
+
+        Declaration(final Class<T> type, final JSONStoreBuilder<T> builder) {
+            this.type = type;
+            this.builder = builder;
+        }
+
+        Class<T> getType() {
+            return type;
+        }
+
+        JSONStore<T> open(final Path directory, final String name, final SharedJournal journal) throws StoreCreationException {
+            final JSONStore<T> store = this.builder.newStore(directory.resolve(name + JSONDatabase.COLLECTION_SUFFIX));
+            store.setSharedJournal(journal, name);
+            return store.create(this.type);
+        }
+    }
+}
@@ -3,25 +3,48 @@ package com.attilagyongyosi.lib.jsonstorage.store;
 import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
 import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
 import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Compactor;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import com.attilagyongyosi.lib.jsonstorage.metrics.MetricsRegistry;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
 import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
 import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
-import com.fasterxml.jackson.databind.JavaType;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.attilagyongyosi.lib.jsonstorage.values.AbstractValueMap;
+import com.attilagyongyosi.lib.jsonstorage.values.LazyValueMap;
+import com.attilagyongyosi.lib.jsonstorage.values.MappedValueMap;
+import com.attilagyongyosi.lib.jsonstorage.values.OffHeapValueMap;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.TypeFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
+import javax.management.ObjectName;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * {@link JSONStore} is an easy way to persist a collection of objects
@@ -30,17 +53,60 @@ import java.util.Map;
  * <p>JSONStore is essentially a {@link Map} instance which automatically gets
  * synchronized with a backing JSON file.</p>
  *
+ * <p>By default every mutation rewrites the whole backing file. A journaled store
+ * instead appends each mutation to a {@link Journal} next to the backing file and
+ * replays it over the file's contents when the store is created. The journal is
+ * periodically compacted into the backing file by a {@link Compactor}.</p>
+ *
+ * <p>Several mutations can be persisted at once through a {@link Batch}. With group
+ * commit enabled, the mutations of concurrent writers arriving within a short window
+ * are persisted together by a single flush as well.</p>
+ *
+ * <p>Every mutation also has an asynchronous variant, which applies the mutation right away
+ * and returns a {@link CompletableFuture} completed once it is persisted. Stores built with
+ * {@link JSONStoreBuilder#asynchronous()} persist such mutations on a background thread,
+ * coalescing pending mutations of the same key into a single write.</p>
+ *
+ * <p>A journaled store can also be loaded lazily: only the keys are read on creation, and values
+ * are decoded on first retrieval, keeping a bounded number of them decoded in memory.</p>
+ *
+ * <p>A mapped store keeps its entries in a memory-mapped log instead of a JSON file, see
+ * {@link MappedValueMap}. Each mutation appends a record to the mapping, values are decoded from
+ * the mapping on retrieval, and the log is compacted in place once most of it is stale.</p>
+ *
+ * <p>An off-heap store keeps its values serialized in direct memory instead of the Java heap, see
+ * {@link OffHeapValueMap}, and decodes them on retrieval.</p>
+ *
+ * <p>Objects can be looked up by their properties, or any other value derived from them, through
+ * secondary indexes declared on the {@link JSONStoreBuilder}, see {@link #query(String)}. Indexes are
+ * built when the store is created and kept up to date by every mutation.</p>
+ *
+ * <p>Read-modify-write updates of a key are made atomic by {@link #computeIfPresent(String, BiFunction)} and
+ * {@link #merge(String, Object, BiFunction)}, which compute the new object while holding the lock of the key,
+ * or optimistically by {@link #compareAndStore(String, long, Object)}, which only stores an object if its key
+ * is still at the {@link Versioned version} it was retrieved at.</p>
+ *
+ * <p>A shared journaled store can be opened by several processes at the same time. Mutations take
+ * turns through a lock file, and every process catches up with the mutations of the others before
+ * reading or mutating the store, see {@link JSONStoreBuilder#shared()}.</p>
+ *
+ * <p>Operations can be measured by a {@link StoreMetrics} listener, and their measurements exposed
+ * as MXBeans by a {@link MetricsRegistry}. Stores without a listener take no measurements.</p>
+ *
+ * <p>A store is safe to use from several threads. Reads never block, while mutations
+ * only wait for concurrent mutations of keys sharing the same lock stripe, and for
+ * the persistence stage. Objects stored must not be {@code null}.</p>
+ *
  * @param <T> Type of the objects you want to store in the backing JSON file.
  *
  * @author    attilagyongyosi
  */
+@SuppressWarnings({ "PMD.TooManyMethods", "PMD.TooManyFields", "PMD.GodClass", "PMD.ExcessiveClassLength", "PMD.ExcessivePublicCount" })
 public class JSONStore<T> {
     private static final Logger LOG = LoggerFactory.getLogger(JSONStore.class);
 
-    private static final ObjectMapper MAPPER = JSONUtils.getMapper();
-    private static final StandardOpenOption[] OPEN_OPTIONS = new StandardOpenOption[] {
-        StandardOpenOption.APPEND, StandardOpenOption.DSYNC
-    };
+    private static final String NULL_OBJECT = "Stored objects must not be null!";
+    private static final CompletableFuture<JournalEntry> UNCHANGED = CompletableFuture.completedFuture(null);
 
     /**
      * The absolute path of the backing JSON file.
@@ -48,27 +114,306 @@ public class JSONStore<T> {
     private Path filePath;
 
     /**
-     * {@link java.io.Writer} instance used to serialize objects into
-     * the JSON file.
+     * The format the backing file is written in, {@code null} until the store is created
+     * to keep the format of an existing file.
+     */
+    private StoreFormat format;
+
+    /**
+     * Jackson modules registered on the mappers of the store, e.g. one generating bytecode accessors.
+     */
+    private List<Module> modules = Collections.emptyList();
+
+    /**
+     * The JSON mapper with {@code modules} registered, serializing journal entries and encoded values.
+     */
+    private ObjectMapper mapper;
+
+    /**
+     * Reads and writes the stored objects, built for their type when the store is created.
      */
-    private BufferedWriter writer;
+    private StoreCodec<T> codec;
 
     /**
      * Data structure being synchronized.
      */
-    private Map<String, T> data;
+    private ConcurrentMap<String, T> data;
+
+    /**
+     * Locks ordering mutations of {@code data} with the entries persisting them.
+     */
+    private final StripedLocks locks = new StripedLocks();
+
+    /**
+     * Whether mutations should be appended to a journal instead of rewriting the backing file.
+     */
+    private boolean journaled;
+
+    /**
+     * Journal size in bytes triggering a compaction, {@code 0} to disable.
+     */
+    private long compactionThreshold = Compactor.DEFAULT_THRESHOLD;
+
+    /**
+     * Ratio of journal size to backing file size triggering a compaction, {@code 0} to disable.
+     */
+    private double compactionRatio;
+
+    /**
+     * Maximum number of mutations persisted by one group commit, {@code 0} disables group commit.
+     */
+    private int groupCommitSize;
+
+    /**
+     * Share of whitespace in the backing file that makes a sync rewrite it, {@code 0} if every sync rewrites it.
+     */
+    private double deltaSyncFragmentation;
+
+    /**
+     * Persists the mutations of the store, see {@link Persistence}.
+     */
+    private Persistence persistence;
+
+    /**
+     * When writes are forced to disk.
+     */
+    private Durability durability = Durability.SYNC_EACH_WRITE;
+
+    /**
+     * Forces writes to disk in the background, {@code null} unless the durability is periodic.
+     */
+    private BackgroundTask flusher;
+
+    /**
+     * Time in nanoseconds a group commit waits for further mutations.
+     */
+    private long groupCommitWindow;
+
+    /**
+     * Persists mutations of concurrent writers together, {@code null} if group commit is disabled.
+     */
+    private GroupCommitter committer;
+
+    /**
+     * Maximum number of decoded values kept in memory by a lazily loaded store, {@code 0} to load eagerly.
+     */
+    private int lazyCacheSize;
+
+    /**
+     * Maximum number of decoded values kept in memory by a mapped store, {@code 0} to store a JSON file.
+     */
+    private int mappedCacheSize;
+
+    /**
+     * Maximum number of decoded values kept in memory by an off-heap store, {@code 0} to keep values on the heap.
+     */
+    private int offHeapCacheSize;
+
+    /**
+     * Listener measuring the operations of the store, {@code null} to take no measurements.
+     */
+    private StoreMetrics metrics;
+
+    /**
+     * Whether the metrics of the store should be exposed as MXBeans.
+     */
+    private boolean jmx;
+
+    /**
+     * Names of the MXBeans registered for the store.
+     */
+    private List<ObjectName> mbeans = Collections.emptyList();
+
+    /**
+     * The secondary indexes of the store.
+     */
+    private final Indexes<T> indexes = new Indexes<>();
+
+    /**
+     * The versions of the keys of the store.
+     */
+    private final Versions versions = new Versions();
+
+    /**
+     * The open snapshots of the store, preserving the values of the keys mutated since they were taken.
+     */
+    private final List<Snapshot<T>> snapshots = new CopyOnWriteArrayList<>();
+
+    /**
+     * Publishes the mutations of the store to its listeners and subscriptions.
+     */
+    private final ChangeFeed<T> changes = new ChangeFeed<>();
+
+    /**
+     * Number of recent mutations retained for subscriptions resuming from a past sequence.
+     */
+    private int changeHistory;
+
+    /**
+     * Whether entries can be stored with a time-to-live.
+     */
+    private boolean expiring;
+
+    /**
+     * Default time-to-live of stored entries in nanoseconds, {@code 0} if entries do not expire by default.
+     */
+    private long timeToLive;
+
+    /**
+     * Maximum number of entries, {@code 0} for no limit.
+     */
+    private long maxEntries;
+
+    /**
+     * Maximum size of the serialized entries in bytes, {@code 0} for no limit.
+     */
+    private long maxBytes;
+
+    /**
+     * The journal shared with the other collections of a database, {@code null} if the store is not part of one.
+     */
+    private SharedJournal sharedJournal;
+
+    /**
+     * The name of the store in its database.
+     */
+    private String collection;
+
+    /**
+     * Whether several processes may open the store at the same time.
+     */
+    private boolean shared;
+
+    /**
+     * Coordinates the processes sharing the store, {@code null} unless the store is shared.
+     */
+    private SharedCoordinator coordinator;
+
+    /**
+     * Tracks entries due for eviction, {@code null} if the store never evicts entries.
+     */
+    private Retention retention;
+
+    /**
+     * Persists the deadlines of expiring entries, {@code null} if the store never evicts entries.
+     */
+    private Deadlines deadlines;
+
+    /**
+     * Evicts due entries in the background, {@code null} if the store never evicts entries.
+     */
+    private BackgroundTask evictor;
 
     public void setFilePath(final Path filePath) {
         this.filePath = filePath;
     }
 
+    public void setFormat(final StoreFormat format) {
+        this.format = format;
+    }
+
+    public void setModules(final List<Module> modules) {
+        this.modules = modules;
+    }
+
+    public void setJournaled(final boolean journaled) {
+        this.journaled = journaled;
+    }
+
+    public void setShared(final boolean shared) {
+        this.shared = shared;
+    }
+
+    public void setCompactionThreshold(final long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void setCompactionRatio(final double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+    }
+
+    public void setGroupCommitSize(final int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    public void setDurability(final Durability durability) {
+        this.durability = durability;
+    }
+
+    public void setDeltaSyncFragmentation(final double deltaSyncFragmentation) {
+        this.deltaSyncFragmentation = deltaSyncFragmentation;
+    }
+
+    public void setGroupCommitWindow(final long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    public void setLazyCacheSize(final int lazyCacheSize) {
+        this.lazyCacheSize = lazyCacheSize;
+    }
+
+    public void setMappedCacheSize(final int mappedCacheSize) {
+        this.mappedCacheSize = mappedCacheSize;
+    }
+
+    public void setOffHeapCacheSize(final int offHeapCacheSize) {
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+    public void setMetrics(final StoreMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setJmx(final boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    public void setExpiring(final boolean expiring) {
+        this.expiring = expiring;
+    }
+
+    public void setTimeToLive(final long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public void setMaxEntries(final long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Makes the store a collection of a database, persisting its mutations to the journal of the database.
+     */
+    void setSharedJournal(final SharedJournal sharedJournal, final String collection) {
+        this.sharedJournal = sharedJournal;
+        this.collection = collection;
+    }
+
+    public void setChangeHistory(final int changeHistory) {
+        this.changeHistory = changeHistory;
+    }
+
+    public void addIndex(final String name, final Function<? super T, ?> extractor) {
+        this.indexes.declare(name, extractor);
+    }
+
+    public void addIndex(final String property) {
+        this.indexes.declare(property);
+    }
+
     /**
      * Creates a new {@link JSONStore} instance.
      *
      * This method acts as a special constructor and will create a new file on the disk at the
      * path denoted by {@code filePath} if it does not yet exist.
      *
-     * Then the file's contents will be read and deserialized into the backing {@link Map} instance.
+     * Then the file's contents will be read and deserialized into the backing {@link Map} instance,
+     * in whichever {@link StoreFormat} the file is written. If the store is journaled, the journal is
+     * replayed on top of the file's contents. If the store is configured with a format the file is
+     * not written in, the file is migrated to that format right away.
      *
      * @param  type
      *         the type of objects this JSON store will contain.
@@ -80,9 +425,35 @@ public class JSONStore<T> {
      */
     public JSONStore<T> create(final Class<T> type) throws StoreCreationException {
         LOG.debug("Creating JSON store in file {}...", this.filePath);
+        if (this.jmx && !(this.metrics instanceof MetricsRegistry)) {
+            this.metrics = new MetricsRegistry(this.metrics);
+        }
+        final long start = startTimer();
+        checkConfiguration();
         createStoreFileIfNotExists();
-        createWriterFromStoreFile();
-        readStoreContents(type);
+        this.mapper = StoreCodec.withModules(StoreFormat.JSON.getMapper(), this.modules);
+        if (isEvicting()) {
+            this.retention = new Retention(this.timeToLive, this.maxEntries, this.maxBytes, this.mapper.writerFor(type));
+        }
+        if (this.mappedCacheSize > 0) {
+            openMappedStore(type);
+        } else if (this.shared) {
+            openSharedStore(type);
+        } else {
+            openStoreFile(type);
+        }
+        restoreDeadlines();
+        if (this.groupCommitSize > 0) {
+            this.committer = new GroupCommitter(this.persistence::flush, this.groupCommitWindow, TimeUnit.NANOSECONDS, this.groupCommitSize);
+        }
+        buildIndexes(type);
+        startEvictor();
+        startFlusher();
+        this.changes.open(this.changeHistory);
+        stopTimer(StoreMetrics.Operation.LOAD, start);
+        if (this.jmx) {
+            this.mbeans = ((MetricsRegistry) this.metrics).register(this.filePath, this::size);
+        }
         return this;
     }
 
@@ -99,102 +470,514 @@ public class JSONStore<T> {
      *
      * @throws StorageException
      *         when an error occurs during the storage operation
+     *
+     * @throws NullPointerException
+     *         when {@code object} is {@code null}
      */
     public T store(final String key, final T object) throws StorageException {
         LOG.debug("Storing {} as key {}...", object, key);
-        this.data.put(key, object);
-        this.sync();
+        this.write(JournalEntry.put(key, Objects.requireNonNull(object, NULL_OBJECT)));
         return object;
     }
 
     /**
-     * Returns all stored object.
+     * Stores an object in the JSON store for a limited time. Once its time-to-live has passed, the object
+     * is never retrieved again, and it is evicted from the store in the background along with other
+     * expired objects. The store must have been built to let entries expire.
      *
-     * This method will not actually fetch data from the backing JSON file,
-     * it will simply return the values stored in the {@code Map}.
+     * @param  key
+     *         the String key where the object should be stored.
      *
-     * This is to avoid unnecessary file read operations as the Map should
-     * always be in sync with the backing file.
+     * @param  object
+     *         the object itself to store as JSON.
      *
-     * @return a collection of objects currently stored in the storage.
+     * @param  ttl
+     *         the time the object should be kept for
+     *
+     * @param  unit
+     *         the unit of {@code ttl}
+     *
+     * @return the stored object if operation was successful
+     *
+     * @throws StorageException
+     *         when an error occurs during the storage operation
+     *
+     * @throws IllegalStateException
+     *         when the store does not let entries expire
      */
-    public Collection<T> retrieveAll() {
-        return this.data.values();
+    public T store(final String key, final T object, final long ttl, final TimeUnit unit) throws StorageException {
+        if (this.retention == null) {
+            throw new IllegalStateException("Store was not built to let entries expire!");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Time-to-live must be positive!");
+        }
+        LOG.debug("Storing {} as key {} for {} {}...", object, key, ttl, unit);
+        Futures.await(this.writeAsync(JournalEntry.put(key, Objects.requireNonNull(object, NULL_OBJECT)), unit.toNanos(ttl)));
+        return object;
     }
 
     /**
-     * Returns with the size of the current storage.
-     * Size means the number of elements currently stored.
+     * Stores an object in the JSON store without waiting for it to be persisted.
      *
-     * @return  the number of elements in the store
+     * The object can be retrieved from the store as soon as this method returns.
+     * Unless group commit or asynchronous persistence is enabled, the object is persisted
+     * before this method returns.
+     *
+     * @param  key
+     *         the String key where the object should be stored.
+     *
+     * @param  object
+     *         the object itself to store as JSON.
+     *
+     * @return a future completed with the stored object once it is persisted,
+     *         or completed exceptionally with a {@link StorageException}
+     *
+     * @throws NullPointerException
+     *         when {@code object} is {@code null}
      */
-    public long size() {
-        return this.data.size();
+    public CompletableFuture<T> storeAsync(final String key, final T object) {
+        LOG.debug("Storing {} as key {} asynchronously...", object, key);
+        return this.writeAsync(JournalEntry.put(key, Objects.requireNonNull(object, NULL_OBJECT)))
+            .thenApply(previous -> object);
     }
 
     /**
-     * Returns a single object from the store, specified by the supplied key.
-     *
-     * This method will not actually fetch data from the backing JSON file,
-     * it will simply return the values stored in the {@link Map}.
-     *
-     * This is to avoid unnecessary file read operations as the Map should
-     * always be in sync with the backing file.
+     * Stores several objects in the JSON store, persisting them at once.
      *
-     * @param  key
-     *         the key to retrieve the stored object from
+     * @param  objects
+     *         the objects to store, mapped by the keys they should be stored at.
      *
-     * @return the object contained at the supplied key or {@code null}.
+     * @throws StorageException
+     *         when an error occurs during the storage operation
      */
-    public T retrieve(final String key) {
-        return this.data.get(key);
+    public void storeAll(final Map<String, ? extends T> objects) throws StorageException {
+        LOG.debug("Storing {} objects...", objects.size());
+        final Batch<T> batch = batch();
+        for (final Map.Entry<String, ? extends T> entry : objects.entrySet()) {
+            batch.store(entry.getKey(), entry.getValue());
+        }
+        batch.commit();
     }
 
     /**
-     * Removes a particular entry from the store.
+     * Stores an object in the JSON store only if its key is still at the given version, typically
+     * the one the object's previous state was retrieved at by {@link #retrieveVersioned(String)}.
+     * A failed comparison writes nothing, so the caller can retrieve the current object and retry.
      *
-     * @param   key
-     *          the key of the object to remove from the store
+     * @param  key
+     *         the String key where the object should be stored.
      *
-     * @return  the removed item or null if the item is not in the store
+     * @param  expectedVersion
+     *         the version the key has to be at, {@link Versioned#ABSENT} to store the object only if the key holds none
      *
-     * @throws  StorageException
-     *          when store synchronization fails
+     * @param  object
+     *         the object itself to store as JSON.
+     *
+     * @return {@code true} if the object was stored, {@code false} if the key was at another version
+     *
+     * @throws StorageException
+     *         when an error occurs during the storage operation
+     *
+     * @throws NullPointerException
+     *         when {@code object} is {@code null}
      */
-    public T remove(final String key) throws StorageException {
-        final T removed = this.data.remove(key);
-        this.sync();
-        return removed;
+    public boolean compareAndStore(final String key, final long expectedVersion, final T object) throws StorageException {
+        Objects.requireNonNull(object, NULL_OBJECT);
+        LOG.debug("Storing {} as key {} at version {}...", object, key, expectedVersion);
+        return update(key, current -> versionOf(key, current) == expectedVersion ? JournalEntry.put(key, object) : null) != null;
     }
 
     /**
-     * Clears both the underlying {@link Map} instance and the backing
-     * JSON file.
+     * Replaces the object stored at a key with the one computed from it, or removes it if {@code null}
+     * is computed. The object is computed while holding the lock of the key, so no other mutation of the
+     * key comes in between, while mutations of other keys go on. The function should not modify the
+     * object it is given, nor mutate the store.
      *
-     * @return {@code true}
-     *         if the operation was successful, {@code false} otherwise.
+     * @param  key
+     *         the key of the object to replace
+     *
+     * @param  remapping
+     *         computes the new object from the key and the stored object
+     *
+     * @return the new object, or {@code null} if the key holds none afterwards
      *
      * @throws StorageException
-     *         when operation fails
+     *         when an error occurs during the storage operation
      */
-    public boolean clear() throws StorageException {
-        LOG.debug("Clearing JSON storage at {}...", this.filePath);
-        this.data.clear();
-        this.sync();
-        return true;
+    public T computeIfPresent(final String key, final BiFunction<? super String, ? super T, ? extends T> remapping) throws StorageException {
+        return valueOf(update(key, current -> {
+            if (current == null) {
+                return null;
+            }
+            final T computed = remapping.apply(key, current);
+            return computed == null ? JournalEntry.remove(key) : JournalEntry.put(key, computed);
+        }));
     }
 
     /**
-     * Destroys the current JSON storage.
+     * Stores an object at a key holding none, or replaces the object stored at a key with the one merged
+     * from it and the given object, or removes it if {@code null} is merged. The object is merged while
+     * holding the lock of the key, see {@link #computeIfPresent(String, BiFunction)}.
      *
-     * It will close opened resources and will delete the backing JSON file.
+     * @param  key
+     *         the key of the object to merge
      *
-     * @return {@code true} if the operation was successful, {@code false} otherwise.
-     */
-    public boolean destroy() {
-        LOG.debug("Destroying JSON store at {}...", this.filePath);
-        try {
-            writer.close();
+     * @param  object
+     *         the object to store, or to merge into the stored one
+     *
+     * @param  remapping
+     *         merges the stored object and {@code object}
+     *
+     * @return the new object, or {@code null} if the key holds none afterwards
+     *
+     * @throws StorageException
+     *         when an error occurs during the storage operation
+     *
+     * @throws NullPointerException
+     *         when {@code object} is {@code null}
+     */
+    public T merge(final String key, final T object, final BiFunction<? super T, ? super T, ? extends T> remapping) throws StorageException {
+        Objects.requireNonNull(object, NULL_OBJECT);
+        return valueOf(update(key, current -> {
+            final T merged = current == null ? object : remapping.apply(current, object);
+            return merged == null ? JournalEntry.remove(key) : JournalEntry.put(key, merged);
+        }));
+    }
+
+    /**
+     * Starts a new {@link Batch} of mutations that will be applied to this store
+     * and persisted at once when the batch is committed.
+     *
+     * @return a new, empty batch
+     */
+    public Batch<T> batch() {
+        return new Batch<>(this);
+    }
+
+    /**
+     * Returns all stored object.
+     *
+     * This method will not actually fetch data from the backing JSON file,
+     * it will simply return the values stored in the {@code Map}.
+     *
+     * This is to avoid unnecessary file read operations as the Map should
+     * always be in sync with the backing file. Objects that have outlived
+     * their time-to-live are skipped, whether or not they were evicted yet.
+     *
+     * @return a collection of objects currently stored in the storage.
+     */
+    public Collection<T> retrieveAll() {
+        refresh();
+        return this.retention == null ? this.data.values() : this.retention.unexpired(this.data);
+    }
+
+    /**
+     * Returns a stream of the stored objects, which can be made parallel.
+     *
+     * The stream traverses the store directly instead of a copy of it. It never fails because of
+     * concurrent mutations: every object it returns was stored at some point during the traversal,
+     * but mutations made during the traversal may or may not be seen by it. Objects of lazily loaded,
+     * mapped and off-heap stores are decoded by the thread traversing them, so parallel streams
+     * decode them on every core. Objects that had outlived their time-to-live when the stream was
+     * created are skipped.
+     *
+     * @return a stream of the objects currently stored
+     */
+    public Stream<T> stream() {
+        refresh();
+        return this.retention == null ? this.data.values().stream() : this.retention.unexpired(this.data.entrySet().stream());
+    }
+
+    /**
+     * Returns a parallel stream of the stored objects, see {@link #stream()}.
+     *
+     * @return a parallel stream of the objects currently stored
+     */
+    public Stream<T> parallelStream() {
+        refresh();
+        return this.retention == null ? this.data.values().parallelStream() : this.retention.unexpired(this.data.entrySet().parallelStream());
+    }
+
+    /**
+     * Takes an immutable point-in-time view of the store, see {@link Snapshot}.
+     *
+     * Taking a snapshot only waits for the mutations in progress and does not copy the store.
+     * Snapshots should be closed once they are no longer needed, as every open snapshot keeps
+     * the original values of the keys mutated since it was taken. Objects that had outlived their
+     * time-to-live when the snapshot was taken are not part of it.
+     *
+     * @return a snapshot of the objects currently stored
+     */
+    public Snapshot<T> snapshot() {
+        refresh();
+        final Lock exclusive = this.locks.exclusive();
+        exclusive.lock();
+        try {
+            final Set<String> expired = this.retention == null ? Collections.emptySet() : this.retention.expired(System.nanoTime());
+            final Snapshot<T> snapshot = new Snapshot<>(this, this.data, this.codec.getMapper(), expired);
+            this.snapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    /**
+     * Registers a listener notified synchronously of every mutation, see {@link ChangeListener}.
+     *
+     * @param listener
+     *        the listener to notify
+     */
+    public void addListener(final ChangeListener<T> listener) {
+        this.changes.addListener(Objects.requireNonNull(listener, "Change listener must not be null!"));
+    }
+
+    public void removeListener(final ChangeListener<T> listener) {
+        this.changes.removeListener(listener);
+    }
+
+    /**
+     * Subscribes to the mutations made from now on, see {@link Subscription}.
+     *
+     * @param  capacity
+     *         the maximum number of events queued for the subscription
+     *
+     * @return a new subscription
+     */
+    public Subscription<T> subscribe(final int capacity) {
+        return this.changes.subscribe(capacity);
+    }
+
+    /**
+     * Subscribes to the mutations from a past sequence on, typically the one after the last event
+     * of an overflowed subscription. Retained events from the sequence on are queued right away.
+     *
+     * @param  from
+     *         the sequence of the first event to receive
+     *
+     * @param  capacity
+     *         the maximum number of events queued for the subscription
+     *
+     * @return a new subscription
+     *
+     * @throws IllegalArgumentException
+     *         when the events from the sequence on are no longer retained, or do not fit in {@code capacity}
+     */
+    public Subscription<T> subscribe(final long from, final int capacity) {
+        return this.changes.subscribe(from, capacity);
+    }
+
+    /**
+     * Stops preserving values for a closed snapshot.
+     */
+    void detach(final Snapshot<T> snapshot) {
+        this.snapshots.remove(snapshot);
+    }
+
+    /**
+     * Returns a read-only live view of the stored entries, decoding values as they are read.
+     */
+    Set<Map.Entry<String, T>> entries() {
+        return Collections.unmodifiableMap(this.data).entrySet();
+    }
+
+    /**
+     * Returns a stream of the stored objects matching a predicate, see {@link #stream()}.
+     * Short-circuiting operations, like {@code limit} or {@code findFirst}, stop the
+     * traversal of the store early.
+     *
+     * @param  predicate
+     *         the predicate objects have to match
+     *
+     * @return a stream of the matching objects
+     */
+    public Stream<T> query(final Predicate<? super T> predicate) {
+        return stream().filter(predicate);
+    }
+
+    /**
+     * Returns with the size of the current storage.
+     * Size means the number of elements currently stored, not counting
+     * the ones that have outlived their time-to-live.
+     *
+     * @return  the number of elements in the store
+     */
+    public long size() {
+        refresh();
+        return this.retention == null ? this.data.size() : Math.max(0, this.data.size() - this.retention.expired(System.nanoTime()).size());
+    }
+
+    /**
+     * Returns a single object from the store, specified by the supplied key.
+     *
+     * This method will not actually fetch data from the backing JSON file,
+     * it will simply return the values stored in the {@link Map}.
+     *
+     * This is to avoid unnecessary file read operations as the Map should
+     * always be in sync with the backing file.
+     *
+     * @param  key
+     *         the key to retrieve the stored object from
+     *
+     * @return the object contained at the supplied key or {@code null}.
+     */
+    public T retrieve(final String key) {
+        refresh();
+        if (this.metrics == null) {
+            return current(key);
+        }
+        final long start = System.nanoTime();
+        final T value = current(key);
+        stopTimer(StoreMetrics.Operation.RETRIEVE, start);
+        return value;
+    }
+
+    /**
+     * Returns a single object from the store along with the version of its key, see {@link Versioned}.
+     *
+     * @param  key
+     *         the key to retrieve the stored object from
+     *
+     * @return the object contained at the supplied key and its version, or {@code null}
+     */
+    public Versioned<T> retrieveVersioned(final String key) {
+        refresh();
+        final long version = this.versions.get(key);
+        final T value = current(key);
+        return value == null ? null : new Versioned<>(value, version);
+    }
+
+    /**
+     * Starts a lookup through a secondary index of the store, e.g.
+     * {@code store.query("status").equalTo("PENDING")}.
+     *
+     * @param  index
+     *         the name of the index, the name of the property for indexes of properties
+     *
+     * @return a query of the index
+     *
+     * @throws IllegalArgumentException
+     *         when the store has no such index
+     */
+    public IndexQuery<T> query(final String index) {
+        final SecondaryIndex<T> secondary = this.indexes.get(index);
+        if (secondary == null) {
+            throw new IllegalArgumentException("Store has no index " + index + "!");
+        }
+        refresh();
+        return new IndexQuery<>(secondary, this::current);
+    }
+
+    /**
+     * Removes a particular entry from the store.
+     *
+     * @param   key
+     *          the key of the object to remove from the store
+     *
+     * @return  the removed item or null if the item is not in the store
+     *
+     * @throws  StorageException
+     *          when store synchronization fails
+     */
+    public T remove(final String key) throws StorageException {
+        return this.write(JournalEntry.remove(key));
+    }
+
+    /**
+     * Removes a particular entry from the store without waiting for the removal to be persisted.
+     *
+     * @param   key
+     *          the key of the object to remove from the store
+     *
+     * @return  a future completed with the removed item, or null if the item was not in the store,
+     *          once the removal is persisted
+     */
+    public CompletableFuture<T> removeAsync(final String key) {
+        return this.writeAsync(JournalEntry.remove(key));
+    }
+
+    /**
+     * Clears both the underlying {@link Map} instance and the backing
+     * JSON file.
+     *
+     * @return {@code true}
+     *         if the operation was successful, {@code false} otherwise.
+     *
+     * @throws StorageException
+     *         when operation fails
+     */
+    public boolean clear() throws StorageException {
+        LOG.debug("Clearing JSON storage at {}...", this.filePath);
+        this.write(JournalEntry.clear());
+        return true;
+    }
+
+    /**
+     * Clears the underlying {@link Map} instance right away and the backing
+     * JSON file without waiting for it.
+     *
+     * @return a future completed with {@code true} once the clearing is persisted
+     */
+    public CompletableFuture<Boolean> clearAsync() {
+        LOG.debug("Clearing JSON storage at {} asynchronously...", this.filePath);
+        return this.writeAsync(JournalEntry.clear()).thenApply(previous -> true);
+    }
+
+    /**
+     * Compacts the journal of the store into the backing JSON file and
+     * waits for the compaction to finish. Mapped stores rewrite their
+     * backing file without the records of overwritten and removed entries.
+     *
+     * Has no effect on other stores, as their backing file is rewritten
+     * on every mutation anyway.
+     *
+     * @throws StorageException
+     *         when the compacted snapshot could not be written
+     */
+    public void compact() throws StorageException {
+        Futures.await(this.persistence.compact());
+    }
+
+    /**
+     * Closes the current JSON storage, keeping its backing file and journal.
+     *
+     * Pending asynchronous mutations are persisted first. The store can not be
+     * used afterwards, but the same file can be opened by a new store.
+     *
+     * @throws StorageException
+     *         when a resource of the store could not be closed
+     */
+    public void close() throws StorageException {
+        LOG.debug("Closing JSON store at {}...", this.filePath);
+        unregisterMBeans();
+        try {
+            release();
+            closeFiles(false);
+        } catch (final IOException ioe) {
+            LOG.error("Could not close JSON storage at {}!", filePath, ioe);
+            throw new StorageException(ioe);
+        }
+    }
+
+    /**
+     * Destroys the current JSON storage.
+     *
+     * It will close opened resources and will delete the backing JSON file
+     * along with its journal, if any.
+     *
+     * @return {@code true} if the operation was successful, {@code false} otherwise.
+     */
+    public boolean destroy() {
+        LOG.debug("Destroying JSON store at {}...", this.filePath);
+        unregisterMBeans();
+        try {
+            release();
+            closeFiles(true);
+            if (coordinator != null) {
+                coordinator.delete();
+            }
+            Deadlines.delete(filePath);
             return Files.deleteIfExists(filePath);
         } catch (final IOException ioe) {
             LOG.error("Could not destroy JSON storage at {}!", filePath, ioe);
@@ -202,6 +985,376 @@ public class JSONStore<T> {
         }
     }
 
+    private void unregisterMBeans() {
+        MetricsRegistry.unregister(this.mbeans);
+        this.mbeans = Collections.emptyList();
+    }
+
+    /**
+     * Stops the background threads of the store and releases the lock file of a shared store.
+     */
+    private void release() throws IOException {
+        if (evictor != null) {
+            evictor.stop();
+        }
+        if (flusher != null) {
+            flusher.stop();
+        }
+        if (committer != null) {
+            final Lock exclusive = locks.exclusive();
+            exclusive.lock();
+            try {
+                committer.stop();
+            } finally {
+                exclusive.unlock();
+            }
+            committer.close();
+        }
+        if (coordinator != null) {
+            coordinator.close();
+        }
+    }
+
+    /**
+     * Forces the writes left to the OS to disk, then closes the deadlines, the persistence and the mapped or
+     * off-heap contents of the store.
+     *
+     * @param delete
+     *        whether the files of the persistence are deleted as well
+     */
+    private void closeFiles(final boolean delete) throws IOException {
+        if (!durability.isSynchronous()) {
+            forceWrites();
+        }
+        if (deadlines != null) {
+            deadlines.close();
+        }
+        if (delete) {
+            persistence.delete();
+        } else {
+            persistence.close();
+        }
+        if (data instanceof Closeable) {
+            ((Closeable) data).close();
+        }
+    }
+
+    /**
+     * Tracks the entries the store was opened with for eviction, at the deadlines persisted for them.
+     */
+    private void restoreDeadlines() throws StoreCreationException {
+        if (this.retention == null) {
+            return;
+        }
+        final Map<String, Long> restored = new HashMap<>();
+        try {
+            this.deadlines = Deadlines.open(this.filePath, this.durability.isSynchronous(), this.retention::deadlines, restored);
+        } catch (final IOException ioe) {
+            LOG.error("Could not read the deadlines of {}!", this.filePath, ioe);
+            throw new StoreCreationException("Could not read deadlines!", ioe);
+        }
+        this.retention.loaded(this.data, restored);
+    }
+
+    /**
+     * Starts evicting due entries every tick of the retention's timing wheel.
+     */
+    private void startEvictor() {
+        if (this.retention != null) {
+            this.evictor = new BackgroundTask("json-store-evictor", this::evict, Retention.TICK_NANOS);
+        }
+    }
+
+    /**
+     * Starts forcing writes to disk once per interval, if the durability is periodic.
+     */
+    private void startFlusher() {
+        if (this.durability.getLevel() == Durability.Level.PERIODIC) {
+            this.flusher = new BackgroundTask("json-store-flusher", this::flushInBackground, this.durability.getInterval(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            forceWrites();
+        } catch (final IOException | RuntimeException e) {
+            LOG.error("Could not force writes of {} to disk!", this.filePath, e);
+        }
+    }
+
+    /**
+     * Forces the writes left to the OS by a durability other than {@link Durability#SYNC_EACH_WRITE} to disk.
+     */
+    private void forceWrites() throws IOException {
+        final long start = startTimer();
+        this.persistence.force();
+        if (this.deadlines != null) {
+            this.deadlines.force();
+        }
+        stopTimer(StoreMetrics.Operation.FSYNC, start);
+    }
+
+    /**
+     * Evicts the oldest entries right away once the store holds more entries or bytes than allowed,
+     * instead of waiting for the next tick.
+     */
+    private void evictIfOverLimit() {
+        if (this.evictor != null && this.retention.isOverLimit()) {
+            this.evictor.runNow();
+        }
+    }
+
+    /**
+     * Removes the entries due for eviction and persists their removal at once. Entries written again
+     * since they were found due are kept.
+     */
+    private void evict() {
+        try {
+            Futures.await(this.coordinator == null ? evictDue() : this.coordinator.exclusively(this::evictDue));
+        } catch (final StorageException | RuntimeException e) {
+            LOG.error("Could not evict entries of {}!", this.filePath, e);
+        }
+    }
+
+    /**
+     * Removes the entries due for eviction and starts persisting their removal.
+     */
+    private CompletableFuture<Void> evictDue() {
+        final List<Retention.Tracked> due = this.retention.due(System.nanoTime());
+        if (due.isEmpty()) {
+            return Futures.COMMITTED;
+        }
+
+        final List<JournalEntry> removals = new ArrayList<>(due.size());
+        for (final Retention.Tracked entry : due) {
+            removals.add(JournalEntry.remove(entry.getKey()));
+        }
+        final List<JournalEntry> evicted = new ArrayList<>(due.size());
+        final CompletableFuture<Void> committed;
+        final List<Lock> held = this.locks.lock(removals);
+        try {
+            for (int i = 0; i < due.size(); i++) {
+                if (this.retention.isCurrent(due.get(i))) {
+                    apply(removals.get(i));
+                    evicted.add(removals.get(i));
+                }
+            }
+            committed = evicted.isEmpty() ? Futures.COMMITTED : commit(evicted);
+        } finally {
+            StripedLocks.unlock(held);
+        }
+        if (evicted.isEmpty()) {
+            return Futures.COMMITTED;
+        }
+        LOG.debug("Evicting {} entries of {}.", evicted.size(), this.filePath);
+        return persist(committed);
+    }
+
+    /**
+     * Builds the secondary indexes from the loaded entries. Values of lazily loaded, mapped
+     * and off-heap stores are decoded once to be indexed.
+     */
+    private void buildIndexes(final Class<T> type) throws StoreCreationException {
+        if (this.indexes.isEmpty()) {
+            return;
+        }
+        try {
+            this.indexes.build(this.mapper, type, this.data);
+        } catch (final IllegalArgumentException iae) {
+            throw new StoreCreationException(iae.getMessage(), iae);
+        }
+        LOG.debug("Indexed {} entries of {} by {}.", this.data.size(), this.filePath, this.indexes.names());
+    }
+
+    private void checkConfiguration() throws StoreCreationException {
+        if (this.lazyCacheSize > 0 && !this.journaled) {
+            throw new StoreCreationException("Only journaled stores can be loaded lazily!");
+        }
+        if (this.mappedCacheSize > 0 && (this.journaled || this.lazyCacheSize > 0 || this.offHeapCacheSize > 0)) {
+            throw new StoreCreationException("Mapped stores can not be journaled, loaded lazily or kept off-heap!");
+        }
+        if (this.offHeapCacheSize > 0 && this.lazyCacheSize > 0) {
+            throw new StoreCreationException("Off-heap stores can not be loaded lazily!");
+        }
+        if (this.mappedCacheSize > 0 && this.format != null) {
+            throw new StoreCreationException("Mapped stores have a file format of their own!");
+        }
+        checkCollectionConfiguration();
+        checkDeltaSyncConfiguration();
+        checkSharedConfiguration();
+    }
+
+    private void checkSharedConfiguration() throws StoreCreationException {
+        if (!this.shared) {
+            return;
+        }
+        if (!this.journaled || this.groupCommitSize > 0 || this.lazyCacheSize > 0 || this.offHeapCacheSize > 0 || this.sharedJournal != null) {
+            throw new StoreCreationException("Shared stores must be journaled, and can not be group committed, loaded lazily, "
+                + "kept off-heap or part of a database!");
+        }
+        // Time-to-lives are neither journaled nor is their log safe to share, so each process would expire entries on its own.
+        if (isEvicting()) {
+            throw new StoreCreationException("Shared stores can not expire or evict entries!");
+        }
+    }
+
+    /**
+     * Tells whether the store expires entries or evicts them over its limits.
+     */
+    private boolean isEvicting() {
+        return this.expiring || this.timeToLive > 0 || this.maxEntries > 0 || this.maxBytes > 0;
+    }
+
+    private void checkDeltaSyncConfiguration() throws StoreCreationException {
+        if (this.deltaSyncFragmentation > 0
+            && (this.journaled || this.lazyCacheSize > 0 || this.offHeapCacheSize > 0 || this.mappedCacheSize > 0)) {
+            throw new StoreCreationException("Stores synced in place can not be journaled, loaded lazily, kept off-heap or mapped!");
+        }
+    }
+
+    private void checkCollectionConfiguration() throws StoreCreationException {
+        if (this.sharedJournal == null) {
+            return;
+        }
+        if (this.journaled || this.groupCommitSize > 0 || this.lazyCacheSize > 0 || this.mappedCacheSize > 0) {
+            throw new StoreCreationException("Collections of a database can not be journaled, group committed, loaded lazily or mapped!");
+        }
+    }
+
+    /**
+     * Opens a store backed by a JSON file, or a file in another {@link StoreFormat}.
+     *
+     * @return the journal replayed over the backing file, {@code null} if the store is not journaled
+     */
+    private Journal openStoreFile(final Class<T> type) throws StoreCreationException {
+        final StoreFormat source = detectFormat();
+        if (this.format == null) {
+            this.format = source.isBinary() ? source : StoreFormat.PRETTY_JSON;
+        }
+        if (this.lazyCacheSize > 0 && (source.isBinary() || this.format.isBinary())) {
+            throw new StoreCreationException("Only JSON stores can be loaded lazily!");
+        }
+        openCodec(source, type);
+
+        final DeltaSync<T> delta = openDeltaSync(type);
+        final BackingFile<T> backingFile = new BackingFile<>(this.filePath, this.codec, delta, this.durability, this.locks.exclusive(), this.metrics);
+        recoverInterruptedSync(backingFile);
+        readStoreContents(type, source);
+        final Journal journal = openPersistence(backingFile, delta);
+        if (!source.isCompatibleWith(this.format)) {
+            migrate(source);
+        }
+        return journal;
+    }
+
+    /**
+     * Opens the persistence of a store backed by a file, and replays the mutations journaled since the file was written.
+     *
+     * @return the journal of the store, {@code null} if it is not journaled
+     */
+    private Journal openPersistence(final BackingFile<T> backingFile, final DeltaSync<T> delta) throws StoreCreationException {
+        if (this.journaled) {
+            return openJournal();
+        }
+        if (this.sharedJournal == null) {
+            this.persistence = new RewritePersistence<>(backingFile, delta, this.data, this::copyData);
+        } else {
+            this.persistence = new CollectionPersistence<>(backingFile, delta, this.data, this::copyData, this.sharedJournal,
+                this.collection, this.modules.isEmpty() ? null : this.mapper);
+            replaySharedJournal();
+        }
+        return null;
+    }
+
+    /**
+     * Opens a shared store while holding the lock of its lock file, so that no other process mutates
+     * or compacts the store meanwhile.
+     */
+    private void openSharedStore(final Class<T> type) throws StoreCreationException {
+        try {
+            this.coordinator = SharedCoordinator.lock(this.filePath, this.locks.exclusive(), this::replay, this::reconcile);
+        } catch (final IOException ioe) {
+            LOG.error("Could not lock shared store {}!", this.filePath, ioe);
+            throw new StoreCreationException("Could not lock store file!", ioe);
+        }
+        final Journal journal;
+        try {
+            journal = openStoreFile(type);
+            // Compactions of any process write the backing file in the configured format from now on.
+            openCodec(this.format, type);
+        } catch (final StoreCreationException | RuntimeException e) {
+            this.coordinator.openFailed();
+            throw e;
+        }
+        try {
+            this.coordinator.opened(journal);
+        } catch (final IOException ioe) {
+            LOG.error("Could not open journal {}!", journal.getPath(), ioe);
+            throw new StoreCreationException("Could not open journal!", ioe);
+        }
+    }
+
+    /**
+     * Applies the mutations of a collection read from the journal of its database.
+     */
+    private void replaySharedJournal() {
+        final List<JournalEntry> entries = this.sharedJournal.recovered(this.collection);
+        for (final JournalEntry entry : entries) {
+            replay(entry);
+        }
+        if (!entries.isEmpty()) {
+            LOG.debug("Replayed {} journal entries of collection {}.", entries.size(), this.collection);
+        }
+    }
+
+    private void openCodec(final StoreFormat source, final Class<T> type) {
+        this.codec = new StoreCodec<>(source, this.format, type, this.lazyCacheSize > 0 || this.offHeapCacheSize > 0, this.modules);
+    }
+
+    /**
+     * Opens the patching of mutated entries in the backing file, if the store is synced in place.
+     *
+     * @return the patching, {@code null} if every sync rewrites the backing file
+     */
+    private DeltaSync<T> openDeltaSync(final Class<T> type) throws StoreCreationException {
+        if (this.deltaSyncFragmentation <= 0) {
+            return null;
+        }
+        if (this.format.isBinary()) {
+            throw new StoreCreationException("Only JSON stores can be synced in place!");
+        }
+        return new DeltaSync<>(this.filePath, this.codec.getMapper(), type, this.deltaSyncFragmentation, this.durability.isSynchronous());
+    }
+
+    /**
+     * Detects the format of the backing file. Empty files are taken to be in the configured format.
+     */
+    private StoreFormat detectFormat() throws StoreCreationException {
+        try {
+            final StoreFormat detected = StoreFormat.detect(this.filePath);
+            if (detected != null) {
+                return detected;
+            }
+            return this.format == null ? StoreFormat.PRETTY_JSON : this.format;
+        } catch (final IOException ioe) {
+            LOG.error("Could not detect the format of {}!", this.filePath, ioe);
+            throw new StoreCreationException("Could not read store file!", ioe);
+        }
+    }
+
+    /**
+     * Rewrites the backing file, read in {@code source} format, in the configured format.
+     */
+    private void migrate(final StoreFormat source) throws StoreCreationException {
+        LOG.info("Migrating {} from {} to {}...", this.filePath, source, this.format);
+        try {
+            this.persistence.rewrite();
+        } catch (final StorageException e) {
+            LOG.error("Could not migrate {} to {}!", this.filePath, this.format, e);
+            throw new StoreCreationException("Could not migrate store file!", e);
+        }
+    }
+
     private void createStoreFileIfNotExists() throws StoreCreationException {
         try {
             this.filePath = FileUtils.createIfNotExists(this.filePath);
@@ -211,52 +1364,414 @@ public class JSONStore<T> {
         }
     }
 
-    private void createWriterFromStoreFile() throws StoreCreationException {
+    /**
+     * Cleans up after a rewrite of the backing file interrupted by a crash, see {@link BackingFile#recover()}.
+     */
+    private void recoverInterruptedSync(final BackingFile<T> backingFile) throws StoreCreationException {
         try {
-            this.writer = Files.newBufferedWriter(this.filePath, StandardCharsets.UTF_8, OPEN_OPTIONS);
+            backingFile.recover();
         } catch (final IOException ioe) {
-            LOG.error("Could not create writer to file {}!", this.filePath);
-            throw new StoreCreationException("File not found!", ioe);
+            LOG.error("Could not recover {} from an interrupted sync!", this.filePath, ioe);
+            throw new StoreCreationException("Could not recover store file!", ioe);
         }
     }
 
-    private void readStoreContents(final Class<T> type) throws StoreCreationException {
+    private void readStoreContents(final Class<T> type, final StoreFormat source) throws StoreCreationException {
         try {
-            JavaType dataType = TypeFactory.defaultInstance().constructMapType(Map.class, String.class, type);
-            this.data = JSONUtils.parse(this.filePath, dataType);
-            if (this.data == null) {
-                this.data = new HashMap<>();
+            if (this.lazyCacheSize > 0) {
+                this.data = LazyValueMap.load(this.filePath, this.mapper, type, this.lazyCacheSize);
+                return;
             }
+            if (this.offHeapCacheSize > 0) {
+                this.data = OffHeapValueMap.load(this.filePath, source.getMapper().getFactory(), this.mapper, type, this.offHeapCacheSize);
+                return;
+            }
+
+            this.data = new ConcurrentHashMap<>();
+            final int entries = JSONUtils.parseEntries(this.filePath, this.codec.getReader(), this.data::put);
+            LOG.debug("Loaded {} entries from {}.", entries, this.filePath);
         } catch (final IOException | InvalidJsonException e) {
             LOG.error("Could not parse file contents as JSON!", e);
             throw new StoreCreationException(e);
         }
     }
 
-    private void sync() throws StorageException {
-        final Path backup = Paths.get(this.filePath.toString().concat("-backup"));
+    private void openMappedStore(final Class<T> type) throws StoreCreationException {
+        try {
+            final MappedValueMap<T> mapped = MappedValueMap.open(this.filePath, this.mapper, type, this.mappedCacheSize);
+            this.persistence = new MappedPersistence(this.filePath, mapped, this.durability, this.compactionThreshold, this.metrics);
+            this.data = mapped;
+        } catch (final IOException ioe) {
+            LOG.error("Could not map store file {}!", this.filePath, ioe);
+            throw new StoreCreationException("Could not map store file!", ioe);
+        }
+    }
 
+    private Journal openJournal() throws StoreCreationException {
+        final Journal journal = new Journal(Journal.pathFor(this.filePath), this.durability.isSynchronous(), this.mapper);
         try {
-            Files.copy(this.filePath, backup);
+            journal.open();
+            final Compactor compactor = new Compactor(this.filePath, journal, this.locks.exclusive(), this.compactionThreshold, this.compactionRatio,
+                this.codec.getMapper());
+            this.persistence = new JournalPersistence(journal, compactor, this.coordinator, this::copyData, this.metrics);
+            journal.replay(this::replay);
+        } catch (final IOException | InvalidJsonException e) {
+            LOG.error("Could not replay journal {}!", journal.getPath(), e);
+            throw new StoreCreationException("Could not replay journal!", e);
+        }
+        return journal;
+    }
 
-            this.writer.close();
-            this.writer = Files.newBufferedWriter(this.filePath, StandardCharsets.UTF_8);
+    /**
+     * Copies the entries for a compaction or a rewrite of the backing file.
+     * Serialized values of a lazily loaded or off-heap store are copied without decoding them.
+     */
+    private Map<String, T> copyData() {
+        return this.data instanceof AbstractValueMap ? ((AbstractValueMap<T>) this.data).copy() : new HashMap<>(this.data);
+    }
 
-            MAPPER.writeValue(this.writer, this.data);
-            Files.deleteIfExists(backup);
-        } catch (final IOException  e) {
-            LOG.error("Error while syncing to file {}! Restoring backup...", this.filePath, e);
-            restoreBackup(backup);
-            throw new StorageException(e);
+    private void replay(final JournalEntry entry) {
+        if (entry.getOperation() == JournalEntry.Operation.PUT) {
+            final T value = convert(entry);
+            apply(value == null ? JournalEntry.remove(entry.getKey()) : JournalEntry.put(entry.getKey(), value));
+        } else {
+            apply(entry);
         }
     }
 
-    private void restoreBackup(final Path backup) {
+    private T convert(final JournalEntry entry) {
         try {
-            Files.move(backup, this.filePath, StandardCopyOption.REPLACE_EXISTING);
+            return this.codec.convert((JsonNode) entry.getValue());
         } catch (final IOException ioe) {
-            LOG.error("Could not restore the previous state of the backing JSON file!", ioe);
+            throw new IllegalArgumentException("Could not convert journaled value of " + entry.getKey() + "!", ioe);
+        }
+    }
+
+    /**
+     * Applies a mutation to {@code data}. Values of {@code PUT} entries are expected to be of type {@code T}.
+     *
+     * @return the value previously stored at the entry's key, if any
+     */
+    private T apply(final JournalEntry entry) {
+        return apply(entry, this.retention == null ? 0 : this.retention.getTimeToLive());
+    }
+
+    /**
+     * Applies a mutation to {@code data}, giving a stored entry the time-to-live {@code timeToLive} in nanoseconds.
+     */
+    @SuppressWarnings("unchecked")
+    private T apply(final JournalEntry entry, final long timeToLive) {
+        switch (entry.getOperation()) {
+            case PUT:
+                preserve(entry.getKey());
+                final T replaced = this.data.put(entry.getKey(), (T) entry.getValue());
+                this.versions.stored(entry.getKey());
+                this.indexes.update(entry.getKey(), (T) entry.getValue());
+                retain(entry, timeToLive);
+                this.persistence.applied(entry);
+                this.changes.publish(ChangeEvent.Type.PUT, entry.getKey(), replaced, (T) entry.getValue());
+                return replaced;
+            case REMOVE:
+                preserve(entry.getKey());
+                final T removed = this.data.remove(entry.getKey());
+                this.versions.removed(entry.getKey());
+                this.indexes.update(entry.getKey(), null);
+                retain(entry, 0);
+                this.persistence.applied(entry);
+                if (removed != null) {
+                    this.changes.publish(ChangeEvent.Type.REMOVE, entry.getKey(), removed, null);
+                }
+                return removed;
+            case CLEAR:
+                for (final Snapshot<T> snapshot : this.snapshots) {
+                    snapshot.preserveAll();
+                }
+                this.data.clear();
+                this.versions.cleared();
+                this.indexes.clear();
+                retain(entry, 0);
+                this.persistence.applied(entry);
+                this.changes.publish(ChangeEvent.Type.CLEAR, null, null, null);
+                return null;
+            case BATCH:
+                for (final JournalEntry batched : entry.getEntries()) {
+                    apply(batched);
+                }
+                return null;
+            default:
+                throw new IllegalStateException("Unknown journal operation " + entry.getOperation() + "!");
+        }
+    }
+
+    /**
+     * Tracks an applied mutation for eviction, if the store evicts entries.
+     */
+    private void retain(final JournalEntry entry, final long timeToLive) {
+        if (this.retention == null) {
+            return;
+        }
+        if (entry.getOperation() == JournalEntry.Operation.PUT) {
+            this.retention.written(entry.getKey(), entry.getValue(), timeToLive);
+        } else if (entry.getOperation() == JournalEntry.Operation.REMOVE) {
+            this.retention.removed(entry.getKey());
+        } else {
+            this.retention.cleared();
+        }
+    }
+
+    /**
+     * Records the deadlines of the keys of applied mutations before the mutations are persisted.
+     */
+    private void recordDeadlines(final List<JournalEntry> entries) throws IOException {
+        for (final JournalEntry entry : entries) {
+            switch (entry.getOperation()) {
+                case PUT:
+                    this.deadlines.written(entry.getKey(), this.retention.deadline(entry.getKey()));
+                    break;
+                case REMOVE:
+                    this.deadlines.removed(entry.getKey());
+                    break;
+                case CLEAR:
+                    this.deadlines.cleared();
+                    break;
+                default:
+                    recordDeadlines(entry.getEntries());
+            }
+        }
+    }
+
+    private void preserve(final String key) {
+        for (final Snapshot<T> snapshot : this.snapshots) {
+            snapshot.preserve(key);
+        }
+    }
+
+    /**
+     * Applies a single mutation and persists it.
+     *
+     * @return the value previously stored at the entry's key, if any
+     */
+    private T write(final JournalEntry entry) throws StorageException {
+        return Futures.await(writeAsync(entry));
+    }
+
+    /**
+     * Applies a single mutation and starts persisting it.
+     *
+     * @return a future completed with the value previously stored at the entry's key once the mutation is persisted
+     */
+    private CompletableFuture<T> writeAsync(final JournalEntry entry) {
+        return writeAsync(entry, this.retention == null ? 0 : this.retention.getTimeToLive());
+    }
+
+    /**
+     * Applies a single mutation, giving a stored entry the time-to-live {@code timeToLive} in nanoseconds, and starts persisting it.
+     */
+    private CompletableFuture<T> writeAsync(final JournalEntry entry, final long timeToLive) {
+        return this.coordinator == null ? mutate(entry, timeToLive) : this.coordinator.exclusively(() -> mutate(entry, timeToLive));
+    }
+
+    private CompletableFuture<T> mutate(final JournalEntry entry, final long timeToLive) {
+        final long start = startTimer();
+        final List<JournalEntry> entries = Collections.singletonList(entry);
+        final T previous;
+        final CompletableFuture<Void> committed;
+        final List<Lock> held = this.locks.lock(entries);
+        try {
+            previous = apply(entry, timeToLive);
+            committed = commit(entries);
+        } catch (final UncheckedIOException uioe) {
+            return timed(operationOf(entry), start, Futures.failed(mappingFailed(uioe)));
+        } finally {
+            StripedLocks.unlock(held);
+        }
+        evictIfOverLimit();
+        return timed(operationOf(entry), start, persist(committed).thenApply(persisted -> previous));
+    }
+
+    /**
+     * Applies the mutations of a {@link Batch} in order and persists them at once.
+     */
+    void write(final List<JournalEntry> entries) throws StorageException {
+        Futures.await(writeAsync(entries));
+    }
+
+    /**
+     * Applies the mutations of a {@link Batch} in order and starts persisting them at once.
+     */
+    CompletableFuture<Void> writeAsync(final List<JournalEntry> entries) {
+        return this.coordinator == null ? mutate(entries) : this.coordinator.exclusively(() -> mutate(entries));
+    }
+
+    private CompletableFuture<Void> mutate(final List<JournalEntry> entries) {
+        final long start = startTimer();
+        final CompletableFuture<Void> committed;
+        final List<Lock> held = this.locks.lock(entries);
+        try {
+            for (final JournalEntry entry : entries) {
+                apply(entry);
+            }
+            committed = commit(entries);
+        } catch (final UncheckedIOException uioe) {
+            return timed(StoreMetrics.Operation.BATCH, start, Futures.failed(mappingFailed(uioe)));
+        } finally {
+            StripedLocks.unlock(held);
+        }
+        evictIfOverLimit();
+        return timed(StoreMetrics.Operation.BATCH, start, persist(committed));
+    }
+
+    /**
+     * Computes a mutation of a key from the object it holds, {@code null} if none, and applies it while holding
+     * the lock of the key, so that no other mutation of the key comes in between, then persists it. A {@code null}
+     * mutation leaves the key as it is and persists nothing.
+     *
+     * @return the applied mutation, {@code null} if none
+     */
+    private JournalEntry update(final String key, final Function<T, JournalEntry> mutation) throws StorageException {
+        return Futures.await(this.coordinator == null ? updateAsync(key, mutation) : this.coordinator.exclusively(() -> updateAsync(key, mutation)));
+    }
+
+    private CompletableFuture<JournalEntry> updateAsync(final String key, final Function<T, JournalEntry> mutation) {
+        final long start = startTimer();
+        final JournalEntry entry;
+        final CompletableFuture<Void> committed;
+        final List<Lock> held = this.locks.lock(key);
+        try {
+            entry = mutation.apply(current(key));
+            if (entry == null) {
+                return UNCHANGED;
+            }
+            apply(entry);
+            committed = commit(Collections.singletonList(entry));
+        } catch (final UncheckedIOException uioe) {
+            return Futures.failed(mappingFailed(uioe));
+        } finally {
+            StripedLocks.unlock(held);
+        }
+        evictIfOverLimit();
+        return timed(operationOf(entry), start, persist(committed).thenApply(persisted -> entry));
+    }
+
+    /**
+     * Returns the object stored at a key, {@code null} if none or if it has expired.
+     */
+    private T current(final String key) {
+        if (this.retention != null && this.retention.isExpired(key, System.nanoTime())) {
+            return null;
+        }
+        return this.data.get(key);
+    }
+
+    private long versionOf(final String key, final T current) {
+        return current == null ? Versioned.ABSENT : this.versions.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T valueOf(final JournalEntry applied) {
+        return applied == null || applied.getOperation() != JournalEntry.Operation.PUT ? null : (T) applied.getValue();
+    }
+
+    /**
+     * Records mutations that have just been applied to {@code data}, while still holding their locks,
+     * so that their entries are ordered the same way as the mutations themselves. With group commit
+     * enabled the entries are queued, otherwise they are appended to the journal, if any.
+     *
+     * @return a future completed once the mutations are persisted
+     */
+    private CompletableFuture<Void> commit(final List<JournalEntry> entries) {
+        if (this.deadlines != null) {
+            try {
+                recordDeadlines(entries);
+                this.deadlines.commit();
+            } catch (final IOException ioe) {
+                LOG.error("Could not record the deadlines of {}!", this.filePath, ioe);
+                return Futures.failed(new StorageException(ioe));
+            }
+        }
+        return this.committer == null ? this.persistence.commit(entries) : this.committer.submit(entries);
+    }
+
+    /**
+     * Finishes persisting mutations after their locks have been released, unless they are left to their group commit.
+     */
+    private CompletableFuture<Void> persist(final CompletableFuture<Void> committed) {
+        if (this.committer != null || committed.isCompletedExceptionally()) {
+            return committed;
+        }
+        return this.persistence.persist(committed);
+    }
+
+    /**
+     * Catches up with the mutations of the other processes sharing the store before it is read, see {@link SharedCoordinator#refresh()}.
+     */
+    private void refresh() {
+        if (this.coordinator != null) {
+            this.coordinator.refresh();
+        }
+    }
+
+    /**
+     * Applies the differences between {@code data} and the backing file compacted by another process.
+     */
+    private void reconcile() throws IOException, InvalidJsonException {
+        final Map<String, T> compacted = new HashMap<>();
+        JSONUtils.parseEntries(this.filePath, this.codec.getReader(), compacted::put);
+        for (final String key : new ArrayList<>(this.data.keySet())) {
+            if (!compacted.containsKey(key)) {
+                apply(JournalEntry.remove(key));
+            }
+        }
+        for (final Map.Entry<String, T> entry : compacted.entrySet()) {
+            if (!entry.getValue().equals(this.data.get(entry.getKey()))) {
+                apply(JournalEntry.put(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    private long startTimer() {
+        return this.metrics == null ? 0L : System.nanoTime();
+    }
+
+    private void stopTimer(final StoreMetrics.Operation operation, final long start) {
+        if (this.metrics != null) {
+            this.metrics.record(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Measures an operation until its future completes. The future itself is returned as it is.
+     */
+    private <V> CompletableFuture<V> timed(final StoreMetrics.Operation operation, final long start, final CompletableFuture<V> future) {
+        if (this.metrics != null) {
+            future.whenComplete((value, failure) -> stopTimer(operation, start));
         }
+        return future;
     }
 
+    private static StoreMetrics.Operation operationOf(final JournalEntry entry) {
+        switch (entry.getOperation()) {
+            case PUT:
+                return StoreMetrics.Operation.STORE;
+            case REMOVE:
+                return StoreMetrics.Operation.REMOVE;
+            case CLEAR:
+                return StoreMetrics.Operation.CLEAR;
+            default:
+                return StoreMetrics.Operation.BATCH;
+        }
+    }
+
+    private StorageException mappingFailed(final UncheckedIOException uioe) {
+        LOG.error("Could not write to mapped store file {}!", this.filePath, uioe);
+        return new StorageException(uioe.getCause());
+    }
+
+    /**
+     * Rewrites the backing file of a collection of a database, once the journal of the database
+     * has been rotated, so that the rotated journal is no longer needed.
+     */
+    void checkpoint() throws StorageException {
+        this.persistence.rewrite();
+    }
 }
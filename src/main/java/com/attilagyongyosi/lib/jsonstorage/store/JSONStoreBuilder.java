@@ -1,10 +1,21 @@
 package com.attilagyongyosi.lib.jsonstorage.store;
 
 import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.fasterxml.jackson.databind.Module;
 
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Class implementing a Builder pattern for a {@link JSONStore} instance.
@@ -14,9 +25,16 @@ import java.nio.file.Paths;
  *
  * @author attilagyongyosi
  */
+@SuppressWarnings("PMD.TooManyMethods")
 public final class JSONStoreBuilder<T> {
     private final JSONStore<T> jsonStore;
 
+    /**
+     * Every setting applied to {@link #jsonStore}, replayed on the shards of a sharded store.
+     */
+    private final List<Consumer<JSONStore<T>>> settings = new ArrayList<>();
+    private Path path;
+
     public static <T> JSONStoreBuilder builder() {
         return new JSONStoreBuilder<T>();
     }
@@ -27,8 +45,8 @@ public final class JSONStoreBuilder<T> {
 
     public JSONStoreBuilder<T> path(final String pathAsString) throws StoreCreationException {
         try {
-            final Path path = Paths.get(pathAsString);
-            this.jsonStore.setFilePath(path);
+            this.path = Paths.get(pathAsString);
+            configure(store -> store.setFilePath(this.path));
         } catch (final InvalidPathException ipe) {
             throw new StoreCreationException("Invalid path for store " + pathAsString + "!", ipe);
         }
@@ -36,7 +54,425 @@ public final class JSONStoreBuilder<T> {
         return this;
     }
 
+    /**
+     * Sets the format the backing file is written in. An existing file in another format is read
+     * in its own format and migrated to this one when the store is created. Without a format,
+     * stores keep the format of an existing file, and write new files as indented JSON.
+     *
+     * @param  format
+     *         the format of the backing file
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> format(final StoreFormat format) {
+        configure(store -> store.setFormat(Objects.requireNonNull(format, "Store format must not be null!")));
+        return this;
+    }
+
+    /**
+     * Sets when the writes of the store are forced to disk. Stores force every commit by default.
+     *
+     * @param  durability
+     *         {@link Durability#SYNC_EACH_WRITE}, {@link Durability#periodic(long, TimeUnit)} or {@link Durability#OS_BUFFERED}
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> durability(final Durability durability) {
+        configure(store -> store.setDurability(Objects.requireNonNull(durability, "Durability must not be null!")));
+        return this;
+    }
+
+    /**
+     * Makes syncs patch the entries mutated since the previous sync in the backing file, instead of
+     * rewriting every entry, see {@link #deltaSync(double)}. The file is rewritten once whitespace makes
+     * up half of it.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> deltaSync() {
+        return deltaSync(DeltaSync.DEFAULT_FRAGMENTATION);
+    }
+
+    /**
+     * Makes syncs patch the entries mutated since the previous sync in the backing file, instead of
+     * rewriting every entry. Entries are overwritten in place when they fit the bytes they took up,
+     * padded with whitespace, and appended to the file otherwise, so the file remains valid JSON.
+     * Only stores written as JSON, and neither journaled, lazily loaded, off-heap nor mapped, can be synced in place.
+     *
+     * @param  maxFragmentation
+     *         the share of whitespace in the file, between {@code 0} and {@code 1}, that makes the next sync rewrite it
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> deltaSync(final double maxFragmentation) {
+        if (maxFragmentation <= 0 || maxFragmentation >= 1) {
+            throw new IllegalArgumentException("Fragmentation must be between 0 and 1!");
+        }
+        configure(store -> store.setDeltaSyncFragmentation(maxFragmentation));
+        return this;
+    }
+
+    /**
+     * Registers Jackson modules on the mappers reading and writing the backing file, e.g. Afterburner's
+     * {@code AfterburnerModule} to access the properties of stored objects through generated bytecode
+     * instead of reflection. The modules have to be on the classpath of the application.
+     *
+     * @param  modules
+     *         the modules to register
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> modules(final Module... modules) {
+        final List<Module> registered = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(modules)));
+        configure(store -> store.setModules(registered));
+        return this;
+    }
+
+    /**
+     * Makes the store append every mutation to a journal next to the backing file
+     * instead of rewriting the whole file.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> journaled() {
+        configure(store -> store.setJournaled(true));
+        return this;
+    }
+
+    /**
+     * Lets several processes open the journaled store at the same time. Mutations take turns through an
+     * exclusive lock on a lock file next to the backing file, and every process reads the entries other
+     * processes appended to the journal before reading or mutating the store. Listeners are notified of
+     * the mutations of other processes as well, once they are read.
+     *
+     * Compactions happen while holding the lock, instead of in the background, and make the other
+     * processes reload the backing file. Shared stores can not be group committed, loaded lazily or kept off-heap,
+     * and they can not expire or evict entries.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> shared() {
+        configure(store -> store.setShared(true));
+        return this;
+    }
+
+    /**
+     * Sets the journal size in bytes at which a journaled store compacts its journal
+     * into the backing file in the background. {@code 0} disables the size threshold.
+     *
+     * @param  bytes
+     *         the journal size triggering a compaction
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> compactionThreshold(final long bytes) {
+        configure(store -> store.setCompactionThreshold(bytes));
+        return this;
+    }
+
+    /**
+     * Sets the ratio of journal size to backing file size at which a journaled store
+     * compacts its journal in the background. {@code 0} disables the ratio threshold.
+     *
+     * @param  ratio
+     *         the journal to backing file size ratio triggering a compaction
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> compactionRatio(final double ratio) {
+        configure(store -> store.setCompactionRatio(ratio));
+        return this;
+    }
+
+    /**
+     * Enables group commit: mutations of concurrent writers arriving within {@code window}
+     * of each other are persisted by a single flush, up to {@code maxBatchSize} mutations.
+     * Writers still return only once their mutation is persisted.
+     *
+     * @param  window
+     *         how long a group commit waits for further mutations
+     *
+     * @param  unit
+     *         the time unit of {@code window}
+     *
+     * @param  maxBatchSize
+     *         the number of mutations that triggers a flush without waiting for the window to elapse
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> groupCommit(final long window, final TimeUnit unit, final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Group commit batch size must be positive!");
+        }
+        configure(store -> store.setGroupCommitWindow(unit.toNanos(window)));
+        configure(store -> store.setGroupCommitSize(maxBatchSize));
+        return this;
+    }
+
+    /**
+     * Makes the store persist mutations on a background thread, which drains every pending
+     * mutation at once and only persists the last mutation of each key. Combine with the
+     * asynchronous methods of {@link JSONStore} to avoid waiting for the persistence.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> asynchronous() {
+        return groupCommit(0L, TimeUnit.NANOSECONDS, GroupCommitter.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Makes a journaled store read only the keys of the backing file on creation and decode
+     * values on their first retrieval. At most {@code cacheSize} decoded values are kept in
+     * memory, the least recently used ones are decoded again when needed.
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values kept in memory
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> lazy(final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Lazy value cache size must be positive!");
+        }
+        configure(store -> store.setLazyCacheSize(cacheSize));
+        return this;
+    }
+
+    /**
+     * Makes the store keep its entries in a memory-mapped log instead of a JSON file. Mutations
+     * append a record to the log rather than rewriting the file, and values are decoded straight
+     * from the mapping on retrieval. At most {@code cacheSize} decoded values are kept in memory.
+     * Mapped stores can not be journaled or loaded lazily, and can not open JSON files.
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values kept in memory
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> mapped(final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Mapped value cache size must be positive!");
+        }
+        configure(store -> store.setMappedCacheSize(cacheSize));
+        return this;
+    }
+
+    /**
+     * Makes the store keep its values serialized in direct memory instead of the Java heap,
+     * with only the keys indexed on the heap. Values are decoded on retrieval, and at most
+     * {@code cacheSize} decoded values are kept in memory.
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values kept in memory
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> offHeap(final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Off-heap value cache size must be positive!");
+        }
+        configure(store -> store.setOffHeapCacheSize(cacheSize));
+        return this;
+    }
+
+    /**
+     * Declares a secondary index of a property of the stored objects, as it is serialized to JSON.
+     * The index is queried by the name of the property, see {@link JSONStore#query(String)}.
+     * Values of the property have to be mutually {@link Comparable}.
+     *
+     * @param  property
+     *         the name of the property
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> index(final String property) {
+        configure(store -> store.addIndex(Objects.requireNonNull(property, "Indexed property must not be null!")));
+        return this;
+    }
+
+    /**
+     * Declares a secondary index of values derived from the stored objects. Derived values have to
+     * be mutually {@link Comparable}; objects deriving {@code null} are not indexed.
+     *
+     * @param  name
+     *         the name the index is queried by, see {@link JSONStore#query(String)}
+     *
+     * @param  extractor
+     *         derives the indexed value from an object
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> index(final String name, final Function<? super T, ?> extractor) {
+        configure(store -> store.addIndex(Objects.requireNonNull(name, "Index name must not be null!"),
+            Objects.requireNonNull(extractor, "Index extractor must not be null!")));
+        return this;
+    }
+
+    /**
+     * Makes the store report measurements of its operations to a listener, e.g. a
+     * {@link com.attilagyongyosi.lib.jsonstorage.metrics.MetricsRegistry}.
+     *
+     * @param  metrics
+     *         the listener receiving the measurements
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> metrics(final StoreMetrics metrics) {
+        configure(store -> store.setMetrics(Objects.requireNonNull(metrics, "Metrics listener must not be null!")));
+        return this;
+    }
+
+    /**
+     * Exposes the metrics of the store as MXBeans of the platform MBean server while the store is open.
+     * Measurements are kept by the {@link com.attilagyongyosi.lib.jsonstorage.metrics.MetricsRegistry}
+     * set as listener, or by a new one forwarding them to the listener set.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> jmx() {
+        configure(store -> store.setJmx(true));
+        return this;
+    }
+
+    /**
+     * Lets entries be stored with a time-to-live of their own, see {@link JSONStore#store(String, Object, long, TimeUnit)}.
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> expiring() {
+        configure(store -> store.setExpiring(true));
+        return this;
+    }
+
+    /**
+     * Gives every stored entry a time-to-live, after which it is no longer retrieved and is evicted
+     * in the background. Entries loaded when the store is created live for the time-to-live from then on.
+     *
+     * @param  ttl
+     *         the time entries are kept for
+     *
+     * @param  unit
+     *         the unit of {@code ttl}
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> expireAfterWrite(final long ttl, final TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Time-to-live must be positive!");
+        }
+        configure(store -> store.setTimeToLive(unit.toNanos(ttl)));
+        return this;
+    }
+
+    /**
+     * Bounds the number of entries. Once the store holds more, the entries written the longest ago
+     * are evicted, in batches, shortly after the write that went over the limit.
+     *
+     * @param  entries
+     *         the maximum number of entries
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> maxEntries(final long entries) {
+        if (entries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive!");
+        }
+        configure(store -> store.setMaxEntries(entries));
+        return this;
+    }
+
+    /**
+     * Bounds the size of the entries, measured as the compact JSON of their values. Once the store
+     * holds more, the entries written the longest ago are evicted like with {@link #maxEntries(long)}.
+     * Every stored value is serialized once more to be measured.
+     *
+     * @param  bytes
+     *         the maximum size of the entries in bytes
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> maxBytes(final long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive!");
+        }
+        configure(store -> store.setMaxBytes(bytes));
+        return this;
+    }
+
+    /**
+     * Retains the most recent mutations of the store, so that subscriptions can resume
+     * from a past sequence, see {@link JSONStore#subscribe(long, int)}.
+     *
+     * @param  events
+     *         the number of mutations to retain
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> changeHistory(final int events) {
+        if (events < 0) {
+            throw new IllegalArgumentException("Change history must not be negative!");
+        }
+        configure(store -> store.setChangeHistory(events));
+        return this;
+    }
+
+    /**
+     * Registers a listener notified synchronously of every mutation made once the store is created.
+     * Listeners are notified before mutations are persisted, while writers wait for them, see {@link ChangeListener}.
+     *
+     * @param  listener
+     *         the listener to notify
+     *
+     * @return itself
+     */
+    public JSONStoreBuilder<T> listener(final ChangeListener<T> listener) {
+        configure(store -> store.addListener(listener));
+        return this;
+    }
+
     public JSONStore<T> build(final Class<T> type) throws StoreCreationException {
         return this.jsonStore.create(type);
     }
+
+    /**
+     * Builds a store partitioning its keys across several shards, each configured like this builder
+     * and backed by a file of its own named after the path. Shards are loaded in parallel. A single-file
+     * store at the path, or a sharded store of another number of shards, is resharded.
+     *
+     * @param  type
+     *         the type of objects the store will contain
+     *
+     * @param  shards
+     *         the number of shards, at least 1
+     *
+     * @return the created store
+     *
+     * @throws StoreCreationException
+     *         when no path was set, or a shard can not be created
+     */
+    public ShardedJSONStore<T> buildSharded(final Class<T> type, final int shards) throws StoreCreationException {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Number of shards must be positive!");
+        }
+        if (this.path == null) {
+            throw new StoreCreationException("A sharded store needs a path!");
+        }
+
+        return ShardedJSONStore.create(this.path, shards, this::newStore, type);
+    }
+
+    /**
+     * Returns a new store configured like this builder, backed by another file.
+     */
+    JSONStore<T> newStore(final Path filePath) {
+        final JSONStore<T> store = new JSONStore<>();
+        this.settings.forEach(setting -> setting.accept(store));
+        store.setFilePath(filePath);
+        return store;
+    }
+
+    private void configure(final Consumer<JSONStore<T>> setting) {
+        setting.accept(this.jsonStore);
+        this.settings.add(setting);
+    }
 }
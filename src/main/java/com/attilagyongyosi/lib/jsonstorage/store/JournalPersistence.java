@@ -0,0 +1,181 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Compactor;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Persists the mutations of a journaled {@link JSONStore} by appending them to its {@link Journal}, which
+ * a {@link Compactor} compacts into the backing file once it has grown past its thresholds.
+ *
+ * <p>A shared store compacts its journal right away instead of in the background, while still holding
+ * the lock of its lock file, so that no other process appends to the journal being compacted, see
+ * {@link SharedCoordinator}.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class JournalPersistence implements Persistence {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalPersistence.class);
+
+    private final Journal journal;
+    private final Compactor compactor;
+
+    /**
+     * Coordinates the processes sharing the store, {@code null} unless the store is shared.
+     */
+    private final SharedCoordinator coordinator;
+
+    /**
+     * Copies the contents of the store for a compaction.
+     */
+    private final Supplier<? extends Map<String, ?>> copy;
+
+    /**
+     * Listener measuring the appends, {@code null} to take no measurements.
+     */
+    private final StoreMetrics metrics;
+
+    JournalPersistence(final Journal journal, final Compactor compactor, final SharedCoordinator coordinator,
+                       final Supplier<? extends Map<String, ?>> copy, final StoreMetrics metrics) {
+        this.journal = journal;
+        this.compactor = compactor;
+        this.coordinator = coordinator;
+        this.copy = copy;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void applied(final JournalEntry entry) {
+        // the journal records mutations once they are committed
+    }
+
+    @Override
+    public CompletableFuture<Void> commit(final List<JournalEntry> entries) {
+        try {
+            append(entries);
+            return Futures.COMMITTED;
+        } catch (final StorageException se) {
+            return Futures.failed(se);
+        }
+    }
+
+    /**
+     * Starts a due compaction in the background, or right away if the store is shared.
+     */
+    @Override
+    public CompletableFuture<Void> persist(final CompletableFuture<Void> committed) {
+        if (this.coordinator == null) {
+            this.compactor.compactIfDue(this.copy);
+            return committed;
+        }
+        try {
+            if (this.compactor.isDue()) {
+                compactShared();
+            }
+        } catch (final IOException ioe) {
+            LOG.error("Could not compact journal {}!", this.journal.getPath(), ioe);
+        }
+        return committed;
+    }
+
+    @Override
+    public void flush(final List<JournalEntry> entries) throws StorageException {
+        append(entries);
+        this.compactor.compactIfDue(this.copy);
+    }
+
+    @Override
+    public void force() throws IOException {
+        this.journal.force();
+    }
+
+    /**
+     * Compacts the journal into the backing file and waits for the compaction to finish.
+     */
+    @Override
+    public CompletableFuture<Void> compact() {
+        if (this.coordinator != null) {
+            return this.coordinator.exclusively(this::compactShared);
+        }
+        try {
+            this.compactor.compact(this.copy);
+            return Futures.COMMITTED;
+        } catch (final IOException ioe) {
+            LOG.error("Could not compact journal {}!", this.journal.getPath(), ioe);
+            return Futures.failed(new StorageException(ioe));
+        }
+    }
+
+    /**
+     * Compacts the journal into the backing file, written in the configured format. The lock of the lock file
+     * of a shared store has to be held.
+     */
+    @Override
+    public void rewrite() throws StorageException {
+        try {
+            this.compactor.compact(this.copy);
+        } catch (final IOException ioe) {
+            throw new StorageException(ioe);
+        } finally {
+            if (this.coordinator != null) {
+                this.coordinator.compacted();
+            }
+        }
+    }
+
+    /**
+     * Waits for a running compaction, then closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        this.compactor.close();
+        this.journal.close();
+    }
+
+    /**
+     * Waits for a running compaction, then closes and deletes the journal.
+     */
+    @Override
+    public void delete() throws IOException {
+        this.compactor.close();
+        this.journal.delete();
+    }
+
+    /**
+     * Compacts the journal of a shared store and makes the other processes reload the store,
+     * as the journal file they have open was rotated. The lock of the lock file has to be held.
+     */
+    private CompletableFuture<Void> compactShared() {
+        try {
+            rewrite();
+            return Futures.COMMITTED;
+        } catch (final StorageException se) {
+            LOG.error("Could not compact journal {}!", this.journal.getPath(), se);
+            return Futures.failed(se);
+        }
+    }
+
+    private void append(final List<JournalEntry> entries) throws StorageException {
+        final long start = this.metrics == null ? 0L : System.nanoTime();
+        try {
+            this.journal.append(entries);
+        } catch (final IOException ioe) {
+            LOG.error("Could not append to journal {}!", this.journal.getPath(), ioe);
+            throw new StorageException(ioe);
+        } finally {
+            if (this.metrics != null) {
+                this.metrics.record(StoreMetrics.Operation.APPEND, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
+import com.attilagyongyosi.lib.jsonstorage.values.MappedValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Persists the mutations of a mapped {@link JSONStore}, whose entries are appended to their memory-mapped
+ * log as they are applied, see {@link MappedValueMap}. Persisting them only forces the mapping to disk,
+ * if every write is forced, and compacts the log once most of it is stale.
+ *
+ * @author attilagyongyosi
+ */
+final class MappedPersistence implements Persistence {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedPersistence.class);
+
+    private final Path file;
+    private final MappedValueMap<?> data;
+    private final Durability durability;
+
+    /**
+     * Minimum size in bytes of a log compacted once most of it is stale, {@code 0} to disable.
+     */
+    private final long compactionThreshold;
+
+    /**
+     * Listener measuring the forces, {@code null} to take no measurements.
+     */
+    private final StoreMetrics metrics;
+
+    MappedPersistence(final Path file, final MappedValueMap<?> data, final Durability durability, final long compactionThreshold,
+                      final StoreMetrics metrics) {
+        this.file = file;
+        this.data = data;
+        this.durability = durability;
+        this.compactionThreshold = compactionThreshold;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void applied(final JournalEntry entry) {
+        // the mapped log records mutations as they are applied
+    }
+
+    @Override
+    public CompletableFuture<Void> commit(final List<JournalEntry> entries) {
+        return Futures.COMMITTED;
+    }
+
+    @Override
+    public CompletableFuture<Void> persist(final CompletableFuture<Void> committed) {
+        persist();
+        return committed;
+    }
+
+    @Override
+    public void flush(final List<JournalEntry> entries) {
+        persist();
+    }
+
+    @Override
+    public void force() {
+        this.data.force();
+    }
+
+    /**
+     * Rewrites the log without the records of overwritten and removed entries.
+     */
+    @Override
+    public CompletableFuture<Void> compact() {
+        try {
+            rewrite();
+            return Futures.COMMITTED;
+        } catch (final StorageException se) {
+            return Futures.failed(se);
+        }
+    }
+
+    @Override
+    public void rewrite() throws StorageException {
+        try {
+            this.data.compact();
+        } catch (final IOException ioe) {
+            LOG.error("Could not compact {}!", this.file, ioe);
+            throw new StorageException(ioe);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the mapping is closed along with the contents of the store
+    }
+
+    @Override
+    public void delete() {
+        // the store deletes its backing file
+    }
+
+    /**
+     * Forces the mapping to disk if every write is forced, then compacts the log if most of it is stale.
+     * A failed compaction leaves the log as it was, so it is only logged.
+     */
+    private void persist() {
+        if (this.durability.isSynchronous()) {
+            final long start = this.metrics == null ? 0L : System.nanoTime();
+            this.data.force();
+            if (this.metrics != null) {
+                this.metrics.record(StoreMetrics.Operation.FSYNC, System.nanoTime() - start);
+            }
+        }
+        if (this.compactionThreshold <= 0) {
+            return;
+        }
+        try {
+            this.data.compactIfDue(this.compactionThreshold);
+        } catch (final IOException ioe) {
+            LOG.error("Could not compact {}!", this.file, ioe);
+        }
+    }
+}
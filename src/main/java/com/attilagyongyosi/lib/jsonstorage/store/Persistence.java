@@ -0,0 +1,80 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How a {@link JSONStore} persists its mutations: by rewriting or patching its backing file, see
+ * {@link RewritePersistence}, by appending them to a journal of its own, see {@link JournalPersistence},
+ * to the journal of its database, see {@link CollectionPersistence}, or to a mapped log, see
+ * {@link MappedPersistence}.
+ *
+ * <p>The store applies a mutation to its contents and hands it to {@link #applied(JournalEntry)}, then to
+ * {@link #commit(List)} while still holding the locks of its keys, and to {@link #persist(CompletableFuture)}
+ * once they are released. Group committed mutations are persisted by {@link #flush(List)} instead.</p>
+ *
+ * @author attilagyongyosi
+ */
+interface Persistence extends Closeable {
+    /**
+     * Called for every mutation applied to the store, including replayed ones, while holding the locks of its keys.
+     * The mutations of a batch are applied one by one.
+     */
+    void applied(JournalEntry entry);
+
+    /**
+     * Records mutations that have just been applied to the store, while still holding their locks,
+     * so that they are recorded in the same order as they were applied.
+     *
+     * @return a future completed once the mutations are committed
+     */
+    CompletableFuture<Void> commit(List<JournalEntry> entries);
+
+    /**
+     * Finishes persisting committed mutations after their locks have been released.
+     *
+     * @param  committed
+     *         the future returned by {@link #commit(List)}
+     *
+     * @return a future completed once the mutations are persisted
+     */
+    CompletableFuture<Void> persist(CompletableFuture<Void> committed);
+
+    /**
+     * Persists a group of mutations collected by a {@link GroupCommitter} at once.
+     */
+    void flush(List<JournalEntry> entries) throws StorageException;
+
+    /**
+     * Forces the writes left to the OS by a durability other than {@link Durability#SYNC_EACH_WRITE} to disk.
+     */
+    void force() throws IOException;
+
+    /**
+     * Drops what is no longer needed to restore the store from its backing file, see {@link JSONStore#compact()}.
+     *
+     * @return a future completed once the compaction finished
+     */
+    CompletableFuture<Void> compact();
+
+    /**
+     * Rewrites the backing file with the current contents of the store, in the configured format.
+     */
+    void rewrite() throws StorageException;
+
+    /**
+     * Closes the files of the persistence, keeping them on disk.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Closes and deletes the files of the persistence, other than the backing file.
+     */
+    void delete() throws IOException;
+}
@@ -0,0 +1,408 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.UncheckedIOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Tracks the entries of a {@link JSONStore} to find the ones due for eviction: entries whose
+ * time-to-live has passed, and the oldest written entries once the store holds more entries or
+ * bytes than allowed.
+ *
+ * <p>Every write of a key is tracked as a new {@link Tracked} entry. Deadlines are kept in a
+ * {@link TimingWheel}, so finding expired entries never scans the store. An entry found due is
+ * only evicted if it is still the current one of its key when its key is locked, so entries
+ * written again in the meantime survive. Writing or removing a key cancels the timer of its
+ * previous entry.</p>
+ *
+ * <p>Expired entries are evicted once per tick, so the views of the store skip entries that have
+ * expired but were not evicted yet, see {@link #unexpired(Map)} and {@link #expired(long)}.</p>
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings({ "PMD.TooManyMethods", "PMD.GodClass" })
+final class Retention {
+    static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int WHEEL_SLOTS = 512;
+
+    private final long timeToLive;
+    private final long maxEntries;
+    private final long maxBytes;
+    private final ObjectWriter writer;
+    private final AtomicLong stamps = new AtomicLong();
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    /**
+     * Deadlines of the entries with a time-to-live. Guarded by {@link #lock}.
+     */
+    private final TimingWheel<Tracked> wheel = new TimingWheel<>(TICK_NANOS, WHEEL_SLOTS, System.nanoTime());
+
+    /**
+     * Expired entries found due, until they are evicted. Guarded by {@link #lock}.
+     */
+    private final Set<Tracked> evicting = new HashSet<>();
+
+    /**
+     * Entries in the order they were written, when the store is bounded. Guarded by {@link #lock}.
+     */
+    private final Map<String, Tracked> order = new LinkedHashMap<>();
+
+    /**
+     * Bytes taken up by the serialized values of the entries, when bytes are bounded. Guarded by {@link #lock}.
+     */
+    private long bytes;
+
+    /**
+     * @param timeToLive
+     *        the default time-to-live of entries in nanoseconds, {@code 0} if entries do not expire by default
+     *
+     * @param maxEntries
+     *        the maximum number of entries, {@code 0} for no limit
+     *
+     * @param maxBytes
+     *        the maximum size of the serialized values in bytes, {@code 0} for no limit
+     *
+     * @param writer
+     *        the writer measuring values when bytes are bounded
+     */
+    Retention(final long timeToLive, final long maxEntries, final long maxBytes, final ObjectWriter writer) {
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.writer = writer;
+    }
+
+    long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Tracks a write of a key. Called with the key locked.
+     *
+     * @param timeToLive
+     *        the time-to-live of the entry in nanoseconds, {@code 0} if it does not expire
+     */
+    void written(final String key, final Object value, final long timeToLive) {
+        final Tracked current = track(key, value, timeToLive);
+        final Tracked previous = this.tracked.put(key, current);
+        if (current.deadline == 0 && !isBounded() && !hasDeadline(previous)) {
+            return;
+        }
+
+        synchronized (this.lock) {
+            retire(previous);
+            if (current.deadline != 0) {
+                current.timer = this.wheel.schedule(current, current.deadline);
+            }
+            if (isBounded()) {
+                forget(previous);
+                this.order.put(key, current);
+                this.bytes += current.bytes;
+            }
+        }
+    }
+
+    /**
+     * Stops tracking a removed key. Called with the key locked.
+     */
+    void removed(final String key) {
+        final Tracked previous = this.tracked.remove(key);
+        if (isBounded() || hasDeadline(previous)) {
+            synchronized (this.lock) {
+                retire(previous);
+                forget(previous);
+            }
+        }
+    }
+
+    /**
+     * Stops tracking every key. Called with the store locked exclusively.
+     */
+    void cleared() {
+        this.tracked.clear();
+        synchronized (this.lock) {
+            this.wheel.clear();
+            this.evicting.clear();
+            this.order.clear();
+            this.bytes = 0;
+        }
+    }
+
+    /**
+     * Tracks the entries a store was opened with, which expire at the deadlines persisted for them,
+     * or after the default time-to-live if none was. Entries past their deadline are evicted on the
+     * next tick. Called before the store is used.
+     *
+     * @param deadlines
+     *        the persisted deadlines in milliseconds since the epoch, by key, see {@link Deadlines}
+     */
+    void loaded(final Map<String, ?> data, final Map<String, Long> deadlines) {
+        final long now = System.currentTimeMillis();
+        for (final String key : data.keySet()) {
+            final Long deadline = deadlines.get(key);
+            final long timeToLive = deadline == null ? this.timeToLive : Math.max(1, TimeUnit.MILLISECONDS.toNanos(deadline - now));
+            written(key, this.maxBytes > 0 ? data.get(key) : null, timeToLive);
+        }
+    }
+
+    /**
+     * Returns the deadline of the entry of a key in milliseconds since the epoch, {@code 0} if it does not expire.
+     */
+    long deadline(final String key) {
+        final Tracked current = this.tracked.get(key);
+        return hasDeadline(current) ? toEpochMillis(current.deadline) : 0;
+    }
+
+    /**
+     * Returns the deadlines of the entries in milliseconds since the epoch, by key.
+     */
+    Map<String, Long> deadlines() {
+        final Map<String, Long> deadlines = new HashMap<>();
+        for (final Tracked entry : this.tracked.values()) {
+            if (hasDeadline(entry)) {
+                deadlines.put(entry.key, toEpochMillis(entry.deadline));
+            }
+        }
+        return deadlines;
+    }
+
+    /**
+     * Tells whether the entry of a key has outlived its time-to-live, whether or not it was evicted yet.
+     */
+    boolean isExpired(final String key, final long now) {
+        final Tracked current = this.tracked.get(key);
+        return current != null && current.deadline != 0 && current.deadline - now <= 0;
+    }
+
+    /**
+     * Returns the keys of the entries that have outlived their time-to-live but were not evicted yet.
+     */
+    Set<String> expired(final long now) {
+        final Set<String> expired = new HashSet<>();
+        synchronized (this.lock) {
+            for (final Tracked entry : this.evicting) {
+                if (isCurrent(entry)) {
+                    expired.add(entry.key);
+                }
+            }
+            for (final Tracked entry : this.wheel.peek(now)) {
+                if (entry.deadline - now <= 0 && isCurrent(entry)) {
+                    expired.add(entry.key);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns a live view of the objects of a store, skipping the entries that have expired when they are iterated.
+     */
+    <T> Collection<T> unexpired(final Map<String, T> data) {
+        return new Unexpired<>(data);
+    }
+
+    /**
+     * Maps a stream of the entries of a store to their objects, skipping the entries that have expired
+     * when the stream is created.
+     */
+    <T> Stream<T> unexpired(final Stream<Map.Entry<String, T>> entries) {
+        final long now = System.nanoTime();
+        return entries.filter(entry -> !isExpired(entry.getKey(), now)).map(Map.Entry::getValue);
+    }
+
+    /**
+     * Tells whether an entry is still the current one of its key. Called with the key locked.
+     */
+    boolean isCurrent(final Tracked entry) {
+        return this.tracked.get(entry.key) == entry;
+    }
+
+    /**
+     * Tells whether the store holds more entries or bytes than allowed.
+     */
+    boolean isOverLimit() {
+        synchronized (this.lock) {
+            return this.maxEntries > 0 && this.order.size() > this.maxEntries || this.maxBytes > 0 && this.bytes > this.maxBytes;
+        }
+    }
+
+    /**
+     * Returns the entries due for eviction: the expired ones, then the oldest written ones
+     * until the rest fits the limits.
+     */
+    List<Tracked> due(final long now) {
+        final Map<String, Tracked> due = new LinkedHashMap<>();
+        synchronized (this.lock) {
+            for (final Tracked expired : this.wheel.advance(now)) {
+                expired.timer = null;
+                if (isCurrent(expired)) {
+                    due.put(expired.key, expired);
+                    this.evicting.add(expired);
+                }
+            }
+            if (!isBounded()) {
+                return new ArrayList<>(due.values());
+            }
+
+            long entries = this.order.size();
+            long remaining = this.bytes;
+            for (final Tracked entry : due.values()) {
+                entries--;
+                remaining -= entry.bytes;
+            }
+            final Iterator<Tracked> oldest = this.order.values().iterator();
+            while (oldest.hasNext() && (exceeds(this.maxEntries, entries) || exceeds(this.maxBytes, remaining))) {
+                final Tracked victim = oldest.next();
+                if (due.putIfAbsent(victim.key, victim) == null) {
+                    entries--;
+                    remaining -= victim.bytes;
+                }
+            }
+        }
+        return new ArrayList<>(due.values());
+    }
+
+    private Tracked track(final String key, final Object value, final long timeToLive) {
+        final long deadline = timeToLive > 0 ? System.nanoTime() + timeToLive : 0;
+        return new Tracked(key, this.stamps.incrementAndGet(), deadline, this.maxBytes > 0 ? measure(value) : 0);
+    }
+
+    private boolean isBounded() {
+        return this.maxEntries > 0 || this.maxBytes > 0;
+    }
+
+    private static boolean hasDeadline(final Tracked entry) {
+        return entry != null && entry.deadline != 0;
+    }
+
+    private static long toEpochMillis(final long deadline) {
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+    /**
+     * Cancels the timer of an entry that is no longer the current one of its key.
+     */
+    private void retire(final Tracked previous) {
+        if (previous == null) {
+            return;
+        }
+        if (previous.timer != null) {
+            this.wheel.cancel(previous.timer);
+            previous.timer = null;
+        }
+        this.evicting.remove(previous);
+    }
+
+    private void forget(final Tracked previous) {
+        if (previous != null && this.order.remove(previous.key) != null) {
+            this.bytes -= previous.bytes;
+        }
+    }
+
+    private long measure(final Object value) {
+        try {
+            return this.writer.writeValueAsBytes(value).length;
+        } catch (final JsonProcessingException jpe) {
+            throw new UncheckedIOException("Could not measure value!", jpe);
+        }
+    }
+
+    private static boolean exceeds(final long limit, final long amount) {
+        return limit > 0 && amount > limit;
+    }
+
+    /**
+     * Live view of the objects of a store whose entries have not expired.
+     */
+    private final class Unexpired<T> extends AbstractCollection<T> {
+        private final Map<String, T> data;
+
+        Unexpired(final Map<String, T> data) {
+            this.data = data;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final long now = System.nanoTime();
+            final Iterator<Map.Entry<String, T>> entries = this.data.entrySet().iterator();
+            return new Iterator<T>() {
+                private T next;
+
+                @Override
+                public boolean hasNext() {
+                    while (this.next == null && entries.hasNext()) {
+                        final Map.Entry<String, T> entry = entries.next();
+                        if (!isExpired(entry.getKey(), now)) {
+                            this.next = entry.getValue();
+                        }
+                    }
+                    return this.next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final T current = this.next;
+                    this.next = null;
+                    return current;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, this.data.size() - expired(System.nanoTime()).size());
+        }
+    }
+
+    /**
+     * A write of a key, identified by its stamp.
+     */
+    static final class Tracked {
+        private final String key;
+        private final long stamp;
+        private final long deadline;
+        private final long bytes;
+
+        /**
+         * The timer of the deadline, {@code null} once it expired or was cancelled. Guarded by {@link Retention#lock}.
+         */
+        private TimingWheel.Timer<Tracked> timer;
+
+        Tracked(final String key, final long stamp, final long deadline, final long bytes) {
+            this.key = key;
+            this.stamp = stamp;
+            this.deadline = deadline;
+            this.bytes = bytes;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return key + "@" + stamp;
+        }
+    }
+}
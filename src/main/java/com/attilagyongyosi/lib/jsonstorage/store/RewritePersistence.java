@@ -0,0 +1,119 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Persists the mutations of a {@link JSONStore} by rewriting its backing file after each of them, or by
+ * patching the entries they mutated if the store is synced in place, see {@link BackingFile}.
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+class RewritePersistence<T> implements Persistence {
+    private static final Logger LOG = LoggerFactory.getLogger(RewritePersistence.class);
+
+    private final BackingFile<T> backingFile;
+
+    /**
+     * Patches mutated entries in the backing file, {@code null} if every sync rewrites it.
+     */
+    private final DeltaSync<T> delta;
+
+    /**
+     * The contents of the store.
+     */
+    private final Map<String, T> data;
+
+    /**
+     * Copies the contents of the store for a rewrite of the backing file.
+     */
+    private final Supplier<Map<String, T>> copy;
+
+    RewritePersistence(final BackingFile<T> backingFile, final DeltaSync<T> delta, final Map<String, T> data, final Supplier<Map<String, T>> copy) {
+        this.backingFile = backingFile;
+        this.delta = delta;
+        this.data = data;
+        this.copy = copy;
+    }
+
+    /**
+     * Records an applied mutation to be patched in the backing file, if the store is synced in place.
+     */
+    @Override
+    public void applied(final JournalEntry entry) {
+        if (this.delta == null) {
+            return;
+        }
+        if (entry.getOperation() == JournalEntry.Operation.CLEAR) {
+            this.delta.cleared();
+        } else {
+            this.delta.mutated(entry.getKey());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> commit(final List<JournalEntry> entries) {
+        return Futures.COMMITTED;
+    }
+
+    @Override
+    public CompletableFuture<Void> persist(final CompletableFuture<Void> committed) {
+        try {
+            rewrite();
+            return committed;
+        } catch (final StorageException se) {
+            return Futures.failed(se);
+        }
+    }
+
+    @Override
+    public void flush(final List<JournalEntry> entries) throws StorageException {
+        rewrite();
+    }
+
+    @Override
+    public void force() throws IOException {
+        this.backingFile.force();
+    }
+
+    /**
+     * Has no effect, as the backing file is rewritten on every mutation anyway.
+     */
+    @Override
+    public CompletableFuture<Void> compact() {
+        return Futures.COMMITTED;
+    }
+
+    /**
+     * Rewrites the backing file with the current contents of the store, see {@link BackingFile#sync(Map, Supplier)}.
+     */
+    @Override
+    public void rewrite() throws StorageException {
+        try {
+            this.backingFile.sync(this.data, this.copy);
+        } catch (final IOException ioe) {
+            LOG.error("Error while syncing to file {}!", this.backingFile.getPath(), ioe);
+            throw new StorageException(ioe);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the backing file is only open while it is synced
+    }
+
+    @Override
+    public void delete() {
+        // the store deletes its backing file
+    }
+}
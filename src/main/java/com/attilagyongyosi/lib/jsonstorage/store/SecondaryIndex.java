@@ -0,0 +1,168 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Index of the keys of a {@link JSONStore} by a value derived from their objects, e.g. one of their properties.
+ *
+ * <p>Keys are kept in a sorted map of the derived values, which have to be mutually {@link Comparable},
+ * so the index answers both equality and range lookups. Objects deriving {@code null} are not indexed.</p>
+ *
+ * <p>Lookups never lock. Updates are serialized, and are made by the store after it mutated its entries,
+ * so a lookup may briefly return keys whose objects no longer match; the store checks them again.</p>
+ *
+ * <p>The value each key is filed under is remembered, rather than derived again from the previous object
+ * of the key: stores kept on the heap hand out their live objects, so a caller may mutate an object and
+ * store the very same instance again, leaving nothing to derive the old value from.</p>
+ *
+ * @param <T> Type of the indexed objects.
+ *
+ * @author attilagyongyosi
+ */
+final class SecondaryIndex<T> {
+    private final String name;
+    private final Function<? super T, ?> extractor;
+    private final ConcurrentNavigableMap<Object, Set<String>> keys = new ConcurrentSkipListMap<>();
+
+    /**
+     * The value each indexed key is filed under.
+     */
+    private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+
+    SecondaryIndex(final String name, final Function<? super T, ?> extractor) {
+        this.name = name;
+        this.extractor = extractor;
+    }
+
+    /**
+     * Creates an index of a property of objects, as Jackson serializes it.
+     *
+     * @throws IllegalArgumentException
+     *         when {@code type} has no such property
+     */
+    static <T> SecondaryIndex<T> ofProperty(final ObjectMapper mapper, final Class<T> type, final String property) {
+        final BeanDescription description = mapper.getSerializationConfig().introspect(mapper.constructType(type));
+        for (final BeanPropertyDefinition definition : description.findProperties()) {
+            final AnnotatedMember accessor = definition.getAccessor();
+            if (definition.getName().equals(property) && accessor != null) {
+                accessor.fixAccess(true);
+                return new SecondaryIndex<>(property, accessor::getValue);
+            }
+        }
+        throw new IllegalArgumentException(type.getName() + " has no property " + property + " to index!");
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the value an object is indexed by.
+     *
+     * @return the derived value, {@code null} if {@code object} is {@code null} or not indexed
+     */
+    Object extract(final T object) {
+        return object == null ? null : this.extractor.apply(object);
+    }
+
+    /**
+     * Moves a key from the value it is filed under to the one derived from its current object.
+     *
+     * @param  key
+     *         the key whose object changed
+     *
+     * @param  current
+     *         the current object of the key, {@code null} if it was removed
+     */
+    void update(final String key, final T current) {
+        final Object before = this.values.get(key);
+        final Object after = extract(current);
+        if (Objects.equals(before, after)) {
+            return;
+        }
+
+        synchronized (this.lock) {
+            if (after == null) {
+                this.values.remove(key);
+            } else {
+                this.values.put(key, after);
+            }
+            if (before != null) {
+                final Set<String> indexed = this.keys.get(before);
+                if (indexed != null && indexed.remove(key) && indexed.isEmpty()) {
+                    this.keys.remove(before);
+                }
+            }
+            if (after != null) {
+                this.keys.computeIfAbsent(after, value -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (this.lock) {
+            this.keys.clear();
+            this.values.clear();
+        }
+    }
+
+    /**
+     * Returns the keys whose objects derive a value equal to the given one.
+     *
+     * @return a live view of the keys
+     */
+    Collection<String> keysEqualTo(final Object value) {
+        final Set<String> indexed = this.keys.get(Objects.requireNonNull(value, "Indexed values must not be null!"));
+        return indexed == null ? Collections.emptySet() : indexed;
+    }
+
+    /**
+     * Returns the sets of keys whose objects derive a value between the given bounds, both inclusive.
+     *
+     * @param  from
+     *         the lower bound, {@code null} for none
+     *
+     * @param  to
+     *         the upper bound, {@code null} for none
+     *
+     * @return a live view of the sets of keys, in the order of their values
+     */
+    Collection<Set<String>> keysBetween(final Object from, final Object to) {
+        NavigableMap<Object, Set<String>> range = this.keys;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, true);
+        }
+        return range.values();
+    }
+
+    /**
+     * Tells whether an object derives a value between the given bounds, both inclusive.
+     */
+    @SuppressWarnings("unchecked")
+    boolean isBetween(final T object, final Object from, final Object to) {
+        final Object value = extract(object);
+        if (value == null) {
+            return false;
+        }
+        final Comparable<Object> comparable = (Comparable<Object>) value;
+        return (from == null || comparable.compareTo(from) >= 0) && (to == null || comparable.compareTo(to) <= 0);
+    }
+}
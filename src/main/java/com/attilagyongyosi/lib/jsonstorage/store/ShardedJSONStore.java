@@ -0,0 +1,540 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A store hash-partitioning its keys across several {@link JSONStore} shards, each with a backing file of its own.
+ *
+ * <p>A mutation only persists the shard of its key, so a rewriting store only rewrites a fraction of its
+ * entries on every mutation, and shards are loaded in parallel when the store is created. Otherwise the
+ * store behaves like a single {@link JSONStore} built with the same configuration; only mutations of
+ * several keys, like {@link #storeAll(Map)} or {@link #clear()}, are persisted shard by shard.</p>
+ *
+ * <p>The backing file of shard {@code i} of {@code n} is {@code <path>-<i>-of-<n>}, and a manifest at
+ * {@code <path>-shards} records the number of shards. A store created with another number of shards
+ * than the one recorded, or over a single-file store at {@code <path>}, is resharded: every entry is
+ * copied into the new shards, and the manifest is replaced before the old files are deleted, so a crash
+ * while resharding leaves the old store in place. Old files left behind by a crash after the manifest was
+ * replaced are deleted when the store is next created.</p>
+ *
+ * @param <T> Type of the objects you want to store.
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass"})
+public final class ShardedJSONStore<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedJSONStore.class);
+
+    private static final String MANIFEST_SUFFIX = "-shards";
+    private static final String JOURNAL_SUFFIX = "-journal";
+    private static final int HASH_SPREAD = 16;
+
+    /**
+     * The number of entries copied into a shard at once while resharding.
+     */
+    private static final int COPY_BATCH_SIZE = 10_000;
+
+    private final Path path;
+    private final List<JSONStore<T>> shards;
+
+    private ShardedJSONStore(final Path path, final List<JSONStore<T>> shards) {
+        this.path = path;
+        this.shards = shards;
+    }
+
+    /**
+     * Creates a sharded store, resharding the store found at {@code path} if needed.
+     *
+     * @param  path
+     *         the path the backing files of the shards are named after
+     *
+     * @param  count
+     *         the number of shards
+     *
+     * @param  factory
+     *         creates a configured, not yet created store for a backing file
+     *
+     * @param  type
+     *         the type of objects the store will contain
+     *
+     * @return the created store
+     *
+     * @throws StoreCreationException
+     *         when a shard can not be created or the existing store can not be resharded
+     */
+    static <T> ShardedJSONStore<T> create(final Path path, final int count, final Function<Path, JSONStore<T>> factory, final Class<T> type)
+        throws StoreCreationException {
+
+        LOG.debug("Creating JSON store of {} shards at {}...", count, path);
+        final Path manifest = Paths.get(path + MANIFEST_SUFFIX);
+        final int committed = readManifest(manifest);
+        deleteLayoutsBut(path, committed);
+        if (committed > 0) {
+            destroySingle(path, factory, type);
+        }
+        if (committed == count) {
+            return new ShardedJSONStore<>(path, load(path, count, factory, type));
+        }
+
+        final List<JSONStore<T>> sources = committed > 0 ? load(path, committed, factory, type) : loadSingle(path, factory, type);
+        final ShardedJSONStore<T> resharded = reshard(path, count, sources, load(path, count, factory, type));
+        LOG.info("Resharded {} from {} into {} shards.", path, committed > 0 ? committed : "a single file", count);
+        return resharded;
+    }
+
+    /**
+     * Copies the entries of the old layout into the new shards, commits the new layout, then destroys the old one.
+     */
+    private static <T> ShardedJSONStore<T> reshard(final Path path, final int count, final List<JSONStore<T>> sources, final List<JSONStore<T>> targets)
+        throws StoreCreationException {
+
+        final ShardedJSONStore<T> resharded = new ShardedJSONStore<>(path, targets);
+        try {
+            resharded.copy(sources);
+            writeManifest(Paths.get(path + MANIFEST_SUFFIX), count);
+        } catch (final StorageException | IOException e) {
+            LOG.error("Could not reshard {} into {} shards!", path, count, e);
+            resharded.destroy();
+            closeQuietly(sources);
+            throw new StoreCreationException("Could not reshard store!", e);
+        }
+        for (final JSONStore<T> source : sources) {
+            if (!source.destroy()) {
+                LOG.warn("Could not delete a store of the old layout of {}, it is deleted once the store is opened again.", path);
+            }
+        }
+        return resharded;
+    }
+
+    /**
+     * Stores an object in the shard of its key.
+     *
+     * @param  key
+     *         the String key where the object should be stored.
+     *
+     * @param  object
+     *         the object itself to store as JSON.
+     *
+     * @return the stored object if operation was successful
+     *
+     * @throws StorageException
+     *         when an error occurs during the storage operation
+     *
+     * @see JSONStore#store(String, Object)
+     */
+    public T store(final String key, final T object) throws StorageException {
+        return shard(key).store(key, object);
+    }
+
+    /**
+     * Stores an object in the shard of its key without waiting for it to be persisted.
+     *
+     * @param  key
+     *         the String key where the object should be stored.
+     *
+     * @param  object
+     *         the object itself to store as JSON.
+     *
+     * @return a future completed with the stored object once it is persisted
+     *
+     * @see JSONStore#storeAsync(String, Object)
+     */
+    public CompletableFuture<T> storeAsync(final String key, final T object) {
+        return shard(key).storeAsync(key, object);
+    }
+
+    /**
+     * Stores several objects, persisting the objects of each shard at once.
+     *
+     * @param  objects
+     *         the objects to store, mapped by the keys they should be stored at.
+     *
+     * @throws StorageException
+     *         when an error occurs during the storage operation. The objects of other shards may have been stored.
+     */
+    public void storeAll(final Map<String, ? extends T> objects) throws StorageException {
+        final List<Map<String, T>> partitions = new ArrayList<>(this.shards.size());
+        for (int i = 0; i < this.shards.size(); i++) {
+            partitions.add(new HashMap<>());
+        }
+        for (final Map.Entry<String, ? extends T> entry : objects.entrySet()) {
+            partitions.get(indexOf(entry.getKey(), this.shards.size())).put(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < this.shards.size(); i++) {
+            if (!partitions.get(i).isEmpty()) {
+                this.shards.get(i).storeAll(partitions.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns a single object from the shard of its key.
+     *
+     * @param  key
+     *         the key to retrieve the stored object from
+     *
+     * @return the object contained at the supplied key or {@code null}.
+     */
+    public T retrieve(final String key) {
+        return shard(key).retrieve(key);
+    }
+
+    /**
+     * Returns all stored objects, as a live view of the objects of every shard.
+     *
+     * @return a collection of objects currently stored in the storage.
+     */
+    public Collection<T> retrieveAll() {
+        return new Values();
+    }
+
+    /**
+     * Returns a stream of the objects of every shard, see {@link JSONStore#stream()}.
+     *
+     * @return a stream of the objects currently stored
+     */
+    public Stream<T> stream() {
+        return this.shards.stream().flatMap(JSONStore::stream);
+    }
+
+    /**
+     * Returns a parallel stream of the objects of every shard, traversing shards in parallel.
+     *
+     * @return a parallel stream of the objects currently stored
+     */
+    public Stream<T> parallelStream() {
+        return this.shards.parallelStream().flatMap(JSONStore::stream);
+    }
+
+    /**
+     * Returns a stream of the objects of every shard matching a predicate, see {@link JSONStore#query(Predicate)}.
+     *
+     * @param  predicate
+     *         the predicate objects have to match
+     *
+     * @return a stream of the matching objects
+     */
+    public Stream<T> query(final Predicate<? super T> predicate) {
+        return stream().filter(predicate);
+    }
+
+    /**
+     * Returns the number of objects stored in every shard.
+     *
+     * @return the number of elements in the store
+     */
+    public long size() {
+        long size = 0;
+        for (final JSONStore<T> shard : this.shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes a particular entry from the shard of its key.
+     *
+     * @param   key
+     *          the key of the object to remove from the store
+     *
+     * @return  the removed item or null if the item is not in the store
+     *
+     * @throws  StorageException
+     *          when store synchronization fails
+     */
+    public T remove(final String key) throws StorageException {
+        return shard(key).remove(key);
+    }
+
+    /**
+     * Removes a particular entry from the shard of its key without waiting for the removal to be persisted.
+     *
+     * @param   key
+     *          the key of the object to remove from the store
+     *
+     * @return  a future completed with the removed item once the removal is persisted
+     */
+    public CompletableFuture<T> removeAsync(final String key) {
+        return shard(key).removeAsync(key);
+    }
+
+    /**
+     * Clears every shard, one after the other.
+     *
+     * @return {@code true}
+     *
+     * @throws StorageException
+     *         when a shard could not be cleared. Shards before it have been cleared.
+     */
+    public boolean clear() throws StorageException {
+        for (final JSONStore<T> shard : this.shards) {
+            shard.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Compacts every shard, see {@link JSONStore#compact()}.
+     *
+     * @throws StorageException
+     *         when a shard could not be compacted
+     */
+    public void compact() throws StorageException {
+        for (final JSONStore<T> shard : this.shards) {
+            shard.compact();
+        }
+    }
+
+    /**
+     * Closes every shard, keeping their backing files.
+     *
+     * @throws StorageException
+     *         when a shard could not be closed
+     */
+    public void close() throws StorageException {
+        StorageException failure = null;
+        for (final JSONStore<T> shard : this.shards) {
+            try {
+                shard.close();
+            } catch (final StorageException se) {
+                failure = se;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Destroys every shard and deletes the manifest.
+     *
+     * @return {@code true} if the operation was successful, {@code false} otherwise.
+     */
+    public boolean destroy() {
+        boolean destroyed = true;
+        for (final JSONStore<T> shard : this.shards) {
+            destroyed &= shard.destroy();
+        }
+        try {
+            Files.deleteIfExists(Paths.get(this.path + MANIFEST_SUFFIX));
+        } catch (final IOException ioe) {
+            LOG.error("Could not delete shard manifest of {}!", this.path, ioe);
+            return false;
+        }
+        return destroyed;
+    }
+
+    /**
+     * Returns the index of the shard of a key among {@code count} shards. Keys are assigned
+     * by their String hash code, which is the same on every JVM.
+     */
+    static int indexOf(final String key, final int count) {
+        final int hash = key.hashCode();
+        return ((hash ^ (hash >>> HASH_SPREAD)) & Integer.MAX_VALUE) % count;
+    }
+
+    static Path shardPath(final Path path, final int index, final int count) {
+        return Paths.get(path + "-" + index + "-of-" + count);
+    }
+
+    private JSONStore<T> shard(final String key) {
+        return this.shards.get(indexOf(key, this.shards.size()));
+    }
+
+    /**
+     * Copies every entry of the source stores into the shards, source by source. Entries are buffered
+     * per shard and stored in batches of {@link #COPY_BATCH_SIZE}, so that resharding never holds
+     * more than a batch per shard on top of the loaded stores.
+     */
+    private void copy(final List<JSONStore<T>> sources) throws StorageException {
+        final List<Map<String, T>> batches = new ArrayList<>(this.shards.size());
+        for (int i = 0; i < this.shards.size(); i++) {
+            batches.add(new HashMap<>());
+        }
+        for (final JSONStore<T> source : sources) {
+            for (final Map.Entry<String, T> entry : source.entries()) {
+                final int index = indexOf(entry.getKey(), this.shards.size());
+                final Map<String, T> batch = batches.get(index);
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= COPY_BATCH_SIZE) {
+                    this.shards.get(index).storeAll(batch);
+                    batch.clear();
+                }
+            }
+        }
+        for (int i = 0; i < this.shards.size(); i++) {
+            if (!batches.get(i).isEmpty()) {
+                this.shards.get(i).storeAll(batches.get(i));
+            }
+        }
+    }
+
+    /**
+     * Creates the shards of a layout in parallel.
+     */
+    private static <T> List<JSONStore<T>> load(final Path path, final int count, final Function<Path, JSONStore<T>> factory, final Class<T> type)
+        throws StoreCreationException {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()), runnable -> {
+            final Thread thread = new Thread(runnable, "json-store-shard-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<JSONStore<T>>> loading = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final Path shardPath = shardPath(path, i, count);
+                loading.add(executor.submit(() -> factory.apply(shardPath).create(type)));
+            }
+            return await(loading);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static <T> List<JSONStore<T>> await(final List<Future<JSONStore<T>>> loading) throws StoreCreationException {
+        final List<JSONStore<T>> loaded = new ArrayList<>(loading.size());
+        Exception failure = null;
+        for (final Future<JSONStore<T>> shard : loading) {
+            try {
+                loaded.add(shard.get());
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failure = ie;
+            } catch (final ExecutionException ee) {
+                failure = (Exception) ee.getCause();
+            }
+        }
+        if (failure == null) {
+            return loaded;
+        }
+
+        closeQuietly(loaded);
+        throw failure instanceof StoreCreationException ? (StoreCreationException) failure : new StoreCreationException("Could not load shards!", failure);
+    }
+
+    /**
+     * Closes stores after a failed load or resharding, releasing their files, journals and threads.
+     */
+    private static <T> void closeQuietly(final List<JSONStore<T>> stores) {
+        for (final JSONStore<T> store : stores) {
+            try {
+                store.close();
+            } catch (final StorageException se) {
+                LOG.warn("Could not close store after a failed load or resharding!", se);
+            }
+        }
+    }
+
+    /**
+     * Opens the single-file store at {@code path}, if there is one, to be resharded.
+     */
+    private static <T> List<JSONStore<T>> loadSingle(final Path path, final Function<Path, JSONStore<T>> factory, final Class<T> type)
+        throws StoreCreationException {
+
+        final List<JSONStore<T>> sources = new ArrayList<>(1);
+        if (Files.exists(path) || Files.exists(Paths.get(path + JOURNAL_SUFFIX))) {
+            sources.add(factory.apply(path).create(type));
+        }
+        return sources;
+    }
+
+    /**
+     * Destroys the single-file store at {@code path}, if there is one. Once a layout is committed, the
+     * single-file store was resharded already, and is only left behind by a crash before it was destroyed.
+     */
+    private static <T> void destroySingle(final Path path, final Function<Path, JSONStore<T>> factory, final Class<T> type)
+        throws StoreCreationException {
+
+        for (final JSONStore<T> single : loadSingle(path, factory, type)) {
+            LOG.warn("Deleting {} left behind by an interrupted resharding.", path);
+            if (!single.destroy()) {
+                throw new StoreCreationException("Could not delete resharded store at " + path + "!");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of shards recorded by a manifest, {@code 0} if there is no manifest.
+     */
+    private static int readManifest(final Path manifest) throws StoreCreationException {
+        try {
+            if (!Files.exists(manifest)) {
+                return 0;
+            }
+            return Integer.parseInt(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).trim());
+        } catch (final IOException | NumberFormatException e) {
+            LOG.error("Could not read shard manifest {}!", manifest, e);
+            throw new StoreCreationException("Could not read shard manifest!", e);
+        }
+    }
+
+    private static void writeManifest(final Path manifest, final int count) throws IOException {
+        final Path temp = Paths.get(manifest + "-snapshot");
+        Files.write(temp, Integer.toString(count).getBytes(StandardCharsets.UTF_8));
+        FileUtils.moveAtomically(temp, manifest);
+    }
+
+    /**
+     * Deletes the files of every shard layout but the committed one, left behind by an interrupted resharding.
+     */
+    private static void deleteLayoutsBut(final Path path, final int committed) throws StoreCreationException {
+        final Path absolute = path.toAbsolutePath();
+        final Pattern layout = Pattern.compile(Pattern.quote(absolute.getFileName().toString()) + "-\\d+-of-(\\d+)(-.*)?");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(absolute.getParent())) {
+            for (final Path file : files) {
+                final Matcher matcher = layout.matcher(file.getFileName().toString());
+                if (matcher.matches() && Integer.parseInt(matcher.group(1)) != committed) {
+                    LOG.warn("Deleting {} left behind by an interrupted resharding.", file);
+                    Files.delete(file);
+                }
+            }
+        } catch (final IOException ioe) {
+            LOG.error("Could not clean up shards of {}!", path, ioe);
+            throw new StoreCreationException("Could not clean up shards!", ioe);
+        }
+    }
+
+    /**
+     * Live view of the objects of every shard.
+     */
+    private final class Values extends AbstractCollection<T> {
+        @Override
+        public Iterator<T> iterator() {
+            return stream().iterator();
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, ShardedJSONStore.this.size());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a shared {@link JSONStore} caught up with the other processes sharing its journal, see {@link SharedFile}.
+ *
+ * <p>Remembers the generation and the length of the journal this process has caught up with. Reads catch
+ * up only once the header of the lock file differs from them, mutations always catch up first, while
+ * holding the lock of the lock file, and publish the new length of the journal afterwards.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class SharedCoordinator implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedCoordinator.class);
+
+    /**
+     * Applies the differences between a store and its backing file once another process compacted the journal.
+     */
+    @FunctionalInterface
+    interface Reconciler {
+        void reconcile() throws IOException, InvalidJsonException;
+    }
+
+    private final Path path;
+    private final SharedFile file;
+
+    /**
+     * The exclusive lock of the store, held while applying the mutations of the other processes.
+     */
+    private final Lock exclusive;
+
+    private final Consumer<JournalEntry> replay;
+    private final Reconciler reconciler;
+
+    /**
+     * The journal of the store, {@code null} until the store is opened.
+     */
+    private Journal journal;
+
+    /**
+     * The generation of the journal this process has caught up with.
+     */
+    private volatile long generation;
+
+    /**
+     * The length of the journal file this process has caught up with.
+     */
+    private volatile long journalLength;
+
+    private SharedCoordinator(final Path path, final SharedFile file, final Lock exclusive, final Consumer<JournalEntry> replay, final Reconciler reconciler) {
+        this.path = path;
+        this.file = file;
+        this.exclusive = exclusive;
+        this.replay = replay;
+        this.reconciler = reconciler;
+    }
+
+    /**
+     * Opens the lock file of a store and takes its lock, to be released once the store is opened.
+     *
+     * @param storeFile
+     *        the path of the store's backing file
+     *
+     * @param exclusive
+     *        the exclusive lock of the store
+     *
+     * @param replay
+     *        applies an entry appended to the journal by another process
+     *
+     * @param reconciler
+     *        applies the contents of the backing file compacted by another process
+     */
+    static SharedCoordinator lock(final Path storeFile, final Lock exclusive, final Consumer<JournalEntry> replay, final Reconciler reconciler)
+        throws IOException {
+
+        final SharedFile file = SharedFile.open(storeFile);
+        try {
+            file.lock();
+        } catch (final IOException ioe) {
+            file.close();
+            throw ioe;
+        }
+        return new SharedCoordinator(storeFile, file, exclusive, replay, reconciler);
+    }
+
+    /**
+     * Records the state of the journal the store was opened with, and releases the lock taken by
+     * {@link #lock(Path, Lock, Consumer, Reconciler)}.
+     */
+    void opened(final Journal journal) throws IOException {
+        try {
+            this.journal = journal;
+            this.generation = this.file.getGeneration();
+            this.journalLength = journal.size();
+            this.file.published(this.journalLength);
+        } finally {
+            this.file.unlock();
+        }
+    }
+
+    /**
+     * Releases the lock taken by {@link #lock(Path, Lock, Consumer, Reconciler)} after the store failed to open.
+     */
+    void openFailed() {
+        this.file.unlock();
+    }
+
+    /**
+     * Mutates the store while holding the lock of the lock file, once this process has caught up
+     * with the mutations of the others, then publishes the new length of the journal.
+     */
+    <V> CompletableFuture<V> exclusively(final Supplier<CompletableFuture<V>> mutation) {
+        try {
+            this.file.lock();
+        } catch (final IOException ioe) {
+            LOG.error("Could not lock shared store {}!", this.path, ioe);
+            return failed(ioe);
+        }
+        try {
+            catchUp();
+            final CompletableFuture<V> mutated = mutation.get();
+            this.journalLength = this.journal.size();
+            this.file.published(this.journalLength);
+            return mutated;
+        } catch (final IOException | InvalidJsonException e) {
+            LOG.error("Could not catch up with journal {}!", this.journal.getPath(), e);
+            return failed(e);
+        } finally {
+            this.file.unlock();
+        }
+    }
+
+    /**
+     * Catches up with the mutations of the other processes before the store is read.
+     * A failure is only logged, leaving the store as it was when this process last caught up.
+     */
+    void refresh() {
+        if (this.file.isCurrent(this.generation, this.journalLength)) {
+            return;
+        }
+        try {
+            this.file.lock();
+            try {
+                catchUp();
+            } finally {
+                this.file.unlock();
+            }
+        } catch (final IOException | InvalidJsonException e) {
+            LOG.error("Could not catch up with journal {}!", this.journal.getPath(), e);
+        }
+    }
+
+    /**
+     * Records a compaction of the journal by this process, making the other processes reload the store.
+     * The lock of the lock file has to be held.
+     */
+    void compacted() {
+        this.generation = this.file.compacted();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    /**
+     * Closes and deletes the lock file.
+     */
+    void delete() throws IOException {
+        this.file.delete();
+    }
+
+    /**
+     * Applies the mutations the other processes made since this process last caught up, reading only
+     * the entries they appended to the journal, unless they compacted it meanwhile. The lock of the
+     * lock file has to be held.
+     */
+    private void catchUp() throws IOException, InvalidJsonException {
+        if (this.file.isCurrent(this.generation, this.journalLength)) {
+            return;
+        }
+        final long current = this.file.getGeneration();
+        this.exclusive.lock();
+        try {
+            if (current == this.generation) {
+                this.journalLength = this.journal.tail(this.journalLength, this.replay);
+            } else {
+                reload();
+                this.generation = current;
+            }
+        } finally {
+            this.exclusive.unlock();
+        }
+    }
+
+    /**
+     * Reloads the store once another process compacted the journal: reconciles the store with the
+     * compacted backing file, then replays the new journal file.
+     */
+    private void reload() throws IOException, InvalidJsonException {
+        LOG.debug("Reloading {} compacted by another process...", this.path);
+        this.journal.reopen();
+        this.reconciler.reconcile();
+        this.journal.replay(this.replay);
+        this.journalLength = this.journal.size();
+    }
+
+    private static <V> CompletableFuture<V> failed(final Exception cause) {
+        final CompletableFuture<V> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new StorageException(cause));
+        return failed;
+    }
+}
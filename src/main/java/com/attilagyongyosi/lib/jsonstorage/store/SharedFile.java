@@ -0,0 +1,161 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates the processes sharing a journaled store through a lock file next to its backing file.
+ *
+ * <p>A process mutates the store, catches up with the mutations of the others or compacts the journal
+ * only while holding an exclusive {@link FileLock} on the lock file. The lock file also holds a header
+ * of two numbers, mapped into memory by every process:</p>
+ *
+ * <ul>
+ *     <li>the generation of the journal, incremented by every compaction, as a compaction replaces the
+ *     backing file and the journal file the other processes have open;</li>
+ *     <li>the length of the journal file as of the last mutation.</li>
+ * </ul>
+ *
+ * <p>A process compares the header to the generation and journal length it has caught up with before
+ * every read, which costs two reads of memory and no system call. Only once they differ does it take
+ * the lock, then either reads the entries appended to the journal since, or reloads the store after
+ * a compaction.</p>
+ *
+ * <p>File locks are held by the whole process, so the threads of a process, and the stores of a
+ * process opened on the same file, take turns through an in-process lock before taking the file lock.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class SharedFile implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedFile.class);
+
+    private static final String SUFFIX = "-lock";
+    private static final int GENERATION = 0;
+    private static final int JOURNAL_LENGTH = Long.BYTES;
+    private static final int HEADER_SIZE = 2 * Long.BYTES;
+
+    /**
+     * In-process locks of the lock files opened by this process, by their real path, so that stores
+     * opening the same file through different paths share the lock.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ReentrantLock processLock;
+
+    /**
+     * The file lock, {@code null} unless a thread of this store holds it.
+     */
+    private FileLock fileLock;
+
+    private SharedFile(final Path path, final FileChannel channel, final MappedByteBuffer header) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.header = header;
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(path.toRealPath(), locked -> new ReentrantLock());
+    }
+
+    /**
+     * Opens the lock file of a store, creating it if it does not exist yet.
+     *
+     * @param storeFile
+     *        the path of the store's backing file
+     */
+    static SharedFile open(final Path storeFile) throws IOException {
+        final Path path = Paths.get(storeFile.toString().concat(SUFFIX));
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new SharedFile(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE));
+        } catch (final IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Tells whether no process has mutated or compacted the store since the given state was caught up with.
+     */
+    boolean isCurrent(final long generation, final long journalLength) {
+        return this.header.getLong(JOURNAL_LENGTH) == journalLength && this.header.getLong(GENERATION) == generation;
+    }
+
+    long getGeneration() {
+        return this.header.getLong(GENERATION);
+    }
+
+    /**
+     * Takes the lock excluding every other process and every other thread of this process.
+     * The lock is reentrant, and has to be released by {@link #unlock()} as many times as it was taken.
+     */
+    void lock() throws IOException {
+        this.processLock.lock();
+        if (this.processLock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            this.fileLock = this.channel.lock();
+        } catch (final IOException | RuntimeException e) {
+            this.processLock.unlock();
+            throw e;
+        }
+    }
+
+    void unlock() {
+        try {
+            if (this.processLock.getHoldCount() == 1) {
+                this.fileLock.release();
+                this.fileLock = null;
+            }
+        } catch (final IOException ioe) {
+            LOG.error("Could not release lock {}!", this.path, ioe);
+        } finally {
+            this.processLock.unlock();
+        }
+    }
+
+    /**
+     * Records the length of the journal file after a mutation. The lock has to be held.
+     */
+    void published(final long journalLength) {
+        this.header.putLong(JOURNAL_LENGTH, journalLength);
+    }
+
+    /**
+     * Records a compaction of the journal, making the other processes reload the store. The lock has to be held.
+     *
+     * @return the new generation
+     */
+    long compacted() {
+        final long generation = getGeneration() + 1;
+        this.header.putLong(GENERATION, generation);
+        return generation;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Closes and deletes the lock file.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(this.path);
+    }
+}
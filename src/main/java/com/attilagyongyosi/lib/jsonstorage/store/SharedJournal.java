@@ -0,0 +1,37 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The journal a {@link JSONDatabase} shares between its collections, as seen by one of them.
+ *
+ * @author attilagyongyosi
+ */
+interface SharedJournal {
+    /**
+     * Returns the entries of a collection found in the journal when the database was opened,
+     * to be replayed over the backing file of the collection.
+     *
+     * @param  collection
+     *         the name of the collection
+     *
+     * @return the entries of the collection, in order
+     */
+    List<JournalEntry> recovered(String collection);
+
+    /**
+     * Queues mutations of a collection to be appended with the next commit of the database.
+     *
+     * @param  collection
+     *         the name of the collection
+     *
+     * @param  entries
+     *         the mutations, already applied to the collection
+     *
+     * @return a future completed once the mutations are durable
+     */
+    CompletableFuture<Void> submit(String collection, List<JournalEntry> entries);
+}
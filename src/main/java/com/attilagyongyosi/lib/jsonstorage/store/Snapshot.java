@@ -0,0 +1,307 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable point-in-time view of a {@link JSONStore}, taken by {@link JSONStore#snapshot()}.
+ *
+ * <p>Taking a snapshot does not copy the store. The snapshot reads the live entries of the store,
+ * and the first mutation of every key after the snapshot was taken preserves the value the key had
+ * in the snapshot, so writers only pay for the keys they mutate while the snapshot is open, once per
+ * key. Preserved values are kept in memory until the snapshot is {@link #close() closed}; clearing the
+ * store preserves every value at once.</p>
+ *
+ * <p>Snapshots can be read and exported while the store is being written. Exports are written in the
+ * format of the store, so an exported file can be opened as a store of its own. A closed snapshot can
+ * no longer be read.</p>
+ *
+ * <p>Snapshots preserve the objects of the store, not copies of them. Stores kept on the heap hand out
+ * their live objects, so an object retrieved from the store or the snapshot and mutated in place changes
+ * the snapshot and its later exports too. Objects have to be replaced, not mutated, for the snapshot to
+ * keep their earlier state.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings("PMD.CompareObjectsWithEquals")
+public final class Snapshot<T> implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Snapshot.class);
+
+    private static final String EXPORTING_SUFFIX = "-exporting";
+
+    /**
+     * Marks keys the store did not contain when the snapshot was taken.
+     */
+    private static final Object ABSENT = new Object();
+
+    private final JSONStore<T> store;
+    private final ConcurrentMap<String, T> data;
+    private final ObjectMapper mapper;
+
+    /**
+     * The values keys had when the snapshot was taken, recorded before they are first mutated.
+     */
+    private final ConcurrentMap<String, Object> preserved = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the snapshot was closed, after which it would read the live entries of the store.
+     */
+    private volatile boolean closed;
+
+    /**
+     * @param expired
+     *        the keys of the entries that had expired when the snapshot was taken, which it does not contain
+     */
+    Snapshot(final JSONStore<T> store, final ConcurrentMap<String, T> data, final ObjectMapper mapper, final Set<String> expired) {
+        this.store = store;
+        this.data = data;
+        this.mapper = mapper;
+        for (final String key : expired) {
+            this.preserved.put(key, ABSENT);
+        }
+    }
+
+    /**
+     * Returns the object stored at a key when the snapshot was taken.
+     *
+     * @param  key
+     *         the key to retrieve the object from
+     *
+     * @return the object contained at the supplied key or {@code null}.
+     *
+     * @throws IllegalStateException
+     *         when the snapshot is closed
+     */
+    public T retrieve(final String key) {
+        checkOpen();
+        final T current = this.data.get(key);
+        final Object original = this.preserved.get(key);
+        return original == null ? current : unwrap(original);
+    }
+
+    /**
+     * Returns a stream of the objects stored when the snapshot was taken.
+     *
+     * @return a sequential stream of the objects of the snapshot
+     *
+     * @throws IllegalStateException
+     *         when the snapshot is closed
+     */
+    public Stream<T> stream() {
+        checkOpen();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Entries(), Spliterator.NONNULL), false).map(Map.Entry::getValue);
+    }
+
+    /**
+     * Writes the snapshot to a stream as a single object mapping keys to objects, one entry at a time.
+     * The stream is flushed but not closed.
+     *
+     * @param  out
+     *         the stream to write to
+     *
+     * @return the number of exported entries
+     *
+     * @throws StorageException
+     *         when the snapshot could not be written
+     *
+     * @throws IllegalStateException
+     *         when the snapshot is closed
+     */
+    public long export(final OutputStream out) throws StorageException {
+        checkOpen();
+        long exported = 0;
+        try (JsonGenerator generator = this.mapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (this.mapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+                generator.useDefaultPrettyPrinter();
+            }
+
+            generator.writeStartObject();
+            final Iterator<Map.Entry<String, T>> entries = new Entries();
+            while (entries.hasNext()) {
+                final Map.Entry<String, T> entry = entries.next();
+                generator.writeFieldName(entry.getKey());
+                generator.writeObject(entry.getValue());
+                exported++;
+            }
+            generator.writeEndObject();
+        } catch (final IOException ioe) {
+            LOG.error("Could not export snapshot!", ioe);
+            throw new StorageException(ioe);
+        }
+        return exported;
+    }
+
+    /**
+     * Writes the snapshot to a file, see {@link #export(OutputStream)}. The file is written
+     * next to its destination and moved in place once it is complete and forced to disk.
+     *
+     * @param  file
+     *         the file to write to, replaced if it exists
+     *
+     * @return the number of exported entries
+     *
+     * @throws StorageException
+     *         when the file could not be written
+     *
+     * @throws IllegalStateException
+     *         when the snapshot is closed
+     */
+    public long export(final Path file) throws StorageException {
+        checkOpen();
+        final Path temp = Paths.get(file + EXPORTING_SUFFIX);
+        try {
+            final long exported;
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                exported = export(out);
+                out.flush();
+                channel.force(true);
+            }
+            FileUtils.moveAtomically(temp, file);
+            return exported;
+        } catch (final IOException ioe) {
+            LOG.error("Could not export snapshot to {}!", file, ioe);
+            deleteQuietly(temp);
+            throw new StorageException(ioe);
+        } catch (final StorageException se) {
+            deleteQuietly(temp);
+            throw se;
+        }
+    }
+
+    /**
+     * Releases the snapshot. Mutations of the store stop preserving values for it, and the
+     * values preserved so far can be garbage collected.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.store.detach(this);
+        this.preserved.clear();
+    }
+
+    /**
+     * Preserves the value of a key about to be mutated, unless it has been preserved already.
+     * Called with the key's stripe locked, so it can not race with another mutation of the key.
+     */
+    void preserve(final String key) {
+        if (!this.preserved.containsKey(key)) {
+            final T current = this.data.get(key);
+            this.preserved.put(key, current == null ? ABSENT : current);
+        }
+    }
+
+    /**
+     * Preserves the value of every key about to be cleared. Called with the store locked exclusively.
+     */
+    void preserveAll() {
+        for (final Map.Entry<String, T> entry : this.data.entrySet()) {
+            this.preserved.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Snapshot is closed!");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T unwrap(final Object original) {
+        return original == ABSENT ? null : (T) original;
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException ioe) {
+            LOG.warn("Could not delete {}!", file, ioe);
+        }
+    }
+
+    /**
+     * Iterates the entries of the snapshot: first the live entries that have not been mutated since
+     * the snapshot was taken, then the preserved ones. A value is read before the key is checked
+     * for a preserved value, and keys are preserved before they are mutated, so a live value is only
+     * returned if it is the one the key had in the snapshot. Keys returned from the live entries are
+     * remembered so they are not returned again if they are preserved afterwards.
+     */
+    private final class Entries implements Iterator<Map.Entry<String, T>> {
+        private final Iterator<Map.Entry<String, T>> live = Snapshot.this.data.entrySet().iterator();
+        private final Set<String> returned = new HashSet<>();
+        private Iterator<Map.Entry<String, Object>> originals;
+        private Map.Entry<String, T> next;
+
+        @Override
+        public boolean hasNext() {
+            checkOpen();
+            if (this.next == null) {
+                this.next = advance();
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<String, T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, T> current = this.next;
+            this.next = null;
+            return current;
+        }
+
+        private Map.Entry<String, T> advance() {
+            while (this.live.hasNext()) {
+                final Map.Entry<String, T> entry = this.live.next();
+                final T value = entry.getValue();
+                if (!Snapshot.this.preserved.containsKey(entry.getKey())) {
+                    this.returned.add(entry.getKey());
+                    return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value);
+                }
+            }
+
+            if (this.originals == null) {
+                this.originals = Snapshot.this.preserved.entrySet().iterator();
+            }
+            while (this.originals.hasNext()) {
+                final Map.Entry<String, Object> entry = this.originals.next();
+                if (entry.getValue() != ABSENT && !this.returned.contains(entry.getKey())) {
+                    return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), unwrap(entry.getValue()));
+                }
+            }
+            return null;
+        }
+    }
+}
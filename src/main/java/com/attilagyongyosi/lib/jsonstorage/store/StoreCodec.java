@@ -0,0 +1,156 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the objects of a store. Readers and writers are resolved once for the type of
+ * the objects when the store is created, instead of looking up the type and its (de)serializers
+ * on every load, replay and sync.
+ *
+ * <p>Syncs write through a single reusable direct buffer, so a sync allocates no stream or
+ * buffer of its own and the channel writes it without copying. Syncs of a store are serialized,
+ * which makes reusing the buffer safe.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+final class StoreCodec<T> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper mapper;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final ChannelOutput output = new ChannelOutput();
+
+    /**
+     * @param source
+     *        the format of the backing file being loaded
+     *
+     * @param target
+     *        the format the backing file is written in
+     *
+     * @param type
+     *        the type of the stored objects
+     *
+     * @param encoded
+     *        whether the store keeps its values serialized, in which case the map serializes them as they are
+     *
+     * @param modules
+     *        Jackson modules to register, e.g. one generating bytecode accessors of the stored objects
+     */
+    StoreCodec(final StoreFormat source, final StoreFormat target, final Class<T> type, final boolean encoded, final List<Module> modules) {
+        this.mapper = withModules(target.getMapper(), modules);
+        this.reader = withModules(source.getMapper(), modules).readerFor(type);
+        if (encoded) {
+            this.writer = this.mapper.writer();
+        } else {
+            final JavaType mapType = this.mapper.getTypeFactory().constructMapType(Map.class, String.class, type);
+            this.writer = this.mapper.writerFor(mapType);
+        }
+    }
+
+    /**
+     * Returns the mapper writing the format of the backing file, with the modules of the store.
+     */
+    ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Returns the reader of the stored objects, in the format of the backing file being loaded.
+     */
+    ObjectReader getReader() {
+        return reader;
+    }
+
+    /**
+     * Converts the value of a replayed journal entry to the type of the stored objects.
+     */
+    T convert(final JsonNode value) throws IOException {
+        return this.reader.readValue(value);
+    }
+
+    /**
+     * Writes the contents of a store to a channel. The channel is not closed.
+     */
+    void write(final Map<String, T> data, final WritableByteChannel channel) throws IOException {
+        this.writer.writeValue(output(channel), data);
+        this.output.flush();
+    }
+
+    /**
+     * Returns the reusable buffered stream, writing to a channel until the next call. The stream has to be flushed.
+     */
+    OutputStream output(final WritableByteChannel channel) {
+        this.output.open(channel);
+        return this.output;
+    }
+
+    /**
+     * Returns a mapper with the modules of a store registered, the mapper itself if there are none.
+     */
+    static ObjectMapper withModules(final ObjectMapper mapper, final List<Module> modules) {
+        return modules.isEmpty() ? mapper : mapper.copy().registerModules(modules);
+    }
+
+    /**
+     * Buffers writes to a channel in a direct buffer reused across writes.
+     */
+    private static final class ChannelOutput extends OutputStream {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private WritableByteChannel channel;
+
+        void open(final WritableByteChannel target) {
+            this.channel = target;
+            this.buffer.clear();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                drain();
+            }
+            this.buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            int written = 0;
+            while (written < length) {
+                if (!this.buffer.hasRemaining()) {
+                    drain();
+                }
+                final int chunk = Math.min(length - written, this.buffer.remaining());
+                this.buffer.put(bytes, offset + written, chunk);
+                written += chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+    }
+}
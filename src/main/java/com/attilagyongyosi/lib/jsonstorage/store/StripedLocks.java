@@ -0,0 +1,117 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.journal.JournalEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks guarding the mutations of a {@link JSONStore}.
+ *
+ * <p>Mutations of single keys only exclude each other if their keys fall into the same
+ * stripe, which keeps the order of in-memory updates and their journal entries the same
+ * for every key. Mutations spanning the whole store, like clearing it or taking a copy of
+ * it for compaction, hold the exclusive lock and wait for every other mutation.</p>
+ *
+ * <p>Readers never take any of these locks.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class StripedLocks {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int HASH_SPREAD = 16;
+
+    private final ReadWriteLock structure = new ReentrantReadWriteLock();
+    private final Lock[] stripes;
+
+    StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    StripedLocks(final int count) {
+        this.stripes = new Lock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock excluding every other mutation of the store.
+     *
+     * @return the exclusive lock
+     */
+    Lock exclusive() {
+        return this.structure.writeLock();
+    }
+
+    /**
+     * Acquires the locks needed to apply the given entries: the exclusive lock if they
+     * clear the store, the stripes of their keys otherwise. Stripes are always acquired
+     * in the same order so concurrent batches can not deadlock.
+     *
+     * @param  entries
+     *         the entries about to be applied
+     *
+     * @return the acquired locks, to be passed to {@link #unlock(List)}
+     */
+    List<Lock> lock(final List<JournalEntry> entries) {
+        final SortedSet<Integer> indices = new TreeSet<>();
+        for (final JournalEntry entry : entries) {
+            if (entry.getOperation() == JournalEntry.Operation.CLEAR) {
+                return acquire(Collections.singletonList(exclusive()));
+            }
+            indices.add(index(entry.getKey()));
+        }
+
+        final List<Lock> locks = new ArrayList<>(indices.size() + 1);
+        locks.add(this.structure.readLock());
+        for (final int index : indices) {
+            locks.add(this.stripes[index]);
+        }
+        return acquire(locks);
+    }
+
+    /**
+     * Acquires the locks needed to mutate a single key, without sorting stripes.
+     *
+     * @param  key
+     *         the key about to be mutated
+     *
+     * @return the acquired locks, to be passed to {@link #unlock(List)}
+     */
+    List<Lock> lock(final String key) {
+        return acquire(Arrays.asList(this.structure.readLock(), this.stripes[index(key)]));
+    }
+
+    /**
+     * Releases locks acquired by {@link #lock(List)} in reverse order.
+     *
+     * @param locks
+     *        the locks to release
+     */
+    static void unlock(final List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    private static List<Lock> acquire(final List<Lock> locks) {
+        for (final Lock lock : locks) {
+            lock.lock();
+        }
+        return locks;
+    }
+
+    private int index(final String key) {
+        final int hash = key.hashCode();
+        return ((hash ^ (hash >>> HASH_SPREAD)) & Integer.MAX_VALUE) % this.stripes.length;
+    }
+}
@@ -0,0 +1,103 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of the mutations of a {@link JSONStore}, consumed at the pace of its reader.
+ *
+ * <p>Writers never wait for a subscription. When its queue is full, the subscription overflows:
+ * it stops receiving events, but the events queued so far can still be polled. The reader can then
+ * subscribe again from the sequence after {@link #getLastSequence()}, as long as the store retains
+ * enough change history, or fall back to a {@link JSONStore#snapshot() snapshot}.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+public final class Subscription<T> implements AutoCloseable {
+    private final ChangeFeed<T> feed;
+    private final BlockingQueue<ChangeEvent<T>> queue;
+    private volatile boolean overflowed;
+    private volatile long lastSequence;
+
+    Subscription(final ChangeFeed<T> feed, final int capacity, final long lastSequence) {
+        this.feed = feed;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Returns the next event without waiting.
+     *
+     * @return the next event, {@code null} if none is queued
+     */
+    public ChangeEvent<T> poll() {
+        return consumed(this.queue.poll());
+    }
+
+    /**
+     * Returns the next event, waiting for one if necessary.
+     *
+     * @param  timeout
+     *         how long to wait for an event
+     *
+     * @param  unit
+     *         the unit of {@code timeout}
+     *
+     * @return the next event, {@code null} if none was published in time
+     *
+     * @throws InterruptedException
+     *         when interrupted while waiting
+     */
+    public ChangeEvent<T> poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return consumed(this.queue.poll(timeout, unit));
+    }
+
+    /**
+     * Tells whether the subscription stopped receiving events because its queue was full.
+     *
+     * @return {@code true} if events were missed after the queued ones
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Returns the sequence of the last event polled, to resume from after an overflow.
+     *
+     * @return the sequence of the last polled event, the sequence preceding the first event
+     *         of the subscription if none was polled yet
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Stops receiving events. Queued events can still be polled.
+     */
+    @Override
+    public void close() {
+        this.feed.unsubscribe(this);
+    }
+
+    /**
+     * Queues an event, overflowing if the queue is full.
+     *
+     * @return {@code false} if the subscription overflowed
+     */
+    boolean offer(final ChangeEvent<T> event) {
+        if (!this.queue.offer(event)) {
+            this.overflowed = true;
+        }
+        return !this.overflowed;
+    }
+
+    private ChangeEvent<T> consumed(final ChangeEvent<T> event) {
+        if (event != null) {
+            this.lastSequence = event.getSequence();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,148 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A hashed timing wheel: timers are hashed into a ring of slots by the tick they are due at, so
+ * scheduling a timer takes constant time and advancing the wheel only visits the slots of the
+ * elapsed ticks, instead of every scheduled timer.
+ *
+ * <p>Timers due more than one revolution ahead share their slot with earlier ones and are skipped
+ * until the wheel comes around on their tick. Cancelling a timer removes it from its slot, which also
+ * takes constant time. The wheel is not thread-safe.</p>
+ *
+ * @param <E> Type of the elements timers are scheduled for.
+ *
+ * @author attilagyongyosi
+ */
+final class TimingWheel<E> {
+    private final long tickNanos;
+    private final long origin;
+    private final List<Set<Timer<E>>> slots;
+
+    /**
+     * The first tick that has not been advanced over yet.
+     */
+    private long currentTick;
+
+    TimingWheel(final long tickNanos, final int slotCount, final long origin) {
+        this.tickNanos = tickNanos;
+        this.origin = origin;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            this.slots.add(new HashSet<>());
+        }
+    }
+
+    /**
+     * Schedules an element to expire once the wheel is advanced past a deadline.
+     *
+     * @param element
+     *        the element to expire
+     *
+     * @param  deadline
+     *         the {@link System#nanoTime()} the element expires at
+     *
+     * @return the timer, to be passed to {@link #cancel(Timer)}
+     */
+    Timer<E> schedule(final E element, final long deadline) {
+        final long tick = Math.max(this.currentTick, ceilDiv(deadline - this.origin, this.tickNanos));
+        final Timer<E> timer = new Timer<>(element, tick);
+        slot(tick).add(timer);
+        return timer;
+    }
+
+    /**
+     * Cancels a timer, unless it expired already.
+     */
+    void cancel(final Timer<E> timer) {
+        slot(timer.tick).remove(timer);
+    }
+
+    /**
+     * Cancels every timer.
+     */
+    void clear() {
+        for (final Set<Timer<E>> slot : this.slots) {
+            slot.clear();
+        }
+    }
+
+    /**
+     * Returns the elements scheduled up to the tick of a point in time, without advancing the wheel.
+     * Elements scheduled on the tick itself may not be due yet.
+     *
+     * @param  now
+     *         the current {@link System#nanoTime()}
+     *
+     * @return the elements whose deadline has passed or is on the current tick, in no particular order
+     */
+    List<E> peek(final long now) {
+        final long target = ceilDiv(now - this.origin, this.tickNanos);
+        final List<E> scheduled = new ArrayList<>();
+        final long steps = Math.min(target - this.currentTick + 1, this.slots.size());
+        for (long tick = this.currentTick; tick < this.currentTick + steps; tick++) {
+            for (final Timer<E> timer : slot(tick)) {
+                if (timer.tick <= target) {
+                    scheduled.add(timer.element);
+                }
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * Advances the wheel to a point in time.
+     *
+     * @param  now
+     *         the current {@link System#nanoTime()}
+     *
+     * @return the elements whose deadline has passed, in no particular order
+     */
+    List<E> advance(final long now) {
+        final long target = Math.floorDiv(now - this.origin, this.tickNanos);
+        if (target < this.currentTick) {
+            return new ArrayList<>(0);
+        }
+
+        final List<E> expired = new ArrayList<>();
+        final long steps = Math.min(target - this.currentTick + 1, this.slots.size());
+        for (long tick = this.currentTick; tick < this.currentTick + steps; tick++) {
+            final Iterator<Timer<E>> timers = slot(tick).iterator();
+            while (timers.hasNext()) {
+                final Timer<E> timer = timers.next();
+                if (timer.tick <= target) {
+                    expired.add(timer.element);
+                    timers.remove();
+                }
+            }
+        }
+        this.currentTick = target + 1;
+        return expired;
+    }
+
+    private Set<Timer<E>> slot(final long tick) {
+        return this.slots.get((int) (tick % this.slots.size()));
+    }
+
+    private static long ceilDiv(final long dividend, final long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    /**
+     * A scheduled element. Timers are only equal to themselves.
+     */
+    static final class Timer<E> {
+        private final E element;
+        private final long tick;
+
+        Timer(final E element, final long tick) {
+            this.element = element;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+/**
+ * An object retrieved from a {@link JSONStore} along with the version of its key, to be passed to
+ * {@link JSONStore#compareAndStore(String, long, Object)} when storing the object's next state.
+ *
+ * <p>Every mutation of a key gives it a new version, greater than any version given out by the store
+ * before. Versions are kept in memory: objects loaded with the store are at version {@code 0} until
+ * their key is mutated, and versions are only meaningful while the store they came from is open.</p>
+ *
+ * @param <T> Type of the objects stored in the {@link JSONStore}.
+ *
+ * @author attilagyongyosi
+ */
+public final class Versioned<T> {
+    /**
+     * The version of keys holding no object, to store an object only if its key holds none.
+     */
+    public static final long ABSENT = -1L;
+
+    private final T value;
+    private final long version;
+
+    Versioned(final T value, final long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "Versioned{version=" + this.version + ", value=" + this.value + "}";
+    }
+}
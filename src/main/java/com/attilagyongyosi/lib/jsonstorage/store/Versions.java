@@ -0,0 +1,43 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the versions of the keys of a {@link JSONStore}, see {@link Versioned}.
+ *
+ * <p>Versions are drawn from a single counter, so a key removed and stored again never gets back a version
+ * it had before. Only keys mutated since the store was created are tracked, every other key is at version
+ * {@code 0}.</p>
+ *
+ * <p>Mutations update the stored object before its version, while holding the lock of the key. A reader
+ * taking the version before the object may therefore pair a new object with its old version, which only
+ * makes a compare-and-set fail, but never an old object with its new version.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class Versions {
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Returns the version of a key holding an object.
+     */
+    long get(final String key) {
+        final Long version = this.versions.get(key);
+        return version == null ? 0L : version;
+    }
+
+    void stored(final String key) {
+        this.versions.put(key, this.counter.incrementAndGet());
+    }
+
+    void removed(final String key) {
+        this.versions.remove(key);
+    }
+
+    void cleared() {
+        this.versions.clear();
+    }
+}
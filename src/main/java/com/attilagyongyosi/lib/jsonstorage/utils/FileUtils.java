@@ -4,9 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Utility class for file operations.
@@ -59,5 +63,65 @@ public final class FileUtils {
         return path;
     }
 
+    /**
+     * Moves {@code source} over {@code target} atomically, replacing {@code target} if it exists,
+     * then forces the directory entry of the move to disk where the platform allows it.
+     *
+     * Falls back to a plain replacing move on file systems that do not support atomic moves.
+     *
+     * @param  source
+     *         the file to move
+     *
+     * @param  target
+     *         the file to replace
+     *
+     * @throws IOException
+     */
+    public static void moveAtomically(final Path source, final Path target) throws IOException {
+        moveAtomically(source, target, true);
+    }
+
+    /**
+     * Moves {@code source} over {@code target} atomically, like {@link #moveAtomically(Path, Path)},
+     * leaving the directory entry of the move to the OS unless {@code durable} is set.
+     *
+     * @param  source
+     *         the file to move
+     *
+     * @param  target
+     *         the file to replace
+     *
+     * @param  durable
+     *         whether the directory entry of the move is forced to disk
+     *
+     * @throws IOException
+     */
+    public static void moveAtomically(final Path source, final Path target, final boolean durable) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException amnse) {
+            LOG.warn("Atomic move is not supported, replacing {} non-atomically.", target, amnse);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (durable) {
+            forceDirectory(target.toAbsolutePath().getParent());
+        }
+    }
+
+    /**
+     * Forces a directory to disk, so that files created, moved or deleted in it survive a crash.
+     * Not every platform can open directories; there the OS is left to persist the directory.
+     */
+    private static void forceDirectory(final Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException ioe) {
+            LOG.debug("Could not force directory {} to disk.", directory, ioe);
+        }
+    }
+
     private FileUtils() {}
 }
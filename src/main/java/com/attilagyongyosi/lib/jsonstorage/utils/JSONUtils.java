@@ -4,13 +4,19 @@ import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.BiConsumer;
 
 /**
  * Utility class for dealing with JSON.
@@ -72,5 +78,94 @@ public final class JSONUtils {
         return null;
     }
 
+    /**
+     * Deserializes the entries of an object stored in a file one by one, in the format of the
+     * given mapper, without reading the whole file into memory first.
+     *
+     * The file is read through Jackson's streaming {@link JsonParser}, so apart from a small
+     * read buffer only the entry being deserialized is held in memory besides the ones already
+     * handed to {@code consumer}. Entries with {@code null} values are skipped.
+     *
+     * @param file
+     *      the file to deserialize. An empty file is treated as an empty object.
+     *
+     * @param mapper
+     *      the mapper reading the format of the file, e.g. {@link StoreFormat#getMapper()}.
+     *
+     * @param valueType
+     *      the Java type to deserialize the values of the entries to.
+     *
+     * @param consumer
+     *      callback receiving the key and the deserialized value of every entry, in file order.
+     *
+     * @param <T>
+     *     static type parameter defining the type of the values.
+     *
+     * @return the number of entries handed to {@code consumer}.
+     *
+     * @throws InvalidJsonException
+     *      when the file does not contain an object or a value can not be mapped to {@code valueType}
+     *
+     * @throws IOException
+     *      when the file can not be read
+     */
+    public static <T> int parseEntries(final Path file, final ObjectMapper mapper, final Class<T> valueType,
+                                       final BiConsumer<String, ? super T> consumer) throws InvalidJsonException, IOException {
+
+        return parseEntries(file, mapper.readerFor(valueType), consumer);
+    }
+
+    /**
+     * Deserializes the entries of an object stored in a file one by one, like
+     * {@link #parseEntries(Path, ObjectMapper, Class, BiConsumer)}, with a reader resolved for the type of the values
+     * in advance, so that repeated parses do not look up the type and its deserializer again.
+     *
+     * @param file
+     *      the file to deserialize. An empty file is treated as an empty object.
+     *
+     * @param reader
+     *      the reader of the values, e.g. {@link ObjectMapper#readerFor(Class)}. The file is read in its format.
+     *
+     * @param consumer
+     *      callback receiving the key and the deserialized value of every entry, in file order.
+     *
+     * @param <T>
+     *     static type parameter defining the type of the values.
+     *
+     * @return the number of entries handed to {@code consumer}.
+     *
+     * @throws InvalidJsonException
+     *      when the file does not contain an object or a value can not be mapped to the type of the reader
+     *
+     * @throws IOException
+     *      when the file can not be read
+     */
+    public static <T> int parseEntries(final Path file, final ObjectReader reader, final BiConsumer<String, ? super T> consumer)
+        throws InvalidJsonException, IOException {
+
+        int entries = 0;
+        try (InputStream in = Files.newInputStream(file); JsonParser parser = reader.getFactory().createParser(in)) {
+            final JsonToken root = parser.nextToken();
+            if (root == null) {
+                return entries;
+            }
+            if (root != JsonToken.START_OBJECT) {
+                throw new InvalidJsonException("Expected a JSON object but found " + root + "!");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.VALUE_NULL) {
+                    consumer.accept(key, reader.readValue(parser));
+                    entries++;
+                }
+            }
+        } catch (final JsonMappingException | JsonParseException je) {
+            throw new InvalidJsonException("Invalid JSON input!", je);
+        }
+
+        return entries;
+    }
+
     private JSONUtils() {}
 }
@@ -0,0 +1,116 @@
+package com.attilagyongyosi.lib.jsonstorage.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Formats a store's backing file can be written in.
+ *
+ * <p>Every format holds the same JSON data model, so a store can be migrated from one
+ * format to another by reading it in one and writing it in the other.</p>
+ *
+ * @author attilagyongyosi
+ */
+public enum StoreFormat {
+    /**
+     * Indented, human-readable JSON. The format of stores that do not specify one.
+     */
+    PRETTY_JSON(JSONUtils.getMapper(), false),
+
+    /**
+     * JSON without any whitespace.
+     */
+    JSON(JSONUtils.getMapper().copy().disable(SerializationFeature.INDENT_OUTPUT), false),
+
+    /**
+     * Jackson's binary JSON format, see <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>.
+     */
+    SMILE(binaryMapper(new SmileFactory()), true),
+
+    /**
+     * The Concise Binary Object Representation of RFC 7049.
+     */
+    CBOR(binaryMapper(new CBORFactory().enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)), true);
+
+    private static final int SMILE_HEADER_FIRST = ':';
+    private static final int SMILE_HEADER_SECOND = ')';
+    private static final int CBOR_MAJOR_TYPE_MASK = 0xE0;
+    private static final int CBOR_MAP = 0xA0;
+    private static final int CBOR_TAG = 0xC0;
+
+    private final ObjectMapper mapper;
+    private final boolean binary;
+
+    StoreFormat(final ObjectMapper mapper, final boolean binary) {
+        this.mapper = mapper;
+        this.binary = binary;
+    }
+
+    /**
+     * Returns the shared mapper reading and writing this format.
+     *
+     * @return the mapper of the format
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Tells whether files written in this format can be read as the other format. The two JSON
+     * formats only differ in whitespace, so they can read each other's files.
+     *
+     * @param  other
+     *         the other format
+     *
+     * @return {@code true} if no migration is needed between the formats
+     */
+    public boolean isCompatibleWith(final StoreFormat other) {
+        return this == other || !this.binary && !other.binary;
+    }
+
+    /**
+     * Detects the format of a file from its first bytes.
+     *
+     * @param  file
+     *         the file to inspect
+     *
+     * @return the format of the file, {@code null} if the file is empty. JSON files are
+     *         reported as {@link #JSON}, whether they are indented or not.
+     *
+     * @throws IOException
+     *         when the file can not be read
+     */
+    public static StoreFormat detect(final Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            final int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            if (first == SMILE_HEADER_FIRST && in.read() == SMILE_HEADER_SECOND) {
+                return SMILE;
+            }
+
+            final int majorType = first & CBOR_MAJOR_TYPE_MASK;
+            return majorType == CBOR_MAP || majorType == CBOR_TAG ? CBOR : JSON;
+        }
+    }
+
+    private static ObjectMapper binaryMapper(final JsonFactory factory) {
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return new ObjectMapper(factory);
+    }
+}
@@ -0,0 +1,206 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base of the {@link ConcurrentMap} implementations holding their values serialized and
+ * decoding them on demand.
+ *
+ * <p>Keys are indexed on the heap, each pointing to a {@link CachedValue} that knows where
+ * the serialized form of its value lives. Only a bounded number of decoded values are kept
+ * in memory (see {@link ValueCache}).</p>
+ *
+ * <p>The map serializes to JSON by copying the raw values, without decoding them.</p>
+ *
+ * @param <T> Type of the values.
+ *
+ * @author attilagyongyosi
+ */
+@JsonSerialize(using = AbstractValueMap.Serializer.class)
+@SuppressWarnings("PMD.TooManyMethods")
+public abstract class AbstractValueMap<T> extends AbstractMap<String, T> implements ConcurrentMap<String, T>, Closeable {
+    private final ConcurrentMap<String, CachedValue<T>> index;
+    private final ValueCodec<T> codec;
+    private final Set<Entry<String, T>> entries = new EntrySet();
+    private final Collection<T> values = new Values();
+
+    AbstractValueMap(final ConcurrentMap<String, CachedValue<T>> index, final ValueCodec<T> codec) {
+        this.index = index;
+        this.codec = codec;
+    }
+
+    ConcurrentMap<String, CachedValue<T>> getIndex() {
+        return index;
+    }
+
+    ValueCodec<T> getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns a copy of the entries of the map that is not affected by later writes to the map.
+     *
+     * @return a copy of the map
+     */
+    public abstract Map<String, T> copy();
+
+    /**
+     * Returns the number of decoded values currently kept in memory.
+     *
+     * @return the number of cached values
+     */
+    public int cachedValues() {
+        return this.codec.getCache().size();
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return this.index.containsKey(key);
+    }
+
+    @Override
+    public T get(final Object key) {
+        return decode(this.index.get(key));
+    }
+
+    @Override
+    public Set<Entry<String, T>> entrySet() {
+        return this.entries;
+    }
+
+    /**
+     * Returns the values of the map, decoding them as they are iterated over. Streams of the
+     * values decode them in parallel, see {@link DecodingSpliterator}.
+     *
+     * @return a view of the values
+     */
+    @Override
+    public Collection<T> values() {
+        return this.values;
+    }
+
+    T decode(final CachedValue<T> value) {
+        return value == null ? null : value.get(this.codec);
+    }
+
+    /**
+     * Entries of the map, decoding values as they are iterated over.
+     */
+    private final class EntrySet extends AbstractSet<Entry<String, T>> {
+        @Override
+        public int size() {
+            return AbstractValueMap.this.index.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, T>> iterator() {
+            final Iterator<Entry<String, CachedValue<T>>> iterator = AbstractValueMap.this.index.entrySet().iterator();
+            return new Iterator<Entry<String, T>>() {
+                private String current;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Entry<String, T> next() {
+                    final Entry<String, CachedValue<T>> next = iterator.next();
+                    this.current = next.getKey();
+                    return new SimpleImmutableEntry<>(next.getKey(), decode(next.getValue()));
+                }
+
+                @Override
+                public void remove() {
+                    if (this.current == null) {
+                        throw new IllegalStateException("No entry to remove!");
+                    }
+                    AbstractValueMap.this.remove(this.current);
+                    this.current = null;
+                }
+            };
+        }
+    }
+
+    /**
+     * Values of the map, decoding them as they are iterated over.
+     */
+    private final class Values extends AbstractCollection<T> {
+        @Override
+        public int size() {
+            return AbstractValueMap.this.index.size();
+        }
+
+        @Override
+        public boolean contains(final Object value) {
+            return containsValue(value);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterator<Entry<String, T>> iterator = AbstractValueMap.this.entries.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return iterator.next().getValue();
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                }
+            };
+        }
+
+        @Override
+        public Spliterator<T> spliterator() {
+            return new DecodingSpliterator<>(AbstractValueMap.this.index.values().spliterator(), AbstractValueMap.this);
+        }
+    }
+
+    /**
+     * Writes the map as a JSON object, copying the raw values instead of decoding them.
+     */
+    static final class Serializer extends StdSerializer<AbstractValueMap<?>> {
+        private static final long serialVersionUID = 1L;
+
+        Serializer() {
+            super(AbstractValueMap.class, false);
+        }
+
+        @Override
+        public void serialize(final AbstractValueMap<?> map, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            for (final Entry<String, ? extends CachedValue<?>> entry : map.index.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                entry.getValue().write(generator);
+            }
+            generator.writeEndObject();
+        }
+    }
+}
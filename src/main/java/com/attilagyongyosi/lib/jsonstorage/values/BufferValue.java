@@ -0,0 +1,49 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A value stored in a slice of a {@link ByteBuffer}, decoded straight from the buffer. The buffer is
+ * either a memory-mapped chunk of a {@link MappedLog} or an off-heap chunk of a {@link DirectArena}.
+ *
+ * @param <T> Type of the decoded value.
+ *
+ * @author attilagyongyosi
+ */
+final class BufferValue<T> extends CachedValue<T> {
+    private final ByteBuffer chunk;
+    private final int offset;
+    private final int length;
+
+    BufferValue(final ByteBuffer chunk, final int offset, final int length) {
+        this.chunk = chunk;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    byte[] bytes() {
+        final byte[] bytes = new byte[this.length];
+        slice().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    T decode(final ValueCodec<T> codec) throws IOException {
+        return codec.decode(new ByteBufferBackedInputStream(slice()));
+    }
+
+    ByteBuffer slice() {
+        final ByteBuffer slice = this.chunk.duplicate();
+        slice.position(this.offset);
+        slice.limit(this.offset + this.length);
+        return slice;
+    }
+}
@@ -0,0 +1,140 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A value held in its serialized form, along with its decoded form while it is cached.
+ *
+ * <p>Subclasses only know where the serialized bytes live. The codec of the owning map is
+ * passed in on every access, so a value costs no more than its location and two fields.</p>
+ *
+ * @param <T> Type of the decoded value.
+ *
+ * @author attilagyongyosi
+ */
+abstract class CachedValue<T> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CachedValue, Object> DECODED =
+        AtomicReferenceFieldUpdater.newUpdater(CachedValue.class, Object.class, "decoded");
+
+    /**
+     * The decoded value while it is cached, {@code null} otherwise.
+     */
+    private volatile Object decoded;
+
+    /**
+     * Whether the decoded value was read since the cache last swept over it.
+     */
+    private volatile boolean referenced;
+
+    /**
+     * Reads the serialized form of the value.
+     *
+     * @return the serialized bytes
+     *
+     * @throws IOException
+     *         when the bytes can not be read
+     */
+    abstract byte[] bytes() throws IOException;
+
+    /**
+     * Decodes the serialized form of the value.
+     *
+     * @param  codec
+     *         the codec of the map holding the value
+     *
+     * @return the decoded value
+     *
+     * @throws IOException
+     *         when the bytes can not be read or decoded
+     */
+    T decode(final ValueCodec<T> codec) throws IOException {
+        return codec.decode(bytes());
+    }
+
+    /**
+     * Returns the decoded value, decoding and caching it if it is not cached.
+     *
+     * @param  codec
+     *         the codec of the map holding the value
+     *
+     * @return the decoded value
+     */
+    @SuppressWarnings("unchecked")
+    final T get(final ValueCodec<T> codec) {
+        final Object cached = this.decoded;
+        if (cached != null) {
+            if (!this.referenced) {
+                this.referenced = true;
+            }
+            return (T) cached;
+        }
+
+        final T value;
+        try {
+            value = decode(codec);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not decode stored value!", ioe);
+        }
+        cache(value, codec);
+        return value;
+    }
+
+    /**
+     * Caches an already decoded value, e.g. the one the value was just encoded from.
+     */
+    final void cache(final T value, final ValueCodec<T> codec) {
+        if (DECODED.compareAndSet(this, null, value)) {
+            codec.getCache().admit(this);
+        }
+    }
+
+    /**
+     * Writes the serialized form of the value as is. Binary generators can not take raw JSON,
+     * so the value is streamed into them token by token instead, still without decoding it.
+     *
+     * @param  generator
+     *         the generator to write the value to
+     *
+     * @throws IOException
+     *         when the bytes can not be read or written
+     */
+    void write(final JsonGenerator generator) throws IOException {
+        if (!generator.canWriteBinaryNatively()) {
+            generator.writeRawValue(new String(bytes(), StandardCharsets.UTF_8));
+            return;
+        }
+
+        try (JsonParser parser = JSONUtils.getMapper().getFactory().createParser(bytes())) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    /**
+     * Gives the value a second chance if it was read since the last sweep.
+     *
+     * @return {@code true} if the value was referenced
+     */
+    final boolean sweep() {
+        if (this.referenced) {
+            this.referenced = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the decoded value.
+     */
+    final void evict() {
+        this.decoded = null;
+    }
+}
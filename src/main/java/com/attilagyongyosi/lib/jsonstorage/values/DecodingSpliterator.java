@@ -0,0 +1,52 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the values of an {@link AbstractValueMap}, decoding them as they are traversed.
+ *
+ * <p>Splits follow the spliterator of the map's index, so every part of a parallel traversal
+ * decodes its own values, instead of a single thread decoding them for all of them.</p>
+ *
+ * @param <T> Type of the values.
+ *
+ * @author attilagyongyosi
+ */
+final class DecodingSpliterator<T> implements Spliterator<T> {
+    private static final int UNSUPPORTED = Spliterator.DISTINCT | Spliterator.SORTED;
+
+    private final Spliterator<CachedValue<T>> values;
+    private final AbstractValueMap<T> map;
+
+    DecodingSpliterator(final Spliterator<CachedValue<T>> values, final AbstractValueMap<T> map) {
+        this.values = values;
+        this.map = map;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        return this.values.tryAdvance(value -> action.accept(this.map.decode(value)));
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super T> action) {
+        this.values.forEachRemaining(value -> action.accept(this.map.decode(value)));
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        final Spliterator<CachedValue<T>> split = this.values.trySplit();
+        return split == null ? null : new DecodingSpliterator<>(split, this.map);
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.values.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return this.values.characteristics() & ~UNSUPPORTED;
+    }
+}
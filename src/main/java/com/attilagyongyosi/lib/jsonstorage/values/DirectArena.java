@@ -0,0 +1,89 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates serialized values in direct buffers, outside of the Java heap.
+ *
+ * <p>Values are copied one after the other into chunks of direct memory. The space of a value
+ * that is no longer used is not reused: a chunk is freed by the garbage collector once no value
+ * references it anymore. Owners reclaim space by copying their live values into a new arena.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class DirectArena {
+    /**
+     * Size of the chunks values are packed into.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Values larger than this fraction of a chunk get a buffer of their own instead.
+     */
+    private static final int LARGE_VALUE_FRACTION = 8;
+
+    private final int chunkSize;
+    private final Object lock = new Object();
+
+    /**
+     * The chunk values are currently packed into, {@code null} until the first allocation.
+     */
+    private ByteBuffer current;
+
+    /**
+     * Bytes of direct memory allocated by the arena so far.
+     */
+    private long allocated;
+
+    DirectArena(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into the arena.
+     *
+     * @param  source
+     *         the serialized value
+     *
+     * @param  <T>
+     *         type of the decoded value
+     *
+     * @return the value as stored in the arena
+     */
+    <T> BufferValue<T> allocate(final ByteBuffer source) {
+        final int length = source.remaining();
+        synchronized (this.lock) {
+            final ByteBuffer chunk;
+            if (length > this.chunkSize / LARGE_VALUE_FRACTION) {
+                chunk = ByteBuffer.allocateDirect(length);
+                this.allocated += length;
+            } else {
+                if (this.current == null || this.current.remaining() < length) {
+                    this.current = ByteBuffer.allocateDirect(this.chunkSize);
+                    this.allocated += this.chunkSize;
+                }
+                chunk = this.current;
+            }
+
+            final int offset = chunk.position();
+            chunk.put(source);
+            return new BufferValue<>(chunk, offset, length);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of direct memory allocated by the arena, including the space
+     * of values that are no longer used.
+     *
+     * @return the allocated bytes
+     */
+    long allocated() {
+        synchronized (this.lock) {
+            return allocated;
+        }
+    }
+}
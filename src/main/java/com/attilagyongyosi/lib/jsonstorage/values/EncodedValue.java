@@ -0,0 +1,22 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+/**
+ * A value serialized into a byte array on the heap.
+ *
+ * @param <T> Type of the decoded value.
+ *
+ * @author attilagyongyosi
+ */
+final class EncodedValue<T> extends CachedValue<T> {
+    private final byte[] bytes;
+
+    @SuppressWarnings("PMD.UseVarargs")
+    EncodedValue(final byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    byte[] bytes() {
+        return this.bytes;
+    }
+}
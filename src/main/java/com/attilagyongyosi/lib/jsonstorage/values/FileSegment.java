@@ -0,0 +1,55 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file values are read from on demand.
+ *
+ * <p>The file is kept open for as long as values refer to it. Reads are positional, so
+ * concurrent readers do not interfere with each other. If the file is atomically replaced
+ * by a newer snapshot in the meantime, the open channel keeps reading the original one.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class FileSegment implements Closeable {
+    private final FileChannel channel;
+
+    FileSegment(final Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads a range of bytes of the file.
+     *
+     * @param  offset
+     *         the position of the first byte to read
+     *
+     * @param  length
+     *         the number of bytes to read
+     *
+     * @return the bytes read
+     *
+     * @throws IOException
+     *         when the range can not be read
+     */
+    byte[] read(final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Value at offset " + offset + " is past the end of the file!");
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,239 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link ConcurrentMap} loaded lazily from a store file.
+ *
+ * <p>When loaded, only the keys and the positions of the raw JSON values in the file are read.
+ * A value is decoded the first time it is retrieved, and only a bounded number of decoded values
+ * are kept in memory. Values put into the map afterwards are kept serialized on the heap,
+ * starting out decoded.</p>
+ *
+ * <p>Values that can not be mapped to the value type only fail when they are retrieved.</p>
+ *
+ * @param <T> Type of the values.
+ *
+ * @author attilagyongyosi
+ */
+public final class LazyValueMap<T> extends AbstractValueMap<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(LazyValueMap.class);
+
+    /**
+     * The file loaded values are read from, {@code null} for copies that do not own it.
+     */
+    private final FileSegment segment;
+
+    private LazyValueMap(final ConcurrentMap<String, CachedValue<T>> index, final ValueCodec<T> codec, final FileSegment segment) {
+        super(index, codec);
+        this.segment = segment;
+    }
+
+    /**
+     * Indexes the entries of a JSON object stored in a file without decoding their values.
+     *
+     * @param  file
+     *         the file to index. An empty file is treated as an empty object.
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be read
+     *
+     * @throws InvalidJsonException
+     *         when the file does not contain a JSON object
+     */
+    public static <T> LazyValueMap<T> load(final Path file, final Class<T> type, final int cacheSize)
+        throws IOException, InvalidJsonException {
+
+        return load(file, JSONUtils.getMapper(), type, cacheSize);
+    }
+
+    /**
+     * Indexes the entries of a JSON object stored in a file like {@link #load(Path, Class, int)},
+     * decoding values with a mapper of its own, e.g. one with the modules of a store registered.
+     *
+     * @param  file
+     *         the file to index. An empty file is treated as an empty object.
+     *
+     * @param  mapper
+     *         the mapper decoding and encoding values as JSON
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be read
+     *
+     * @throws InvalidJsonException
+     *         when the file does not contain a JSON object
+     */
+    public static <T> LazyValueMap<T> load(final Path file, final ObjectMapper mapper, final Class<T> type, final int cacheSize)
+        throws IOException, InvalidJsonException {
+
+        final FileSegment segment = new FileSegment(file);
+        final LazyValueMap<T> map = new LazyValueMap<>(new ConcurrentHashMap<>(), new ValueCodec<>(mapper, type, cacheSize), segment);
+        boolean indexed = false;
+        try (InputStream in = Files.newInputStream(file); JsonParser parser = JSONUtils.getMapper().getFactory().createParser(in)) {
+            map.index(parser);
+            indexed = true;
+        } catch (final JsonParseException jpe) {
+            throw new InvalidJsonException("Invalid JSON input!", jpe);
+        } finally {
+            if (!indexed) {
+                segment.close();
+            }
+        }
+
+        LOG.debug("Indexed {} entries of {}.", map.size(), file);
+        return map;
+    }
+
+    private void index(final JsonParser parser) throws IOException, InvalidJsonException {
+        final JsonToken root = parser.nextToken();
+        if (root == null) {
+            return;
+        }
+        if (root != JsonToken.START_OBJECT) {
+            throw new InvalidJsonException("Expected a JSON object but found " + root + "!");
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            final long start = parser.getTokenLocation().getByteOffset();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            if (value.isStructStart()) {
+                parser.skipChildren();
+            } else {
+                // Completes lazily parsed scalars so the current location is past their end.
+                parser.getText();
+            }
+            final long end = parser.getCurrentLocation().getByteOffset();
+            getIndex().put(key, new RegionValue<>(this.segment, start, (int) (end - start)));
+        }
+    }
+
+    /**
+     * Returns a copy of the map sharing the serialized values, without decoding any of them.
+     *
+     * @return a copy of the map
+     */
+    @Override
+    public LazyValueMap<T> copy() {
+        return new LazyValueMap<>(new ConcurrentHashMap<>(getIndex()), getCodec(), null);
+    }
+
+    @Override
+    public T put(final String key, final T value) {
+        return decode(getIndex().put(key, encode(value)));
+    }
+
+    @Override
+    public T putIfAbsent(final String key, final T value) {
+        return decode(getIndex().putIfAbsent(key, encode(value)));
+    }
+
+    @Override
+    public T remove(final Object key) {
+        return decode(getIndex().remove(key));
+    }
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        while (true) {
+            final CachedValue<T> current = getIndex().get(key);
+            if (current == null || !Objects.equals(decode(current), value)) {
+                return false;
+            }
+            if (getIndex().remove(key, current)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(final String key, final T oldValue, final T newValue) {
+        final CachedValue<T> replacement = encode(newValue);
+        while (true) {
+            final CachedValue<T> current = getIndex().get(key);
+            if (current == null || !Objects.equals(decode(current), oldValue)) {
+                return false;
+            }
+            if (getIndex().replace(key, current, replacement)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public T replace(final String key, final T value) {
+        return decode(getIndex().replace(key, encode(value)));
+    }
+
+    @Override
+    public void clear() {
+        getIndex().clear();
+    }
+
+    /**
+     * Closes the file loaded values are read from. Values still in the file can not be decoded afterwards.
+     *
+     * @throws IOException
+     *         when the file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.segment != null) {
+            this.segment.close();
+        }
+    }
+
+    private CachedValue<T> encode(final T value) {
+        Objects.requireNonNull(value, "Values must not be null!");
+        final CachedValue<T> encoded;
+        try {
+            encoded = new EncodedValue<>(getCodec().encode(value));
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not encode value!", ioe);
+        }
+        encoded.cache(value, getCodec());
+        return encoded;
+    }
+}
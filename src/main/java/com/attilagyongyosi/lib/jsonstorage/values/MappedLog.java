@@ -0,0 +1,334 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records kept in a memory-mapped file.
+ *
+ * <p>The file is mapped in fixed-size chunks and grows one chunk at a time. Every mutation is
+ * appended as a frame, made of the length of its payload, a CRC32 checksum of the payload and
+ * the payload itself: an operation, a key and, for puts, the serialized value. Frames never span
+ * chunks; a frame that does not fit into the rest of a chunk is written to the next one.</p>
+ *
+ * <p>A frame with a zero length marks the end of the log. When the log is replayed, a frame whose
+ * checksum does not match is treated as the end of the log too, as it can only be a write torn by
+ * a crash, and the space after the last valid frame is zeroed out.</p>
+ *
+ * <p>Records only become durable once {@link #force(List)} is called on the chunks holding them.
+ * The log is not safe for concurrent appends; its owner serializes them.</p>
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+final class MappedLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedLog.class);
+
+    /**
+     * Size of the chunks new log files are mapped in.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4A534D4C;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FRAME_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int NEXT_CHUNK = -1;
+    private static final int END = 0;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * Position of the next frame in the last chunk.
+     */
+    private int position;
+
+    /**
+     * Index of the first chunk written since the last force.
+     */
+    private int dirtyFrom;
+
+    /**
+     * Callback receiving the records of a log as it is replayed.
+     *
+     * @param <T> Type of the decoded values.
+     */
+    interface Replayer<T> {
+        void put(String key, BufferValue<T> value);
+
+        void remove(String key);
+
+        void clear();
+    }
+
+    private MappedLog(final Path path, final FileChannel channel, final int chunkSize) {
+        this.path = path;
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Opens a log file, creating it if it does not exist or is empty.
+     *
+     * @param  path
+     *         the path of the log file
+     *
+     * @param  chunkSize
+     *         the size of the chunks a new log file is mapped in. Existing files keep their own.
+     *
+     * @return the opened log, to be replayed before appending to it
+     *
+     * @throws IOException
+     *         when the file can not be opened or is not a log file
+     */
+    static MappedLog open(final Path path, final int chunkSize) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                final MappedLog log = new MappedLog(path, channel, chunkSize);
+                log.map();
+                log.chunks.get(0).putInt(0, MAGIC).putInt(Integer.BYTES, chunkSize);
+                log.position = HEADER_SIZE;
+                return log;
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) {
+                read = channel.read(header, header.position());
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a mapped store file!");
+            }
+
+            final MappedLog log = new MappedLog(path, channel, header.getInt(Integer.BYTES));
+            final long chunks = (channel.size() + log.chunkSize - 1) / log.chunkSize;
+            for (long i = 0; i < chunks; i++) {
+                log.map();
+            }
+            return log;
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Reads every valid frame of the log in order, then positions the log after the last one.
+     *
+     * @param  replayer
+     *         callback receiving the records
+     *
+     * @param  <T>
+     *         type of the decoded values
+     *
+     * @return the number of records replayed
+     *
+     * @throws IOException
+     *         when the space after the last valid frame can not be cleared
+     */
+    <T> int replay(final Replayer<T> replayer) throws IOException {
+        int replayed = 0;
+        int chunk = 0;
+        int offset = HEADER_SIZE;
+        while (true) {
+            final ByteBuffer buffer = this.chunks.get(chunk);
+            final int length = offset + FRAME_HEADER_SIZE <= this.chunkSize ? buffer.getInt(offset) : NEXT_CHUNK;
+            if (length == NEXT_CHUNK && chunk + 1 < this.chunks.size()) {
+                chunk++;
+                offset = 0;
+                continue;
+            }
+            if (length <= END || offset + FRAME_HEADER_SIZE + length > this.chunkSize || !isValid(buffer, offset, length)) {
+                break;
+            }
+
+            read(buffer, offset + FRAME_HEADER_SIZE, replayer);
+            replayed++;
+            offset += FRAME_HEADER_SIZE + length;
+        }
+
+        truncate(chunk, offset);
+        LOG.debug("Replayed {} records from {}.", replayed, this.path);
+        return replayed;
+    }
+
+    /**
+     * Appends the serialized value of a key.
+     *
+     * @return the value as stored in the log
+     */
+    @SuppressWarnings("PMD.UseVarargs")
+    <T> BufferValue<T> put(final String key, final byte[] value) throws IOException {
+        final int valueOffset = append(PUT, key, value);
+        return new BufferValue<>(lastChunk(), valueOffset, value.length);
+    }
+
+    void remove(final String key) throws IOException {
+        append(REMOVE, key, null);
+    }
+
+    void clear() throws IOException {
+        append(CLEAR, "", null);
+    }
+
+    /**
+     * Returns the number of bytes used by the log.
+     *
+     * @return the size of the log
+     */
+    long size() {
+        return (long) (this.chunks.size() - 1) * this.chunkSize + this.position;
+    }
+
+    /**
+     * Returns the chunks written since the last call, to be passed to {@link #force(List)}.
+     * The last chunk is always included, as it may still be written to.
+     *
+     * @return the chunks to force to disk
+     */
+    List<MappedByteBuffer> dirtyChunks() {
+        final List<MappedByteBuffer> dirty = new ArrayList<>(this.chunks.subList(this.dirtyFrom, this.chunks.size()));
+        this.dirtyFrom = this.chunks.size() - 1;
+        return dirty;
+    }
+
+    /**
+     * Forces chunks of a log to disk. Safe to call concurrently with appends.
+     *
+     * @param chunks
+     *        the chunks to force
+     */
+    static void force(final List<MappedByteBuffer> chunks) {
+        for (final MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    @SuppressWarnings("PMD.UseVarargs")
+    private int append(final byte operation, final String key, final byte[] value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int length = 1 + Integer.BYTES + keyBytes.length + (value == null ? 0 : Integer.BYTES + value.length);
+        if (HEADER_SIZE + FRAME_HEADER_SIZE + length > this.chunkSize) {
+            throw new IOException("Record of " + length + " bytes does not fit into chunks of " + this.chunkSize + " bytes!");
+        }
+
+        if (this.position + FRAME_HEADER_SIZE + length > this.chunkSize) {
+            if (this.position + Integer.BYTES <= this.chunkSize) {
+                lastChunk().putInt(this.position, NEXT_CHUNK);
+            }
+            map();
+            this.position = 0;
+        }
+
+        final ByteBuffer frame = lastChunk().duplicate();
+        frame.position(this.position + FRAME_HEADER_SIZE);
+        frame.put(operation).putInt(keyBytes.length).put(keyBytes);
+        int valueOffset = -1;
+        if (value != null) {
+            frame.putInt(value.length);
+            valueOffset = frame.position();
+            frame.put(value);
+        }
+
+        frame.position(this.position + FRAME_HEADER_SIZE).limit(this.position + FRAME_HEADER_SIZE + length);
+        final CRC32 crc = new CRC32();
+        crc.update(frame);
+        lastChunk().putInt(this.position + Integer.BYTES, (int) crc.getValue());
+        lastChunk().putInt(this.position, length);
+
+        this.position += FRAME_HEADER_SIZE + length;
+        return valueOffset;
+    }
+
+    private <T> void read(final ByteBuffer chunk, final int offset, final Replayer<T> replayer) {
+        final ByteBuffer frame = chunk.duplicate();
+        frame.position(offset);
+        final byte operation = frame.get();
+        final byte[] key = new byte[frame.getInt()];
+        frame.get(key);
+
+        switch (operation) {
+            case PUT:
+                final int length = frame.getInt();
+                replayer.put(new String(key, StandardCharsets.UTF_8), new BufferValue<>(chunk, frame.position(), length));
+                break;
+            case REMOVE:
+                replayer.remove(new String(key, StandardCharsets.UTF_8));
+                break;
+            case CLEAR:
+                replayer.clear();
+                break;
+            default:
+                throw new IllegalStateException("Unknown record operation " + operation + " in " + this.path + "!");
+        }
+    }
+
+    private boolean isValid(final ByteBuffer chunk, final int offset, final int length) {
+        final ByteBuffer payload = chunk.duplicate();
+        payload.position(offset + FRAME_HEADER_SIZE).limit(offset + FRAME_HEADER_SIZE + length);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == chunk.getInt(offset + Integer.BYTES);
+    }
+
+    /**
+     * Drops the chunks after the last valid frame and zeroes out whatever follows it in its chunk.
+     */
+    private void truncate(final int chunk, final int offset) throws IOException {
+        if (chunk + 1 < this.chunks.size()) {
+            LOG.warn("Discarding {} chunks after the last valid record of {}.", this.chunks.size() - chunk - 1, this.path);
+            this.chunks.subList(chunk + 1, this.chunks.size()).clear();
+            this.channel.truncate((long) this.chunkSize * (chunk + 1));
+        }
+
+        final MappedByteBuffer last = lastChunk();
+        for (int i = offset; i < this.chunkSize; i++) {
+            if (last.get(i) != 0) {
+                LOG.warn("Discarding incomplete record at offset {} of chunk {} of {}.", offset, chunk, this.path);
+                final ByteBuffer rest = last.duplicate();
+                rest.position(offset);
+                rest.put(new byte[this.chunkSize - offset]);
+                last.force();
+                break;
+            }
+        }
+        this.position = offset;
+        this.dirtyFrom = chunk;
+    }
+
+    private MappedByteBuffer lastChunk() {
+        return this.chunks.get(this.chunks.size() - 1);
+    }
+
+    private void map() throws IOException {
+        this.chunks.add(this.channel.map(FileChannel.MapMode.READ_WRITE, (long) this.chunks.size() * this.chunkSize, this.chunkSize));
+    }
+}
@@ -0,0 +1,381 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.FileUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link java.util.concurrent.ConcurrentMap} persisted to a memory-mapped store file.
+ *
+ * <p>The store file is a {@link MappedLog} of the mutations of the map. Every write appends a record
+ * to the mapping and points the key at the new record, so writing an entry never rewrites the others.
+ * Values are decoded straight from the mapping when they are retrieved, and only a bounded number of
+ * decoded values are kept in memory.</p>
+ *
+ * <p>Writes are visible to the OS as soon as the map returns, and survive the process crashing.
+ * They only survive the machine crashing once {@link #force()} returned. Records of overwritten and
+ * removed entries keep taking up space until the map is {@link #compact() compacted}.</p>
+ *
+ * <p>Reads never lock. Writes are serialized, so conditional writes are atomic.</p>
+ *
+ * @param <T> Type of the values.
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public final class MappedValueMap<T> extends AbstractValueMap<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedValueMap.class);
+
+    /**
+     * Frame, operation and length bytes taken up by a put record on top of its key and value.
+     */
+    private static final int RECORD_OVERHEAD = 2 * Integer.BYTES + 1 + 2 * Integer.BYTES;
+
+    private static final String COMPACTING_SUFFIX = "-compacting";
+
+    private final Path file;
+    private final Object writeLock = new Object();
+    private final Object forceLock = new Object();
+
+    /**
+     * The log of the store file; replaced when the map is compacted. Guarded by {@link #writeLock}.
+     */
+    private MappedLog log;
+
+    /**
+     * Bytes taken up by the records of the live entries. Guarded by {@link #writeLock}.
+     */
+    private long liveBytes;
+
+    private MappedValueMap(final Path file, final ValueCodec<T> codec) {
+        super(new ConcurrentHashMap<>(), codec);
+        this.file = file;
+    }
+
+    /**
+     * Opens a memory-mapped store file, creating it if it does not exist or is empty.
+     * The unfinished file of a compaction interrupted by a crash is deleted.
+     *
+     * @param  file
+     *         the store file
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be opened or is not a mapped store file
+     */
+    public static <T> MappedValueMap<T> open(final Path file, final Class<T> type, final int cacheSize) throws IOException {
+        return open(file, JSONUtils.getMapper(), type, cacheSize);
+    }
+
+    /**
+     * Opens a memory-mapped store file like {@link #open(Path, Class, int)}, encoding values with a
+     * mapper of its own, e.g. one with the modules of a store registered.
+     *
+     * @param  file
+     *         the store file
+     *
+     * @param  mapper
+     *         the mapper decoding and encoding values as JSON
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be opened or is not a mapped store file
+     */
+    public static <T> MappedValueMap<T> open(final Path file, final ObjectMapper mapper, final Class<T> type, final int cacheSize) throws IOException {
+        return open(file, new ValueCodec<>(mapper, type, cacheSize), MappedLog.DEFAULT_CHUNK_SIZE);
+    }
+
+    static <T> MappedValueMap<T> open(final Path file, final Class<T> type, final int cacheSize, final int chunkSize) throws IOException {
+        return open(file, new ValueCodec<>(type, cacheSize), chunkSize);
+    }
+
+    private static <T> MappedValueMap<T> open(final Path file, final ValueCodec<T> codec, final int chunkSize) throws IOException {
+        if (Files.deleteIfExists(compactingFile(file))) {
+            LOG.warn("Deleted unfinished compaction {} of {}.", compactingFile(file), file);
+        }
+
+        final MappedValueMap<T> map = new MappedValueMap<>(file, codec);
+        map.log = MappedLog.open(file, chunkSize);
+        try {
+            map.log.replay(map.new Loader());
+        } catch (final IOException | RuntimeException e) {
+            map.log.close();
+            throw e;
+        }
+
+        LOG.debug("Mapped {} entries of {}.", map.size(), file);
+        return map;
+    }
+
+    /**
+     * Returns a copy of the entries of the map, decoding all of them.
+     *
+     * @return a copy of the map
+     */
+    @Override
+    public Map<String, T> copy() {
+        return new HashMap<>(this);
+    }
+
+    @Override
+    public T put(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        synchronized (this.writeLock) {
+            return decode(append(key, bytes, value));
+        }
+    }
+
+    @Override
+    public T putIfAbsent(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        synchronized (this.writeLock) {
+            final CachedValue<T> current = getIndex().get(key);
+            if (current != null) {
+                return decode(current);
+            }
+            append(key, bytes, value);
+            return null;
+        }
+    }
+
+    @Override
+    public T remove(final Object key) {
+        synchronized (this.writeLock) {
+            return decode(delete(key));
+        }
+    }
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        synchronized (this.writeLock) {
+            final CachedValue<T> current = getIndex().get(key);
+            if (current == null || !Objects.equals(decode(current), value)) {
+                return false;
+            }
+            delete(key);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean replace(final String key, final T oldValue, final T newValue) {
+        final byte[] bytes = encode(newValue);
+        synchronized (this.writeLock) {
+            final CachedValue<T> current = getIndex().get(key);
+            if (current == null || !Objects.equals(decode(current), oldValue)) {
+                return false;
+            }
+            append(key, bytes, newValue);
+            return true;
+        }
+    }
+
+    @Override
+    public T replace(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        synchronized (this.writeLock) {
+            if (!getIndex().containsKey(key)) {
+                return null;
+            }
+            return decode(append(key, bytes, value));
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this.writeLock) {
+            try {
+                this.log.clear();
+            } catch (final IOException ioe) {
+                throw new UncheckedIOException("Could not clear " + this.file + "!", ioe);
+            }
+            getIndex().clear();
+            this.liveBytes = 0;
+        }
+    }
+
+    /**
+     * Forces the writes made so far to disk. Blocks until every write that returned before the
+     * call is durable, including ones forced by concurrent calls.
+     */
+    public void force() {
+        synchronized (this.forceLock) {
+            final List<MappedByteBuffer> dirty;
+            synchronized (this.writeLock) {
+                dirty = this.log.dirtyChunks();
+            }
+            MappedLog.force(dirty);
+        }
+    }
+
+    /**
+     * Compacts the map if its store file grew past a threshold and most of it is taken up by
+     * overwritten or removed entries.
+     *
+     * @param  threshold
+     *         the size of the store file in bytes below which it is never compacted
+     *
+     * @return {@code true} if the map was compacted
+     *
+     * @throws IOException
+     *         when the compacted file can not be written or moved in place
+     */
+    public boolean compactIfDue(final long threshold) throws IOException {
+        synchronized (this.writeLock) {
+            final long size = this.log.size();
+            if (size < threshold || size <= 2 * this.liveBytes) {
+                return false;
+            }
+            compact();
+            return true;
+        }
+    }
+
+    /**
+     * Rewrites the store file with only the live entries, then atomically replaces the old one.
+     * Writes are blocked while the map is compacted.
+     *
+     * @throws IOException
+     *         when the compacted file can not be written or moved in place
+     */
+    public void compact() throws IOException {
+        synchronized (this.writeLock) {
+            final Path temp = compactingFile(this.file);
+            Files.deleteIfExists(temp);
+
+            final MappedLog compacted = MappedLog.open(temp, this.log.getChunkSize());
+            final Map<String, CachedValue<T>> relocated = new HashMap<>();
+            try {
+                for (final Entry<String, CachedValue<T>> entry : getIndex().entrySet()) {
+                    relocated.put(entry.getKey(), compacted.put(entry.getKey(), entry.getValue().bytes()));
+                }
+                MappedLog.force(compacted.dirtyChunks());
+                FileUtils.moveAtomically(temp, this.file);
+            } catch (final IOException | RuntimeException e) {
+                compacted.close();
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            final long before = this.log.size();
+            this.log.close();
+            this.log = compacted;
+            getIndex().putAll(relocated);
+            LOG.debug("Compacted {} from {} to {} bytes.", this.file, before, compacted.size());
+        }
+    }
+
+    /**
+     * Closes the store file. Values can not be decoded from it afterwards.
+     *
+     * @throws IOException
+     *         when the file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.writeLock) {
+            this.log.close();
+        }
+    }
+
+    private CachedValue<T> append(final String key, final byte[] bytes, final T value) {
+        final BufferValue<T> appended;
+        try {
+            appended = this.log.put(key, bytes);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not write " + key + " to " + this.file + "!", ioe);
+        }
+        appended.cache(value, getCodec());
+        final CachedValue<T> previous = getIndex().put(key, appended);
+        this.liveBytes += recordSize(key, appended) - recordSize(key, previous);
+        return previous;
+    }
+
+    private CachedValue<T> delete(final Object key) {
+        final CachedValue<T> previous = getIndex().get(key);
+        if (previous == null) {
+            return null;
+        }
+        try {
+            this.log.remove((String) key);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not remove " + key + " from " + this.file + "!", ioe);
+        }
+        getIndex().remove(key);
+        this.liveBytes -= recordSize((String) key, previous);
+        return previous;
+    }
+
+    private byte[] encode(final T value) {
+        Objects.requireNonNull(value, "Values must not be null!");
+        try {
+            return getCodec().encode(value);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not encode value!", ioe);
+        }
+    }
+
+    private static Path compactingFile(final Path file) {
+        return Paths.get(file + COMPACTING_SUFFIX);
+    }
+
+    private static long recordSize(final String key, final CachedValue<?> value) {
+        return value == null ? 0 : RECORD_OVERHEAD + key.length() + ((BufferValue<?>) value).length();
+    }
+
+    /**
+     * Rebuilds the index from the records of the store file.
+     */
+    private final class Loader implements MappedLog.Replayer<T> {
+        @Override
+        public void put(final String key, final BufferValue<T> value) {
+            final CachedValue<T> previous = getIndex().put(key, value);
+            MappedValueMap.this.liveBytes += recordSize(key, value) - recordSize(key, previous);
+        }
+
+        @Override
+        public void remove(final String key) {
+            MappedValueMap.this.liveBytes -= recordSize(key, getIndex().remove(key));
+        }
+
+        @Override
+        public void clear() {
+            getIndex().clear();
+            MappedValueMap.this.liveBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ConcurrentMap} keeping its values serialized in direct memory, outside of the Java heap.
+ *
+ * <p>Only the keys and the locations of the values are kept on the heap, so a large map adds little
+ * to the work of the garbage collector. A value is decoded when it is retrieved, and only a bounded
+ * number of decoded values are kept in memory.</p>
+ *
+ * <p>Overwritten and removed values keep taking up direct memory until the map is compacted, which
+ * happens automatically once most of the direct memory it allocated is no longer used.</p>
+ *
+ * @param <T> Type of the values.
+ *
+ * @author attilagyongyosi
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public final class OffHeapValueMap<T> extends AbstractValueMap<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapValueMap.class);
+
+    /**
+     * Number of chunks of direct memory below which the map is never compacted.
+     */
+    private static final int MIN_COMPACTION_CHUNKS = 4;
+
+    /**
+     * Taken shared by writes, and exclusively when the arena is replaced.
+     */
+    private final ReadWriteLock arenaLock;
+    private final AtomicLong liveBytes;
+    private volatile DirectArena arena;
+
+    /**
+     * Creates an empty map.
+     *
+     * @param type
+     *        the type to decode values to
+     *
+     * @param cacheSize
+     *        the maximum number of decoded values to keep in memory
+     */
+    public OffHeapValueMap(final Class<T> type, final int cacheSize) {
+        this(type, cacheSize, DirectArena.DEFAULT_CHUNK_SIZE);
+    }
+
+    OffHeapValueMap(final Class<T> type, final int cacheSize, final int chunkSize) {
+        this(new ValueCodec<>(type, cacheSize), chunkSize);
+    }
+
+    private OffHeapValueMap(final ValueCodec<T> codec, final int chunkSize) {
+        this(new ConcurrentHashMap<>(), codec, new DirectArena(chunkSize), 0L);
+    }
+
+    private OffHeapValueMap(final ConcurrentMap<String, CachedValue<T>> index, final ValueCodec<T> codec,
+                            final DirectArena arena, final long liveBytes) {
+        super(index, codec);
+        this.arenaLock = new ReentrantReadWriteLock();
+        this.arena = arena;
+        this.liveBytes = new AtomicLong(liveBytes);
+    }
+
+    /**
+     * Copies the entries of a JSON object stored in a file into a new map, without decoding their values.
+     *
+     * @param  file
+     *         the file to load. An empty file is treated as an empty object.
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be read
+     *
+     * @throws InvalidJsonException
+     *         when the file does not contain a JSON object
+     */
+    public static <T> OffHeapValueMap<T> load(final Path file, final Class<T> type, final int cacheSize)
+        throws IOException, InvalidJsonException {
+
+        return load(file, JSONUtils.getMapper().getFactory(), type, cacheSize);
+    }
+
+    /**
+     * Copies the entries of an object stored in a file in any of the formats of Jackson into a new map.
+     * Values are kept as JSON regardless of the format of the file.
+     *
+     * @param  file
+     *         the file to load. An empty file is treated as an empty object.
+     *
+     * @param  format
+     *         the factory of parsers reading the format of the file
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be read
+     *
+     * @throws InvalidJsonException
+     *         when the file does not contain an object
+     */
+    public static <T> OffHeapValueMap<T> load(final Path file, final JsonFactory format, final Class<T> type, final int cacheSize)
+        throws IOException, InvalidJsonException {
+
+        return load(file, format, JSONUtils.getMapper(), type, cacheSize);
+    }
+
+    /**
+     * Copies the entries of an object stored in a file into a new map like {@link #load(Path, JsonFactory, Class, int)},
+     * decoding values with a mapper of its own, e.g. one with the modules of a store registered.
+     *
+     * @param  file
+     *         the file to load. An empty file is treated as an empty object.
+     *
+     * @param  format
+     *         the factory of parsers reading the format of the file
+     *
+     * @param  mapper
+     *         the mapper decoding and encoding values as JSON
+     *
+     * @param  type
+     *         the type to decode values to
+     *
+     * @param  cacheSize
+     *         the maximum number of decoded values to keep in memory
+     *
+     * @param  <T>
+     *         static type parameter defining the type of the values.
+     *
+     * @return a map of the file's entries
+     *
+     * @throws IOException
+     *         when the file can not be read
+     *
+     * @throws InvalidJsonException
+     *         when the file does not contain an object
+     */
+    public static <T> OffHeapValueMap<T> load(final Path file, final JsonFactory format, final ObjectMapper mapper, final Class<T> type,
+                                              final int cacheSize)
+        throws IOException, InvalidJsonException {
+
+        final OffHeapValueMap<T> map = new OffHeapValueMap<>(new ValueCodec<>(mapper, type, cacheSize), DirectArena.DEFAULT_CHUNK_SIZE);
+        try (InputStream in = Files.newInputStream(file); JsonParser parser = format.createParser(in)) {
+            map.load(parser, JSONUtils.getMapper().getFactory());
+        } catch (final JsonParseException jpe) {
+            throw new InvalidJsonException("Invalid JSON input!", jpe);
+        }
+
+        LOG.debug("Loaded {} entries of {} off-heap.", map.size(), file);
+        return map;
+    }
+
+    private void load(final JsonParser parser, final JsonFactory json) throws IOException, InvalidJsonException {
+        final JsonToken root = parser.nextToken();
+        if (root == null) {
+            return;
+        }
+        if (root != JsonToken.START_OBJECT) {
+            throw new InvalidJsonException("Expected a JSON object but found " + root + "!");
+        }
+
+        final ByteArrayBuilder buffer = new ByteArrayBuilder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            // Re-serializes the value compactly as is, without mapping it to the value type.
+            try (JsonGenerator generator = json.createGenerator(buffer)) {
+                generator.copyCurrentStructure(parser);
+            }
+            final BufferValue<T> value = this.arena.allocate(ByteBuffer.wrap(buffer.toByteArray()));
+            account(value, getIndex().put(key, value));
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Returns a copy of the map sharing the serialized values, without decoding any of them.
+     *
+     * @return a copy of the map
+     */
+    @Override
+    public OffHeapValueMap<T> copy() {
+        final Lock lock = this.arenaLock.writeLock();
+        lock.lock();
+        try {
+            return new OffHeapValueMap<>(new ConcurrentHashMap<>(getIndex()), getCodec(), this.arena, this.liveBytes.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of direct memory allocated for values, including the space
+     * of values that are no longer used.
+     *
+     * @return the allocated bytes
+     */
+    public long allocatedBytes() {
+        return this.arena.allocated();
+    }
+
+    @Override
+    public T put(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        final CachedValue<T> previous;
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            final CachedValue<T> allocated = allocate(bytes, value);
+            previous = getIndex().put(key, allocated);
+            account(allocated, previous);
+        } finally {
+            lock.unlock();
+        }
+        compactIfDue();
+        return decode(previous);
+    }
+
+    @Override
+    public T putIfAbsent(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        final CachedValue<T> previous;
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            final CachedValue<T> allocated = allocate(bytes, value);
+            previous = getIndex().putIfAbsent(key, allocated);
+            if (previous == null) {
+                account(allocated, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return decode(previous);
+    }
+
+    @Override
+    public T remove(final Object key) {
+        final CachedValue<T> previous;
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            previous = getIndex().remove(key);
+            account(null, previous);
+        } finally {
+            lock.unlock();
+        }
+        return decode(previous);
+    }
+
+    @Override
+    public boolean remove(final Object key, final Object value) {
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            while (true) {
+                final CachedValue<T> current = getIndex().get(key);
+                if (current == null || !Objects.equals(decode(current), value)) {
+                    return false;
+                }
+                if (getIndex().remove(key, current)) {
+                    account(null, current);
+                    return true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(final String key, final T oldValue, final T newValue) {
+        final byte[] bytes = encode(newValue);
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            final CachedValue<T> replacement = allocate(bytes, newValue);
+            while (true) {
+                final CachedValue<T> current = getIndex().get(key);
+                if (current == null || !Objects.equals(decode(current), oldValue)) {
+                    return false;
+                }
+                if (getIndex().replace(key, current, replacement)) {
+                    account(replacement, current);
+                    return true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T replace(final String key, final T value) {
+        final byte[] bytes = encode(value);
+        final CachedValue<T> previous;
+        final Lock lock = this.arenaLock.readLock();
+        lock.lock();
+        try {
+            final CachedValue<T> replacement = allocate(bytes, value);
+            previous = getIndex().replace(key, replacement);
+            if (previous != null) {
+                account(replacement, previous);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return decode(previous);
+    }
+
+    /**
+     * Removes every value, replacing the direct memory they took up with a new arena.
+     */
+    @Override
+    public void clear() {
+        final Lock lock = this.arenaLock.writeLock();
+        lock.lock();
+        try {
+            getIndex().clear();
+            this.liveBytes.set(0L);
+            this.arena = new DirectArena(this.arena.getChunkSize());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the live values into a new arena, leaving the direct memory of the old one to be freed
+     * by the garbage collector. Writes are blocked while the map is compacted.
+     */
+    public void compact() {
+        final Lock lock = this.arenaLock.writeLock();
+        lock.lock();
+        try {
+            final DirectArena compacted = new DirectArena(this.arena.getChunkSize());
+            for (final Entry<String, CachedValue<T>> entry : getIndex().entrySet()) {
+                entry.setValue(compacted.allocate(((BufferValue<T>) entry.getValue()).slice()));
+            }
+            LOG.debug("Compacted off-heap values from {} to {} bytes.", this.arena.allocated(), compacted.allocated());
+            this.arena = compacted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every value. Their direct memory is freed once the garbage collector collects them.
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private byte[] encode(final T value) {
+        Objects.requireNonNull(value, "Values must not be null!");
+        try {
+            return getCodec().encode(value);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Could not encode value!", ioe);
+        }
+    }
+
+    /**
+     * Copies an encoded value into the arena. Callers hold the read lock, so the arena is not replaced meanwhile.
+     */
+    private CachedValue<T> allocate(final byte[] bytes, final T value) {
+        final BufferValue<T> allocated = this.arena.allocate(ByteBuffer.wrap(bytes));
+        allocated.cache(value, getCodec());
+        return allocated;
+    }
+
+    private void account(final CachedValue<T> added, final CachedValue<T> removed) {
+        final long delta = length(added) - length(removed);
+        if (delta != 0) {
+            this.liveBytes.addAndGet(delta);
+        }
+    }
+
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
+    private void compactIfDue() {
+        final DirectArena current = this.arena;
+        final long allocated = current.allocated();
+        if (allocated < (long) MIN_COMPACTION_CHUNKS * current.getChunkSize() || allocated <= 2 * this.liveBytes.get()) {
+            return;
+        }
+
+        final Lock lock = this.arenaLock.writeLock();
+        lock.lock();
+        try {
+            // Another writer may have compacted the map while this one was waiting for the lock.
+            if (this.arena == current) {
+                compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long length(final CachedValue<?> value) {
+        return value == null ? 0 : ((BufferValue<?>) value).length();
+    }
+}
@@ -0,0 +1,27 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import java.io.IOException;
+
+/**
+ * A value still sitting in the file it was loaded from, read again whenever it has to be decoded.
+ *
+ * @param <T> Type of the decoded value.
+ *
+ * @author attilagyongyosi
+ */
+final class RegionValue<T> extends CachedValue<T> {
+    private final FileSegment segment;
+    private final long offset;
+    private final int length;
+
+    RegionValue(final FileSegment segment, final long offset, final int length) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    byte[] bytes() throws IOException {
+        return this.segment.read(this.offset, this.length);
+    }
+}
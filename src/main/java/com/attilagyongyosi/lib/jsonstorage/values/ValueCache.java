@@ -0,0 +1,74 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the number of decoded values kept in memory.
+ *
+ * <p>Evicts with the CLOCK algorithm, an approximation of LRU: values are queued when they are
+ * decoded, and once the cache is full the oldest value is evicted unless it was read since the
+ * last sweep, in which case it is queued again. Reads only set a flag on the value and admissions
+ * only append to a lock-free queue, so neither ever blocks. Whichever thread finds the cache full
+ * evicts, unless another thread is already doing so.</p>
+ *
+ * @author attilagyongyosi
+ */
+final class ValueCache {
+    private final int capacity;
+    private final Queue<CachedValue<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Lock eviction = new ReentrantLock();
+
+    ValueCache(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of decoded values currently cached.
+     *
+     * @return the number of cached values
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Records a freshly decoded value, evicting others if the cache is full.
+     *
+     * @param value
+     *        the value that has just been decoded
+     */
+    void admit(final CachedValue<?> value) {
+        this.queue.offer(value);
+        if (this.size.incrementAndGet() > this.capacity) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        if (!this.eviction.tryLock()) {
+            return;
+        }
+
+        try {
+            while (this.size.get() > this.capacity) {
+                final CachedValue<?> oldest = this.queue.poll();
+                if (oldest == null) {
+                    return;
+                }
+                if (oldest.sweep()) {
+                    this.queue.offer(oldest);
+                } else {
+                    oldest.evict();
+                    this.size.decrementAndGet();
+                }
+            }
+        } finally {
+            this.eviction.unlock();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encodes and decodes the values of a map holding serialized values, and caches decoded ones.
+ *
+ * @param <T> Type of the decoded values.
+ *
+ * @author attilagyongyosi
+ */
+final class ValueCodec<T> {
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final ValueCache cache;
+
+    ValueCodec(final Class<T> type, final int cacheSize) {
+        this(JSONUtils.getMapper(), type, cacheSize);
+    }
+
+    /**
+     * @param mapper
+     *        the mapper encoding values as JSON, with the modules of the store
+     */
+    ValueCodec(final ObjectMapper mapper, final Class<T> type, final int cacheSize) {
+        this.reader = mapper.readerFor(type);
+        this.writer = mapper.writerFor(type).without(SerializationFeature.INDENT_OUTPUT);
+        this.cache = new ValueCache(cacheSize);
+    }
+
+    ValueCache getCache() {
+        return cache;
+    }
+
+    @SuppressWarnings("PMD.UseVarargs")
+    T decode(final byte[] bytes) throws IOException {
+        return this.reader.readValue(bytes);
+    }
+
+    T decode(final InputStream in) throws IOException {
+        return this.reader.readValue(in);
+    }
+
+    byte[] encode(final T value) throws IOException {
+        return this.writer.writeValueAsBytes(value);
+    }
+}
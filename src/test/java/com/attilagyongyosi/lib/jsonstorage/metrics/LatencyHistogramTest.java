@@ -0,0 +1,38 @@
+package com.attilagyongyosi.lib.jsonstorage.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long value = 0; value < 100_000; value++) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+            Assert.assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            Assert.assertTrue(bucket == 0 || value > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void reportsPercentilesWithinAnEighth() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        Assert.assertEquals(1_000L, histogram.getCount());
+        Assert.assertEquals(1_000_000L, histogram.getMax());
+        Assert.assertEquals(500_500.0, histogram.getMean(), 0.001);
+        Assert.assertEquals(500_000.0, histogram.getValueAt(0.5), 500_000 / 8.0);
+        Assert.assertEquals(990_000.0, histogram.getValueAt(0.99), 990_000 / 8.0);
+        Assert.assertEquals(1_000_000L, histogram.getValueAt(1.0));
+    }
+
+    @Test
+    public void isEmptyWithoutValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0L, histogram.getValueAt(0.99));
+        Assert.assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-async-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void appliesMutationBeforeItIsPersisted() throws Exception {
+        store = builder().journaled().groupCommit(1L, TimeUnit.HOURS, 2).build(TestModel.class);
+
+        final CompletableFuture<TestModel> stored = store.storeAsync("test1", TestData.MODEL1);
+        Assert.assertEquals(TestData.MODEL1, store.retrieve("test1"));
+        Assert.assertFalse(stored.isDone());
+
+        store.storeAsync("test2", TestData.MODEL2);
+        Assert.assertEquals(TestData.MODEL1, stored.get());
+        Assert.assertEquals(2L, builder().journaled().build(TestModel.class).size());
+    }
+
+    @Test
+    public void completesWithResultsOfMutations() throws Exception {
+        store = builder().journaled().asynchronous().build(TestModel.class);
+
+        Assert.assertEquals(TestData.MODEL1, store.storeAsync("test1", TestData.MODEL1).get());
+        Assert.assertEquals(TestData.MODEL1, store.removeAsync("test1").get());
+        Assert.assertNull(store.removeAsync("test1").get());
+        Assert.assertTrue(store.clearAsync().get());
+    }
+
+    @Test
+    public void coalescesPendingMutationsOfTheSameKey() throws Exception {
+        store = builder().journaled().groupCommit(1L, TimeUnit.HOURS, 10).build(TestModel.class);
+
+        final List<CompletableFuture<TestModel>> stored = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            stored.add(store.storeAsync("test1", TestData.MODEL1));
+        }
+        stored.add(store.storeAsync("test1", TestData.MODEL2));
+        CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])).get();
+
+        Assert.assertEquals(1, Files.readAllLines(journalPath()).size());
+        Assert.assertEquals(TestData.MODEL2, builder().journaled().build(TestModel.class).retrieve("test1"));
+    }
+
+    @Test
+    public void coalescesMutationsPrecedingClear() throws Exception {
+        store = builder().journaled().groupCommit(1L, TimeUnit.HOURS, 4).build(TestModel.class);
+
+        store.storeAsync("test1", TestData.MODEL1);
+        store.storeAsync("test2", TestData.MODEL1);
+        store.clearAsync();
+        store.storeAsync("test3", TestData.MODEL2).get();
+
+        final String journal = new String(Files.readAllBytes(journalPath()), "UTF-8");
+        Assert.assertFalse(journal.contains("test1"));
+        Assert.assertTrue(journal.contains("CLEAR"));
+
+        final JSONStore<TestModel> reopened = builder().journaled().build(TestModel.class);
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("test3"));
+    }
+
+    @Test
+    public void persistsRightAwayWithoutBackgroundThread() throws Exception {
+        store = builder().build(TestModel.class);
+
+        final CompletableFuture<Void> committed = store.batch()
+            .store("test1", TestData.MODEL1)
+            .store("test2", TestData.MODEL2)
+            .commitAsync();
+
+        Assert.assertTrue(committed.isDone());
+        Assert.assertEquals(2L, builder().build(TestModel.class).size());
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    private static JSONStoreBuilder<TestModel> builder() throws Exception {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME);
+    }
+
+    private static Path journalPath() {
+        return Journal.pathFor(Paths.get(LOCAL_DB_NAME));
+    }
+}
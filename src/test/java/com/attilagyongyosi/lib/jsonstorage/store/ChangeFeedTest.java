@@ -0,0 +1,119 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ChangeFeedTest {
+    private static final String LOCAL_DB_NAME = "local-changes-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void notifiesListeners() throws Exception {
+        final List<ChangeEvent<TestModel>> events = new ArrayList<>();
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().listener(events::add).build(TestModel.class);
+
+        store.store("first", model(1));
+        store.store("first", model(2));
+        store.remove("first");
+        store.remove("missing");
+        store.batch().store("second", model(3)).store("third", model(4)).commit();
+        store.clear();
+
+        Assert.assertEquals(6, events.size());
+        assertEvent(events.get(0), 1, ChangeEvent.Type.PUT, "first", null, 1);
+        assertEvent(events.get(1), 2, ChangeEvent.Type.PUT, "first", 1, 2);
+        assertEvent(events.get(2), 3, ChangeEvent.Type.REMOVE, "first", 2, null);
+        assertEvent(events.get(4), 5, ChangeEvent.Type.PUT, "third", null, 4);
+        assertEvent(events.get(5), 6, ChangeEvent.Type.CLEAR, null, null, null);
+    }
+
+    @Test
+    public void doesNotPublishReplayedMutations() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        store.store("first", model(1));
+        store.close();
+
+        final List<ChangeEvent<TestModel>> events = new ArrayList<>();
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().listener(events::add).build(TestModel.class);
+        Assert.assertTrue(events.isEmpty());
+
+        store.addListener(event -> {
+            throw new IllegalStateException("Listener failures must not fail mutations!");
+        });
+        store.store("second", model(2));
+        Assert.assertEquals(1, events.get(0).getSequence());
+    }
+
+    @Test
+    public void queuesEventsForSubscriptions() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        store.store("before", model(0));
+
+        try (Subscription<TestModel> subscription = store.subscribe(10)) {
+            Assert.assertNull(subscription.poll());
+            store.storeAsync("first", model(1));
+            store.remove("before");
+
+            Assert.assertEquals("first", subscription.poll(1, TimeUnit.SECONDS).getKey());
+            final ChangeEvent<TestModel> removal = subscription.poll();
+            Assert.assertEquals(ChangeEvent.Type.REMOVE, removal.getType());
+            Assert.assertEquals(0, removal.getOldValue().getId());
+            Assert.assertEquals(2, subscription.getLastSequence());
+            Assert.assertFalse(subscription.isOverflowed());
+        }
+    }
+
+    @Test
+    public void resumesOverflowedSubscriptions() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().changeHistory(100).build(TestModel.class);
+
+        final Subscription<TestModel> slow = store.subscribe(2);
+        for (int i = 0; i < 10; i++) {
+            store.store("model" + i, model(i));
+        }
+        Assert.assertTrue(slow.isOverflowed());
+        Assert.assertEquals(1, slow.poll().getSequence());
+
+        try (Subscription<TestModel> resumed = store.subscribe(slow.getLastSequence() + 1, 20)) {
+            for (int i = 1; i < 10; i++) {
+                Assert.assertEquals(i, resumed.poll().getNewValue().getId());
+            }
+            store.remove("model0");
+            Assert.assertEquals(11, resumed.poll().getSequence());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsResumingFromForgottenSequence() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).changeHistory(2).build(TestModel.class);
+        for (int i = 0; i < 5; i++) {
+            store.store("model" + i, model(i));
+        }
+        store.subscribe(2, 10);
+    }
+
+    @After
+    public void tearDown() {
+        Assert.assertTrue(store.destroy());
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).build();
+    }
+
+    private static void assertEvent(final ChangeEvent<TestModel> event, final long sequence, final ChangeEvent.Type type, final String key,
+                                    final Integer oldId, final Integer newId) {
+        Assert.assertEquals(sequence, event.getSequence());
+        Assert.assertEquals(type, event.getType());
+        Assert.assertEquals(key, event.getKey());
+        Assert.assertEquals(oldId, event.getOldValue() == null ? null : Integer.valueOf(event.getOldValue().getId()));
+        Assert.assertEquals(newId, event.getNewValue() == null ? null : Integer.valueOf(event.getNewValue().getId()));
+    }
+}
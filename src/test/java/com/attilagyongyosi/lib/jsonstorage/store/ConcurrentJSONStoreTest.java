@@ -0,0 +1,134 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-concurrent-db.db";
+    private static final String HOT_KEY = "hot";
+    private static final int WRITERS = 16;
+    private static final int READERS = 4;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void keepsEveryConcurrentWriteInJournalMode() throws Exception {
+        store = builder().journaled().build(TestModel.class);
+        stress(200);
+
+        assertPersisted(builder().journaled().build(TestModel.class), 200);
+    }
+
+    @Test
+    public void keepsEveryConcurrentWriteWithCompaction() throws Exception {
+        store = builder().journaled().compactionThreshold(4096L).build(TestModel.class);
+        stress(100);
+        store.compact();
+
+        assertPersisted(builder().journaled().build(TestModel.class), 100);
+    }
+
+    @Test
+    public void keepsEveryConcurrentWriteWithGroupCommit() throws Exception {
+        store = builder().journaled().groupCommit(1L, TimeUnit.MILLISECONDS, 64).build(TestModel.class);
+        stress(200);
+
+        assertPersisted(builder().journaled().build(TestModel.class), 200);
+    }
+
+    @Test
+    public void keepsEveryConcurrentWriteWhenRewritingFile() throws Exception {
+        store = builder().build(TestModel.class);
+        stress(10);
+
+        assertPersisted(builder().build(TestModel.class), 10);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    /**
+     * Every writer stores its own keys and overwrites a shared one, while readers keep
+     * checking that keys written once never disappear.
+     */
+    private void stress(final int writesPerWriter) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+
+        final List<Callable<Void>> readers = new ArrayList<>();
+        for (int reader = 0; reader < READERS; reader++) {
+            readers.add(() -> {
+                while (writing.get()) {
+                    final TestModel first = store.retrieve("0-0");
+                    if (first != null) {
+                        Assert.assertEquals(0, first.getId());
+                    }
+                    Assert.assertTrue(store.size() <= WRITERS * writesPerWriter + 1);
+                    store.retrieveAll().forEach(Assert::assertNotNull);
+                }
+                return null;
+            });
+        }
+        final List<Future<Void>> reads = new ArrayList<>();
+        for (final Callable<Void> reader : readers) {
+            reads.add(executor.submit(reader));
+        }
+
+        final List<Callable<Void>> writers = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final int id = writer;
+            writers.add(() -> {
+                for (int i = 0; i < writesPerWriter; i++) {
+                    store.store(id + "-" + i, model(i));
+                    store.store(HOT_KEY, model(id));
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (final Future<Void> result : executor.invokeAll(writers)) {
+                result.get();
+            }
+        } finally {
+            writing.set(false);
+        }
+        for (final Future<Void> read : reads) {
+            read.get();
+        }
+        executor.shutdown();
+    }
+
+    private void assertPersisted(final JSONStore<TestModel> reopened, final int writesPerWriter) {
+        Assert.assertEquals(WRITERS * writesPerWriter + 1, store.size());
+        Assert.assertEquals(store.size(), reopened.size());
+        for (int writer = 0; writer < WRITERS; writer++) {
+            for (int i = 0; i < writesPerWriter; i++) {
+                Assert.assertEquals(model(i), store.retrieve(writer + "-" + i));
+                Assert.assertEquals(model(i), reopened.retrieve(writer + "-" + i));
+            }
+        }
+        Assert.assertEquals(store.retrieve(HOT_KEY), reopened.retrieve(HOT_KEY));
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).active(true).property("stress").build();
+    }
+
+    private static JSONStoreBuilder<TestModel> builder() throws Exception {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME);
+    }
+}
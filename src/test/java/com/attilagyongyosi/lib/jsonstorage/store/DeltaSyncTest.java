@@ -0,0 +1,150 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.fasterxml.jackson.databind.JavaType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class DeltaSyncTest {
+    private static final String LOCAL_DB_NAME = "local-delta-db.db";
+    private static final Path FILE = Paths.get(LOCAL_DB_NAME);
+    private static final int MODELS = 200;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void patchesMutatedEntriesInPlace() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync(), MODELS);
+        final long size = Files.size(FILE);
+
+        store.store("model7", TestModel.builder().id(8).build());
+        Assert.assertEquals(size, Files.size(FILE));
+        store.store("model8", TestModel.builder().id(-7).build());
+        Assert.assertTrue(Files.size(FILE) > size);
+
+        final Map<String, TestModel> parsed = parse();
+        Assert.assertEquals(MODELS, parsed.size());
+        Assert.assertEquals(8, parsed.get("model7").getId());
+        Assert.assertEquals(-7, parsed.get("model8").getId());
+    }
+
+    @Test
+    public void keepsFileValidAcrossRemovalsAndAdditions() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).format(StoreFormat.JSON).deltaSync(0.9), MODELS);
+        for (int i = 0; i < MODELS; i += 2) {
+            store.remove("model" + i);
+        }
+        store.batch().store("added", TestModel.builder().id(-1).build()).remove("model1").commit();
+        store.clear();
+        store.store("model3", TestModel.builder().id(3).build());
+        store.remove("model3");
+        store.store("last", TestModel.builder().id(-2).build());
+
+        Assert.assertEquals(1, parse().size());
+        store.close();
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync().build(TestModel.class);
+        Assert.assertEquals(-2, store.retrieve("last").getId());
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME + DeltaSync.PATCH_SUFFIX)));
+    }
+
+    @Test
+    public void rewritesFragmentedFile() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync(0.2), MODELS);
+        final long size = Files.size(FILE);
+        for (int i = 0; i < MODELS; i++) {
+            store.store("model" + i, TestModel.builder().id(i).property("grown" + i).build());
+        }
+
+        Assert.assertTrue(Files.size(FILE) < size * 3);
+        final Map<String, TestModel> parsed = parse();
+        Assert.assertEquals(MODELS, parsed.size());
+        Assert.assertEquals("grown5", parsed.get("model5").getProperties().iterator().next());
+    }
+
+    @Test
+    public void appliesCompleteRedoLog() throws Exception {
+        Files.write(FILE, "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        writeRedoLog(true);
+        Assert.assertTrue(DeltaSync.recover(FILE));
+        Assert.assertEquals("{\"a\":2}", new String(Files.readAllBytes(FILE), StandardCharsets.UTF_8));
+
+        writeRedoLog(false);
+        Files.write(FILE, "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(DeltaSync.recover(FILE));
+        Assert.assertEquals("{\"a\":1}", new String(Files.readAllBytes(FILE), StandardCharsets.UTF_8));
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME + DeltaSync.PATCH_SUFFIX)));
+    }
+
+    @Test
+    public void rewriteDiscardsRedoLogOfFailedPatch() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync(), MODELS);
+        final Path aside = Paths.get(LOCAL_DB_NAME + "-aside");
+        Files.move(FILE, aside);
+        try {
+            store.store("model7", TestModel.builder().id(-7).build());
+            Assert.fail("Patching a missing file should fail.");
+        } catch (final StorageException expected) {
+            Assert.assertTrue(Files.exists(Paths.get(LOCAL_DB_NAME + DeltaSync.PATCH_SUFFIX)));
+        } finally {
+            Files.move(aside, FILE);
+        }
+
+        final Batch<TestModel> batch = store.batch();
+        for (int i = 0; i < MODELS; i += 2) {
+            batch.remove("model" + i);
+        }
+        batch.commit();
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME + DeltaSync.PATCH_SUFFIX)));
+
+        store.close();
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync().build(TestModel.class);
+        Assert.assertEquals(MODELS / 2, store.size());
+        Assert.assertEquals(-7, store.retrieve("model7").getId());
+        Assert.assertEquals(MODELS / 2, parse().size());
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void rejectsBinaryFormats() throws Exception {
+        new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).format(StoreFormat.SMILE).deltaSync().build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            Assert.assertTrue(store.destroy());
+        }
+        Assert.assertFalse(Files.exists(FILE) && store != null);
+        Files.deleteIfExists(FILE);
+    }
+
+    private static Map<String, TestModel> parse() throws Exception {
+        final JavaType type = JSONUtils.getMapper().getTypeFactory().constructMapType(Map.class, String.class, TestModel.class);
+        return JSONUtils.parse(FILE, type);
+    }
+
+    private static void writeRedoLog(final boolean complete) throws Exception {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(log);
+        out.writeLong(5);
+        out.writeInt(1);
+        out.write('2');
+        final CRC32 crc = new CRC32();
+        crc.update(log.toByteArray());
+        out.writeLong(complete ? crc.getValue() : crc.getValue() + 1);
+        Files.write(Paths.get(LOCAL_DB_NAME + DeltaSync.PATCH_SUFFIX), log.toByteArray());
+    }
+}
@@ -0,0 +1,102 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DurabilityTest {
+    private static final String LOCAL_DB_NAME = "local-durability-db.db";
+    private static final int MODELS = 100;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void keepsBufferedJournalOnClose() throws Exception {
+        assertReloaded(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().durability(Durability.OS_BUFFERED));
+    }
+
+    @Test
+    public void keepsBufferedRewritesOnClose() throws Exception {
+        assertReloaded(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).durability(Durability.OS_BUFFERED));
+    }
+
+    @Test
+    public void keepsBufferedPatchesOnClose() throws Exception {
+        assertReloaded(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).deltaSync().durability(Durability.OS_BUFFERED));
+    }
+
+    @Test
+    public void flushesPeriodically() throws Exception {
+        final AtomicInteger forces = new AtomicInteger();
+        final CountDownLatch forced = new CountDownLatch(1);
+        final StoreMetrics metrics = new StoreMetrics() {
+            @Override
+            public void record(final Operation operation, final long nanos) {
+                if (operation == Operation.FSYNC) {
+                    forces.incrementAndGet();
+                    forced.countDown();
+                }
+            }
+
+            @Override
+            public void recordBytesWritten(final long bytes) {
+                // not measured
+            }
+        };
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME)
+            .durability(Durability.periodic(10, TimeUnit.MILLISECONDS))
+            .metrics(metrics)
+            .build(TestModel.class);
+
+        store.store("model1", TestModel.builder().id(1).build());
+        Assert.assertTrue(forced.await(5, TimeUnit.SECONDS));
+        store.close();
+        final int closed = forces.get();
+        Thread.sleep(50);
+        Assert.assertEquals(closed, forces.get());
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        Assert.assertEquals(1, store.retrieve("model1").getId());
+    }
+
+    @Test
+    public void describesLevels() {
+        final Durability periodic = Durability.periodic(2, TimeUnit.SECONDS);
+        Assert.assertEquals(Durability.Level.PERIODIC, periodic.getLevel());
+        Assert.assertEquals(2000, periodic.getInterval(TimeUnit.MILLISECONDS));
+        Assert.assertTrue(Durability.SYNC_EACH_WRITE.isSynchronous());
+        Assert.assertFalse(periodic.isSynchronous());
+        Assert.assertEquals("OS_BUFFERED", Durability.OS_BUFFERED.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() {
+        Durability.periodic(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            Assert.assertTrue(store.destroy());
+        }
+    }
+
+    private void assertReloaded(final JSONStoreBuilder<TestModel> builder) throws Exception {
+        store = builder.build(TestModel.class);
+        for (int i = 0; i < MODELS; i++) {
+            store.store("model" + i, TestModel.builder().id(i).build());
+        }
+        store.remove("model0");
+        store.close();
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        Assert.assertEquals(MODELS - 1, store.size());
+        Assert.assertEquals(MODELS - 1, store.retrieve("model" + (MODELS - 1)).getId());
+    }
+}
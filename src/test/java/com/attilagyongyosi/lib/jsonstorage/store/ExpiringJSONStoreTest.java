@@ -0,0 +1,150 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExpiringJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-expiring-db.db";
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void expiresEntriesAfterTheirTimeToLive() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().expireAfterWrite(200, TimeUnit.MILLISECONDS)
+            .build(TestModel.class);
+        final AtomicInteger evicted = new AtomicInteger();
+        store.addListener(event -> {
+            if (event.getType() == ChangeEvent.Type.REMOVE) {
+                evicted.incrementAndGet();
+            }
+        });
+        store.store("short", model(1), 1, TimeUnit.MILLISECONDS);
+        store.store("default", model(2));
+        Thread.sleep(5);
+
+        Assert.assertNull(store.retrieve("short"));
+        Assert.assertEquals(2, store.retrieve("default").getId());
+        awaitSize(0);
+        final long deadline = System.nanoTime() + TIMEOUT;
+        while (evicted.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        store.close();
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void restoresDeadlinesWhenReopened() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).expiring().build(TestModel.class);
+        store.store("expired", model(1), 1, TimeUnit.MILLISECONDS);
+        store.store("expiring", model(2), 500, TimeUnit.MILLISECONDS);
+        store.store("renewed", model(3), 1, TimeUnit.MILLISECONDS);
+        store.store("renewed", model(4));
+        store.store("kept", model(5));
+        store.close();
+        Thread.sleep(5);
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).expiring().build(TestModel.class);
+        Assert.assertNull(store.retrieve("expired"));
+        Assert.assertEquals(2, store.retrieve("expiring").getId());
+        awaitSize(2);
+        Assert.assertNull(store.retrieve("expiring"));
+        Assert.assertEquals(4, store.retrieve("renewed").getId());
+        Assert.assertEquals(5, store.retrieve("kept").getId());
+    }
+
+    @Test
+    public void keepsEntriesWrittenAgain() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).expiring().build(TestModel.class);
+        store.store("renewed", model(1), 150, TimeUnit.MILLISECONDS);
+        store.store("renewed", model(2));
+        store.store("expiring", model(3), 150, TimeUnit.MILLISECONDS);
+
+        awaitSize(1);
+        Assert.assertEquals(2, store.retrieve("renewed").getId());
+    }
+
+    @Test
+    public void skipsExpiredEntriesBeforeTheyAreEvicted() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).expiring().index("active").build(TestModel.class);
+        store.store("short", model(1), 1, TimeUnit.MILLISECONDS);
+        store.store("kept", model(2));
+        Thread.sleep(5);
+
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(1, store.retrieveAll().size());
+        Assert.assertEquals(2, store.retrieveAll().iterator().next().getId());
+        Assert.assertEquals(1, store.stream().count());
+        Assert.assertEquals(1, store.parallelStream().count());
+        Assert.assertEquals(1, store.query(model -> true).count());
+        Assert.assertEquals(1, store.query("active").equalTo(false).size());
+        try (Snapshot<TestModel> snapshot = store.snapshot()) {
+            Assert.assertNull(snapshot.retrieve("short"));
+            Assert.assertEquals(1, snapshot.stream().count());
+        }
+    }
+
+    @Test
+    public void evictsOldestEntriesOverLimit() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().maxEntries(10).build(TestModel.class);
+        for (int i = 0; i < 25; i++) {
+            store.store("model" + i, model(i));
+        }
+        store.store("model0", model(0));
+
+        awaitSize(10);
+        Assert.assertEquals(0, store.retrieve("model0").getId());
+        Assert.assertNull(store.retrieve("model1"));
+        Assert.assertEquals(24, store.retrieve("model24").getId());
+    }
+
+    @Test
+    public void evictsEntriesOverSizeLimit() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).maxBytes(2000).build(TestModel.class);
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            models.put("model" + i, model(i));
+        }
+        store.storeAll(models);
+
+        final long deadline = System.nanoTime() + TIMEOUT;
+        while (store.size() == models.size() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(store.size() < models.size());
+        Assert.assertTrue(store.size() > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTimeToLiveOnStoresThatDoNotExpire() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        store.store("model", model(1), 1, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        Assert.assertTrue(store.destroy());
+    }
+
+    private void awaitSize(final long size) throws InterruptedException {
+        final long deadline = System.nanoTime() + TIMEOUT;
+        while (store.size() != size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(size, store.size());
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).build();
+    }
+}
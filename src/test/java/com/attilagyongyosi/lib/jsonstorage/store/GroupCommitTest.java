@@ -0,0 +1,89 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitTest {
+    private static final String LOCAL_DB_NAME = "local-group-commit-db.db";
+    private static final int WRITERS = 8;
+    private static final int WRITES_PER_WRITER = 50;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void persistsEveryConcurrentWrite() throws Exception {
+        store = builder().build(TestModel.class);
+        writeConcurrently();
+
+        Assert.assertEquals(WRITERS * WRITES_PER_WRITER, store.size());
+        Assert.assertEquals(WRITERS * WRITES_PER_WRITER, builder().build(TestModel.class).size());
+    }
+
+    @Test
+    public void persistsEveryConcurrentWriteToJournal() throws Exception {
+        store = builder().journaled().build(TestModel.class);
+        writeConcurrently();
+
+        Assert.assertEquals(WRITERS * WRITES_PER_WRITER, builder().journaled().build(TestModel.class).size());
+    }
+
+    @Test
+    public void flushesPendingWritesOnDestroy() throws Exception {
+        store = JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .journaled()
+            .groupCommit(1L, TimeUnit.HOURS, Integer.MAX_VALUE)
+            .build(TestModel.class);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<TestModel> stored = executor.submit(() -> store.store("test1", TestData.MODEL1));
+        while (store.size() == 0L) {
+            Thread.sleep(1L);
+        }
+
+        store.destroy();
+        Assert.assertEquals(TestData.MODEL1, stored.get());
+        executor.shutdown();
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    private void writeConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        final List<Callable<Void>> writers = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            final int id = writer;
+            writers.add(() -> {
+                for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                    store.store(id + "-" + i, TestData.MODEL2);
+                }
+                return null;
+            });
+        }
+
+        for (final Future<Void> result : executor.invokeAll(writers)) {
+            result.get();
+        }
+        executor.shutdown();
+    }
+
+    private static JSONStoreBuilder<TestModel> builder() throws Exception {
+        return JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .groupCommit(2L, TimeUnit.MILLISECONDS, 64);
+    }
+}
@@ -0,0 +1,111 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class IndexedJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-indexed-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = open();
+    }
+
+    @Test
+    public void looksUpEqualValues() throws Exception {
+        store.store("model1", TestData.MODEL1);
+        store.store("model2", TestData.MODEL2);
+
+        Assert.assertEquals(Collections.singletonList(TestData.MODEL2), store.query("active").equalTo(true));
+        Assert.assertEquals(Collections.singletonList(TestData.MODEL1), store.query("relatives").equalTo(2));
+        Assert.assertEquals(Collections.emptyList(), store.query("id").equalTo(3));
+    }
+
+    @Test
+    public void looksUpRanges() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.store("model" + i, TestModel.builder().id(i).build());
+        }
+
+        Assert.assertEquals(Arrays.asList(model(3), model(4), model(5)), store.query("id").range(3, 5));
+        Assert.assertEquals(Arrays.asList(model(8), model(9)), store.query("id").range(8, null));
+        Assert.assertEquals(Arrays.asList(model(0), model(1)), store.query("id").range(null, 1));
+    }
+
+    @Test
+    public void followsMutations() throws Exception {
+        store.store("model", TestData.MODEL1);
+        store.store("model", TestData.MODEL2);
+        Assert.assertEquals(Collections.emptyList(), store.query("id").equalTo(1));
+        Assert.assertEquals(Collections.singletonList(TestData.MODEL2), store.query("id").equalTo(4));
+
+        store.remove("model");
+        Assert.assertEquals(Collections.emptyList(), store.query("id").equalTo(4));
+
+        store.batch().store("model1", TestData.MODEL1).store("model2", TestData.MODEL2).commit();
+        store.clear();
+        Assert.assertEquals(Collections.emptyList(), store.query("id").range(null, null));
+    }
+
+    @Test
+    public void followsObjectsMutatedInPlace() throws Exception {
+        store.store("model", TestModel.builder().id(1).build());
+
+        final TestModel model = store.retrieve("model");
+        model.setActive(true);
+        store.store("model", model);
+
+        Assert.assertEquals(Collections.emptyList(), store.query("active").equalTo(false));
+        Assert.assertEquals(Collections.singletonList(model), store.query("active").equalTo(true));
+    }
+
+    @Test
+    public void rebuildsIndexesOnLoad() throws Exception {
+        store.store("model1", TestData.MODEL1);
+        store.store("model2", TestData.MODEL2);
+        store.remove("model1");
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(Collections.singletonList(TestData.MODEL2), reopened.query("id").range(null, null));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void failsToIndexUnknownProperty() throws Exception {
+        JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).index("unknown").build(TestModel.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsToQueryUnknownIndex() {
+        store.query("unknown");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).build();
+    }
+
+    private static JSONStore<TestModel> open() throws StoreCreationException {
+        return new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled()
+            .index("id")
+            .index("active")
+            .index("relatives", model -> model.getRelatives().size())
+            .build(TestModel.class);
+    }
+}
@@ -0,0 +1,126 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class JSONDatabaseTest {
+    private static final String LOCAL_DB_DIRECTORY = "local-database";
+    private static final int MODELS = 200;
+
+    private JSONDatabase database;
+
+    @Test
+    public void persistsCollectionsThroughSharedJournal() throws Exception {
+        database = open();
+        database.collection("models", TestModel.class).store("model1", model(1));
+        database.collection("archive", TestModel.class).batch().store("model2", model(2)).remove("model3").commit();
+        database.collection("models", TestModel.class).remove("missing");
+
+        Assert.assertEquals(Arrays.asList("models", "archive"), new ArrayList<>(database.collections()));
+        Assert.assertTrue(Files.size(Paths.get(LOCAL_DB_DIRECTORY, JSONDatabase.JOURNAL_NAME)) > 0);
+        database.close();
+
+        database = open();
+        Assert.assertEquals(1, database.collection("models", TestModel.class).retrieve("model1").getId());
+        Assert.assertEquals(2, database.collection("archive", TestModel.class).retrieve("model2").getId());
+        Assert.assertNull(database.collection("archive", TestModel.class).retrieve("model1"));
+    }
+
+    @Test
+    public void commitsConcurrentWritesOfCollectionsTogether() throws Exception {
+        database = JSONDatabaseBuilder.builder().directory(LOCAL_DB_DIRECTORY)
+            .groupCommit(1, TimeUnit.MILLISECONDS, 64)
+            .collection("models", TestModel.class)
+            .collection("archive", TestModel.class)
+            .build();
+
+        final List<CompletableFuture<?>> writes = new ArrayList<>();
+        for (int i = 0; i < MODELS; i++) {
+            writes.add(database.collection(i % 2 == 0 ? "models" : "archive", TestModel.class).storeAsync("model" + i, model(i)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        database.close();
+
+        database = open();
+        Assert.assertEquals(MODELS / 2, database.collection("models", TestModel.class).size());
+        Assert.assertEquals(MODELS / 2, database.collection("archive", TestModel.class).size());
+        Assert.assertEquals(MODELS - 1, database.collection("archive", TestModel.class).retrieve("model" + (MODELS - 1)).getId());
+    }
+
+    @Test
+    public void compactsJournalIntoCollectionFiles() throws Exception {
+        database = open();
+        for (int i = 0; i < MODELS; i++) {
+            database.collection("models", TestModel.class).store("model" + i, model(i));
+        }
+        database.compact();
+        Assert.assertEquals(0, Files.size(Paths.get(LOCAL_DB_DIRECTORY, JSONDatabase.JOURNAL_NAME)));
+        database.close();
+
+        database = open();
+        Assert.assertEquals(MODELS, database.collection("models", TestModel.class).size());
+        Assert.assertEquals(0, database.collection("archive", TestModel.class).size());
+    }
+
+    @Test
+    public void compactsInBackgroundPastThreshold() throws Exception {
+        database = JSONDatabaseBuilder.builder().directory(LOCAL_DB_DIRECTORY)
+            .compactionThreshold(4096)
+            .collection("models", TestModel.class)
+            .build();
+        for (int i = 0; i < MODELS; i++) {
+            database.collection("models", TestModel.class).store("model" + i, model(i));
+        }
+        database.close();
+
+        Assert.assertTrue(Files.size(Paths.get(LOCAL_DB_DIRECTORY, JSONDatabase.JOURNAL_NAME)) < 4096);
+        database = open();
+        Assert.assertEquals(MODELS, database.collection("models", TestModel.class).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownCollection() throws Exception {
+        database = open();
+        database.collection("unknown", TestModel.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCollectionOfOtherType() throws Exception {
+        database = open();
+        database.collection("models", String.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCollectionName() {
+        JSONDatabaseBuilder.builder().collection("../models", TestModel.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (database != null) {
+            Assert.assertTrue(database.destroy());
+        }
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_DIRECTORY)));
+    }
+
+    private static JSONDatabase open() throws Exception {
+        return JSONDatabaseBuilder.builder().directory(LOCAL_DB_DIRECTORY)
+            .collection("models", TestModel.class, builder -> builder.index("active"))
+            .collection("archive", TestModel.class)
+            .build();
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).active(id % 2 == 0).build();
+    }
+}
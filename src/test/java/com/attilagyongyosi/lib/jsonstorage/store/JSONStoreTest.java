@@ -12,9 +12,12 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 public class JSONStoreTest {
     private static final String LOCAL_DB_NAME = "local-db.db";
@@ -120,6 +123,21 @@ public class JSONStoreTest {
                 .build(TestModel.class);
     }
 
+    @Test(expected = StoreCreationException.class)
+    public void failsWhenOpeningDbWithoutRootObject() throws Exception {
+        Files.write(Paths.get(LOCAL_DB_NAME), "[]".getBytes(StandardCharsets.UTF_8));
+        reopen();
+    }
+
+    @Test
+    public void skipsNullValuesWhenOpening() throws Exception {
+        Files.write(Paths.get(LOCAL_DB_NAME), "{ \"test1\": null, \"test2\": { \"id\": 4 } }".getBytes(StandardCharsets.UTF_8));
+
+        final JSONStore<TestModel> reopened = reopen();
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(4, reopened.retrieve("test2").getId());
+    }
+
     @Test(expected = StoreCreationException.class)
     public void createFailsWhenStoreCanNotBeAccessed() throws StoreCreationException, IOException {
         RandomAccessFile randomAccessFile = new RandomAccessFile(EXISTING_DB_NAME, "rw");
@@ -142,6 +160,35 @@ public class JSONStoreTest {
         store.clear();
     }
 
+    @Test
+    public void canStoreAll() throws Exception {
+        final Map<String, TestModel> models = new HashMap<>();
+        models.put("test3", TestData.MODEL1);
+        models.put("test4", TestData.MODEL2);
+
+        store.storeAll(models);
+        Assert.assertEquals(4L, store.size());
+        Assert.assertEquals(TestData.MODEL2, reopen().retrieve("test4"));
+    }
+
+    @Test
+    public void canCommitBatch() throws Exception {
+        final Batch<TestModel> batch = store.batch()
+            .remove("test1")
+            .store("test3", TestData.MODEL1)
+            .store("test2", TestData.MODEL1);
+        Assert.assertEquals(TestData.MODEL2, store.retrieve("test2"));
+
+        batch.commit();
+        Assert.assertEquals(0, batch.size());
+
+        final JSONStore<TestModel> reopened = reopen();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertNull(reopened.retrieve("test1"));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("test2"));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("test3"));
+    }
+
     @Test
     public void canClear() throws Exception {
         store.clear();
@@ -158,6 +205,10 @@ public class JSONStoreTest {
         store.destroy();
     }
 
+    private JSONStore<TestModel> reopen() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).build(TestModel.class);
+    }
+
     private void createStoreAndCheck(final String fileName) throws StoreCreationException {
         JSONStore<String> outsideStore = JSONStoreBuilder.builder()
             .path(fileName)
@@ -0,0 +1,186 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.journal.Journal;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class JournaledJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-journaled-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = open();
+        store.store("test1", TestData.MODEL1);
+        store.store("test2", TestData.MODEL2);
+    }
+
+    @Test
+    public void doesNotRewriteBackingFile() throws Exception {
+        Assert.assertEquals(0L, Files.size(Paths.get(LOCAL_DB_NAME)));
+        Assert.assertTrue(Files.size(journalPath()) > 0L);
+    }
+
+    @Test
+    public void replaysJournalOnCreate() throws Exception {
+        store.remove("test1");
+        store.store("test3", TestData.MODEL1);
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertNull(reopened.retrieve("test1"));
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("test2"));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("test3"));
+    }
+
+    @Test
+    public void closeKeepsBackingFileAndJournal() throws Exception {
+        store.close();
+        Assert.assertTrue(Files.exists(journalPath()));
+
+        store = open();
+        Assert.assertEquals(2L, store.size());
+        Assert.assertEquals(TestData.MODEL1, store.retrieve("test1"));
+    }
+
+    @Test
+    public void replaysClear() throws Exception {
+        store.clear();
+        store.store("test3", TestData.MODEL2);
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("test3"));
+    }
+
+    @Test
+    public void discardsIncompleteLastEntry() throws Exception {
+        final long validSize = Files.size(journalPath());
+        Files.write(journalPath(), "{\"op\":\"PUT\",\"key\":\"te".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertEquals(validSize, Files.size(journalPath()));
+
+        reopened.store("test3", TestData.MODEL1);
+        Assert.assertEquals(TestData.MODEL1, open().retrieve("test3"));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void failsOnCorruptEntry() throws Exception {
+        final byte[] journal = Files.readAllBytes(journalPath());
+        final byte[] corrupt = "{\"op\":\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(journalPath(), corrupt);
+        Files.write(journalPath(), journal, StandardOpenOption.APPEND);
+
+        open();
+    }
+
+    @Test
+    public void appendsBatchAsSingleEntry() throws Exception {
+        final long sizeBefore = Files.readAllLines(journalPath()).size();
+        store.batch()
+            .clear()
+            .store("test3", TestData.MODEL1)
+            .commit();
+
+        Assert.assertEquals(sizeBefore + 1, Files.readAllLines(journalPath()).size());
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("test3"));
+    }
+
+    @Test
+    public void discardsIncompleteBatch() throws Exception {
+        store.batch()
+            .clear()
+            .store("test3", TestData.MODEL1)
+            .commit();
+        final byte[] journal = Files.readAllBytes(journalPath());
+        Files.write(journalPath(), Arrays.copyOf(journal, journal.length - 10));
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertNull(reopened.retrieve("test3"));
+    }
+
+    @Test
+    public void compactWritesSnapshotAndTruncatesJournal() throws Exception {
+        store.compact();
+
+        Assert.assertEquals(0L, Files.size(journalPath()));
+        Assert.assertTrue(Files.size(Paths.get(LOCAL_DB_NAME)) > 0L);
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("test1"));
+    }
+
+    @Test
+    public void compactsInBackgroundWhenThresholdIsReached() throws Exception {
+        store.destroy();
+        store = JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .journaled()
+            .compactionThreshold(1L)
+            .build(TestModel.class);
+
+        for (int i = 0; i < 50; i++) {
+            store.store("model" + i, TestData.MODEL2);
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (Files.size(Paths.get(LOCAL_DB_NAME)) == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        store.compact();
+
+        Assert.assertTrue(Files.size(Paths.get(LOCAL_DB_NAME)) > 0L);
+        Assert.assertEquals(50L, open().size());
+    }
+
+    @Test
+    public void replaysRotatedJournalOfUnfinishedCompaction() throws Exception {
+        final Path rotated = Paths.get(journalPath().toString().concat("-rotated"));
+        Files.move(journalPath(), rotated);
+
+        final JSONStore<TestModel> reopened = open();
+        reopened.store("test3", TestData.MODEL1);
+        Assert.assertEquals(3L, reopened.size());
+        Assert.assertEquals(3L, open().size());
+
+        reopened.compact();
+        Assert.assertFalse(Files.exists(rotated));
+        Assert.assertEquals(3L, open().size());
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    private JSONStore<TestModel> open() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .journaled()
+            .build(TestModel.class);
+    }
+
+    private static Path journalPath() {
+        return Journal.pathFor(Paths.get(LOCAL_DB_NAME));
+    }
+}
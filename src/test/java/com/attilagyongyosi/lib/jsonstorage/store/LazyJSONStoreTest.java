@@ -0,0 +1,79 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-lazy-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        for (int i = 0; i < 20; i++) {
+            store.store("model" + i, i % 2 == 0 ? TestData.MODEL1 : TestData.MODEL2);
+        }
+        store.compact();
+    }
+
+    @Test
+    public void retrievesValuesOfSnapshot() throws Exception {
+        final JSONStore<TestModel> lazy = open();
+
+        Assert.assertEquals(20L, lazy.size());
+        Assert.assertEquals(TestData.MODEL1, lazy.retrieve("model0"));
+        Assert.assertEquals(TestData.MODEL2, lazy.retrieve("model19"));
+        Assert.assertEquals(20, lazy.retrieveAll().size());
+    }
+
+    @Test
+    public void replaysJournalOverSnapshot() throws Exception {
+        store.remove("model0");
+        store.store("model1", TestData.MODEL1);
+
+        final JSONStore<TestModel> lazy = open();
+        Assert.assertEquals(19L, lazy.size());
+        Assert.assertNull(lazy.retrieve("model0"));
+        Assert.assertEquals(TestData.MODEL1, lazy.retrieve("model1"));
+    }
+
+    @Test
+    public void compactsWithoutLosingValues() throws Exception {
+        final JSONStore<TestModel> lazy = open();
+        lazy.store("model20", TestData.MODEL1);
+        lazy.compact();
+        lazy.store("model21", TestData.MODEL2);
+
+        Assert.assertEquals(TestData.MODEL2, lazy.retrieve("model3"));
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(22L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model3"));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model20"));
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model21"));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void requiresJournal() throws Exception {
+        JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).lazy(4).build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    private JSONStore<TestModel> open() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .journaled()
+            .lazy(4)
+            .build(TestModel.class);
+    }
+}
@@ -0,0 +1,97 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MappedJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-mapped-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = open();
+    }
+
+    @Test
+    public void persistsMutations() throws Exception {
+        store.store("model1", TestData.MODEL1);
+        store.store("model2", TestData.MODEL2);
+        store.store("model1", TestData.MODEL2);
+        store.remove("model2");
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model1"));
+    }
+
+    @Test
+    public void persistsBatchesAndClear() throws Exception {
+        store.store("model0", TestData.MODEL1);
+        store.clear();
+
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            models.put("model" + i, i % 2 == 0 ? TestData.MODEL1 : TestData.MODEL2);
+        }
+        store.storeAll(models);
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(10L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model9"));
+    }
+
+    @Test
+    public void persistsAsynchronousMutations() throws Exception {
+        store.destroy();
+        store = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).mapped(4).asynchronous().build(TestModel.class);
+        store.storeAsync("model1", TestData.MODEL1);
+        store.storeAsync("model2", TestData.MODEL2).get();
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(2L, reopened.size());
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model1"));
+    }
+
+    @Test
+    public void compactsStaleRecords() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            store.store("model", i % 2 == 0 ? TestData.MODEL1 : TestData.MODEL2);
+        }
+        store.compact();
+
+        final JSONStore<TestModel> reopened = open();
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model"));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void failsToOpenJsonFile() throws Exception {
+        JSONStoreBuilder.<TestModel>builder().path("db/test/valid-db.db").mapped(4).build(TestModel.class);
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void cannotBeJournaled() throws Exception {
+        JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled().mapped(4).build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+
+    private static JSONStore<TestModel> open() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).mapped(4).build(TestModel.class);
+    }
+}
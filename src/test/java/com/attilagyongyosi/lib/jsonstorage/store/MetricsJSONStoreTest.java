@@ -0,0 +1,65 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.metrics.MetricsRegistry;
+import com.attilagyongyosi.lib.jsonstorage.metrics.StoreMetrics.Operation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class MetricsJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-metrics-db.db";
+
+    private MetricsRegistry metrics;
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new MetricsRegistry();
+        store = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).metrics(metrics).jmx().build(TestModel.class);
+    }
+
+    @Test
+    public void measuresOperations() throws Exception {
+        store.store("model1", TestData.MODEL1);
+        store.store("model2", TestData.MODEL2);
+        store.retrieve("model1");
+        store.remove("model2");
+
+        Assert.assertEquals(1L, metrics.getHistogram(Operation.LOAD).getCount());
+        Assert.assertEquals(2L, metrics.getHistogram(Operation.STORE).getCount());
+        Assert.assertEquals(1L, metrics.getHistogram(Operation.RETRIEVE).getCount());
+        Assert.assertEquals(1L, metrics.getHistogram(Operation.REMOVE).getCount());
+        Assert.assertEquals(3L, metrics.getHistogram(Operation.SYNC).getCount());
+        Assert.assertEquals(3L, metrics.getHistogram(Operation.SERIALIZE).getCount());
+        Assert.assertTrue(metrics.getBytesWritten() > 0L);
+    }
+
+    @Test
+    public void exposesMXBeans() throws Exception {
+        store.store("model1", TestData.MODEL1);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String base = MetricsRegistry.DOMAIN + ":type=JSONStore,path=" + ObjectName.quote(Paths.get(LOCAL_DB_NAME).toAbsolutePath().toString());
+        Assert.assertEquals(1L, server.getAttribute(new ObjectName(base), "EntryCount"));
+        Assert.assertEquals(Files.size(Paths.get(LOCAL_DB_NAME)), server.getAttribute(new ObjectName(base), "FileSize"));
+        Assert.assertEquals(1L, server.getAttribute(new ObjectName(base + ",operation=store"), "Count"));
+
+        store.destroy();
+        Assert.assertFalse(server.isRegistered(new ObjectName(base)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+}
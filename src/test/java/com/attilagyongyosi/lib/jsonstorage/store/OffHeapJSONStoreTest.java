@@ -0,0 +1,57 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-off-heap-db.db";
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void rewritesBackingFile() throws Exception {
+        store = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).offHeap(4).build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+        store.store("model2", TestData.MODEL2);
+        store.remove("model1");
+
+        final JSONStore<TestModel> reopened = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).build(TestModel.class);
+        Assert.assertEquals(1L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model2"));
+    }
+
+    @Test
+    public void compactsJournalWithoutDecodingValues() throws Exception {
+        store = JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled().offHeap(4).build(TestModel.class);
+        for (int i = 0; i < 20; i++) {
+            store.store("model" + i, i % 2 == 0 ? TestData.MODEL1 : TestData.MODEL2);
+        }
+        store.compact();
+        store.store("model20", TestData.MODEL1);
+
+        final JSONStore<TestModel> reopened = JSONStoreBuilder.<TestModel>builder()
+            .path(LOCAL_DB_NAME)
+            .journaled()
+            .offHeap(4)
+            .build(TestModel.class);
+        Assert.assertEquals(21L, reopened.size());
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model19"));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model20"));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void cannotBeLoadedLazily() throws Exception {
+        JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled().lazy(4).offHeap(4).build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.destroy();
+        }
+    }
+}
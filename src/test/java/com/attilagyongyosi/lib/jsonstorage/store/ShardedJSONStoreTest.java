@@ -0,0 +1,143 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ShardedJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-sharded-db.db";
+    private static final int MODELS = 200;
+
+    private ShardedJSONStore<TestModel> store;
+
+    @Test
+    public void partitionsKeysAcrossShards() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).buildSharded(TestModel.class, 4);
+        fill(store);
+
+        Assert.assertEquals(MODELS, store.size());
+        Assert.assertEquals(MODELS, store.retrieveAll().size());
+        Assert.assertEquals(42, store.retrieve("model42").getId());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(Files.size(ShardedJSONStore.shardPath(Paths.get(LOCAL_DB_NAME), i, 4)) > 2);
+        }
+
+        Assert.assertEquals(42, store.remove("model42").getId());
+        Assert.assertNull(store.retrieve("model42"));
+        Assert.assertEquals(MODELS / 2, store.query(TestModel::isActive).count() + 1);
+    }
+
+    @Test
+    public void reloadsShards() throws Exception {
+        store = build(3);
+        fill(store);
+        store.store("extra", TestModel.builder().id(-1).build());
+        store.close();
+
+        store = build(3);
+        Assert.assertEquals(MODELS + 1, store.size());
+        Assert.assertEquals(-1, store.retrieve("extra").getId());
+        Assert.assertEquals(MODELS + 1, store.parallelStream().count());
+    }
+
+    @Test
+    public void reshardsSingleFileStore() throws Exception {
+        final JSONStore<TestModel> single = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        single.storeAll(models());
+        single.close();
+
+        store = build(4);
+        Assert.assertEquals(MODELS, store.size());
+        Assert.assertEquals(7, store.retrieve("model7").getId());
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+
+    @Test
+    public void reshardsIntoMoreShards() throws Exception {
+        store = build(2);
+        fill(store);
+        store.close();
+
+        store = build(5);
+        Assert.assertEquals(MODELS, store.size());
+        for (int i = 0; i < MODELS; i++) {
+            Assert.assertEquals(i, store.retrieve("model" + i).getId());
+        }
+        Assert.assertFalse(Files.exists(ShardedJSONStore.shardPath(Paths.get(LOCAL_DB_NAME), 0, 2)));
+    }
+
+    @Test
+    public void deletesShardsOfInterruptedResharding() throws Exception {
+        store = build(2);
+        fill(store);
+        store.close();
+        final Path leftover = ShardedJSONStore.shardPath(Paths.get(LOCAL_DB_NAME), 1, 3);
+        Files.write(leftover, "{}".getBytes("UTF-8"));
+
+        store = build(2);
+        Assert.assertEquals(MODELS, store.size());
+        Assert.assertFalse(Files.exists(leftover));
+    }
+
+    @Test
+    public void deletesSingleFileStoreOfInterruptedResharding() throws Exception {
+        store = build(2);
+        fill(store);
+        store.close();
+        final JSONStore<TestModel> single = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        single.store("stale", TestModel.builder().id(-1).build());
+        single.close();
+
+        store = build(2);
+        Assert.assertEquals(MODELS, store.size());
+        Assert.assertNull(store.retrieve("stale"));
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+
+    @Test
+    public void routesKeysConsistently() {
+        Assert.assertEquals(ShardedJSONStore.indexOf("model1", 8), ShardedJSONStore.indexOf("model1", 8));
+        Assert.assertTrue(ShardedJSONStore.indexOf("Aa", 3) >= 0);
+        Assert.assertTrue(ShardedJSONStore.indexOf("polygenelubricants", 7) >= 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveShardCount() throws Exception {
+        new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).buildSharded(TestModel.class, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            Assert.assertTrue(store.destroy());
+        }
+        try (Stream<Path> files = Files.list(Paths.get("."))) {
+            Assert.assertFalse(files.anyMatch(file -> file.getFileName().toString().startsWith(LOCAL_DB_NAME)));
+        }
+    }
+
+    private static ShardedJSONStore<TestModel> build(final int shards) throws Exception {
+        return new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().buildSharded(TestModel.class, shards);
+    }
+
+    private static void fill(final ShardedJSONStore<TestModel> store) throws Exception {
+        store.storeAll(models());
+    }
+
+    private static Map<String, TestModel> models() {
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < MODELS; i++) {
+            models.put("model" + i, TestModel.builder().id(i).active(i % 2 == 0).build());
+        }
+        return models;
+    }
+}
@@ -0,0 +1,132 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SharedJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-shared-db.db";
+    private static final int PROCESSES = 3;
+    private static final int MODELS = 40;
+    private static final long COMPACTION_THRESHOLD = 2048;
+
+    private JSONStore<TestModel> store;
+    private JSONStore<TestModel> other;
+
+    /**
+     * Stores {@code MODELS} models in a shared store from a forked JVM.
+     *
+     * @param args the path of the store and the name of the process
+     */
+    public static void main(final String[] args) throws Exception {
+        final JSONStore<TestModel> forked = open(args[0]);
+        for (int i = 0; i < MODELS; i++) {
+            forked.store(args[1] + "-" + i, TestModel.builder().id(i).build());
+        }
+        forked.close();
+    }
+
+    @Test
+    public void sharesStoreBetweenProcesses() throws Exception {
+        store = open(LOCAL_DB_NAME);
+        store.store("parent", TestModel.builder().id(-1).build());
+
+        final List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(fork("process" + i));
+        }
+        for (final Process process : processes) {
+            Assert.assertTrue(process.waitFor(1, TimeUnit.MINUTES));
+            Assert.assertEquals(0, process.exitValue());
+        }
+
+        Assert.assertEquals(PROCESSES * MODELS + 1, store.size());
+        Assert.assertEquals(MODELS - 1, store.retrieve("process2-" + (MODELS - 1)).getId());
+        store.remove("parent");
+        store.close();
+
+        store = open(LOCAL_DB_NAME);
+        Assert.assertEquals(PROCESSES * MODELS, store.size());
+        Assert.assertNull(store.retrieve("parent"));
+    }
+
+    @Test
+    public void catchesUpWithOtherStores() throws Exception {
+        store = open(LOCAL_DB_NAME);
+        other = open(LOCAL_DB_NAME);
+        final List<ChangeEvent<TestModel>> events = new ArrayList<>();
+        other.addListener(events::add);
+
+        store.store("first", TestModel.builder().id(1).build());
+        Assert.assertEquals(1, other.retrieve("first").getId());
+        Assert.assertEquals(ChangeEvent.Type.PUT, events.get(0).getType());
+
+        other.store("second", TestModel.builder().id(2).build());
+        store.remove("first");
+        store.compact();
+        Assert.assertNull(other.retrieve("first"));
+        Assert.assertEquals(2, other.retrieve("second").getId());
+
+        other.store("third", TestModel.builder().id(3).build());
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(3, store.retrieve("third").getId());
+        other.close();
+    }
+
+    @Test
+    public void sharesLockBetweenPathsOfTheSameFile() throws Exception {
+        store = open(LOCAL_DB_NAME);
+        other = open(Paths.get(LOCAL_DB_NAME).toAbsolutePath().toString());
+
+        final CompletableFuture<Void> writes = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < MODELS; i++) {
+                store.storeAsync("store-" + i, TestModel.builder().id(i).build()).join();
+            }
+        });
+        for (int i = 0; i < MODELS; i++) {
+            other.store("other-" + i, TestModel.builder().id(i).build());
+        }
+        writes.get(1, TimeUnit.MINUTES);
+
+        Assert.assertEquals(2 * MODELS, store.size());
+        Assert.assertEquals(2 * MODELS, other.size());
+        other.close();
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void rejectsUnjournaledStores() throws Exception {
+        new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).shared().build(TestModel.class);
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void rejectsEvictingStores() throws Exception {
+        new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().shared().expiring().build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            Assert.assertTrue(store.destroy());
+        }
+    }
+
+    private static JSONStore<TestModel> open(final String path) throws StoreCreationException {
+        return new JSONStoreBuilder<TestModel>().path(path).journaled().shared().compactionThreshold(COMPACTION_THRESHOLD).build(TestModel.class);
+    }
+
+    private static Process fork(final String name) throws Exception {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SharedJSONStoreTest.class.getName(), LOCAL_DB_NAME, name)
+            .inheritIO()
+            .start();
+    }
+}
@@ -0,0 +1,118 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SnapshotTest {
+    private static final String LOCAL_DB_NAME = "local-snapshot-db.db";
+    private static final String EXPORT_NAME = "local-snapshot-export.db";
+    private static final int MODELS = 500;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void keepsPointInTimeView() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled(), MODELS);
+
+        try (Snapshot<TestModel> snapshot = store.snapshot()) {
+            store.store("model1", TestModel.builder().id(-1).build());
+            store.store("added", TestModel.builder().id(-2).build());
+            store.remove("model2");
+
+            Assert.assertEquals(1, snapshot.retrieve("model1").getId());
+            Assert.assertEquals(2, snapshot.retrieve("model2").getId());
+            Assert.assertNull(snapshot.retrieve("added"));
+            Assert.assertEquals(MODELS, snapshot.stream().count());
+            Assert.assertEquals((MODELS - 1) * MODELS / 2, snapshot.stream().mapToInt(TestModel::getId).sum());
+
+            store.clear();
+            Assert.assertEquals(0, store.size());
+            Assert.assertEquals(MODELS, snapshot.stream().count());
+            Assert.assertEquals(3, snapshot.retrieve("model3").getId());
+        }
+    }
+
+    @Test
+    public void exportsWhileWritersContinue() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().offHeap(10), MODELS);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread writer = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                store.storeAsync("model" + i % MODELS, TestModel.builder().id(-i).build());
+                store.removeAsync("model" + (i + 1) % MODELS);
+                store.storeAsync("added" + i, TestModel.builder().id(-i).build());
+                i++;
+            }
+        });
+
+        final Snapshot<TestModel> snapshot = store.snapshot();
+        writer.start();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long exported;
+        try {
+            exported = snapshot.export(out);
+        } finally {
+            running.set(false);
+            writer.join();
+            snapshot.close();
+        }
+
+        final Map<String, TestModel> models = JSONUtils.getMapper().readValue(out.toByteArray(), new TypeReference<Map<String, TestModel>>() { });
+        Assert.assertEquals(MODELS, exported);
+        Assert.assertEquals(MODELS, models.size());
+        for (int i = 0; i < MODELS; i++) {
+            Assert.assertEquals(i, models.get("model" + i).getId());
+        }
+    }
+
+    @Test
+    public void exportsToStoreFile() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).format(StoreFormat.SMILE), MODELS);
+
+        try (Snapshot<TestModel> snapshot = store.snapshot()) {
+            store.remove("model7");
+            Assert.assertEquals(MODELS, snapshot.export(Paths.get(EXPORT_NAME)));
+        }
+
+        final JSONStore<TestModel> exported = new JSONStoreBuilder<TestModel>().path(EXPORT_NAME).build(TestModel.class);
+        try {
+            Assert.assertEquals(MODELS, exported.size());
+            Assert.assertEquals(7, exported.retrieve("model7").getId());
+        } finally {
+            exported.destroy();
+        }
+        Assert.assertFalse(Files.exists(Paths.get(EXPORT_NAME + "-exporting")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsReadsOnceClosed() throws Exception {
+        store = StoreFixtures.filled(new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled(), MODELS);
+
+        final Snapshot<TestModel> snapshot = store.snapshot();
+        store.store("model1", TestModel.builder().id(-1).build());
+        snapshot.close();
+        snapshot.retrieve("model1");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Files.deleteIfExists(Paths.get(EXPORT_NAME));
+        final Path file = Paths.get(LOCAL_DB_NAME);
+        Assert.assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,152 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+public class StoreCodecTest {
+    private static final String LOCAL_DB_NAME = "local-codec-db.db";
+    private static final String LOCAL_DB_DIRECTORY = "local-codec-database";
+    private static final int MODELS = 5000;
+
+    /**
+     * Writes points as {@code "x,y"} strings. Without it, points can be neither serialized nor deserialized.
+     */
+    private static final SimpleModule POINTS = new SimpleModule()
+        .addSerializer(Point.class, new JsonSerializer<Point>() {
+            @Override
+            public void serialize(final Point point, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+                generator.writeString(point.x + "," + point.y);
+            }
+        })
+        .addDeserializer(Point.class, new JsonDeserializer<Point>() {
+            @Override
+            public Point deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+                final String[] coordinates = parser.getValueAsString().split(",");
+                return new Point(Integer.parseInt(coordinates[0]), Integer.parseInt(coordinates[1]));
+            }
+        });
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void writesThroughReusedBuffer() throws Exception {
+        final StoreCodec<TestModel> codec = new StoreCodec<>(StoreFormat.JSON, StoreFormat.PRETTY_JSON, TestModel.class, false,
+            Collections.emptyList());
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < MODELS; i++) {
+            models.put("model" + i, TestModel.builder().id(i).property("property" + i).build());
+        }
+
+        for (int round = 0; round < 2; round++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.write(models, Channels.newChannel(out));
+            final Map<String, TestModel> written = JSONUtils.getMapper().readValue(out.toByteArray(), new TypeReference<Map<String, TestModel>>() { });
+            Assert.assertEquals(models, written);
+        }
+    }
+
+    @Test
+    public void registersModules() throws Exception {
+        final SimpleModule module = new SimpleModule().addSerializer(TestModel.class, new JsonSerializer<TestModel>() {
+            @Override
+            public void serialize(final TestModel model, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+                generator.writeStartObject();
+                generator.writeNumberField("id", -model.getId());
+                generator.writeEndObject();
+            }
+        });
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).modules(module).build(TestModel.class);
+        store.store("model1", TestModel.builder().id(1).build());
+        store.close();
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        Assert.assertEquals(-1, store.retrieve("model1").getId());
+        Assert.assertTrue(JSONUtils.getMapper().readTree(Files.readAllBytes(Paths.get(LOCAL_DB_NAME))).path("model1").has("id"));
+    }
+
+    @Test
+    public void roundTripsTypesSerializedByModules() throws Exception {
+        final List<UnaryOperator<JSONStoreBuilder<Point>>> modes = Arrays.asList(
+            JSONStoreBuilder::journaled,
+            builder -> builder.journaled().lazy(1),
+            builder -> builder.offHeap(1),
+            builder -> builder.mapped(1),
+            builder -> builder.journaled().maxBytes(1024 * 1024));
+
+        for (final UnaryOperator<JSONStoreBuilder<Point>> mode : modes) {
+            JSONStore<Point> points = mode.apply(new JSONStoreBuilder<Point>().path(LOCAL_DB_NAME).modules(POINTS)).build(Point.class);
+            points.store("origin", new Point(0, 0));
+            points.store("point", new Point(1, 2));
+            points.close();
+
+            points = mode.apply(new JSONStoreBuilder<Point>().path(LOCAL_DB_NAME).modules(POINTS)).build(Point.class);
+            Assert.assertEquals(new Point(1, 2), points.retrieve("point"));
+            Assert.assertEquals(2, points.size());
+            Assert.assertTrue(points.destroy());
+        }
+    }
+
+    @Test
+    public void roundTripsTypesSerializedByModulesThroughDatabaseJournal() throws Exception {
+        final JSONDatabaseBuilder builder = JSONDatabaseBuilder.builder().directory(LOCAL_DB_DIRECTORY)
+            .collection("points", Point.class, collection -> collection.modules(POINTS));
+        JSONDatabase database = builder.build();
+        database.collection("points", Point.class).store("point", new Point(1, 2));
+        database.close();
+
+        database = builder.build();
+        Assert.assertEquals(new Point(1, 2), database.collection("points", Point.class).retrieve("point"));
+        Assert.assertTrue(database.destroy());
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            Assert.assertTrue(store.destroy());
+        }
+    }
+
+    private static final class Point {
+        private final int x;
+        private final int y;
+
+        Point(final int x, final int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Point && ((Point) other).x == this.x && ((Point) other).y == this.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.x + this.y;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds stores pre-filled with test models, shared by the tests of the store package.
+ */
+final class StoreFixtures {
+    private StoreFixtures() {}
+
+    /**
+     * Builds a store and stores {@code count} models in it with a single batch, keyed {@code model<id>},
+     * every second one of them active.
+     */
+    static JSONStore<TestModel> filled(final JSONStoreBuilder<TestModel> builder, final int count) throws Exception {
+        final JSONStore<TestModel> store = builder.build(TestModel.class);
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            models.put("model" + i, TestModel.builder().id(i).active(i % 2 == 0).build());
+        }
+        store.storeAll(models);
+        return store;
+    }
+}
@@ -0,0 +1,122 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class StoreFormatTest {
+    private static final String LOCAL_DB_NAME = "local-format-db.db";
+    private static final Path LOCAL_DB_PATH = Paths.get(LOCAL_DB_NAME);
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void readsEveryFormatWithoutBeingTold() throws Exception {
+        for (final StoreFormat format : StoreFormat.values()) {
+            store = builder().format(format).build(TestModel.class);
+            store.store("model1", TestData.MODEL1);
+            store.store("model2", TestData.MODEL2);
+
+            Assert.assertEquals(format == StoreFormat.PRETTY_JSON ? StoreFormat.JSON : format, StoreFormat.detect(LOCAL_DB_PATH));
+            final JSONStore<TestModel> reopened = builder().build(TestModel.class);
+            Assert.assertEquals(2L, reopened.size());
+            Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model1"));
+            Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model2"));
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void keepsFormatOfExistingFile() throws Exception {
+        store = builder().format(StoreFormat.SMILE).build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+
+        final JSONStore<TestModel> reopened = builder().build(TestModel.class);
+        reopened.store("model2", TestData.MODEL2);
+        Assert.assertEquals(StoreFormat.SMILE, StoreFormat.detect(LOCAL_DB_PATH));
+    }
+
+    @Test
+    public void writesSmallerFilesThanPrettyJson() throws Exception {
+        long previousSize = Long.MAX_VALUE;
+        for (final StoreFormat format : new StoreFormat[] { StoreFormat.PRETTY_JSON, StoreFormat.JSON, StoreFormat.SMILE }) {
+            store = builder().format(format).build(TestModel.class);
+            for (int i = 0; i < 10; i++) {
+                store.store("model" + i, TestData.MODEL1);
+            }
+            final long size = Files.size(LOCAL_DB_PATH);
+            Assert.assertTrue(format + " should be smaller", size < previousSize);
+            previousSize = size;
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void migratesRewrittenStore() throws Exception {
+        store = builder().build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+
+        final JSONStore<TestModel> migrated = builder().format(StoreFormat.CBOR).build(TestModel.class);
+        Assert.assertEquals(StoreFormat.CBOR, StoreFormat.detect(LOCAL_DB_PATH));
+        Assert.assertEquals(TestData.MODEL1, migrated.retrieve("model1"));
+
+        builder().format(StoreFormat.PRETTY_JSON).build(TestModel.class);
+        Assert.assertEquals(StoreFormat.JSON, StoreFormat.detect(LOCAL_DB_PATH));
+        Assert.assertEquals(TestData.MODEL1, builder().build(TestModel.class).retrieve("model1"));
+    }
+
+    @Test
+    public void migratesJournaledStore() throws Exception {
+        store = builder().journaled().build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+        store.compact();
+        store.store("model2", TestData.MODEL2);
+
+        final JSONStore<TestModel> migrated = builder().journaled().format(StoreFormat.SMILE).build(TestModel.class);
+        Assert.assertEquals(StoreFormat.SMILE, StoreFormat.detect(LOCAL_DB_PATH));
+        Assert.assertEquals(2L, migrated.size());
+
+        final JSONStore<TestModel> reopened = builder().journaled().build(TestModel.class);
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model1"));
+        Assert.assertEquals(TestData.MODEL2, reopened.retrieve("model2"));
+    }
+
+    @Test
+    public void writesOffHeapValuesInBinaryFormat() throws Exception {
+        store = builder().offHeap(4).format(StoreFormat.CBOR).build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+
+        final JSONStore<TestModel> reopened = builder().offHeap(4).build(TestModel.class);
+        Assert.assertEquals(StoreFormat.CBOR, StoreFormat.detect(LOCAL_DB_PATH));
+        Assert.assertEquals(TestData.MODEL1, reopened.retrieve("model1"));
+    }
+
+    @Test(expected = StoreCreationException.class)
+    public void cannotLoadBinaryStoreLazily() throws Exception {
+        store = builder().journaled().format(StoreFormat.SMILE).build(TestModel.class);
+        store.store("model1", TestData.MODEL1);
+        store.compact();
+
+        builder().journaled().lazy(4).build(TestModel.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.destroy();
+        }
+        Files.deleteIfExists(LOCAL_DB_PATH);
+    }
+
+    private static JSONStoreBuilder<TestModel> builder() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME);
+    }
+}
@@ -0,0 +1,56 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+public class StreamJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-stream-db.db";
+    private static final int MODELS = 1000;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void streamsObjects() throws Exception {
+        store = StoreFixtures.filled(JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME), MODELS);
+
+        Assert.assertEquals(MODELS, store.stream().count());
+        Assert.assertEquals((MODELS - 1) * MODELS / 2, store.parallelStream().mapToInt(TestModel::getId).sum());
+    }
+
+    @Test
+    public void queriesObjects() throws Exception {
+        store = StoreFixtures.filled(JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled().offHeap(10), MODELS);
+
+        Assert.assertEquals(MODELS / 2, store.query(TestModel::isActive).parallel().count());
+        Assert.assertEquals(10L, store.query(model -> model.getId() % 7 == 0).limit(10).count());
+
+        final Optional<TestModel> first = store.query(model -> model.getId() == 42).findFirst();
+        Assert.assertEquals(42, first.get().getId());
+    }
+
+    @Test
+    public void toleratesConcurrentMutations() throws Exception {
+        store = StoreFixtures.filled(JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).journaled(), MODELS);
+
+        final Map<Integer, Long> byActive = store.stream().peek(model -> {
+            if (model.getId() % 10 == 0) {
+                store.storeAsync("added" + model.getId(), model);
+            }
+        }).collect(Collectors.groupingBy(model -> model.getId() % 2, Collectors.counting()));
+        Assert.assertTrue(byActive.get(0) >= MODELS / 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Assert.assertFalse(Files.exists(Paths.get(LOCAL_DB_NAME)));
+    }
+}
@@ -0,0 +1,129 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StorageException;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.StoreCreationException;
+import com.attilagyongyosi.lib.jsonstorage.utils.StoreFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Injects faults at every point of a rewrite of the backing file and checks that no committed entry is lost.
+ */
+public class SyncRecoveryTest {
+    private static final String LOCAL_DB_NAME = "local-sync-db.db";
+    private static final Path FILE = Paths.get(LOCAL_DB_NAME);
+    private static final Path SNAPSHOT = Paths.get(LOCAL_DB_NAME + "-snapshot");
+    private static final Path BACKUP = Paths.get(LOCAL_DB_NAME + "-backup");
+
+    private JSONStore<TestModel> store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = open();
+        store.store("model1", TestData.MODEL1);
+    }
+
+    @Test
+    public void leavesNoSnapshotBehind() throws Exception {
+        store.store("model2", TestData.MODEL2);
+
+        Assert.assertFalse(Files.exists(SNAPSHOT));
+        Assert.assertEquals(2L, open().size());
+    }
+
+    @Test
+    public void discardsSnapshotsInterruptedAtAnyPoint() throws Exception {
+        final Map<String, TestModel> next = new HashMap<>();
+        next.put("model1", TestData.MODEL1);
+        next.put("model2", TestData.MODEL2);
+        final byte[] snapshot = StoreFormat.PRETTY_JSON.getMapper().writeValueAsBytes(next);
+
+        for (int length = 0; length <= snapshot.length; length++) {
+            Files.write(SNAPSHOT, Arrays.copyOf(snapshot, length));
+
+            final JSONStore<TestModel> recovered = open();
+            Assert.assertEquals(1L, recovered.size());
+            Assert.assertEquals(TestData.MODEL1, recovered.retrieve("model1"));
+            Assert.assertFalse(Files.exists(SNAPSHOT));
+        }
+    }
+
+    @Test
+    public void keepsBackingFileWhenSnapshotCanNotBeWritten() throws Exception {
+        Files.createDirectories(SNAPSHOT.resolve("blocker"));
+        final byte[] committed = Files.readAllBytes(FILE);
+        try {
+            store.store("model2", TestData.MODEL2);
+            Assert.fail("Storing should fail when the snapshot can not be written!");
+        } catch (final StorageException se) {
+            Assert.assertArrayEquals(committed, Files.readAllBytes(FILE));
+        } finally {
+            Files.delete(SNAPSHOT.resolve("blocker"));
+            Files.delete(SNAPSHOT);
+        }
+        Assert.assertEquals(TestData.MODEL1, open().retrieve("model1"));
+    }
+
+    @Test
+    public void keepsBackingFileWhenSerializationFails() throws Exception {
+        final JSONStore<Object> objects = JSONStoreBuilder.<Object>builder().path(LOCAL_DB_NAME).build(Object.class);
+        final byte[] committed = Files.readAllBytes(FILE);
+        try {
+            objects.store("broken", new Broken());
+            Assert.fail("Storing should fail when the value can not be serialized!");
+        } catch (final StorageException se) {
+            Assert.assertArrayEquals(committed, Files.readAllBytes(FILE));
+            Assert.assertFalse(Files.exists(SNAPSHOT));
+        }
+
+        objects.remove("broken");
+        Assert.assertEquals(TestData.MODEL1, open().retrieve("model1"));
+    }
+
+    @Test
+    public void restoresBackupOfSyncInterruptedByOlderVersions() throws Exception {
+        final byte[] committed = Files.readAllBytes(FILE);
+        for (int length = 0; length < committed.length; length++) {
+            Files.write(BACKUP, committed);
+            Files.write(FILE, Arrays.copyOf(committed, length));
+
+            final JSONStore<TestModel> recovered = open();
+            Assert.assertEquals(TestData.MODEL1, recovered.retrieve("model1"));
+            Assert.assertFalse(Files.exists(BACKUP));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.destroy();
+        Assert.assertFalse(Files.exists(FILE));
+    }
+
+    private static JSONStore<TestModel> open() throws StoreCreationException {
+        return JSONStoreBuilder.<TestModel>builder().path(LOCAL_DB_NAME).build(TestModel.class);
+    }
+
+    /**
+     * A value failing to serialize halfway through.
+     */
+    public static final class Broken {
+        public String getName() {
+            return "broken";
+        }
+
+        public String getValue() {
+            throw new IllegalStateException("Can not be serialized!");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class TimingWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    public void expiresTimersOnceTheirTickHasPassed() {
+        final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, 0);
+        wheel.schedule("early", 15);
+        wheel.schedule("late", 42);
+
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(19));
+        Assert.assertEquals(Collections.singletonList("early"), wheel.advance(25));
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(49));
+        Assert.assertEquals(Collections.singletonList("late"), wheel.advance(50));
+    }
+
+    @Test
+    public void keepsTimersDueAfterMoreThanOneRevolution() {
+        final TimingWheel<String> wheel = new TimingWheel<>(TICK, 4, 0);
+        wheel.schedule("soon", 20);
+        wheel.schedule("revolution", 60);
+
+        Assert.assertEquals(Collections.singletonList("soon"), wheel.advance(20));
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(59));
+        Assert.assertEquals(Collections.singletonList("revolution"), wheel.advance(60));
+    }
+
+    @Test
+    public void skipsCancelledTimers() {
+        final TimingWheel<String> wheel = new TimingWheel<>(TICK, 4, 0);
+        final TimingWheel.Timer<String> cancelled = wheel.schedule("cancelled", 15);
+        wheel.schedule("kept", 18);
+        wheel.cancel(cancelled);
+
+        Assert.assertEquals(Collections.singletonList("kept"), wheel.peek(15));
+        Assert.assertEquals(Collections.singletonList("kept"), wheel.advance(20));
+        Assert.assertEquals(Collections.emptyList(), wheel.peek(20));
+    }
+
+    @Test
+    public void catchesUpAfterIdlePeriods() {
+        final TimingWheel<String> wheel = new TimingWheel<>(TICK, 4, 0);
+        wheel.schedule("first", 10);
+        wheel.schedule("second", 70);
+        wheel.schedule("third", 1000);
+        wheel.schedule("past", -50);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("first", "second", "past")), new HashSet<>(wheel.advance(500)));
+        Assert.assertEquals(Collections.singletonList("third"), wheel.advance(1000));
+    }
+}
@@ -0,0 +1,108 @@
+package com.attilagyongyosi.lib.jsonstorage.store;
+
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class VersionedJSONStoreTest {
+    private static final String LOCAL_DB_NAME = "local-versioned-db.db";
+    private static final int THREADS = 8;
+    private static final int UPDATES = 250;
+
+    private JSONStore<TestModel> store;
+
+    @Test
+    public void versionsEveryMutation() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        Assert.assertNull(store.retrieveVersioned("model"));
+        Assert.assertTrue(store.compareAndStore("model", Versioned.ABSENT, model(1)));
+        Assert.assertFalse(store.compareAndStore("model", Versioned.ABSENT, model(2)));
+
+        final Versioned<TestModel> first = store.retrieveVersioned("model");
+        Assert.assertEquals(1, first.getValue().getId());
+        store.store("model", model(3));
+        final Versioned<TestModel> second = store.retrieveVersioned("model");
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+
+        Assert.assertFalse(store.compareAndStore("model", first.getVersion(), model(4)));
+        Assert.assertEquals(3, store.retrieve("model").getId());
+        Assert.assertTrue(store.compareAndStore("model", second.getVersion(), model(5)));
+        store.close();
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).build(TestModel.class);
+        Assert.assertEquals(0, store.retrieveVersioned("model").getVersion());
+        Assert.assertTrue(store.compareAndStore("model", 0, model(6)));
+        Assert.assertEquals(6, store.retrieve("model").getId());
+    }
+
+    @Test
+    public void computesAndMergesAtomically() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        Assert.assertNull(store.computeIfPresent("counter", (key, model) -> model(model.getId() + 1)));
+        Assert.assertNull(store.retrieve("counter"));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < UPDATES; j++) {
+                    store.merge("counter", model(1), (stored, one) -> model(stored.getId() + one.getId()));
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertEquals(THREADS * UPDATES, store.retrieve("counter").getId());
+
+        Assert.assertEquals(0, store.computeIfPresent("counter", (key, model) -> model(0)).getId());
+        Assert.assertNull(store.merge("counter", model(1), (stored, one) -> null));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void retriesConflictingUpdates() throws Exception {
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        store.store("counter", model(0));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < UPDATES; j++) {
+                    Versioned<TestModel> current = store.retrieveVersioned("counter");
+                    while (!store.compareAndStore("counter", current.getVersion(), model(current.getValue().getId() + 1))) {
+                        current = store.retrieveVersioned("counter");
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        store.close();
+
+        store = new JSONStoreBuilder<TestModel>().path(LOCAL_DB_NAME).journaled().build(TestModel.class);
+        Assert.assertEquals(THREADS * UPDATES, store.retrieve("counter").getId());
+    }
+
+    @After
+    public void tearDown() {
+        Assert.assertTrue(store.destroy());
+    }
+
+    private static TestModel model(final int id) {
+        return TestModel.builder().id(id).build();
+    }
+}
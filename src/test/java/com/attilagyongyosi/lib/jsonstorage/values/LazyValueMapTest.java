@@ -0,0 +1,122 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LazyValueMapTest {
+    private static final Path FILE = Paths.get("local-lazy-map.db");
+
+    private LazyValueMap<TestModel> map;
+
+    @Test
+    public void indexesKeysWithoutDecodingValues() throws Exception {
+        map = load(models(), 10);
+
+        Assert.assertEquals(5, map.size());
+        Assert.assertTrue(map.containsKey("model3"));
+        Assert.assertEquals(0, map.cachedValues());
+
+        Assert.assertEquals(TestData.MODEL1, map.get("model0"));
+        Assert.assertEquals(TestData.MODEL2, map.get("model1"));
+        Assert.assertEquals(2, map.cachedValues());
+    }
+
+    @Test
+    public void boundsNumberOfDecodedValues() throws Exception {
+        map = load(models(), 2);
+
+        for (final TestModel value : map.values()) {
+            Assert.assertNotNull(value);
+        }
+        Assert.assertEquals(2, map.cachedValues());
+        Assert.assertEquals(TestData.MODEL1, map.get("model4"));
+    }
+
+    @Test
+    public void indexesScalarValues() throws Exception {
+        write("{ \"a\": \"text with \\\"quotes\\\"\", \"b\": 42, \"c\": null, \"d\": true }");
+        final LazyValueMap<Object> scalars = LazyValueMap.load(FILE, Object.class, 10);
+
+        Assert.assertEquals(3, scalars.size());
+        Assert.assertEquals("text with \"quotes\"", scalars.get("a"));
+        Assert.assertEquals(42, scalars.get("b"));
+        Assert.assertEquals(true, scalars.get("d"));
+        scalars.close();
+    }
+
+    @Test
+    public void serializesRawValuesWithoutDecodingThem() throws Exception {
+        write("{ \"valid\": { \"id\": 1 }, \"unmappable\": { \"id\": false } }");
+        map = LazyValueMap.load(FILE, TestModel.class, 10);
+        map.put("stored", TestData.MODEL2);
+
+        final JsonNode serialized = JSONUtils.getMapper().readTree(JSONUtils.getMapper().writeValueAsString(map.copy()));
+        Assert.assertFalse(serialized.get("unmappable").get("id").asBoolean());
+        Assert.assertEquals(1, serialized.get("valid").get("id").asInt());
+        Assert.assertEquals(TestData.MODEL2, JSONUtils.getMapper().treeToValue(serialized.get("stored"), TestModel.class));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void failsToRetrieveUnmappableValue() throws Exception {
+        write("{ \"unmappable\": { \"id\": false } }");
+        map = LazyValueMap.load(FILE, TestModel.class, 10);
+        map.get("unmappable");
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void failsOnInvalidFile() throws Exception {
+        write("{ \"model\": { \"id\": 1 ");
+        LazyValueMap.load(FILE, TestModel.class, 10);
+    }
+
+    @Test
+    public void supportsConditionalUpdates() throws Exception {
+        map = load(models(), 10);
+
+        Assert.assertFalse(map.replace("model0", TestData.MODEL2, TestData.MODEL2));
+        Assert.assertTrue(map.replace("model0", TestData.MODEL1, TestData.MODEL2));
+        Assert.assertEquals(TestData.MODEL2, map.get("model0"));
+        Assert.assertTrue(map.remove("model0", TestData.MODEL2));
+        Assert.assertNull(map.putIfAbsent("model0", TestData.MODEL1));
+        Assert.assertEquals(TestData.MODEL1, map.putIfAbsent("model0", TestData.MODEL2));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (map != null) {
+            map.close();
+        }
+        Files.deleteIfExists(FILE);
+    }
+
+    private static Map<String, TestModel> models() {
+        final Map<String, TestModel> models = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            models.put("model" + i, i % 2 == 0 ? TestData.MODEL1 : TestData.MODEL2);
+        }
+        return models;
+    }
+
+    private static LazyValueMap<TestModel> load(final Map<String, TestModel> contents, final int cacheSize) throws Exception {
+        write(JSONUtils.getMapper().writeValueAsString(contents));
+        return LazyValueMap.load(FILE, TestModel.class, cacheSize);
+    }
+
+    private static void write(final String contents) throws Exception {
+        Files.write(FILE, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,149 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class MappedValueMapTest {
+    private static final Path FILE = Paths.get("local-mapped-map.db");
+    private static final int CHUNK_SIZE = 256;
+
+    private MappedValueMap<String> map;
+
+    @Test
+    public void reopensWithWrittenEntries() throws Exception {
+        map = open();
+        map.put("a", "first");
+        map.put("b", "second");
+        map.put("a", "third");
+        map.remove("b");
+        map.put("c", "fourth");
+        map.force();
+
+        reopen();
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("third", map.get("a"));
+        Assert.assertNull(map.get("b"));
+        Assert.assertEquals("fourth", map.get("c"));
+    }
+
+    @Test
+    public void spreadsRecordsOverChunks() throws Exception {
+        map = open();
+        for (int i = 0; i < 50; i++) {
+            map.put("key" + i, "value of key " + i);
+        }
+        Assert.assertTrue(Files.size(FILE) > CHUNK_SIZE);
+
+        reopen();
+        Assert.assertEquals(50, map.size());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value of key " + i, map.get("key" + i));
+        }
+    }
+
+    @Test
+    public void replaysClear() throws Exception {
+        map = open();
+        map.put("a", "first");
+        map.clear();
+        map.put("b", "second");
+
+        reopen();
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("second", map.get("b"));
+    }
+
+    @Test
+    public void discardsTornRecord() throws Exception {
+        map = open();
+        map.put("a", "first");
+        map.put("b", "second");
+        map.close();
+
+        final byte[] contents = Files.readAllBytes(FILE);
+        final int value = new String(contents, StandardCharsets.ISO_8859_1).indexOf("second");
+        contents[value] = 'S';
+        Files.write(FILE, contents);
+
+        map = open();
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("first", map.get("a"));
+
+        map.put("c", "third");
+        reopen();
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("third", map.get("c"));
+    }
+
+    @Test
+    public void compactsStaleRecords() throws Exception {
+        map = open();
+        for (int i = 0; i < 50; i++) {
+            map.put("a", "version " + i);
+        }
+        map.put("b", "kept");
+        final long size = Files.size(FILE);
+
+        Assert.assertFalse(map.compactIfDue(size * 2));
+        Assert.assertTrue(map.compactIfDue(0));
+        Assert.assertTrue(Files.size(FILE) < size);
+        Assert.assertEquals("version 49", map.get("a"));
+
+        map.put("c", "after compaction");
+        reopen();
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("version 49", map.get("a"));
+        Assert.assertEquals("kept", map.get("b"));
+        Assert.assertEquals("after compaction", map.get("c"));
+    }
+
+    @Test
+    public void decodesValuesFromMapping() throws Exception {
+        final MappedValueMap<TestModel> models = MappedValueMap.open(FILE, TestModel.class, 1, CHUNK_SIZE);
+        models.put("model1", TestData.MODEL1);
+        models.put("model2", TestData.MODEL2);
+        Assert.assertEquals(1, models.cachedValues());
+        Assert.assertEquals(TestData.MODEL1, models.get("model1"));
+        Assert.assertEquals(TestData.MODEL2, models.get("model2"));
+        models.close();
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void rejectsRecordsLargerThanChunks() throws Exception {
+        map = open();
+        map.put("a", new String(new char[CHUNK_SIZE]).replace('\0', 'x'));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnJsonFile() throws Exception {
+        Files.write(FILE, "{ \"a\": \"first\" }".getBytes(StandardCharsets.UTF_8));
+        open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (map != null) {
+            map.close();
+        }
+        Files.deleteIfExists(FILE);
+    }
+
+    private void reopen() throws IOException {
+        map.close();
+        map = open();
+    }
+
+    private static MappedValueMap<String> open() throws IOException {
+        return MappedValueMap.open(FILE, String.class, 10, CHUNK_SIZE);
+    }
+}
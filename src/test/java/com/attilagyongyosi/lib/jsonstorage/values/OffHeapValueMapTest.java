@@ -0,0 +1,115 @@
+package com.attilagyongyosi.lib.jsonstorage.values;
+
+import com.attilagyongyosi.lib.jsonstorage.TestData;
+import com.attilagyongyosi.lib.jsonstorage.domain.TestModel;
+import com.attilagyongyosi.lib.jsonstorage.exceptions.InvalidJsonException;
+import com.attilagyongyosi.lib.jsonstorage.utils.JSONUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Spliterator;
+
+public class OffHeapValueMapTest {
+    private static final Path FILE = Paths.get("local-off-heap-map.db");
+    private static final int CHUNK_SIZE = 1024;
+
+    @Test
+    public void decodesValuesOnRetrieval() {
+        final OffHeapValueMap<TestModel> map = new OffHeapValueMap<>(TestModel.class, 1);
+        map.put("model1", TestData.MODEL1);
+        map.put("model2", TestData.MODEL2);
+
+        Assert.assertEquals(1, map.cachedValues());
+        Assert.assertEquals(TestData.MODEL1, map.get("model1"));
+        Assert.assertEquals(TestData.MODEL2, map.get("model2"));
+        Assert.assertEquals(TestData.MODEL1, map.put("model1", TestData.MODEL2));
+        Assert.assertEquals(TestData.MODEL2, map.remove("model1"));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void splitsValuesForParallelDecoding() {
+        final OffHeapValueMap<TestModel> map = new OffHeapValueMap<>(TestModel.class, 1);
+        for (int i = 0; i < 1000; i++) {
+            map.put("model" + i, TestModel.builder().id(i).build());
+        }
+
+        final Spliterator<TestModel> values = map.values().spliterator();
+        Assert.assertNotNull(values.trySplit());
+        Assert.assertEquals(999 * 1000 / 2, map.values().parallelStream().mapToInt(TestModel::getId).sum());
+    }
+
+    @Test
+    public void loadsRawValuesFromFile() throws Exception {
+        write("{ \"a\": { \"id\": 1, \"active\": true }, \"b\": null, \"c\": \"text\", \"d\": [1, 2] }");
+        final OffHeapValueMap<Object> map = OffHeapValueMap.load(FILE, Object.class, 10);
+
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals(0, map.cachedValues());
+        Assert.assertEquals("text", map.get("c"));
+
+        final JsonNode serialized = JSONUtils.getMapper().readTree(JSONUtils.getMapper().writeValueAsString(map));
+        Assert.assertEquals(1, serialized.get("a").get("id").asInt());
+        Assert.assertEquals(2, serialized.get("d").size());
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void failsOnInvalidFile() throws Exception {
+        write("[ 1, 2 ]");
+        OffHeapValueMap.load(FILE, Object.class, 10);
+    }
+
+    @Test
+    public void compactsOverwrittenValues() {
+        final OffHeapValueMap<String> map = new OffHeapValueMap<>(String.class, 10, CHUNK_SIZE);
+        final Map<String, String> copy = copyWhileOverwriting(map);
+
+        Assert.assertTrue(map.allocatedBytes() < 8L * CHUNK_SIZE);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("version 999 of key " + i, map.get("key" + i));
+            Assert.assertEquals("version 0 of key " + i, copy.get("key" + i));
+        }
+    }
+
+    @Test
+    public void supportsConditionalUpdates() {
+        final OffHeapValueMap<TestModel> map = new OffHeapValueMap<>(TestModel.class, 10);
+        map.put("model0", TestData.MODEL1);
+
+        Assert.assertFalse(map.replace("model0", TestData.MODEL2, TestData.MODEL2));
+        Assert.assertTrue(map.replace("model0", TestData.MODEL1, TestData.MODEL2));
+        Assert.assertEquals(TestData.MODEL2, map.get("model0"));
+        Assert.assertTrue(map.remove("model0", TestData.MODEL2));
+        Assert.assertNull(map.putIfAbsent("model0", TestData.MODEL1));
+        Assert.assertEquals(TestData.MODEL1, map.putIfAbsent("model0", TestData.MODEL2));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(FILE);
+    }
+
+    private static Map<String, String> copyWhileOverwriting(final OffHeapValueMap<String> map) {
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, "version 0 of key " + i);
+        }
+        final Map<String, String> copy = map.copy();
+        for (int version = 1; version < 1000; version++) {
+            for (int i = 0; i < 10; i++) {
+                map.put("key" + i, "version " + version + " of key " + i);
+            }
+        }
+        return copy;
+    }
+
+    private static void write(final String contents) throws Exception {
+        Files.write(FILE, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}